@@ -0,0 +1,189 @@
+package com.vizio.beacon;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+// Each migration from the schema exported for the version before it (see
+// app/schemas), checked against the one exported for the version after.
+// Databases created from an exported schema have no triggers; the steps
+// that rely on them create them first. Migrating from version 1 is in
+// StorageTest.
+@RunWith(AndroidJUnit4.class)
+public class MigrationTest {
+    private static final String DB = "migration-test";
+
+    @Rule
+    public final MigrationTestHelper helper = new MigrationTestHelper(
+        InstrumentationRegistry.getInstrumentation(), Storage.Database.class);
+
+    @Test
+    public void from2To3() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 2);
+        db.execSQL("INSERT INTO `AdvertiserConfig` (`id`, `label`, `power`, `mode`, `include_device_name`,"
+            + " `include_tx_power_level`, `frame_type`, `major`, `minor`) VALUES (1, 'Lobby', 2, 1, 1, 0, 1, 7, 42)");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB, 3, true, Storage.MIGRATION_2_3);
+        assertEquals(0, queryLong(db, "SELECT `enabled` FROM `AdvertiserConfig` WHERE `id` = 1"));
+        assertEquals(42, queryLong(db, "SELECT `minor` FROM `AdvertiserConfig` WHERE `id` = 1"));
+    }
+
+    @Test
+    public void from3To4() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 3);
+        db.execSQL("INSERT INTO `AdvertiserConfig` (`id`, `label`, `power`, `mode`, `include_device_name`,"
+            + " `include_tx_power_level`, `enabled`) VALUES (1, 'Lobby', 2, 1, 1, 0, 1)");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB, 4, true, Storage.MIGRATION_3_4);
+        assertEquals(0, queryLong(db, "SELECT `version` FROM `AdvertiserConfig` WHERE `id` = 1"));
+        assertEquals(1, queryLong(db, "SELECT `enabled` FROM `AdvertiserConfig` WHERE `id` = 1"));
+    }
+
+    @Test
+    public void from4To5() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 4);
+        insertConfig(db, 1, "Lobby");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB, 5, true, Storage.MIGRATION_4_5);
+        assertEquals(0, queryLong(db, "SELECT `duty_on_millis` + `duty_off_millis` + `window_start_minute`"
+            + " + `window_end_minute` FROM `AdvertiserConfig` WHERE `id` = 1"));
+    }
+
+    @Test
+    public void from5To6() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 5);
+        insertConfig(db, 1, "Lobby");
+        db.execSQL("INSERT INTO `AdvertiserConfig` (`id`, `label`, `power`, `mode`, `include_device_name`,"
+            + " `include_tx_power_level`, `frame_type`, `frame_id`, `major`, `minor`)"
+            + " VALUES (2, 'Hall', 0, 0, 0, 0, 1, x'e2c56db5dffb48d2b060d0f5a71096e0', 7, 42)");
+        db.close();
+
+        // Existing configs are indexed, and new ones by the triggers.
+        db = helper.runMigrationsAndValidate(DB, 6, true, Storage.MIGRATION_5_6);
+        assertEquals(1, search(db, "lobby"));
+        assertEquals(2, search(db, "e2c56db5"));
+        assertEquals(2, search(db, "42"));
+        insertConfig(db, 3, "Stairs");
+        assertEquals(3, search(db, "stairs"));
+    }
+
+    @Test
+    public void from6To7() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 6);
+        insertConfig(db, 1, "Lobby");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB, 7, true, Storage.MIGRATION_6_7);
+        db.execSQL("INSERT INTO `AdvertisingEvent` (`time`, `config_id`, `type`, `state`, `code`)"
+            + " VALUES (1000, 1, 0, 3, -7)");
+        assertEquals(1, queryLong(db, "SELECT count(*) FROM `AdvertisingEvent` WHERE `config_id` = 1"));
+    }
+
+    @Test
+    public void from7To8() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 7);
+        insertConfig(db, 1, "Lobby");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB, 8, true, Storage.MIGRATION_7_8);
+        assertEquals(1, queryLong(db, "SELECT count(*) FROM `AdvertiserConfig`"
+            + " WHERE `eid_key` IS NULL AND `rotation_exponent` = 0"));
+    }
+
+    @Test
+    public void from8To9() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 8);
+        insertConfig(db, 1, "Lobby");
+        insertConfig(db, 2, "Hall");
+        db.close();
+
+        // Existing configs get their revisions in id order; the triggers
+        // carry on from there.
+        db = helper.runMigrationsAndValidate(DB, 9, true, Storage.MIGRATION_8_9);
+        assertEquals(1, queryLong(db, "SELECT `revision` FROM `AdvertiserConfig` WHERE `id` = 1"));
+        assertEquals(2, queryLong(db, "SELECT `revision` FROM `AdvertiserConfig` WHERE `id` = 2"));
+        assertTrue(queryLong(db, "SELECT `updated_at` FROM `AdvertiserConfig` WHERE `id` = 1") > 0);
+
+        db.execSQL("UPDATE `AdvertiserConfig` SET `label` = 'Front lobby' WHERE `id` = 1");
+        assertEquals(3, queryLong(db, "SELECT `revision` FROM `AdvertiserConfig` WHERE `id` = 1"));
+        db.execSQL("DELETE FROM `AdvertiserConfig` WHERE `id` = 2");
+        assertEquals(4, queryLong(db, "SELECT `revision` FROM `AdvertiserTombstone` WHERE `id` = 2"));
+    }
+
+    @Test
+    public void from9To10() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 9);
+        db.execSQL("INSERT INTO `AdvertiserConfig` (`id`, `label`, `power`, `mode`, `include_device_name`,"
+            + " `include_tx_power_level`, `enabled`, `version`, `revision`, `updated_at`)"
+            + " VALUES (1, 'Lobby', 2, 1, 1, 0, 1, 5, 1, 1000), (3, 'Hall', 0, 0, 0, 0, 0, 2, 2, 1000)");
+        db.execSQL("INSERT INTO `AdvertiserTombstone` (`id`, `revision`, `deleted_at`) VALUES (4, 3, 1000)");
+        // 4 was handed out and deleted.
+        db.execSQL("UPDATE `sqlite_sequence` SET `seq` = 4 WHERE `name` = 'AdvertiserConfig'");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB, 10, true, Storage.MIGRATION_9_10);
+        assertEquals(2, queryLong(db, "SELECT count(*) FROM `AdvertiserConfig`"));
+        assertEquals(1, queryLong(db, "SELECT `enabled` FROM `AdvertiserConfig` WHERE `id` = 1"));
+        assertEquals(2, queryLong(db, "SELECT `revision` FROM `AdvertiserConfig` WHERE `id` = 3"));
+        assertEquals(1, queryLong(db, "SELECT count(*) FROM `AdvertiserTombstone`"));
+
+        // Ids aren't handed out again, and the rebuilt table has its
+        // triggers back.
+        insertConfig(db, null, "Stairs");
+        assertEquals(5, queryLong(db, "SELECT max(`id`) FROM `AdvertiserConfig`"));
+        assertEquals(4, queryLong(db, "SELECT `revision` FROM `AdvertiserConfig` WHERE `id` = 5"));
+        assertEquals(5, search(db, "stairs"));
+        db.execSQL("UPDATE `AdvertiserConfig` SET `enabled` = 0 WHERE `id` = 1");
+        assertEquals(5, queryLong(db, "SELECT `revision` FROM `AdvertiserConfig` WHERE `id` = 1"));
+    }
+
+    @Test
+    public void from2ToLatest() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(DB, 2);
+        insertConfig(db, 1, "Lobby");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(DB, 10, true,
+            Storage.MIGRATION_2_3, Storage.MIGRATION_3_4, Storage.MIGRATION_4_5, Storage.MIGRATION_5_6,
+            Storage.MIGRATION_6_7, Storage.MIGRATION_7_8, Storage.MIGRATION_8_9, Storage.MIGRATION_9_10);
+        assertEquals(1, queryLong(db, "SELECT `revision` FROM `AdvertiserConfig` WHERE `id` = 1"));
+        assertEquals(1, search(db, "lobby"));
+    }
+
+    private static void insertConfig(SupportSQLiteDatabase db, Long id, String label) {
+        db.execSQL("INSERT INTO `AdvertiserConfig` (`id`, `label`, `power`, `mode`, `include_device_name`,"
+            + " `include_tx_power_level`) VALUES (?, ?, 0, 0, 0, 0)", new Object[]{id, label});
+    }
+
+    // The rowid of the one config the search index finds, or -1.
+    private static long search(SupportSQLiteDatabase db, String text) {
+        try (Cursor cursor = db.query("SELECT rowid FROM `AdvertiserSearch` WHERE `AdvertiserSearch` MATCH ?",
+                new Object[]{text})) {
+            if (cursor.getCount() != 1)
+                return -1;
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+
+    private static long queryLong(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            assertTrue(sql, cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+}
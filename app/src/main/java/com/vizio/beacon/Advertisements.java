@@ -0,0 +1,119 @@
+package com.vizio.beacon;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+
+import androidx.annotation.RequiresApi;
+
+import java.nio.charset.StandardCharsets;
+
+// Turns AdvertiserConfigs into the framework's advertising objects. Holds a
+// PayloadEncoder and a PreparedCache, so each backend should have its own
+// instance, used on the event loop only.
+@SuppressLint("MissingPermission")
+public class Advertisements {
+    // Enough for every advertiser of a large fleet that takes turns on air.
+    private static final int CACHE_SIZE = 1024;
+
+    private static final ParcelUuid EDDYSTONE_SERVICE_UUID =
+        ParcelUuid.fromString("0000FEAA-0000-1000-8000-00805F9B34FB");
+
+    // Nominal output power of the AdvertiseSettings.ADVERTISE_TX_POWER_* levels, in dBm.
+    private static final int[] TX_POWER_DBM = {-21, -15, -7, 1};
+
+    private final PayloadEncoder encoder = new PayloadEncoder();
+    private final PreparedCache<PreparedAdvertisement> cache =
+        new PreparedCache<>(CACHE_SIZE, this::build);
+
+    public static int txPowerDbm(int txPowerLevel) {
+        return TX_POWER_DBM[txPowerLevel];
+    }
+
+    // Throws IllegalArgumentException like data() does. TLM frames carry
+    // the uptime, so they're built afresh every time rather than cached.
+    // A name that changes after an advertisement is prepared isn't noticed
+    // until the config's next revision.
+    public PreparedAdvertisement prepare(AdvertiserConfig config) {
+        if (config.frameType == PayloadEncoder.FRAME_EDDYSTONE_TLM)
+            return build(config);
+        return cache.get(config);
+    }
+
+    private PreparedAdvertisement build(AdvertiserConfig config) {
+        AdvertiseData data = data(config, BluetoothAdapter.getDefaultAdapter());
+        AdvertisingSetParameters parameters = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            parameters = parameters(config);
+
+        return new PreparedAdvertisement(config, settings(config), parameters, data, null);
+    }
+
+    public AdvertiseSettings settings(AdvertiserConfig config) {
+        return (new AdvertiseSettings.Builder())
+            .setAdvertiseMode(config.mode)
+            .setConnectable(false)
+            .setTxPowerLevel(config.power)
+            .build();
+    }
+
+    // Legacy PDUs keep the beacons visible to pre-5.0 scanners and keep the
+    // payload within what PayloadEncoder validates against.
+    @RequiresApi(Build.VERSION_CODES.O)
+    public AdvertisingSetParameters parameters(AdvertiserConfig config) {
+        int interval;
+        switch (config.mode) {
+            case AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY:
+                interval = AdvertisingSetParameters.INTERVAL_LOW;
+                break;
+            case AdvertiseSettings.ADVERTISE_MODE_BALANCED:
+                interval = AdvertisingSetParameters.INTERVAL_MEDIUM;
+                break;
+            default:
+                interval = AdvertisingSetParameters.INTERVAL_HIGH;
+                break;
+        }
+
+        return (new AdvertisingSetParameters.Builder())
+            .setLegacyMode(true)
+            .setConnectable(false)
+            .setScannable(false)
+            .setInterval(interval)
+            .setTxPowerLevel(txPowerDbm(config.power))
+            .build();
+    }
+
+    // Throws IllegalArgumentException if the config's frame is malformed or
+    // doesn't fit into a legacy advertisement.
+    public AdvertiseData data(AdvertiserConfig config, BluetoothAdapter adapter) {
+        int nameLength = 0;
+        if (config.includeDeviceName && adapter != null && adapter.getName() != null)
+            nameLength = adapter.getName().getBytes(StandardCharsets.UTF_8).length;
+
+        if (config.frameType == PayloadEncoder.FRAME_EDDYSTONE_TLM)
+            encoder.setTelemetry(0, Float.NaN, 0, SystemClock.elapsedRealtime());
+        encoder.encode(config, nameLength);
+
+        AdvertiseData.Builder builder = (new AdvertiseData.Builder())
+            .setIncludeDeviceName(config.includeDeviceName)
+            .setIncludeTxPowerLevel(config.includeTxPowerLevel);
+
+        switch (encoder.adType()) {
+            case PayloadEncoder.AD_MANUFACTURER_DATA:
+                builder.addManufacturerData(encoder.id16(), encoder.copyBody());
+                break;
+            case PayloadEncoder.AD_SERVICE_DATA_16:
+                builder
+                    .addServiceUuid(EDDYSTONE_SERVICE_UUID)
+                    .addServiceData(EDDYSTONE_SERVICE_UUID, encoder.copyBody());
+                break;
+        }
+
+        return builder.build();
+    }
+}
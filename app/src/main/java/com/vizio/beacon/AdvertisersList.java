@@ -2,47 +2,86 @@ package com.vizio.beacon;
 
 import android.bluetooth.le.AdvertiseSettings;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.ArrayMap;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.Choreographer;
 import android.view.ViewGroup;
+import android.widget.CompoundButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.widget.SwitchCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingDataAdapter;
+import androidx.paging.PagingLiveData;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
+// Rows are paged in from Room in id order, so only the visible window plus
+// a prefetch margin is ever held in memory (pages that scroll far enough
+// away are dropped again). Every database write invalidates the paging
+// source; the reloaded pages are diffed on a background thread and the UI
+// thread only dispatches the resulting update batch.
+//
+// Runtime status doesn't go through the database: the service's StatusBoard
+// is drained at most once per frame, and only rows that are bound get told.
 public class AdvertisersList
-extends RecyclerView.Adapter<AdvertisersList.ViewHolder> {
+extends PagingDataAdapter<AdvertiserConfig, AdvertisersList.ViewHolder>
+implements StatusBoard.Listener {
     private final String LOG_TAG = "Beacon.RecyclerAdapter";
 
-    private final TreeMap<Long, Storage.AdvertiserConfig> configs = new TreeMap<>();
-    private final TreeMap<Long, ViewHolder> items = new TreeMap<>();
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 2 * PAGE_SIZE;
+    private static final int MAX_SIZE = PAGE_SIZE + 4 * PREFETCH_DISTANCE;
+
+    // The holders currently bound to a row, by advertiser id; holders drop
+    // out when they're recycled or rebound to another row.
+    private final LongSparseArray<ViewHolder> bound = new LongSparseArray<>();
     private final Context context;
     private final Listener listener;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final Choreographer.FrameCallback frame = frameTimeNanos -> drainStatus();
+    private final Runnable postDrain = () -> Choreographer.getInstance().postFrameCallback(frame);
+    private StatusBoard statusBoard;
+    // Read by the pager when it makes a new paging source, off the main
+    // thread.
+    private volatile AdvertiserQuery query = AdvertiserQuery.ALL;
 
     public interface Listener {
-        void onAdvertiserToggled(Storage.AdvertiserConfig config, boolean enabled);
+        void onAdvertiserToggled(AdvertiserConfig config, boolean enabled);
+        void onAdvertiserSelected(AdvertiserConfig config);
     }
 
-    public static class ViewHolder extends RecyclerView.ViewHolder {
-        public ViewHolder(View view) {
+    // The holder is its own click and switch listener, so binding doesn't
+    // allocate; both act on whichever config is bound at the time.
+    public static class ViewHolder
+    extends RecyclerView.ViewHolder
+    implements View.OnClickListener, CompoundButton.OnCheckedChangeListener {
+        public ViewHolder(View view, Listener listener) {
             super(view);
+            this.listener = listener;
             label = view.findViewById(R.id.label);
             power = view.findViewById(R.id.power);
             mode = view.findViewById(R.id.mode);
             tumbler = view.findViewById(R.id.tumbler);
             nindicator = view.findViewById(R.id.device_name_enabled_indicator);
             pindicator = view.findViewById(R.id.tx_power_level_enabled_indicator);
+            status = view.findViewById(R.id.status);
         }
 
         public TextView getLabel() { return label; }
@@ -51,51 +90,122 @@ extends RecyclerView.Adapter<AdvertisersList.ViewHolder> {
         public TextView getNindicator() { return nindicator; }
         public TextView getPindicator() { return pindicator; }
         public SwitchCompat getTumbler() { return tumbler; }
+        public TextView getStatus() { return status; }
+        public AdvertiserConfig getConfig() { return config; }
+
+        @Override
+        public void onClick(View view) {
+            if (config != null) listener.onAdvertiserSelected(config);
+        }
+
+        @Override
+        public void onCheckedChanged(CompoundButton button, boolean isChecked) {
+            if (config != null) listener.onAdvertiserToggled(config, isChecked);
+        }
+
+        // Moves the switch without it counting as a toggle.
+        void setChecked(boolean checked) {
+            tumbler.setOnCheckedChangeListener(null);
+            tumbler.setChecked(checked);
+            tumbler.setOnCheckedChangeListener(this);
+        }
 
+        private final Listener listener;
+        private AdvertiserConfig config;
         private final TextView label;
         private final TextView power;
         private final TextView mode;
         private final TextView nindicator;
         private final TextView pindicator;
         private final SwitchCompat tumbler;
+        private final TextView status;
     }
 
-    public AdvertisersList(Context context) {
+    public AdvertisersList(Context context, LifecycleOwner owner) {
+        super(DIFF);
         this.context = context;
         this.listener = (Listener) context;
 
-        async(db().getAll(), result -> {
-            for (Storage.AdvertiserConfig config: result) {
-                configs.put(config.id, config);
-            }
+        Pager<Integer, AdvertiserConfig> pager = new Pager<>(
+            new PagingConfig(PAGE_SIZE, PREFETCH_DISTANCE, true, 2 * PAGE_SIZE, MAX_SIZE),
+            () -> db().pagingSource(query));
+
+        PagingLiveData
+            .cachedIn(PagingLiveData.getLiveData(pager), owner.getLifecycle())
+            .observe(owner, data -> submitData(owner.getLifecycle(), data));
+    }
 
-            notifyItemRangeInserted(0, result.size());
-        });
+    // Shows only the configs that match; the list pages through the
+    // matches the same way it does through everything.
+    public void setQuery(AdvertiserQuery query) {
+        if (query.equals(this.query))
+            return;
+
+        this.query = query;
+        refresh();
     }
 
-    public void add(Storage.AdvertiserConfig config) {
-        async(db().insert(config), result -> {
-            config.id = result;
-            configs.put(result, config);
-            notifyItemInserted(configs.size() - 1);
-        });
+    // Starts showing the board's statuses; the board wakes us (from the
+    // Bluetooth thread) when something changed, and we drain it on the next
+    // frame.
+    public void attach(StatusBoard board) {
+        detach();
+        statusBoard = board;
+        board.setWake(() -> main.post(postDrain));
+        drainStatus();
+    }
+
+    public void detach() {
+        if (statusBoard == null)
+            return;
+
+        statusBoard.setWake(null);
+        statusBoard = null;
+        main.removeCallbacks(postDrain);
+        Choreographer.getInstance().removeFrameCallback(frame);
+    }
+
+    private void drainStatus() {
+        if (statusBoard != null)
+            statusBoard.drain(this);
+    }
+
+    @Override
+    public void onStatusChanged(long id, AdvertiserStatus status) {
+        ViewHolder holder = bound.get(id);
+        if (holder == null)
+            return;
+
+        int position = holder.getBindingAdapterPosition();
+        if (position != RecyclerView.NO_POSITION)
+            notifyItemChanged(position, AdvertiserDiff.CHANGED_STATUS);
+    }
+
+    // Inserts and deletes go straight to the database; the list picks them
+    // up when Room invalidates the paging source.
+    public void add(AdvertiserConfig config) {
+        async(db().insert(config), result -> config.id = result);
+    }
+
+    public void update(AdvertiserConfig config) {
+        async(db().update(config), result -> { });
     }
 
     public void removeNth(int position) {
-        Storage.AdvertiserConfig config = getNthConfig(position);
-        async(db().delete(config), result -> {
-            configs.remove(config.id);
-            items.remove(config.id);
-            notifyItemRemoved(position);
-        });
+        AdvertiserConfig config = getItem(position);
+        if (config == null)
+            return;
+
+        async(db().delete(config), result -> { });
     }
 
+    // Reverts a switch that was flipped but couldn't take effect. Anything
+    // that did take effect comes back from the database as the advertiser's
+    // enabled column, so a row that isn't bound is simply left alone.
     public void setTumbler(Long id, boolean value) {
-        ViewHolder holder = items.get(id);
+        ViewHolder holder = bound.get(id);
         if (holder != null) {
-            holder.getTumbler().setChecked(value);
-        } else {
-            throw new IndexOutOfBoundsException();
+            holder.setChecked(value);
         }
     }
 
@@ -106,36 +216,137 @@ extends RecyclerView.Adapter<AdvertisersList.ViewHolder> {
             .from(parent.getContext())
             .inflate(R.layout.advertiser_config, parent, false);
 
-        return new ViewHolder(view);
+        ViewHolder holder = new ViewHolder(view, listener);
+        view.setOnClickListener(holder);
+        holder.getTumbler().setOnCheckedChangeListener(holder);
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        Storage.AdvertiserConfig config = getNthConfig(position);
-        items.put(config.id, holder);
-        holder.getLabel().setText(config.label);
-        holder.getPower().setText(powerLevelString(config));
-        holder.getMode().setText(modeString(config));
-        holder.getNindicator().setVisibility(config.includeDeviceName ? View.VISIBLE : View.GONE);
-        holder.getPindicator().setVisibility(config.includeTxPowerLevel ? View.VISIBLE : View.GONE);
-        holder.getTumbler().setOnCheckedChangeListener((button, isChecked) -> {
-            listener.onAdvertiserToggled(config, isChecked);
-        });
+        bind(holder, getItem(position), ~0);
     }
 
+    // Payloads are the AdvertiserDiff.CHANGED_* masks from the diff; when
+    // there are any, only the views they name are touched.
     @Override
-    public int getItemCount() {
-        return configs.size();
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        AdvertiserConfig config = getItem(position);
+        if (payloads.isEmpty() || config == null || holder.config == null) {
+            bind(holder, config, ~0);
+            return;
+        }
+
+        int changes = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            Object payload = payloads.get(i);
+            if (!(payload instanceof Integer)) {
+                changes = ~0;
+                break;
+            }
+            changes |= (Integer) payload;
+        }
+        bind(holder, config, changes);
     }
 
-    private Storage.AdvertiserConfig getNthConfig(int position) throws IndexOutOfBoundsException {
-        if (position >= configs.size())
-            throw new IndexOutOfBoundsException();
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        unbind(holder);
+    }
 
-        return (Storage.AdvertiserConfig)
-            configs.values().toArray()[position];
+    private void bind(ViewHolder holder, AdvertiserConfig config, int changes) {
+        unbind(holder);
+        if (config == null) {
+            // A placeholder for a row whose page hasn't been loaded yet;
+            // nothing from the holder's last row may show through.
+            holder.getLabel().setText(null);
+            holder.getPower().setText(null);
+            holder.getMode().setText(null);
+            holder.getNindicator().setVisibility(View.GONE);
+            holder.getPindicator().setVisibility(View.GONE);
+            holder.setChecked(false);
+            holder.getTumbler().setEnabled(false);
+            holder.getStatus().setVisibility(View.GONE);
+            return;
+        }
+
+        holder.config = config;
+        bound.put(config.id, holder);
+
+        if ((changes & AdvertiserDiff.CHANGED_LABEL) != 0)
+            holder.getLabel().setText(config.label);
+        if ((changes & AdvertiserDiff.CHANGED_SETTINGS) != 0) {
+            holder.getPower().setText(powerLevelString(config));
+            holder.getMode().setText(modeString(config));
+        }
+        if ((changes & AdvertiserDiff.CHANGED_INDICATORS) != 0) {
+            holder.getNindicator().setVisibility(config.includeDeviceName ? View.VISIBLE : View.GONE);
+            holder.getPindicator().setVisibility(config.includeTxPowerLevel ? View.VISIBLE : View.GONE);
+        }
+        if ((changes & AdvertiserDiff.CHANGED_ENABLED) != 0) {
+            holder.setChecked(config.enabled);
+            holder.getTumbler().setEnabled(true);
+        }
+        if ((changes & AdvertiserDiff.CHANGED_STATUS) != 0)
+            bindStatus(holder.getStatus(), statusBoard == null ? null : statusBoard.get(config.id));
     }
 
+    private void bindStatus(TextView view, AdvertiserStatus status) {
+        if (status == null || status.state == AdvertiserStatus.OFF) {
+            view.setVisibility(View.GONE);
+            return;
+        }
+
+        switch (status.state) {
+            case AdvertiserStatus.WAITING:
+                view.setText(R.string.status_waiting);
+                break;
+            case AdvertiserStatus.STARTING:
+                view.setText(R.string.status_starting);
+                break;
+            case AdvertiserStatus.ACTIVE:
+                view.setText(context.getString(R.string.status_active, status.txPower));
+                break;
+            case AdvertiserStatus.SLEEPING:
+                view.setText(R.string.status_sleeping);
+                break;
+            default:
+                view.setText(context.getString(R.string.status_failed, status.errorCode));
+                break;
+        }
+        view.setVisibility(View.VISIBLE);
+    }
+
+    private void unbind(ViewHolder holder) {
+        if (holder.config != null && bound.get(holder.config.id) == holder)
+            bound.remove(holder.config.id);
+        holder.config = null;
+    }
+
+    // PagingDataAdapter refuses stable ids; matching rows on the config id
+    // here gives the same holder reuse and animations.
+    private static final DiffUtil.ItemCallback<AdvertiserConfig> DIFF =
+        new DiffUtil.ItemCallback<AdvertiserConfig>() {
+            @Override
+            public boolean areItemsTheSame(
+                @NonNull AdvertiserConfig a,
+                @NonNull AdvertiserConfig b)
+            { return AdvertiserDiff.sameItem(a, b); }
+
+            @Override
+            public boolean areContentsTheSame(
+                @NonNull AdvertiserConfig a,
+                @NonNull AdvertiserConfig b)
+            { return AdvertiserDiff.sameContents(a, b); }
+
+            // Boxed masks under 128 come from the Integer cache.
+            @Override
+            public Object getChangePayload(
+                @NonNull AdvertiserConfig a,
+                @NonNull AdvertiserConfig b)
+            { return AdvertiserDiff.changes(a, b); }
+        };
+
     private Storage.AdvertiserConfigDao db() {
         return Storage
             .getDatabase(context)
@@ -160,9 +371,9 @@ extends RecyclerView.Adapter<AdvertisersList.ViewHolder> {
         }, ContextCompat.getMainExecutor(context));
     }
 
-    private int powerLevelString(Storage.AdvertiserConfig config)
+    private int powerLevelString(AdvertiserConfig config)
     { return powerLevels.get(config.power); }
-    private int modeString(Storage.AdvertiserConfig config)
+    private int modeString(AdvertiserConfig config)
     { return modes.get(config.mode); }
 
     private static final Map<Integer, Integer> powerLevels = new ArrayMap<>();
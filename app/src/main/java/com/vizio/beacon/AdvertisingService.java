@@ -0,0 +1,496 @@
+package com.vizio.beacon;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationChannelCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
+import androidx.room.InvalidationTracker;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Owns the advertising engine - the Bluetooth thread, SlotScheduler and
+// CommandQueue - so advertisers keep running when MainActivity is gone.
+//
+// Whether an advertiser is enabled is stored along with its config. When
+// the service is created (by MainActivity binding to it, by BootReceiver, or
+// by the system bringing it back after the process was killed) everything
+// that was enabled is started again through a StaggeredRestore. The service
+// stays in the foreground for as long as anything is enabled.
+//
+// Advertisers with a schedule are put to sleep and woken up by a
+// DutyCycleEngine, whose idea of local time is kept in step with the wall
+// clock and the time zone here. Eddystone-EID advertisers get their
+// identifiers rotated by an EidRotator, which works out the upcoming ones on
+// a thread of its own.
+//
+// Edits to the configs, wherever they're made, reach the engine through the
+// database: the service follows its revisions (see sync()), and updates
+// whatever is enabled with the configs as stored, or stops them if they've
+// been deleted.
+//
+// Every change of an advertiser's state also goes into the event log.
+//
+// Test rigs drive many advertisers at once through ControlProvider, which
+// hands its batches to a BatchController here.
+//
+// With the simulated_controller resource set, the engine advertises on a
+// SimulatedAdvertiser rather than the Bluetooth controller.
+public class AdvertisingService
+extends Service
+implements SlotScheduler.Listener, CommandQueue.Listener {
+    private static final String LOG_TAG = "Beacon.Service";
+    private static final String CHANNEL_ID = "advertising";
+    private static final int NOTIFICATION_ID = 1;
+
+    // Every enabled advertiser gets the same share of airtime for now.
+    private static final int DEFAULT_WEIGHT = 1;
+
+    // Local time is worked out from two clocks read one after the other, so
+    // it jitters a little; smaller changes aren't worth a look at every
+    // schedule.
+    private static final long LOCAL_OFFSET_SLACK_MILLIS = 1000;
+
+    // A typical controller, give or take.
+    private static final int SIMULATED_SLOTS = 4;
+    private static final long SIMULATED_LATENCY_MILLIS = 20;
+
+    // How long a batch waits for its advertisers to come on air.
+    static final long BATCH_TIMEOUT_MILLIS = 10_000;
+
+    // Changes sync() takes at a time.
+    private static final int SYNC_PAGE = 500;
+
+    public class LocalBinder extends Binder {
+        public AdvertisingService getService() { return AdvertisingService.this; }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final AdvertisingMetrics metrics = new AdvertisingMetrics();
+    private final StatusBoard statusBoard = new StatusBoard();
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private HandlerThread bluetoothThread;
+    private EventLoop loop;
+    private SlotScheduler scheduler;
+    private CommandQueue commands;
+    private StaggeredRestore restore;
+    private DutyCycleEngine dutyCycle;
+    private EidRotator eids;
+    private ExecutorService eidExecutor;
+    private BatchController batches;
+    private boolean simulated;
+
+    // Only touched on the event loop.
+    private boolean loading = true;
+    // Config changes up to here have been applied; -1 until restoring
+    // starts from there.
+    private long syncedRevision = -1;
+    private boolean syncing;
+    private boolean resync;
+
+    // Only touched on the main thread.
+    private boolean foreground;
+    private long localOffsetMillis;
+
+    // Time zone changes, clock changes, and daylight saving time (noticed
+    // within a minute).
+    private final BroadcastReceiver clockReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            long offset = localOffsetMillis();
+            if (Math.abs(offset - localOffsetMillis) < LOCAL_OFFSET_SLACK_MILLIS)
+                return;
+
+            localOffsetMillis = offset;
+            long wallOffset = wallOffsetMillis();
+            loop.post(() -> {
+                dutyCycle.setLocalOffsetMillis(offset);
+                eids.setWallOffsetMillis(wallOffset);
+            });
+        }
+    };
+
+    // Called on Room's threads after every write to the configs.
+    private final InvalidationTracker.Observer configObserver =
+        new InvalidationTracker.Observer("AdvertiserConfig", "AdvertiserTombstone") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                loop.post(AdvertisingService.this::sync);
+            }
+        };
+
+    // Starts the service in the foreground, where it brings back whatever was
+    // enabled; e.g. after a reboot.
+    public static void launch(Context context) {
+        ContextCompat.startForegroundService(context, new Intent(context, AdvertisingService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // All radio operations run one at a time on their own thread.
+        bluetoothThread = new HandlerThread("Beacon.Bluetooth");
+        bluetoothThread.start();
+        loop = new HandlerEventLoop(bluetoothThread.getLooper());
+        simulated = getResources().getBoolean(R.bool.simulated_controller);
+        scheduler = new SlotScheduler(loop, createBackend(), this);
+        scheduler.setMetrics(metrics);
+        EventLog eventLog = Storage.getEventLog(AdvertisingService.this);
+        scheduler.setStatusListener((id, status) -> {
+            statusBoard.onStatusChanged(id, status);
+            eventLog.advertiser(id, status);
+            batches.onStatusChanged(id, status);
+        });
+        localOffsetMillis = localOffsetMillis();
+        dutyCycle = new DutyCycleEngine(loop, scheduler, localOffsetMillis);
+        eidExecutor = Executors.newSingleThreadExecutor();
+        eids = new EidRotator(loop, scheduler, eidExecutor, wallOffsetMillis());
+        commands = new CommandQueue(loop, scheduler, this);
+        batches = new BatchController(loop, scheduler, commands, DEFAULT_WEIGHT, BATCH_TIMEOUT_MILLIS);
+        restore = new StaggeredRestore(loop, scheduler);
+        restore.setConcurrency(getResources().getInteger(R.integer.restore_concurrency));
+        restore.setIntervalMillis(getResources().getInteger(R.integer.restore_interval_millis));
+
+        IntentFilter clock = new IntentFilter(Intent.ACTION_TIME_CHANGED);
+        clock.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        clock.addAction(Intent.ACTION_TIME_TICK);
+        registerReceiver(clockReceiver, clock);
+
+        Storage.getDatabase(AdvertisingService.this).getInvalidationTracker().addObserver(configObserver);
+        async(dao().getRevision(), revision -> {
+            syncedRevision = revision;
+            restoreEnabled();
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Whoever started us may have used startForegroundService(), so go
+        // to the foreground unconditionally and leave again if it turns out
+        // there's nothing to do.
+        startForeground(NOTIFICATION_ID, notification());
+        foreground = true;
+        refresh();
+        return START_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(clockReceiver);
+        Storage.getDatabase(AdvertisingService.this).getInvalidationTracker().removeObserver(configObserver);
+        loop.post(restore::cancelAll);
+        commands.stopAll();
+        bluetoothThread.quitSafely();
+        eidExecutor.shutdown();
+    }
+
+    public AdvertisingMetrics getMetrics() { return metrics; }
+
+    // Runtime state of every advertiser, for the list to drain once a frame.
+    public StatusBoard getStatusBoard() { return statusBoard; }
+
+    // Estimated airtime and energy of every advertiser with a schedule.
+    public ListenableFuture<String> dumpDutyCycles(String prefix) {
+        return Futures.submit(() -> {
+            StringWriter text = new StringWriter();
+            dutyCycle.dump(new PrintWriter(text), prefix);
+            return text.toString();
+        }, loop::post);
+    }
+
+    // requestedAt is the System.nanoTime() the user asked for the change, for
+    // the latency metrics.
+    public void start(AdvertiserConfig config, long requestedAt) {
+        long id = config.id;
+        loop.post(() -> restore.cancel(id));
+        commands.start(config, DEFAULT_WEIGHT, requestedAt);
+        persist(id, true);
+        launch(AdvertisingService.this);
+    }
+
+    public void stop(long id, long requestedAt) {
+        loop.post(() -> restore.cancel(id));
+        commands.stop(id, requestedAt);
+        persist(id, false);
+    }
+
+    // Runs the batch as one unit; see BatchController. The configs it
+    // updates must have been stored and read back already.
+    public ListenableFuture<BatchController.Report> submit(BatchController.Batch batch) {
+        List<Long> stops = new ArrayList<>(batch.stops);
+        List<Long> starts = new ArrayList<>();
+        for (AdvertiserConfig config: batch.starts) {
+            starts.add(config.id);
+        }
+
+        loop.post(() -> {
+            for (long id: stops) restore.cancel(id);
+            for (long id: starts) restore.cancel(id);
+        });
+        ListenableFuture<BatchController.Report> report = batches.submit(batch);
+        // Stopped and started again in the same batch means started.
+        stops.removeAll(new HashSet<>(starts));
+        if (!stops.isEmpty())
+            async(dao().setEnabledAll(stops, false), result -> { });
+        if (!starts.isEmpty()) {
+            async(dao().setEnabledAll(starts, true), result -> { });
+            try {
+                launch(AdvertisingService.this);
+            } catch (IllegalStateException e) {
+                // Not allowed from the background; ControlProvider stays
+                // bound instead.
+                Log.w(LOG_TAG, "Can't go to the foreground: " + e);
+            }
+        }
+        // The batch bypasses the CommandQueue, so nothing else would notice
+        // the service may have become idle.
+        async(report, result -> refresh());
+        return report;
+    }
+
+    // What to add to the event loop's clock to get local time.
+    private static long localOffsetMillis() {
+        long now = System.currentTimeMillis();
+        return now + TimeZone.getDefault().getOffset(now) - SystemClock.elapsedRealtime();
+    }
+
+    // What to add to the event loop's clock to get the wall clock.
+    private static long wallOffsetMillis() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    private AdvertiserBackend createBackend() {
+        if (simulated) {
+            SimulatedAdvertiser advertiser = new SimulatedAdvertiser(loop, SIMULATED_SLOTS, SystemClock.elapsedRealtime());
+            advertiser.setStartLatency(SIMULATED_LATENCY_MILLIS, SIMULATED_LATENCY_MILLIS);
+            advertiser.setStopLatency(0, SIMULATED_LATENCY_MILLIS);
+            return new LeAdvertiserBackend(loop, advertiser);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return new AdvertisingSetBackend(loop);
+        else
+            return new LegacyBackend(loop);
+    }
+
+    // Applies the changes made since syncedRevision, a page at a time and
+    // one sync at a time, so an older config can't overtake a newer one.
+    // Only enabled advertisers older than their change are read back; the
+    // scheduler ignores updates that change nothing, like our own writes of
+    // the enabled column.
+    private void sync() {
+        if (syncedRevision < 0)
+            return;
+        if (syncing) {
+            resync = true;
+            return;
+        }
+
+        syncing = true;
+        long since = syncedRevision;
+        ListenableFuture<Boolean> synced = Futures.transformAsync(dao().getChangesSince(since, SYNC_PAGE), changes -> {
+            List<Long> updated = new ArrayList<>();
+            for (Storage.ConfigChange change: changes) {
+                syncedRevision = change.revision;
+                AdvertiserConfig running = scheduler.getConfig(change.id);
+                if (change.deleted) {
+                    restore.cancel(change.id);
+                    if (running != null) commands.stop(change.id);
+                } else if (running != null && running.revision < change.revision) {
+                    updated.add(change.id);
+                }
+            }
+
+            ListenableFuture<List<AdvertiserConfig>> configs = updated.isEmpty()
+                ? Futures.immediateFuture(Collections.emptyList())
+                : dao().getByIds(updated);
+            return Futures.transform(configs, read -> {
+                for (AdvertiserConfig config: read) commands.update(config);
+                return changes.size() == SYNC_PAGE;
+            }, loop::post);
+        }, loop::post);
+
+        Futures.addCallback(synced, new FutureCallback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean more) {
+                syncing = false;
+                if (more || resync) {
+                    resync = false;
+                    sync();
+                }
+            }
+
+            // Picked up again with the next change.
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(LOG_TAG, "Sync failed", t);
+                syncedRevision = since;
+                syncing = false;
+            }
+        }, loop::post);
+    }
+
+    // Restoring needs the adapter on and the permissions granted; without
+    // them every start would fail and the advertisers would be marked
+    // disabled for good, so they're left for the user to switch on instead.
+    private void restoreEnabled() {
+        if (!canAdvertise()) {
+            Log.i(LOG_TAG, "Can't advertise, not restoring anything");
+            loop.post(() -> loading = false);
+            return;
+        }
+
+        async(dao().getEnabled(), configs -> {
+            loading = false;
+            if (configs.isEmpty()) {
+                refresh();
+                return;
+            }
+
+            Log.i(LOG_TAG, "Restoring " + configs.size() + " advertisers");
+            restore.restore(configs, DEFAULT_WEIGHT);
+            launch(AdvertisingService.this);
+        });
+    }
+
+    private boolean canAdvertise() {
+        if (simulated)
+            return true;
+
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !adapter.isEnabled())
+            return false;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S)
+            return true;
+
+        return checkSelfPermission(Manifest.permission.BLUETOOTH_ADVERTISE) == PackageManager.PERMISSION_GRANTED
+            && checkSelfPermission(Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    // Leaves the foreground once nothing is enabled or about to be.
+    private void refresh() {
+        loop.post(() -> {
+            boolean busy = loading || !restore.isIdle() || scheduler.getEnabledCount() > 0;
+            if (busy)
+                return;
+
+            main.post(() -> {
+                if (foreground) {
+                    foreground = false;
+                    stopForeground(true);
+                    stopSelf();
+                }
+            });
+        });
+    }
+
+    private Notification notification() {
+        NotificationManagerCompat.from(AdvertisingService.this).createNotificationChannel(
+            new NotificationChannelCompat.Builder(CHANNEL_ID, NotificationManagerCompat.IMPORTANCE_LOW)
+                .setName(getString(R.string.advertising_channel))
+                .build());
+
+        int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+        PendingIntent content = PendingIntent.getActivity(
+            AdvertisingService.this, 0,
+            new Intent(AdvertisingService.this, MainActivity.class), flags);
+
+        return new NotificationCompat.Builder(AdvertisingService.this, CHANNEL_ID)
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setContentTitle(getString(R.string.app_name))
+            .setContentText(getString(R.string.advertising))
+            .setContentIntent(content)
+            .setOngoing(true)
+            .build();
+    }
+
+    // Called on the Bluetooth thread.
+    @Override
+    public void onAdvertiserFailed(long id, int errorCode) {
+        Log.w(LOG_TAG, "Advertiser " + id + " failed with error " + errorCode);
+        persist(id, false);
+        refresh();
+    }
+
+    // Called on the Bluetooth thread.
+    @Override
+    public void onCommandCompleted(long id, int command, boolean executed, long latencyNanos, int merged) {
+        String name = command == CommandQueue.START ? "start" : command == CommandQueue.STOP ? "stop" : "update";
+        Log.d(LOG_TAG, String.format(Locale.ROOT,
+            "%s %d: %s after %.2f ms (%d requests)", name, id,
+            executed ? "executed" : "dropped", latencyNanos / 1e6, merged));
+        refresh();
+    }
+
+    // The list picks the change up from the database.
+    private void persist(long id, boolean enabled) {
+        async(dao().setEnabled(id, enabled), result -> { });
+    }
+
+    private Storage.AdvertiserConfigDao dao() {
+        return Storage
+            .getDatabase(AdvertisingService.this)
+            .advertiserConfigDao();
+    }
+
+    private interface SuccessCallback<T> {
+        void onSuccess(T result);
+    }
+
+    // Perform a database operation asynchronously, and run a callback on the
+    // result on the event loop. A failed operation gets logged and skips the
+    // callback.
+    private <T> void async(ListenableFuture<T> future, SuccessCallback<T> callback) {
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result)
+            { callback.onSuccess(result); }
+
+            @Override
+            public void onFailure(@NonNull Throwable t)
+            { Log.e(LOG_TAG, t.toString()); }
+        }, loop::post);
+    }
+}
@@ -0,0 +1,180 @@
+package com.vizio.beacon;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// The AdvertiserBackend for BLE 5 advertising sets. Unlike legacy
+// advertisements, a set can have its data and parameters changed while it
+// stays registered with the controller, so update() never takes a beacon
+// off air for longer than a parameter change needs.
+//
+// Controllers without extended advertising support get the legacy backend
+// instead; the choice is made per start, as the adapter may have been off
+// when the backend was created.
+@RequiresApi(Build.VERSION_CODES.O)
+@SuppressLint("MissingPermission")
+public class AdvertisingSetBackend implements AdvertiserBackend {
+    private static final String LOG_TAG = "Beacon.AdvertisingSets";
+
+    private static class Handle {
+        AdvertiserConfig config;
+        AdvertisingSetCallback callback;
+        AdvertisingSet set;
+    }
+
+    private final EventLoop loop;
+    private final LegacyBackend legacy;
+    private final Map<Long, Handle> handles = new TreeMap<>();
+    private final Advertisements advertisements = new Advertisements();
+    private Callback callback;
+
+    public AdvertisingSetBackend(EventLoop loop) {
+        this.loop = loop;
+        this.legacy = new LegacyBackend(loop);
+    }
+
+    public static boolean isSupported(BluetoothAdapter adapter) {
+        return adapter != null && adapter.isLeExtendedAdvertisingSupported();
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+        legacy.setCallback(callback);
+    }
+
+    @Override
+    public void start(AdvertiserConfig config) {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (!isSupported(adapter)) {
+            legacy.start(config);
+            return;
+        }
+
+        long id = config.id;
+        BluetoothLeAdvertiser advertiser = adapter.getBluetoothLeAdvertiser();
+        if (advertiser == null) {
+            fail(id, ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            return;
+        }
+
+        PreparedAdvertisement prepared;
+        try {
+            prepared = advertisements.prepare(config);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Can't advertise " + config.label + ": " + e.getMessage());
+            fail(id, ADVERTISE_FAILED_DATA_TOO_LARGE);
+            return;
+        }
+
+        Handle handle = new Handle();
+        handle.config = config;
+        handle.callback = new AdvertisingSetCallback() {
+            @Override
+            public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+                Log.i(LOG_TAG, "onAdvertisingSetStarted " + id + ": " + status);
+                loop.post(() -> {
+                    if (handles.get(id) != handle) {
+                        // Stopped before the controller got back to us.
+                        if (set != null) advertiser.stopAdvertisingSet(this);
+                        return;
+                    }
+
+                    if (status == ADVERTISE_SUCCESS) {
+                        handle.set = set;
+                        callback.onStartSuccess(id, txPower);
+                    } else {
+                        handles.remove(id);
+                        callback.onStartFailure(id, status);
+                    }
+                });
+            }
+
+            @Override
+            public void onAdvertisingDataSet(AdvertisingSet set, int status) {
+                if (status != ADVERTISE_SUCCESS) updateFailed(id, handle, status);
+            }
+
+            @Override
+            public void onAdvertisingParametersUpdated(AdvertisingSet set, int txPower, int status) {
+                if (status != ADVERTISE_SUCCESS) updateFailed(id, handle, status);
+            }
+        };
+
+        handles.put(id, handle);
+        advertiser.startAdvertisingSet(
+            prepared.parameters, prepared.data, prepared.scanResponse, null, null, handle.callback);
+    }
+
+    // Sends only what changed: new data goes straight to the running set,
+    // new parameters need the set briefly disabled.
+    @Override
+    public boolean update(AdvertiserConfig config) {
+        Handle handle = handles.get(config.id);
+        if (handle == null || handle.set == null)
+            return false;
+
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !adapter.isEnabled())
+            return false;
+
+        PreparedAdvertisement prepared;
+        try {
+            prepared = advertisements.prepare(config);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Can't advertise " + config.label + ": " + e.getMessage());
+            return false;
+        }
+
+        if (!config.sameData(handle.config))
+            handle.set.setAdvertisingData(prepared.data);
+
+        if (!config.sameSettings(handle.config)) {
+            handle.set.enableAdvertising(false, 0, 0);
+            handle.set.setAdvertisingParameters(prepared.parameters);
+            handle.set.enableAdvertising(true, 0, 0);
+        }
+
+        handle.config = config;
+        return true;
+    }
+
+    @Override
+    public void stop(long id) {
+        Handle handle = handles.remove(id);
+        if (handle == null) {
+            legacy.stop(id);
+            return;
+        }
+
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !adapter.isEnabled())
+            return;
+
+        adapter.getBluetoothLeAdvertiser().stopAdvertisingSet(handle.callback);
+    }
+
+    private void updateFailed(long id, Handle handle, int status) {
+        Log.w(LOG_TAG, "Updating advertiser " + id + " failed: " + status);
+        loop.post(() -> {
+            if (handles.get(id) == handle) {
+                stop(id);
+                callback.onStartFailure(id, status);
+            }
+        });
+    }
+
+    private void fail(long id, int errorCode) {
+        loop.post(() -> callback.onStartFailure(id, errorCode));
+    }
+}
@@ -0,0 +1,32 @@
+package com.vizio.beacon;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+// Gets the database opened in the background as soon as the process starts,
+// whatever started it (the launcher, BootReceiver, the service coming back),
+// so it's ready by the time the list or the service first queries it.
+public class BeaconApplication extends Application {
+    private static final String LOG_TAG = "Beacon.Application";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Futures.addCallback(Storage.prewarm(BeaconApplication.this), new FutureCallback<Storage.Database>() {
+            @Override
+            public void onSuccess(Storage.Database result) { }
+
+            // The first real query will fail the same way; this just says
+            // so early.
+            @Override
+            public void onFailure(@NonNull Throwable t)
+            { Log.e(LOG_TAG, "Opening the database failed", t); }
+        }, MoreExecutors.directExecutor());
+    }
+}
@@ -0,0 +1,87 @@
+package com.vizio.beacon;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.util.Log;
+
+import java.util.List;
+
+// Feeds everything BluetoothLeScanner sees into a ScanPipeline. The
+// callbacks only copy the result into the pipeline's ring; all the work
+// happens on the pipeline's worker. Callers are responsible for holding the
+// scan (and location) permissions before starting. Starts, stops and
+// failures go into the event log.
+@SuppressLint("MissingPermission")
+public class BeaconScanner {
+    private static final String LOG_TAG = "Beacon.Scanner";
+
+    private final ScanPipeline pipeline;
+    private final EventLog eventLog;
+    private BluetoothLeScanner scanner;
+
+    private final ScanCallback callback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            offer(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (ScanResult result: results) {
+                offer(result);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.w(LOG_TAG, "Scan failed: " + errorCode);
+            eventLog.scan(AdvertisingEvent.SCAN_FAILED, errorCode);
+        }
+    };
+
+    public BeaconScanner(ScanPipeline pipeline, EventLog eventLog) {
+        this.pipeline = pipeline;
+        this.eventLog = eventLog;
+    }
+
+    // Returns false if there's no adapter to scan with, or it's off.
+    public boolean start() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !adapter.isEnabled())
+            return false;
+
+        scanner = adapter.getBluetoothLeScanner();
+        if (scanner == null)
+            return false;
+
+        ScanSettings settings = new ScanSettings.Builder()
+            .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+            .build();
+        scanner.startScan(null, settings, callback);
+        eventLog.scan(AdvertisingEvent.SCAN_STARTED, 0);
+        return true;
+    }
+
+    public void stop() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (scanner != null && adapter != null && adapter.isEnabled())
+            scanner.stopScan(callback);
+        if (scanner != null)
+            eventLog.scan(AdvertisingEvent.SCAN_STOPPED, 0);
+        scanner = null;
+    }
+
+    private void offer(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        byte[] bytes = record == null ? null : record.getBytes();
+        pipeline.offer(
+            ScanPipeline.parseAddress(result.getDevice().getAddress()),
+            result.getRssi(), result.getTimestampNanos(),
+            bytes, bytes == null ? 0 : bytes.length);
+    }
+}
@@ -0,0 +1,14 @@
+package com.vizio.beacon;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+// Brings back the advertisers that were enabled before the reboot.
+public class BootReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()))
+            AdvertisingService.launch(context);
+    }
+}
@@ -0,0 +1,254 @@
+package com.vizio.beacon;
+
+import android.content.ComponentName;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Headless control of the advertisers, for test rigs: runs a BatchScript
+// against the stored configs as a single batch (see BatchController) and
+// answers with what became of each advertiser. From a shell:
+//
+//   adb shell content call --uri content://com.vizio.beacon.control \
+//       --method batch --arg 'swap 1 2 > 3 4; update 5 power=3'
+//
+// Updates are stored before the batch runs, and the enabled flags follow
+// the batch, just like changes made in the UI. Only the shell, root, and
+// apps holding the CONTROL permission may call it.
+//
+// The answer has the report as text under "text", and the same per
+// advertiser in parallel arrays ("ids", "commands", "states", "codes",
+// "settled", "nanos"), plus the batch's timings; or just "error".
+public class ControlProvider extends ContentProvider {
+    private static final String LOG_TAG = "Beacon.Control";
+    private static final String METHOD_BATCH = "batch";
+    private static final String PERMISSION = "com.vizio.beacon.permission.CONTROL";
+    private static final int SHELL_UID = 2000;
+
+    // Binding, loading and storing come on top of the batch's own timeout.
+    private static final long WAIT_MILLIS = AdvertisingService.BATCH_TIMEOUT_MILLIS + 10_000;
+
+    private SettableFuture<AdvertisingService> service;
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    // Called on a binder thread, so it may wait.
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        checkCaller();
+        if (!METHOD_BATCH.equals(method))
+            return error("Unknown method " + method);
+
+        try {
+            BatchScript script = BatchScript.parse(arg == null ? "" : arg);
+            if (script.isEmpty())
+                return error("Nothing to do");
+            return report(run(script));
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage());
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, e.getCause().toString());
+            return error(e.getCause().toString());
+        } catch (TimeoutException e) {
+            return error("Timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return error("Interrupted");
+        }
+    }
+
+    private void checkCaller() {
+        int uid = Binder.getCallingUid();
+        if (uid == Process.myUid() || uid == SHELL_UID || uid == 0)
+            return;
+        if (getContext().checkCallingPermission(PERMISSION) != PackageManager.PERMISSION_GRANTED)
+            throw new SecurityException("Uid " + uid + " doesn't hold " + PERMISSION);
+    }
+
+    private BatchController.Report run(BatchScript script)
+    throws InterruptedException, ExecutionException, TimeoutException {
+        Storage.AdvertiserConfigDao dao = Storage.getDatabase(getContext()).advertiserConfigDao();
+
+        Set<Long> ids = new LinkedHashSet<>(script.starts);
+        for (BatchScript.Update update: script.updates) {
+            ids.addAll(update.ids);
+        }
+        Map<Long, AdvertiserConfig> configs = new HashMap<>();
+        for (AdvertiserConfig config: dao.getByIds(new ArrayList<>(ids)).get(WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            configs.put(config.id, config);
+        }
+        for (long id: ids) {
+            if (!configs.containsKey(id))
+                throw new IllegalArgumentException("No advertiser " + id);
+        }
+
+        Map<Long, AdvertiserConfig> updated = new LinkedHashMap<>();
+        for (BatchScript.Update update: script.updates) {
+            for (long id: update.ids) {
+                AdvertiserConfig config = configs.get(id);
+                update.applyTo(config);
+                updated.put(id, config);
+            }
+        }
+        // Nothing is stored unless every update checks out.
+        PayloadEncoder encoder = new PayloadEncoder();
+        for (AdvertiserConfig config: updated.values()) {
+            try {
+                ConfigFields.check(config, encoder);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Advertiser " + config.id + ": " + e.getMessage());
+            }
+        }
+        if (!updated.isEmpty()) {
+            dao.updateAll(new ArrayList<>(updated.values())).get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            // Read back, so the engine gets them with their new revisions.
+            List<Long> updatedIds = new ArrayList<>(updated.keySet());
+            for (AdvertiserConfig config: dao.getByIds(updatedIds).get(WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                configs.put(config.id, config);
+            }
+        }
+
+        BatchController.Batch batch = new BatchController.Batch();
+        for (long id: script.stops) {
+            batch.stop(id);
+        }
+        for (long id: updated.keySet()) {
+            batch.update(configs.get(id));
+        }
+        for (long id: script.starts) {
+            batch.start(configs.get(id));
+        }
+
+        return service().get(WAIT_MILLIS, TimeUnit.MILLISECONDS)
+            .submit(batch)
+            .get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // The service may not be allowed into the foreground when we're called
+    // from the background, so the binding is kept for as long as the
+    // process lives, to keep whatever the batches started on air.
+    private synchronized SettableFuture<AdvertisingService> service() {
+        if (service != null)
+            return service;
+
+        SettableFuture<AdvertisingService> future = SettableFuture.create();
+        ServiceConnection connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder binder) {
+                future.set(((AdvertisingService.LocalBinder) binder).getService());
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) { }
+        };
+        Context context = getContext();
+        context.bindService(new Intent(context, AdvertisingService.class), connection, Context.BIND_AUTO_CREATE);
+        service = future;
+        return future;
+    }
+
+    private static Bundle report(BatchController.Report report) {
+        int size = report.results.size();
+        long[] ids = new long[size];
+        int[] commands = new int[size];
+        int[] states = new int[size];
+        int[] codes = new int[size];
+        boolean[] settled = new boolean[size];
+        long[] nanos = new long[size];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            BatchController.Result result = report.results.get(i);
+            ids[i] = result.id;
+            commands[i] = result.command;
+            states[i] = result.status.state;
+            codes[i] = result.status.errorCode;
+            settled[i] = result.settled;
+            nanos[i] = result.nanos;
+            text.append(result).append('\n');
+        }
+        text.append(String.format(Locale.ROOT, "%d in %.2f ms (queued %.2f ms, applied in %.2f ms)",
+            size, report.totalNanos / 1e6, report.queuedNanos / 1e6, report.applyNanos / 1e6));
+
+        Bundle bundle = new Bundle();
+        bundle.putString("text", text.toString());
+        bundle.putLongArray("ids", ids);
+        bundle.putIntArray("commands", commands);
+        bundle.putIntArray("states", states);
+        bundle.putIntArray("codes", codes);
+        bundle.putBooleanArray("settled", settled);
+        bundle.putLongArray("nanos", nanos);
+        bundle.putLong("queued_nanos", report.queuedNanos);
+        bundle.putLong("apply_nanos", report.applyNanos);
+        bundle.putLong("total_nanos", report.totalNanos);
+        return bundle;
+    }
+
+    private static Bundle error(String message) {
+        Bundle bundle = new Bundle();
+        bundle.putString("error", message);
+        return bundle;
+    }
+
+    // Nothing to query; everything goes through call().
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+                      @Nullable String[] selectionArgs) {
+        return 0;
+    }
+}
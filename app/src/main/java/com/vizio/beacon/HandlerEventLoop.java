@@ -0,0 +1,27 @@
+package com.vizio.beacon;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+public class HandlerEventLoop implements EventLoop {
+    private final Handler handler;
+
+    public HandlerEventLoop(Looper looper) {
+        this.handler = new Handler(looper);
+    }
+
+    public Handler getHandler() { return handler; }
+
+    @Override
+    public long now() { return SystemClock.elapsedRealtime(); }
+
+    @Override
+    public void post(Runnable task) { handler.post(task); }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) { handler.postDelayed(task, delayMillis); }
+
+    @Override
+    public void cancel(Runnable task) { handler.removeCallbacks(task); }
+}
@@ -0,0 +1,91 @@
+package com.vizio.beacon;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+// A JSON array of objects, one per config, with the keys and value types of
+// ConfigFields. Unknown keys are ignored and missing ones keep their default
+// values.
+public class JsonConfigFormat implements ConfigFormat {
+    @Override
+    public Source source(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        reader.beginArray();
+        return new Source() {
+            private int record;
+
+            @Override
+            public AdvertiserConfig read() throws IOException {
+                if (!reader.hasNext()) {
+                    reader.endArray();
+                    return null;
+                }
+
+                record++;
+                AdvertiserConfig config = new AdvertiserConfig();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    int field = ConfigFields.indexOf(reader.nextName());
+                    if (field < 0 || reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                        continue;
+                    }
+
+                    String value = reader.peek() == JsonToken.BOOLEAN
+                        ? String.valueOf(reader.nextBoolean())
+                        : reader.nextString();
+                    try {
+                        ConfigFields.set(config, field, value);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(
+                            "Record " + record + ", " + ConfigFields.NAMES[field] + ": " + e.getMessage());
+                    }
+                }
+                reader.endObject();
+                return config;
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    @Override
+    public Sink sink(Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent("  ");
+        writer.beginArray();
+        return new Sink() {
+            @Override
+            public void write(AdvertiserConfig config) throws IOException {
+                writer.beginObject();
+                for (int i = 0; i < ConfigFields.NAMES.length; i++) {
+                    String value = ConfigFields.get(config, i);
+                    if (value == null)
+                        continue;
+
+                    writer.name(ConfigFields.NAMES[i]);
+                    switch (ConfigFields.type(i)) {
+                        case ConfigFields.NUMBER: writer.value(Long.parseLong(value)); break;
+                        case ConfigFields.FLAG: writer.value(Boolean.parseBoolean(value)); break;
+                        default: writer.value(value); break;
+                    }
+                }
+                writer.endObject();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.endArray();
+                writer.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,83 @@
+package com.vizio.beacon;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The AdvertiserBackend for BluetoothLeAdvertiser.startAdvertising(), one
+// legacy advertisement per config; the bookkeeping lives in
+// LeAdvertiserBackend, so it can be tested against a SimulatedAdvertiser.
+// Callers are responsible for holding the Bluetooth permissions before
+// starting anything.
+public class LegacyBackend extends LeAdvertiserBackend {
+    public LegacyBackend(EventLoop loop) {
+        super(loop, new Adapter());
+    }
+
+    @SuppressLint("MissingPermission")
+    private static class Adapter implements LeAdvertiser {
+        private static final String LOG_TAG = "Beacon.LegacyBackend";
+
+        private final Advertisements advertisements = new Advertisements();
+        // The framework's callback for each of ours, until stopped or
+        // failed; failures come in on a binder thread.
+        private final Map<AdvertiseCallback, android.bluetooth.le.AdvertiseCallback> callbacks =
+            new ConcurrentHashMap<>();
+
+        @Override
+        public boolean isEnabled() {
+            BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+            return adapter != null && adapter.isEnabled() && adapter.getBluetoothLeAdvertiser() != null;
+        }
+
+        @Override
+        public void startAdvertising(AdvertiserConfig config, AdvertiseCallback callback) {
+            PreparedAdvertisement prepared;
+            try {
+                prepared = advertisements.prepare(config);
+            } catch (IllegalArgumentException e) {
+                Log.w(LOG_TAG, "Can't advertise " + config.label + ": " + e.getMessage());
+                throw e;
+            }
+
+            long id = config.id;
+            android.bluetooth.le.AdvertiseCallback advertiseCallback = new android.bluetooth.le.AdvertiseCallback() {
+                @Override
+                public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+                    super.onStartSuccess(settingsInEffect);
+                    Log.i(LOG_TAG, "onStartSuccess " + id);
+                    callback.onStartSuccess(Advertisements.txPowerDbm(settingsInEffect.getTxPowerLevel()));
+                }
+
+                @Override
+                public void onStartFailure(int errorCode) {
+                    super.onStartFailure(errorCode);
+                    Log.i(LOG_TAG, "onStartFailure " + id + ": " + errorCode);
+                    callbacks.remove(callback, this);
+                    callback.onStartFailure(errorCode);
+                }
+            };
+
+            callbacks.put(callback, advertiseCallback);
+            advertiser().startAdvertising(prepared.settings, prepared.data, prepared.scanResponse, advertiseCallback);
+        }
+
+        @Override
+        public void stopAdvertising(AdvertiseCallback callback) {
+            // With the adapter off there's no advertiser to tell; the
+            // advertisement went with it.
+            android.bluetooth.le.AdvertiseCallback advertiseCallback = callbacks.remove(callback);
+            if (advertiseCallback != null && isEnabled())
+                advertiser().stopAdvertising(advertiseCallback);
+        }
+
+        private static BluetoothLeAdvertiser advertiser() {
+            return BluetoothAdapter.getDefaultAdapter().getBluetoothLeAdvertiser();
+        }
+    }
+}
@@ -2,34 +2,70 @@ package com.vizio.beacon;
 
 // There is a lot of UI-related noise in the file - if you want to get
 // straight to some Bluetooth action, start with the startAdvertising() and
-// stopAdvertising() functions.
+// stopAdvertising() functions, and follow them through AdvertisingService,
+// CommandQueue and SlotScheduler into LegacyBackend.
 
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.le.AdvertiseCallback;
-import android.bluetooth.le.AdvertiseData;
-import android.bluetooth.le.AdvertiseSettings;
-import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Looper;
+import android.text.format.DateFormat;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.ViewTreeObserver;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
+import androidx.core.os.TraceCompat;
+import androidx.paging.CombinedLoadStates;
+import androidx.paging.LoadState;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-
-import java.util.ArrayDeque;
-import java.util.Map;
-import java.util.TreeMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
 
 public class MainActivity
 extends AppCompatActivity
@@ -37,23 +73,64 @@ implements NewAdvertiserDialog.Listener, AdvertisersList.Listener {
     private static final int ADVERTISE_PERMISSION = 0;
     private static final int CONNECT_PERMISSION = 1;
     private static final int ENABLE_BLUETOOTH_REQUEST = 2;
+    private static final int IMPORT_REQUEST = 4;
+    private static final int EXPORT_JSON_REQUEST = 5;
+    private static final int EXPORT_CSV_REQUEST = 6;
+    private static final int EXPORT_EVENTS_REQUEST = 7;
 
     private final String LOG_TAG = "Beacon";
-    private final Map<Integer, ArrayDeque<Continuation>> pending = new TreeMap<>();
-    private final Map<Long, AdvertiseCallback> advertiseCallbacks = new TreeMap<>();
+    private static final String FIRST_LIST_SECTION = "Beacon.firstList";
     private AdvertisersList advertisersList;
+    private AdvertisingService service;
+
+    // What switching an advertiser on has to get through first; see Gate.
+    // The permission gates let everything through before Android 12.
+    private final Gate connectGate = permissionGate(CONNECT_PERMISSION, Manifest.permission.BLUETOOTH_CONNECT);
+    private final Gate advertiseGate = permissionGate(ADVERTISE_PERMISSION, Manifest.permission.BLUETOOTH_ADVERTISE);
+    private final Gate bluetoothGate = new Gate(this::isBluetoothEnabled, this::requestBluetooth, false);
+    // We bind in onCreate(), so there is nothing to ask for; the service is
+    // usually there long before the first click.
+    private final Gate serviceGate = new Gate(() -> service != null, () -> { }, false);
+
+    // Typing only queries the database once it pauses for this long.
+    private static final long SEARCH_DELAY_MILLIS = 300;
+    private final Debouncer search = new Debouncer(
+        new HandlerEventLoop(Looper.getMainLooper()), SEARCH_DELAY_MILLIS, this::applySearch);
+    private String searchText = "";
+
+    // Imports, exports and fleets run one at a time, off the UI thread.
+    private final ExecutorService transfers = Executors.newSingleThreadExecutor();
+    // Whether exports carry Eddystone-EID identity keys; asked for from the
+    // menu each time the activity starts.
+    private boolean exportKeys;
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((AdvertisingService.LocalBinder) binder).getService();
+            advertisersList.attach(service.getStatusBoard());
+            serviceGate.complete(true);
+        }
 
-    private interface Continuation {
-        void onSuccess();
-        void onFailure();
-    }
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            advertisersList.detach();
+            service = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        TraceCompat.beginAsyncSection(FIRST_LIST_SECTION, 0);
         setTitle(R.string.app_name);
         setContentView(R.layout.activity_main);
 
+        // The advertisers themselves live in the service, and outlive us.
+        bindService(
+            new Intent(MainActivity.this, AdvertisingService.class),
+            connection, Context.BIND_AUTO_CREATE);
+
         Toolbar toolbar = findViewById(R.id.main_toolbar);
         setSupportActionBar(toolbar);
 
@@ -65,8 +142,9 @@ implements NewAdvertiserDialog.Listener, AdvertisersList.Listener {
 
         RecyclerView recyclerView = findViewById(R.id.recycler);
         recyclerView.setLayoutManager(new LinearLayoutManager(MainActivity.this));
-        advertisersList = new AdvertisersList(MainActivity.this);
+        advertisersList = new AdvertisersList(MainActivity.this, MainActivity.this);
         recyclerView.setAdapter(advertisersList);
+        traceFirstList(recyclerView);
 
         new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(0, ItemTouchHelper.RIGHT) {
             @Override
@@ -84,180 +162,392 @@ implements NewAdvertiserDialog.Listener, AdvertisersList.Listener {
         }).attachToRecyclerView(recyclerView);
     }
 
-    @Override
-    public void onAdvertiserAdded(Storage.AdvertiserConfig config) {
-        advertisersList.add(config);
+    // Ends the startup trace section, and reports the activity fully drawn,
+    // on the first frame drawn after the first page of advertisers (or the
+    // lack of any) came in.
+    private void traceFirstList(RecyclerView recyclerView) {
+        boolean[] loading = {false};
+        advertisersList.addLoadStateListener(new Function1<CombinedLoadStates, Unit>() {
+            @Override
+            public Unit invoke(CombinedLoadStates states) {
+                LoadState refresh = states.getRefresh();
+                if (refresh instanceof LoadState.Loading) {
+                    loading[0] = true;
+                } else if (loading[0]) {
+                    advertisersList.removeLoadStateListener(this);
+                    recyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                        @Override
+                        public boolean onPreDraw() {
+                            recyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                            TraceCompat.endAsyncSection(FIRST_LIST_SECTION, 0);
+                            reportFullyDrawn();
+                            return true;
+                        }
+                    });
+                }
+                return Unit.INSTANCE;
+            }
+        });
     }
 
     @Override
-    public void onAdvertiserToggled(Storage.AdvertiserConfig config, boolean enabled) {
-        if (enabled) startAdvertising(config);
-        else stopAdvertising(config);
+    protected void onDestroy() {
+        super.onDestroy();
+        search.cancel();
+        advertisersList.detach();
+        unbindService(connection);
+        transfers.shutdown();
     }
 
-    private void withBluetooth(Continuation continuation) {
-        withPermission(CONNECT_PERMISSION, new Continuation() {
-            @SuppressLint("MissingPermission")
-            @Override
-            public void onSuccess() {
-                BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
-                if (adapter == null) {
-                    Log.w(LOG_TAG, "No bluetooth adapters found");
-                    continuation.onFailure();
-                    return;
-                }
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.export_keys).setChecked(exportKeys);
 
-                if (adapter.isEnabled()) {
-                    continuation.onSuccess();
-                } else {
-                    getPending(ENABLE_BLUETOOTH_REQUEST).add(continuation);
-                    Intent intent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
-                    startActivityForResult(intent, ENABLE_BLUETOOTH_REQUEST);
-                }
+        SearchView searchView = (SearchView) menu.findItem(R.id.search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchText = query;
+                search.flush();
+                searchView.clearFocus();
+                return true;
             }
 
             @Override
-            public void onFailure() {
-                continuation.onFailure();
+            public boolean onQueryTextChange(String newText) {
+                searchText = newText;
+                search.trigger();
+                return true;
             }
         });
+        return true;
     }
 
-    private void withBluetoothAdvertising(Continuation continuation) {
-        withBluetooth(new Continuation() {
-            @Override
-            public void onSuccess() { withPermission(ADVERTISE_PERMISSION, continuation); }
-            @Override
-            public void onFailure() { continuation.onFailure(); }
+    private void applySearch() {
+        advertisersList.setQuery(AdvertiserQuery.parse(searchText));
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        int itemId = item.getItemId();
+        if (itemId == R.id.show_metrics) {
+            showMetrics();
+        } else if (itemId == R.id.scan) {
+            startActivity(new Intent(MainActivity.this, ScanActivity.class));
+        } else if (itemId == R.id.import_configs) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT)
+                .addCategory(Intent.CATEGORY_OPENABLE)
+                .setType("*/*")
+                .putExtra(Intent.EXTRA_MIME_TYPES, new String[]{
+                    "application/json", "text/csv", "text/comma-separated-values", "text/plain"});
+            startActivityForResult(intent, IMPORT_REQUEST);
+        } else if (itemId == R.id.export_json) {
+            startExport("application/json", "advertisers.json", EXPORT_JSON_REQUEST);
+        } else if (itemId == R.id.export_csv) {
+            startExport("text/csv", "advertisers.csv", EXPORT_CSV_REQUEST);
+        } else if (itemId == R.id.export_events) {
+            startExport("text/csv", "events.csv", EXPORT_EVENTS_REQUEST);
+        } else if (itemId == R.id.export_keys) {
+            exportKeys = !item.isChecked();
+            item.setChecked(exportKeys);
+        } else {
+            return super.onOptionsItemSelected(item);
+        }
+        return true;
+    }
+
+    private void startExport(String type, String name, int requestCode) {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT)
+            .addCategory(Intent.CATEGORY_OPENABLE)
+            .setType(type)
+            .putExtra(Intent.EXTRA_TITLE, name);
+        startActivityForResult(intent, requestCode);
+    }
+
+    // Either format; rows go into the database a chunk per transaction.
+    private void importConfigs(Uri uri) {
+        Storage.AdvertiserConfigDao dao = Storage.getDatabase(MainActivity.this).advertiserConfigDao();
+        transfers.execute(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                getContentResolver().openInputStream(uri), StandardCharsets.UTF_8))) {
+                ConfigFormat format = ConfigTransfer.looksLikeJson(in)
+                    ? new JsonConfigFormat() : new CsvConfigFormat();
+                ConfigFormat.Source source = format.source(in);
+                int[] skipped = new int[1];
+                int count = ConfigTransfer.importAll(
+                    source, ConfigTransfer.CHUNK_SIZE, chunk -> dao.insertAll(chunk).get(),
+                    done -> { }, (record, config) -> skipped[0]++);
+                toast(skipped[0] == 0 ? getString(R.string.imported, count)
+                    : getString(R.string.imported_without_keys, count, skipped[0]));
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Import from " + uri + " failed", e);
+                toast(getString(R.string.import_failed, describe(e)));
+            }
         });
     }
 
-    private void startAdvertising(Storage.AdvertiserConfig config) {
-        withBluetoothAdvertising(new Continuation() {
-            @SuppressLint("MissingPermission")
-            @Override
-            public void onSuccess() {
-                BluetoothLeAdvertiser advertiser =
-                    BluetoothAdapter.getDefaultAdapter().getBluetoothLeAdvertiser();
-
-                AdvertiseSettings settings = (new AdvertiseSettings.Builder())
-                    .setAdvertiseMode(config.mode)
-                    .setConnectable(false)
-                    .setTxPowerLevel(config.power)
-                    .build();
-
-                AdvertiseData data = (new AdvertiseData.Builder())
-                    .setIncludeDeviceName(config.includeDeviceName)
-                    .setIncludeTxPowerLevel(config.includeTxPowerLevel)
-                    .build();
-
-                AdvertiseCallback advertiseCallback = new AdvertiseCallback() {
-                    @Override
-                    public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-                        super.onStartSuccess(settingsInEffect);
-                        Log.i(LOG_TAG, "onStartSuccess");
-                    }
-
-                    @Override
-                    public void onStartFailure(int errorCode) {
-                        super.onStartFailure(errorCode);
-                        Log.i(LOG_TAG, "onStartFailure");
-                    }
-                };
-
-                advertiseCallbacks.put(config.id, advertiseCallback);
-                advertiser.startAdvertising(settings, data, advertiseCallback);
+    // Numbered configs are made as they go into the database, a chunk per
+    // transaction, so only one chunk is ever in memory.
+    private void addFleet(AdvertiserConfig template, int count) {
+        Storage.AdvertiserConfigDao dao = Storage.getDatabase(MainActivity.this).advertiserConfigDao();
+        ProgressBar progress = (ProgressBar) getLayoutInflater().inflate(R.layout.progress_dialog, null);
+        progress.setMax(count);
+        int[] added = new int[1];
+
+        Future<?> job = transfers.submit(() -> {
+            try {
+                ConfigTransfer.importAll(
+                    new FleetGenerator(template, count), ConfigTransfer.CHUNK_SIZE,
+                    chunk -> dao.insertAll(chunk).get(),
+                    done -> {
+                        added[0] = done;
+                        runOnUiThread(() -> progress.setProgress(done));
+                    });
+                toast(getString(R.string.generated_fleet, count));
+            } catch (InterruptedException e) {
+                toast(getString(R.string.fleet_cancelled, added[0]));
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Adding " + count + " advertisers failed", e);
+                toast(getString(R.string.fleet_failed, describe(e)));
             }
+        });
 
-            @Override
-            public void onFailure() {
-                advertisersList.setTumbler(config.id, false);
+        AlertDialog dialog = new AlertDialog.Builder(MainActivity.this)
+            .setTitle(getString(R.string.generating_fleet, count))
+            .setView(progress)
+            .setCancelable(false)
+            .setNegativeButton(R.string.cancel, (d, which) -> job.cancel(true))
+            .show();
+        transfers.execute(() -> runOnUiThread(() -> {
+            if (!isDestroyed()) dialog.dismiss();
+        }));
+    }
+
+    private void exportConfigs(Uri uri, ConfigFormat format) {
+        Storage.AdvertiserConfigDao dao = Storage.getDatabase(MainActivity.this).advertiserConfigDao();
+        boolean withKeys = exportKeys;
+        transfers.execute(() -> {
+            try (ConfigFormat.Sink sink = format.sink(new BufferedWriter(new OutputStreamWriter(
+                getContentResolver().openOutputStream(uri, "wt"), StandardCharsets.UTF_8)))) {
+                int count = ConfigTransfer.exportAll(
+                    (afterId, limit) -> dao.getPage(afterId, limit).get(), ConfigTransfer.CHUNK_SIZE, sink, withKeys);
+                toast(getString(R.string.exported, count));
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Export to " + uri + " failed", e);
+                toast(getString(R.string.export_failed, describe(e)));
             }
         });
     }
 
-    @SuppressLint("MissingPermission")
-    void stopAdvertising(Storage.AdvertiserConfig config) {
-        if (!advertiseCallbacks.containsKey(config.id))
-            return;
+    private void exportEvents(Uri uri) {
+        Storage.EventDao dao = Storage.getDatabase(MainActivity.this).eventDao();
+        transfers.execute(() -> {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                getContentResolver().openOutputStream(uri, "wt"), StandardCharsets.UTF_8))) {
+                int count = EventLog.export(
+                    (afterId, limit) -> dao.getPage(afterId, limit).get(), EventLog.EXPORT_CHUNK_SIZE, out);
+                toast(getString(R.string.exported_events, count));
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Event export to " + uri + " failed", e);
+                toast(getString(R.string.export_failed, describe(e)));
+            }
+        });
+    }
 
-        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
-        if (adapter == null || !adapter.isEnabled())
-            return;
+    private static String describe(Exception e) {
+        Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+    }
 
-        withPermission(ADVERTISE_PERMISSION, optimistic(() -> {
-            adapter.getBluetoothLeAdvertiser()
-                .stopAdvertising(advertiseCallbacks.remove(config.id));
-        }));
+    private void toast(String text) {
+        runOnUiThread(() -> Toast.makeText(MainActivity.this, text, Toast.LENGTH_LONG).show());
     }
 
-    private ArrayDeque<Continuation> getPending(int key) {
-        if (pending.containsKey(key)) {
-            return pending.get(key);
-        } else {
-            ArrayDeque<Continuation> rs = new ArrayDeque<>();
-            pending.put(key, rs);
-            return rs;
+    // The same numbers are available through
+    // adb shell dumpsys activity com.vizio.beacon/.MainActivity
+    // and one advertiser's event log through
+    // adb shell dumpsys activity com.vizio.beacon/.MainActivity events <id>
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd, @NonNull PrintWriter writer, @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (args != null && args.length == 2 && args[0].equals("events") && args[1].matches("\\d+")) {
+            dumpEvents(prefix, writer, Long.parseLong(args[1]));
+            return;
+        }
+        if (service != null) {
+            writer.print(prefix);
+            writer.println("Advertising latencies:");
+            service.getMetrics().dump(writer, prefix + "  ");
+            try {
+                writer.print(service.dumpDutyCycles(prefix).get(1, TimeUnit.SECONDS));
+            } catch (ExecutionException | InterruptedException | TimeoutException e) {
+                writer.println(prefix + "Duty cycles: " + e);
+            }
         }
     }
 
-    private void runPending(int key, boolean branch) {
-        ArrayDeque<Continuation> cs = getPending(key);
-        for (Continuation c: cs) {
-            if (branch) c.onSuccess();
-            else c.onFailure();
+    private void dumpEvents(String prefix, PrintWriter writer, long id) {
+        try {
+            List<AdvertisingEvent> events = Storage.getDatabase(MainActivity.this).eventDao()
+                .getFor(id, 0).get(5, TimeUnit.SECONDS);
+            writer.println(prefix + "Events of advertiser " + id + ":");
+            for (AdvertisingEvent event: events) {
+                writer.println(prefix + "  " + DateFormat.format("yyyy-MM-dd HH:mm:ss", event.time)
+                    + " " + event.describe());
+            }
+        } catch (ExecutionException | InterruptedException | TimeoutException e) {
+            writer.println(prefix + "Events: " + e);
         }
-        cs.clear();
     }
 
-    private void withPermission(int code, Continuation continuation) {
-        String[] permissions;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
-            permissions = new String[]{
-                Manifest.permission.BLUETOOTH_ADVERTISE,
-                Manifest.permission.BLUETOOTH_CONNECT
-            };
-        } else {
-            continuation.onSuccess();
+    private void showMetrics() {
+        if (service == null)
             return;
-        }
 
-        if (ActivityCompat.checkSelfPermission(
-            MainActivity.this, permissions[code]
-        ) == PackageManager.PERMISSION_GRANTED) {
-            continuation.onSuccess();
-        } else {
-            Log.w(LOG_TAG, "Requesting user permission for " + permissions[code]);
-            getPending(code).add(continuation);
-            ActivityCompat.requestPermissions(
-                MainActivity.this,
-                new String[]{permissions[code]}, code);
+        AdvertisingMetrics metrics = service.getMetrics();
+        StringWriter text = new StringWriter();
+        metrics.dump(new PrintWriter(text), "");
+        Log.i(LOG_TAG, "Advertising latencies:\n" + text);
+
+        TextView view = (TextView) getLayoutInflater().inflate(R.layout.metrics_dialog, null);
+        view.setText(text.toString());
+
+        new AlertDialog.Builder(MainActivity.this)
+            .setTitle(R.string.metrics)
+            .setView(view)
+            .setPositiveButton(android.R.string.ok, null)
+            .setNeutralButton(R.string.reset, (dialog, which) -> metrics.reset())
+            .show();
+    }
+
+    @Override
+    public void onAdvertiserAdded(AdvertiserConfig config) {
+        advertisersList.add(config);
+    }
+
+    @Override
+    public void onFleetAdded(AdvertiserConfig template, int count) {
+        addFleet(template, count);
+    }
+
+    // The service picks the change up from the database.
+    @Override
+    public void onAdvertiserEdited(AdvertiserConfig config) {
+        advertisersList.update(config);
+    }
+
+    @Override
+    public void onAdvertiserSelected(AdvertiserConfig config) {
+        NewAdvertiserDialog dialog = NewAdvertiserDialog.edit(config.id);
+        dialog.show(getSupportFragmentManager(), "NewAdvertiserDialog");
+    }
+
+    @Override
+    public void onAdvertiserToggled(AdvertiserConfig config, boolean enabled) {
+        // Latencies count from here, prompts included.
+        long requestedAt = System.nanoTime();
+        if (enabled) startAdvertising(config, requestedAt);
+        else stopAdvertising(config, requestedAt);
+    }
+
+    private void startAdvertising(AdvertiserConfig config, long requestedAt) {
+        whenOpen(Gate.openAll(connectGate, bluetoothGate, advertiseGate, serviceGate), open -> {
+            if (!open) {
+                advertisersList.setTumbler(config.id, false);
+                return;
+            }
+            service.getMetrics().getGate().record(System.nanoTime() - requestedAt);
+            service.start(config, requestedAt);
+        });
+    }
+
+    void stopAdvertising(AdvertiserConfig config, long requestedAt) {
+        whenOpen(Gate.openAll(advertiseGate, serviceGate), open -> {
+            if (!open)
+                return;
+            service.getMetrics().getGate().record(System.nanoTime() - requestedAt);
+            service.stop(config.id, requestedAt);
+        });
+    }
+
+    private Gate permissionGate(int requestCode, String permission) {
+        return new Gate(
+            () -> Build.VERSION.SDK_INT < Build.VERSION_CODES.S
+                || ActivityCompat.checkSelfPermission(MainActivity.this, permission) == PackageManager.PERMISSION_GRANTED,
+            () -> {
+                Log.w(LOG_TAG, "Requesting user permission for " + permission);
+                ActivityCompat.requestPermissions(MainActivity.this, new String[]{permission}, requestCode);
+            },
+            true);
+    }
+
+    @SuppressLint("MissingPermission")
+    private boolean isBluetoothEnabled() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        return adapter != null && adapter.isEnabled();
+    }
+
+    private void requestBluetooth() {
+        if (BluetoothAdapter.getDefaultAdapter() == null) {
+            Log.w(LOG_TAG, "No bluetooth adapters found");
+            bluetoothGate.complete(false);
+            return;
         }
+
+        startActivityForResult(new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE), ENABLE_BLUETOOTH_REQUEST);
     }
 
-    // Turns a Runnable into a Continuation (the Runnable is invoked on success).
-    private Continuation optimistic(Runnable r) {
-        return new Continuation() {
+    private interface GateCallback {
+        void onResult(boolean open);
+    }
+
+    // Gates are only ever opened on the main thread, so the callback runs
+    // right there - straight away if nothing had to be asked for. A gate
+    // that failed counts as closed.
+    private void whenOpen(ListenableFuture<Boolean> gates, GateCallback callback) {
+        Futures.addCallback(gates, new FutureCallback<Boolean>() {
             @Override
-            public void onSuccess() { r.run(); }
+            public void onSuccess(Boolean open)
+            { callback.onResult(open); }
+
             @Override
-            public void onFailure() { }
-        };
+            public void onFailure(@NonNull Throwable t) {
+                Log.e(LOG_TAG, "Gate failed", t);
+                callback.onResult(false);
+            }
+        }, MoreExecutors.directExecutor());
     }
 
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-        runPending(
-            requestCode, grantResults.length > 0 &&
-            grantResults[0] == PackageManager.PERMISSION_GRANTED);
+        boolean granted = grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED;
+        if (requestCode == ADVERTISE_PERMISSION) advertiseGate.complete(granted);
+        else if (requestCode == CONNECT_PERMISSION) connectGate.complete(granted);
     }
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        runPending(
-            requestCode,
-            resultCode == RESULT_OK);
+        Uri uri = resultCode == RESULT_OK && data != null ? data.getData() : null;
+        switch (requestCode) {
+            case IMPORT_REQUEST:
+                if (uri != null) importConfigs(uri);
+                return;
+            case EXPORT_JSON_REQUEST:
+                if (uri != null) exportConfigs(uri, new JsonConfigFormat());
+                return;
+            case EXPORT_CSV_REQUEST:
+                if (uri != null) exportConfigs(uri, new CsvConfigFormat());
+                return;
+            case EXPORT_EVENTS_REQUEST:
+                if (uri != null) exportEvents(uri);
+                return;
+            case ENABLE_BLUETOOTH_REQUEST:
+                bluetoothGate.complete(resultCode == RESULT_OK);
+                return;
+        }
     }
 }
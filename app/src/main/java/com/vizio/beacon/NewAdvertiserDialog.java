@@ -7,20 +7,46 @@ import android.content.DialogInterface;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.Spinner;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.DialogFragment;
 
 import com.google.android.material.textfield.TextInputEditText;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 
+import java.util.Locale;
+
+// Creates a new advertiser config or, when made with edit(), changes an
+// existing one.
 public class NewAdvertiserDialog extends DialogFragment {
+    private static final String ARG_ID = "id";
+    private static final long NO_ID = -1;
+
     public interface Listener {
-        void onAdvertiserAdded(Storage.AdvertiserConfig config);
+        void onAdvertiserAdded(AdvertiserConfig config);
+        void onAdvertiserEdited(AdvertiserConfig config);
+        // For more than one new advertiser; template has been checked with
+        // FleetGenerator.
+        void onFleetAdded(AdvertiserConfig template, int count);
+    }
+
+    public static NewAdvertiserDialog edit(long id) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_ID, id);
+        NewAdvertiserDialog dialog = new NewAdvertiserDialog();
+        dialog.setArguments(args);
+        return dialog;
     }
 
     @NonNull
@@ -35,13 +61,57 @@ public class NewAdvertiserDialog extends DialogFragment {
         txPower = view.findViewById(R.id.tx_power);
         deviceNameCheckbox = view.findViewById(R.id.device_name_checkbox);
         txPowerLevelCheckbox = view.findViewById(R.id.tx_power_level_checkbox);
+        frameType = view.findViewById(R.id.frame_type);
+        frameId = view.findViewById(R.id.frame_id);
+        major = view.findViewById(R.id.major);
+        minor = view.findViewById(R.id.minor);
+        measuredPower = view.findViewById(R.id.measured_power);
+        url = view.findViewById(R.id.url);
+        companyId = view.findViewById(R.id.company_id);
+        frameData = view.findViewById(R.id.frame_data);
+        eidKey = view.findViewById(R.id.eid_key);
+        rotationExponent = view.findViewById(R.id.rotation_exponent);
+        dutyOn = view.findViewById(R.id.duty_on);
+        dutyOff = view.findViewById(R.id.duty_off);
+        windowStart = view.findViewById(R.id.window_start);
+        windowEnd = view.findViewById(R.id.window_end);
+        fleetSize = view.findViewById(R.id.fleet_size);
+        frameFields = new View[]{
+            view.findViewById(R.id.frame_id_layout),
+            view.findViewById(R.id.major_layout),
+            view.findViewById(R.id.minor_layout),
+            view.findViewById(R.id.measured_power_layout),
+            view.findViewById(R.id.url_layout),
+            view.findViewById(R.id.company_id_layout),
+            view.findViewById(R.id.frame_data_layout),
+            view.findViewById(R.id.eid_key_layout),
+            view.findViewById(R.id.rotation_exponent_layout)
+        };
 
         initSpinner(activity, advertisingMode, R.array.advertising_modes);
         initSpinner(activity, txPower, R.array.tx_power_levels);
+        initSpinner(activity, frameType, R.array.frame_types);
+        frameType.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id)
+            { showFrameFields(position); }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent)
+            { showFrameFields(PayloadEncoder.FRAME_NONE); }
+        });
+
+        editId = getArguments() == null ? NO_ID : getArguments().getLong(ARG_ID, NO_ID);
+        if (editId != NO_ID) {
+            TextView title = view.findViewById(R.id.textView);
+            title.setText(R.string.edit_advertisement);
+            view.findViewById(R.id.fleet_size_layout).setVisibility(View.GONE);
+            load(editId);
+        }
 
         return new AlertDialog.Builder(requireActivity())
             .setView(view)
-            .setPositiveButton(R.string.add, this::commit)
+            .setPositiveButton(editId == NO_ID ? R.string.add : R.string.save, this::commit)
             .setNegativeButton(R.string.cancel, this::reject)
             .create();
     }
@@ -52,14 +122,147 @@ public class NewAdvertiserDialog extends DialogFragment {
         listener = (Listener) context;
     }
 
+    private void load(long id) {
+        Futures.addCallback(
+            Storage.getDatabase(requireContext()).advertiserConfigDao().get(id),
+            new FutureCallback<AdvertiserConfig>() {
+                @Override
+                public void onSuccess(AdvertiserConfig config) {
+                    if (config != null) fill(config);
+                }
+
+                @Override
+                public void onFailure(@NonNull Throwable t) {
+                    dismissAllowingStateLoss();
+                }
+            }, ContextCompat.getMainExecutor(requireContext()));
+    }
+
+    private void fill(AdvertiserConfig config) {
+        editing = config;
+        displayName.setText(config.label);
+        advertisingMode.setSelection(config.mode);
+        txPower.setSelection(config.power);
+        deviceNameCheckbox.setChecked(config.includeDeviceName);
+        txPowerLevelCheckbox.setChecked(config.includeTxPowerLevel);
+        frameType.setSelection(config.frameType);
+        showFrameFields(config.frameType);
+        frameId.setText(Hex.format(config.frameId));
+        major.setText(String.valueOf(config.major));
+        minor.setText(String.valueOf(config.minor));
+        measuredPower.setText(String.valueOf(config.measuredPower));
+        url.setText(config.url);
+        companyId.setText(Integer.toHexString(config.companyId));
+        frameData.setText(Hex.format(config.frameData));
+        eidKey.setText(Hex.format(config.eidKey));
+        rotationExponent.setText(String.valueOf(config.rotationExponent));
+        if (config.dutyOnMillis > 0 && config.dutyOffMillis > 0) {
+            dutyOn.setText(formatSeconds(config.dutyOnMillis));
+            dutyOff.setText(formatSeconds(config.dutyOffMillis));
+        }
+        if (config.windowStartMinute != config.windowEndMinute) {
+            windowStart.setText(formatMinute(config.windowStartMinute));
+            windowEnd.setText(formatMinute(config.windowEndMinute));
+        }
+    }
+
     private void commit(DialogInterface dialogInterface, int which) {
-        Storage.AdvertiserConfig config = new Storage.AdvertiserConfig();
+        if (editId != NO_ID && editing == null)
+            return; // Still loading.
+
+        AdvertiserConfig config =
+            editing != null ? editing : new AdvertiserConfig();
         config.label = displayName.getText().toString();
         config.power = txPower.getSelectedItemPosition();
         config.mode = advertisingMode.getSelectedItemPosition();
         config.includeDeviceName = deviceNameCheckbox.isChecked();
         config.includeTxPowerLevel = txPowerLevelCheckbox.isChecked();
-        listener.onAdvertiserAdded(config);
+        config.frameType = frameType.getSelectedItemPosition();
+
+        int count = 1;
+        try {
+            if (frameId.isShown()) config.frameId = Hex.parse(text(frameId));
+            if (major.isShown()) config.major = Integer.parseInt(text(major));
+            if (minor.isShown()) config.minor = Integer.parseInt(text(minor));
+            if (measuredPower.isShown()) config.measuredPower = Integer.parseInt(text(measuredPower));
+            if (url.isShown()) config.url = text(url);
+            if (companyId.isShown()) config.companyId = Integer.parseInt(text(companyId), 16);
+            if (frameData.isShown()) config.frameData = Hex.parse(text(frameData));
+            if (eidKey.isShown()) config.eidKey = Hex.parse(text(eidKey));
+            if (rotationExponent.isShown()) config.rotationExponent = Integer.parseInt(text(rotationExponent));
+            config.dutyOnMillis = parseMillis(text(dutyOn));
+            config.dutyOffMillis = parseMillis(text(dutyOff));
+            config.windowStartMinute = parseMinute(text(windowStart));
+            config.windowEndMinute = parseMinute(text(windowEnd));
+
+            // Catch malformed frames here rather than when the advertiser is switched on.
+            ConfigFields.check(config, new PayloadEncoder());
+
+            if (fleetSize.isShown() && !text(fleetSize).isEmpty())
+                count = Integer.parseInt(text(fleetSize));
+            if (count != 1)
+                new FleetGenerator(config, count);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(requireContext(), e.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        if (editing != null) listener.onAdvertiserEdited(config);
+        else if (count != 1) listener.onFleetAdded(config, count);
+        else listener.onAdvertiserAdded(config);
+    }
+
+    // Which of frameFields (in that order) each frame type uses.
+    private static final boolean[][] FRAME_FIELDS = {
+        /* NONE         */ {false, false, false, false, false, false, false, false, false},
+        /* IBEACON      */ {true,  true,  true,  true,  false, false, false, false, false},
+        /* EDDYSTONE_UID*/ {true,  false, false, true,  false, false, false, false, false},
+        /* EDDYSTONE_URL*/ {false, false, false, true,  true,  false, false, false, false},
+        /* EDDYSTONE_TLM*/ {false, false, false, false, false, false, false, false, false},
+        /* MANUFACTURER */ {false, false, false, false, false, true,  true,  false, false},
+        /* EDDYSTONE_EID*/ {false, false, false, true,  false, false, false, true,  true},
+    };
+
+    private void showFrameFields(int type) {
+        for (int i = 0; i < frameFields.length; i++) {
+            frameFields[i].setVisibility(FRAME_FIELDS[type][i] ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    // Empty means no duty cycle.
+    private static long parseMillis(String seconds) {
+        if (seconds.isEmpty())
+            return 0;
+        return Math.round(Double.parseDouble(seconds) * 1000);
+    }
+
+    private static String formatSeconds(long millis) {
+        return millis % 1000 == 0
+            ? String.valueOf(millis / 1000)
+            : String.valueOf(millis / 1000.0);
+    }
+
+    // HH:MM to minutes after midnight; empty means no window.
+    private int parseMinute(String time) {
+        if (time.isEmpty())
+            return 0;
+
+        String[] parts = time.split(":");
+        if (parts.length != 2)
+            throw new IllegalArgumentException(getString(R.string.bad_time));
+        int hours = Integer.parseInt(parts[0]);
+        int minutes = Integer.parseInt(parts[1]);
+        if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59)
+            throw new IllegalArgumentException(getString(R.string.bad_time));
+        return (hours * 60 + minutes) % (24 * 60);
+    }
+
+    private static String formatMinute(int minute) {
+        return String.format(Locale.ROOT, "%02d:%02d", minute / 60, minute % 60);
+    }
+
+    private static String text(EditText field) {
+        return field.getText() == null ? "" : field.getText().toString().trim();
     }
 
     private void reject(DialogInterface dialogInterface, int which) {
@@ -79,5 +282,23 @@ public class NewAdvertiserDialog extends DialogFragment {
     private Spinner txPower;
     private CheckBox deviceNameCheckbox;
     private CheckBox txPowerLevelCheckbox;
+    private Spinner frameType;
+    private TextInputEditText frameId;
+    private TextInputEditText major;
+    private TextInputEditText minor;
+    private TextInputEditText measuredPower;
+    private TextInputEditText url;
+    private TextInputEditText companyId;
+    private TextInputEditText frameData;
+    private TextInputEditText eidKey;
+    private TextInputEditText rotationExponent;
+    private TextInputEditText dutyOn;
+    private TextInputEditText dutyOff;
+    private TextInputEditText windowStart;
+    private TextInputEditText windowEnd;
+    private TextInputEditText fleetSize;
+    private View[] frameFields;
     private Listener listener;
+    private long editId;
+    private AdvertiserConfig editing;
 }
@@ -0,0 +1,36 @@
+package com.vizio.beacon;
+
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetParameters;
+
+// Everything the framework needs to put one config on air, built once per
+// config revision by Advertisements.prepare(). The framework objects are
+// immutable, so one instance can be handed to the controller any number of
+// times.
+public final class PreparedAdvertisement {
+    public final long id;
+    public final long revision;
+    // For BluetoothLeAdvertiser.startAdvertising().
+    public final AdvertiseSettings settings;
+    // For advertising sets; null before Android 8.
+    public final AdvertisingSetParameters parameters;
+    public final AdvertiseData data;
+    // Beacons aren't scannable, so there's none for now.
+    public final AdvertiseData scanResponse;
+
+    PreparedAdvertisement(
+        AdvertiserConfig config,
+        AdvertiseSettings settings,
+        AdvertisingSetParameters parameters,
+        AdvertiseData data,
+        AdvertiseData scanResponse)
+    {
+        this.id = config.id;
+        this.revision = config.revision;
+        this.settings = settings;
+        this.parameters = parameters;
+        this.data = data;
+        this.scanResponse = scanResponse;
+    }
+}
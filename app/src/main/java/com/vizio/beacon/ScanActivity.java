@@ -0,0 +1,134 @@
+package com.vizio.beacon;
+
+import android.Manifest;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.core.app.ActivityCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+// Lists the beacons around us, for checking that a fleet is actually on air.
+// The list is redrawn at FRAMES_PER_SECOND no matter how many results the
+// scanner delivers.
+public class ScanActivity extends AppCompatActivity {
+    private static final String LOG_TAG = "Beacon.Scan";
+    private static final int SCAN_PERMISSION = 0;
+    private static final int FRAMES_PER_SECOND = 10;
+
+    private final ScanPipeline pipeline = new ScanPipeline();
+    private BeaconScanner scanner;
+    private ScanResultsList results;
+    private Toolbar toolbar;
+    private boolean scanning;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_scan);
+        scanner = new BeaconScanner(pipeline, Storage.getEventLog(ScanActivity.this));
+
+        toolbar = findViewById(R.id.scan_toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null)
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        RecyclerView recyclerView = findViewById(R.id.scan_results);
+        recyclerView.setLayoutManager(new LinearLayoutManager(ScanActivity.this));
+        // Rows change every frame; skip the change animations.
+        recyclerView.setItemAnimator(null);
+        results = new ScanResultsList(ScanActivity.this);
+        recyclerView.setAdapter(results);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        String[] permissions = permissions();
+        for (String permission: permissions) {
+            if (ActivityCompat.checkSelfPermission(ScanActivity.this, permission) != PackageManager.PERMISSION_GRANTED) {
+                ActivityCompat.requestPermissions(ScanActivity.this, permissions, SCAN_PERMISSION);
+                return;
+            }
+        }
+        startScan();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        stopScan();
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        finish();
+        return true;
+    }
+
+    // Without neverForLocation, scanning needs location access on every
+    // version, as beacons are exactly what it's meant to protect.
+    private static String[] permissions() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return new String[]{
+                Manifest.permission.BLUETOOTH_SCAN,
+                Manifest.permission.ACCESS_FINE_LOCATION
+            };
+        } else {
+            return new String[]{ Manifest.permission.ACCESS_FINE_LOCATION };
+        }
+    }
+
+    private void startScan() {
+        if (scanning)
+            return;
+
+        if (!scanner.start()) {
+            Toast.makeText(ScanActivity.this, R.string.scan_unavailable, Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        scanning = true;
+        pipeline.start(FRAMES_PER_SECOND, snapshot -> runOnUiThread(() -> {
+            results.submit(snapshot);
+            toolbar.setSubtitle(getString(R.string.scan_summary,
+                snapshot.size, snapshot.results, snapshot.dropped + snapshot.overflow));
+        }));
+    }
+
+    private void stopScan() {
+        if (!scanning)
+            return;
+
+        scanning = false;
+        scanner.stop();
+        try {
+            pipeline.stop();
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted stopping the scan worker");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        boolean granted = grantResults.length == permissions.length;
+        for (int result: grantResults) {
+            granted &= result == PackageManager.PERMISSION_GRANTED;
+        }
+
+        if (granted) {
+            startScan();
+        } else {
+            Toast.makeText(ScanActivity.this, R.string.scan_permission_denied, Toast.LENGTH_LONG).show();
+            finish();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.vizio.beacon;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.Locale;
+
+// Shows the latest ScanSnapshot. Beacons keep their position from one
+// snapshot to the next and new ones are appended, so every frame is a
+// change of the existing rows plus an insertion at the end.
+public class ScanResultsList extends RecyclerView.Adapter<ScanResultsList.ViewHolder> {
+    private final String[] frameTypes;
+    private final String[] zones;
+    private final FrameParser parser = new FrameParser();
+    private ScanSnapshot snapshot;
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        public ViewHolder(View view) {
+            super(view);
+            frame = view.findViewById(R.id.frame);
+            address = view.findViewById(R.id.address);
+            stats = view.findViewById(R.id.stats);
+        }
+
+        public TextView getFrame() { return frame; }
+        public TextView getAddress() { return address; }
+        public TextView getStats() { return stats; }
+
+        private final TextView frame;
+        private final TextView address;
+        private final TextView stats;
+    }
+
+    public ScanResultsList(Context context) {
+        frameTypes = context.getResources().getStringArray(R.array.frame_types);
+        zones = context.getResources().getStringArray(R.array.proximity_zones);
+    }
+
+    public ScanSnapshot getSnapshot() { return snapshot; }
+
+    public void submit(ScanSnapshot snapshot) {
+        int before = getItemCount();
+        this.snapshot = snapshot;
+        notifyItemRangeChanged(0, before);
+        if (snapshot.size > before)
+            notifyItemRangeInserted(before, snapshot.size - before);
+    }
+
+    @Override
+    public int getItemCount() {
+        return snapshot == null ? 0 : snapshot.size;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater
+            .from(parent.getContext())
+            .inflate(R.layout.scan_result, parent, false);
+
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        ScanSnapshot s = snapshot;
+        int offset = position * ScanRing.RECORD_MAX;
+        parser.parse(s.records, offset, s.recordLength[position]);
+
+        int frameType = s.frameType[position];
+        String name = frameType < frameTypes.length ? frameTypes[frameType] : String.valueOf(frameType);
+        holder.getFrame().setText(name + " " + parser.describe(s.records));
+        holder.getAddress().setText(ScanPipeline.formatAddress(s.address[position]));
+
+        long age = SystemClock.elapsedRealtimeNanos() - s.lastSeen[position];
+        String stats = String.format(Locale.ROOT,
+            "%d dBm (%.1f ±%.1f, %d…%d)  ×%d  %.1fs ago",
+            s.rssiLast[position], s.rssiMean[position], s.rssiDeviation[position],
+            s.rssiMin[position], s.rssiMax[position], s.count[position], age / 1e9);
+        int zone = s.zone[position];
+        if (zone != ProximityEngine.UNKNOWN)
+            stats += String.format(Locale.ROOT, "  ~%.1f m %s", s.distance[position], zones[zone]);
+        holder.getStats().setText(stats);
+    }
+}
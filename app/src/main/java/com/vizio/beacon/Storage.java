@@ -3,66 +3,549 @@ package com.vizio.beacon;
 import static androidx.room.OnConflictStrategy.REPLACE;
 
 import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.os.TraceCompat;
+import androidx.paging.PagingSource;
 import androidx.room.ColumnInfo;
 import androidx.room.Delete;
 import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.Index;
 import androidx.room.Insert;
 import androidx.room.PrimaryKey;
 import androidx.room.Query;
+import androidx.room.RawQuery;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.Update;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteQuery;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Storage {
+    private static final String LOG_TAG = "Beacon.Storage";
+
+    // Well under SQLite's limit of 999 parameters per statement.
+    private static final int ID_CHUNK_SIZE = 500;
+
+    // How long deletions are remembered for getChangesSince().
+    private static final long TOMBSTONE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    @androidx.room.Dao
+    public interface AdvertiserConfigDao {
+        @Query("SELECT * FROM advertiserconfig ORDER BY id")
+        ListenableFuture<List<AdvertiserConfig>> getAll();
+
+        @Query("SELECT * FROM advertiserconfig ORDER BY id")
+        PagingSource<Integer, AdvertiserConfig> pagingSource();
+
+        // The search box; see AdvertiserQuery.
+        default PagingSource<Integer, AdvertiserConfig> pagingSource(AdvertiserQuery query) {
+            if (query.isEmpty())
+                return pagingSource();
+            return search(new SimpleSQLiteQuery(query.sql(), query.args()));
+        }
+
+        @RawQuery(observedEntities = {AdvertiserConfig.class})
+        PagingSource<Integer, AdvertiserConfig> search(SupportSQLiteQuery query);
+
+        default ListenableFuture<List<AdvertiserConfig>> find(AdvertiserQuery query) {
+            return findRaw(new SimpleSQLiteQuery(query.sql(), query.args()));
+        }
+
+        @RawQuery(observedEntities = {AdvertiserConfig.class})
+        ListenableFuture<List<AdvertiserConfig>> findRaw(SupportSQLiteQuery query);
+
+        @Query("SELECT * FROM advertiserconfig WHERE id = :id")
+        ListenableFuture<AdvertiserConfig> get(long id);
+
+        // Keyset paging for bulk reads: up to limit rows after the given id.
+        @Query("SELECT * FROM advertiserconfig WHERE id > :afterId ORDER BY id LIMIT :limit")
+        ListenableFuture<List<AdvertiserConfig>> getPage(long afterId, int limit);
+
+        @Query("SELECT * FROM advertiserconfig WHERE enabled ORDER BY id")
+        ListenableFuture<List<AdvertiserConfig>> getEnabled();
+
+        @Query("UPDATE advertiserconfig SET enabled = :enabled WHERE id = :id")
+        ListenableFuture<Integer> setEnabled(long id, boolean enabled);
+
+        // The bulk queries by id take their ids a chunk at a time.
+        default ListenableFuture<List<AdvertiserConfig>> getByIds(List<Long> ids) {
+            List<ListenableFuture<List<AdvertiserConfig>>> chunks = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i += ID_CHUNK_SIZE)
+                chunks.add(getIn(ids.subList(i, Math.min(ids.size(), i + ID_CHUNK_SIZE))));
+            return Futures.transform(Futures.allAsList(chunks), lists -> {
+                List<AdvertiserConfig> configs = new ArrayList<>();
+                for (List<AdvertiserConfig> list: lists)
+                    configs.addAll(list);
+                return configs;
+            }, MoreExecutors.directExecutor());
+        }
+
+        @Query("SELECT * FROM advertiserconfig WHERE id IN (:ids) ORDER BY id")
+        ListenableFuture<List<AdvertiserConfig>> getIn(List<Long> ids);
+
+        default ListenableFuture<List<Integer>> setEnabledAll(List<Long> ids, boolean enabled) {
+            List<ListenableFuture<Integer>> chunks = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i += ID_CHUNK_SIZE)
+                chunks.add(setEnabledIn(ids.subList(i, Math.min(ids.size(), i + ID_CHUNK_SIZE)), enabled));
+            return Futures.allAsList(chunks);
+        }
+
+        @Query("UPDATE advertiserconfig SET enabled = :enabled WHERE id IN (:ids)")
+        ListenableFuture<Integer> setEnabledIn(List<Long> ids, boolean enabled);
+
+        @Insert(onConflict = REPLACE)
+        ListenableFuture<Long> insert(AdvertiserConfig advertiserConfig);
+
+        @Update
+        ListenableFuture<Integer> update(AdvertiserConfig advertiserConfig);
+
+        @Delete
+        ListenableFuture<Integer> delete(AdvertiserConfig advertiserConfig);
+
+        // The bulk variants each run in a single transaction, so the list
+        // sees one change per batch rather than one per row.
+        @Insert(onConflict = REPLACE)
+        ListenableFuture<List<Long>> insertAll(List<AdvertiserConfig> advertiserConfigs);
+
+        @Update
+        ListenableFuture<Integer> updateAll(List<AdvertiserConfig> advertiserConfigs);
+
+        @Delete
+        ListenableFuture<Integer> deleteAll(List<AdvertiserConfig> advertiserConfigs);
+
+        // Incremental sync: what happened to the configs after the given
+        // revision, oldest first and at most limit of it. Each config
+        // inserted or updated since turns up once, at its latest revision,
+        // and so does each one deleted since. Carry on from the last
+        // revision seen until less than limit comes back; a config that
+        // changes again meanwhile simply turns up again later.
+        @Query("SELECT `id`, `revision`, 0 AS `deleted` FROM advertiserconfig WHERE revision > :revision"
+            + " UNION ALL SELECT `id`, `revision`, 1 AS `deleted` FROM advertisertombstone WHERE revision > :revision"
+            + " ORDER BY `revision` LIMIT :limit")
+        ListenableFuture<List<ConfigChange>> getChangesSince(long revision, int limit);
+
+        // Where to start syncing from after loading everything; 0 for a
+        // database that has never had a config.
+        @Query("SELECT max(ifnull((SELECT max(revision) FROM advertiserconfig), 0),"
+            + " ifnull((SELECT max(revision) FROM advertisertombstone), 0))")
+        ListenableFuture<Long> getRevision();
+
+        // Forgets deletions made before the given time. The latest one is
+        // always kept, as the next revision is worked out from it.
+        @Query("DELETE FROM advertisertombstone WHERE deleted_at < :before"
+            + " AND revision < (SELECT max(revision) FROM advertisertombstone)")
+        ListenableFuture<Integer> deleteTombstonesBefore(long before);
+    }
+
+    // The full-text index behind the search box: each config's label, and
+    // the ids it advertises (frame id as hex and as a UUID, iBeacon
+    // major/minor, URL, company id). Kept in step with advertiserconfig by
+    // triggers, rather than by Room, because the ids are worked out from
+    // several columns.
+    @Fts4
     @Entity
-    public static class AdvertiserConfig {
-        @PrimaryKey(autoGenerate = true)
-        public Long id;
+    public static class AdvertiserSearch {
+        @PrimaryKey
+        @ColumnInfo(name = "rowid")
+        public long rowid;
 
         @ColumnInfo(name = "label")
         public String label;
 
-        @ColumnInfo(name = "power")
-        public int power;
+        @ColumnInfo(name = "ids")
+        public String ids;
+    }
+
+    // What's left of a deleted config, so getChangesSince() can tell about
+    // the deletion. Kept by triggers too (see createRevisionTriggers()).
+    @Entity(indices = {@Index("revision")})
+    public static class AdvertiserTombstone {
+        @PrimaryKey
+        @ColumnInfo(name = "id")
+        public long id;
 
-        @ColumnInfo(name = "mode")
-        public int mode;
+        @ColumnInfo(name = "revision")
+        public long revision;
 
-        @ColumnInfo(name = "include_device_name")
-        public boolean includeDeviceName;
+        @ColumnInfo(name = "deleted_at")
+        public long deletedAt;
+    }
 
-        @ColumnInfo(name = "include_tx_power_level")
-        public boolean includeTxPowerLevel;
+    // A row of getChangesSince().
+    public static class ConfigChange {
+        public long id;
+        public long revision;
+        public boolean deleted;
     }
 
     @androidx.room.Dao
-    public interface AdvertiserConfigDao {
-        @Query("SELECT * FROM advertiserconfig")
-        ListenableFuture<List<AdvertiserConfig>> getAll();
+    public interface EventDao {
+        @Insert
+        ListenableFuture<List<Long>> insertAll(List<AdvertisingEvent> events);
 
-        @Insert(onConflict = REPLACE)
-        ListenableFuture<Long> insert(AdvertiserConfig advertiserConfig);
+        @Query("SELECT * FROM advertisingevent WHERE config_id = :configId AND time >= :since ORDER BY id")
+        ListenableFuture<List<AdvertisingEvent>> getFor(long configId, long since);
 
-        @Delete
-        ListenableFuture<Integer> delete(AdvertiserConfig advertiserConfig);
+        // For export.
+        @Query("SELECT * FROM advertisingevent WHERE id > :afterId ORDER BY id LIMIT :limit")
+        ListenableFuture<List<AdvertisingEvent>> getPage(long afterId, int limit);
+
+        @Query("DELETE FROM advertisingevent WHERE time < :before")
+        ListenableFuture<Integer> deleteBefore(long before);
+
+        @Query("DELETE FROM advertisingevent WHERE id <= (SELECT id FROM advertisingevent ORDER BY id DESC LIMIT 1 OFFSET :keep)")
+        ListenableFuture<Integer> deleteAllBut(int keep);
     }
 
-    @androidx.room.Database(entities = {AdvertiserConfig.class}, version = 1)
+    @androidx.room.Database(
+        entities = {AdvertiserConfig.class, AdvertiserSearch.class, AdvertisingEvent.class, AdvertiserTombstone.class},
+        version = 10,
+        exportSchema = true)
     public abstract static class Database extends RoomDatabase {
         public abstract AdvertiserConfigDao advertiserConfigDao();
+        public abstract EventDao eventDao();
     }
 
-    private static Database database = null;
+    // Beacon frame columns.
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `frame_type` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `frame_id` BLOB");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `major` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `minor` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `measured_power` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `url` TEXT");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `company_id` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `frame_data` BLOB");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `enabled` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `version` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `duty_on_millis` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `duty_off_millis` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `window_start_minute` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `window_end_minute` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Filter indexes and the search index.
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            for (String column: new String[]{"mode", "power", "frame_type", "enabled"}) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_AdvertiserConfig_" + column
+                    + "` ON `AdvertiserConfig` (`" + column + "`)");
+            }
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `AdvertiserSearch` USING FTS4(`label` TEXT, `ids` TEXT)");
+            db.execSQL("INSERT INTO `AdvertiserSearch` (rowid, `label`, `ids`)"
+                + " SELECT `id`, `label`, " + searchIds("AdvertiserConfig") + " FROM `AdvertiserConfig`");
+            createSearchTriggers(db);
+        }
+    };
+
+    // Event log.
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `AdvertisingEvent` (`id` INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + " `time` INTEGER NOT NULL, `config_id` INTEGER, `type` INTEGER NOT NULL,"
+                + " `state` INTEGER NOT NULL, `code` INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_AdvertisingEvent_config_id_time`"
+                + " ON `AdvertisingEvent` (`config_id`, `time`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_AdvertisingEvent_time` ON `AdvertisingEvent` (`time`)");
+        }
+    };
+
+    // Eddystone-EID.
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `eid_key` BLOB");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `rotation_exponent` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
 
+    // Revisions and tombstones. Existing configs get their revisions in id
+    // order.
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `revision` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `AdvertiserConfig` ADD COLUMN `updated_at` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_AdvertiserConfig_revision` ON `AdvertiserConfig` (`revision`)");
+            db.execSQL("CREATE TABLE IF NOT EXISTS `AdvertiserTombstone` (`id` INTEGER NOT NULL,"
+                + " `revision` INTEGER NOT NULL, `deleted_at` INTEGER NOT NULL, PRIMARY KEY(`id`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_AdvertiserTombstone_revision`"
+                + " ON `AdvertiserTombstone` (`revision`)");
+            db.execSQL("UPDATE `AdvertiserConfig` SET `revision` = `id`, `updated_at` = " + NOW_MILLIS);
+            createRevisionTriggers(db);
+        }
+    };
+
+    // The version column goes, as the revision tells stale configs apart
+    // now. SQLite can't drop columns before 3.35, so the table is built
+    // again, keeping the ids handed out so far; its indexes and triggers go
+    // with the old one.
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            String columns = "`id`, `label`, `power`, `mode`, `include_device_name`, `include_tx_power_level`,"
+                + " `frame_type`, `frame_id`, `major`, `minor`, `measured_power`, `url`, `company_id`,"
+                + " `frame_data`, `eid_key`, `rotation_exponent`, `duty_on_millis`, `duty_off_millis`,"
+                + " `window_start_minute`, `window_end_minute`, `enabled`, `revision`, `updated_at`";
+            db.execSQL("CREATE TABLE `_new_AdvertiserConfig` (`id` INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + " `label` TEXT, `power` INTEGER NOT NULL, `mode` INTEGER NOT NULL,"
+                + " `include_device_name` INTEGER NOT NULL, `include_tx_power_level` INTEGER NOT NULL,"
+                + " `frame_type` INTEGER NOT NULL DEFAULT 0, `frame_id` BLOB, `major` INTEGER NOT NULL DEFAULT 0,"
+                + " `minor` INTEGER NOT NULL DEFAULT 0, `measured_power` INTEGER NOT NULL DEFAULT 0, `url` TEXT,"
+                + " `company_id` INTEGER NOT NULL DEFAULT 0, `frame_data` BLOB, `eid_key` BLOB,"
+                + " `rotation_exponent` INTEGER NOT NULL DEFAULT 0, `duty_on_millis` INTEGER NOT NULL DEFAULT 0,"
+                + " `duty_off_millis` INTEGER NOT NULL DEFAULT 0, `window_start_minute` INTEGER NOT NULL DEFAULT 0,"
+                + " `window_end_minute` INTEGER NOT NULL DEFAULT 0, `enabled` INTEGER NOT NULL DEFAULT 0,"
+                + " `revision` INTEGER NOT NULL DEFAULT 0, `updated_at` INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("INSERT INTO `_new_AdvertiserConfig` (" + columns + ") SELECT " + columns
+                + " FROM `AdvertiserConfig`");
+            db.execSQL("UPDATE `sqlite_sequence` SET `seq` = (SELECT `seq` FROM `sqlite_sequence`"
+                + " WHERE `name` = 'AdvertiserConfig') WHERE `name` = '_new_AdvertiserConfig'");
+            db.execSQL("DROP TABLE `AdvertiserConfig`");
+            db.execSQL("ALTER TABLE `_new_AdvertiserConfig` RENAME TO `AdvertiserConfig`");
+            for (String column: new String[]{"mode", "power", "frame_type", "enabled", "revision"}) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_AdvertiserConfig_" + column
+                    + "` ON `AdvertiserConfig` (`" + column + "`)");
+            }
+            createSearchTriggers(db);
+            createRevisionTriggers(db);
+        }
+    };
+
+    private static final RoomDatabase.Callback CREATE_TRIGGERS = new RoomDatabase.Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+            createSearchTriggers(db);
+            createRevisionTriggers(db);
+        }
+    };
+
+    private static final String NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    // One more than the latest revision of any config, deleted or not.
+    private static final String NEXT_REVISION = "(SELECT ifnull(max(`revision`), 0) + 1 FROM"
+        + " (SELECT max(`revision`) AS `revision` FROM `AdvertiserConfig`"
+        + " UNION ALL SELECT max(`revision`) FROM `AdvertiserTombstone`))";
+
+    // Every write to a config gives it the next revision, and every delete
+    // leaves a tombstone with one. An insert that replaces a row doesn't
+    // fire the delete trigger, so it counts as an update.
+    //
+    // The update trigger lists every column but the two it sets, so it
+    // doesn't fire for its own writes (or the insert trigger's). That list
+    // changes with the columns, so the triggers are dropped and created
+    // again here, and migrations that add columns must call this.
+    private static void createRevisionTriggers(SupportSQLiteDatabase db) {
+        String stamp = "UPDATE `AdvertiserConfig` SET `revision` = " + NEXT_REVISION
+            + ", `updated_at` = " + NOW_MILLIS + " WHERE `id` = NEW.`id`;";
+        StringBuilder columns = new StringBuilder("`enabled`");
+        for (String name: ConfigFields.NAMES) {
+            columns.append(", `").append(name).append('`');
+        }
+
+        db.execSQL("DROP TRIGGER IF EXISTS `advertiser_revision_insert`");
+        db.execSQL("DROP TRIGGER IF EXISTS `advertiser_revision_update`");
+        db.execSQL("DROP TRIGGER IF EXISTS `advertiser_revision_delete`");
+        db.execSQL("CREATE TRIGGER `advertiser_revision_insert` AFTER INSERT ON `AdvertiserConfig` BEGIN "
+            + stamp + " DELETE FROM `AdvertiserTombstone` WHERE `id` = NEW.`id`; END");
+        db.execSQL("CREATE TRIGGER `advertiser_revision_update` AFTER UPDATE OF " + columns
+            + " ON `AdvertiserConfig` BEGIN " + stamp + " END");
+        // Before, so the revision is worked out with the row still there.
+        db.execSQL("CREATE TRIGGER `advertiser_revision_delete` BEFORE DELETE ON `AdvertiserConfig` BEGIN"
+            + " INSERT OR REPLACE INTO `AdvertiserTombstone` (`id`, `revision`, `deleted_at`)"
+            + " VALUES (OLD.`id`, " + NEXT_REVISION + ", " + NOW_MILLIS + "); END");
+    }
+
+    // An insert that replaces a row doesn't fire the delete trigger, so the
+    // insert trigger clears the row's old entry itself. Updates that leave
+    // what's indexed alone (like switching an advertiser on) don't touch the
+    // index.
+    private static void createSearchTriggers(SupportSQLiteDatabase db) {
+        String insert = "DELETE FROM `AdvertiserSearch` WHERE rowid = NEW.`id`;"
+            + " INSERT INTO `AdvertiserSearch` (rowid, `label`, `ids`)"
+            + " VALUES (NEW.`id`, NEW.`label`, " + searchIds("NEW") + ");";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `advertiser_search_insert`"
+            + " AFTER INSERT ON `AdvertiserConfig` BEGIN " + insert + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `advertiser_search_update`"
+            + " AFTER UPDATE OF `label`, `frame_type`, `frame_id`, `major`, `minor`, `url`, `company_id`"
+            + " ON `AdvertiserConfig` BEGIN " + insert + " END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `advertiser_search_delete`"
+            + " AFTER DELETE ON `AdvertiserConfig` BEGIN"
+            + " DELETE FROM `AdvertiserSearch` WHERE rowid = OLD.`id`; END");
+    }
+
+    // The ids column for a row of advertiserconfig; the index splits it into
+    // words on anything that isn't a letter or a digit.
+    private static String searchIds(String row) {
+        String hex = "hex(" + row + ".`frame_id`)";
+        return "trim("
+            + "CASE WHEN length(" + row + ".`frame_id`) = 16 THEN " + hex
+            + " || ' ' || substr(" + hex + ", 1, 8) || '-' || substr(" + hex + ", 9, 4)"
+            + " || '-' || substr(" + hex + ", 13, 4) || '-' || substr(" + hex + ", 17, 4)"
+            + " || '-' || substr(" + hex + ", 21) ELSE " + hex + " END"
+            + " || ' ' || CASE WHEN " + row + ".`frame_type` = " + PayloadEncoder.FRAME_IBEACON
+            + " THEN " + row + ".`major` || ' ' || " + row + ".`minor` ELSE '' END"
+            + " || ' ' || ifnull(" + row + ".`url`, '')"
+            + " || ' ' || CASE WHEN " + row + ".`frame_type` = " + PayloadEncoder.FRAME_MANUFACTURER
+            + " THEN printf('%04X', " + row + ".`company_id`) ELSE '' END)";
+    }
+
+    // Room runs its ListenableFuture queries here; a couple of threads are
+    // plenty, as WAL lets reads go on while a write commits.
+    private static final int QUERY_THREADS = 2;
+    private static final AtomicInteger queryThreadCount = new AtomicInteger();
+    private static final ExecutorService queryExecutor = Executors.newFixedThreadPool(
+        QUERY_THREADS, r -> new Thread(r, "Beacon.Db-" + queryThreadCount.incrementAndGet()));
+
+    private static volatile Database database = null;
+    private static volatile EventLog eventLog = null;
+
+    // Events are written a batch at a time, at most once a second; a second
+    // of events is also what's lost if the process dies.
+    private static final int EVENT_RING_SIZE = 4096;
+    private static final long EVENT_FLUSH_MILLIS = 1000;
+
+    // Safe to call from any thread; the first call builds the database, but
+    // doesn't open it (see prewarm()).
     public static Database getDatabase(Context context) {
-        if (database == null) {
-            database = Room.databaseBuilder(context, Database.class, "storage")
-                .build();
+        Database db = database;
+        if (db == null) {
+            synchronized (Storage.class) {
+                db = database;
+                if (db == null) {
+                    db = Room.databaseBuilder(context.getApplicationContext(), Database.class, "storage")
+                        .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7,
+                            MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10)
+                        .addCallback(CREATE_TRIGGERS)
+                        .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+                        .setQueryExecutor(queryExecutor)
+                        .build();
+                    database = db;
+                }
+            }
+        }
+        return db;
+    }
+
+    // The process-wide event log; safe to call from any thread.
+    public static EventLog getEventLog(Context context) {
+        EventLog log = eventLog;
+        if (log == null) {
+            synchronized (Storage.class) {
+                log = eventLog;
+                if (log == null) {
+                    EventDao dao = getDatabase(context).eventDao();
+                    log = new EventLog(
+                        new HandlerEventLoop(Looper.getMainLooper()), new EventStore(dao),
+                        EVENT_RING_SIZE, EVENT_FLUSH_MILLIS,
+                        System.currentTimeMillis() - SystemClock.elapsedRealtime());
+                    eventLog = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    // Doesn't wait for the writes; failures are only logged, like any other
+    // lost event.
+    private static class EventStore implements EventLog.Store {
+        private final EventDao dao;
+
+        EventStore(EventDao dao) {
+            this.dao = dao;
+        }
+
+        @Override
+        public void append(List<AdvertisingEvent> events) {
+            logFailure(dao.insertAll(events), "Event log write failed");
+        }
+
+        @Override
+        public void prune(long before, int keep) {
+            logFailure(dao.deleteBefore(before), "Event log write failed");
+            logFailure(dao.deleteAllBut(keep), "Event log write failed");
+        }
+    }
+
+    private static void logFailure(ListenableFuture<?> future, String message) {
+        Futures.addCallback(future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) { }
+
+            @Override
+            public void onFailure(@NonNull Throwable t)
+            { Log.e(LOG_TAG, message, t); }
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Opens the database - creating or migrating it as needed - on the query
+    // executor, so that whoever queries it first doesn't pay for that.
+    // Called when the process starts (see BeaconApplication).
+    public static ListenableFuture<Database> prewarm(Context context) {
+        Context app = context.getApplicationContext();
+        return MoreExecutors.listeningDecorator(queryExecutor).submit(() -> {
+            TraceCompat.beginSection("Storage.prewarm");
+            try {
+                Database db = getDatabase(app);
+                db.getOpenHelper().getWritableDatabase();
+                logFailure(db.advertiserConfigDao().deleteTombstonesBefore(
+                    System.currentTimeMillis() - TOMBSTONE_MILLIS), "Pruning tombstones failed");
+                return db;
+            } finally {
+                TraceCompat.endSection();
+            }
+        });
+    }
+
+    // For tests, which need a cold start each time.
+    @VisibleForTesting
+    static void closeDatabase() {
+        synchronized (Storage.class) {
+            if (database != null) database.close();
+            database = null;
+            eventLog = null;
         }
-        return database;
     }
 }
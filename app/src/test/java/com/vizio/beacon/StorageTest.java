@@ -0,0 +1,217 @@
+package com.vizio.beacon;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// The cold-start path: building the database, opening it on the query
+// executor, and the first query the list makes.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 30)
+public class StorageTest {
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        Storage.closeDatabase();
+        context.deleteDatabase("storage");
+    }
+
+    @After
+    public void tearDown() {
+        Storage.closeDatabase();
+    }
+
+    @Test
+    public void concurrentCallersShareOneDatabase() throws InterruptedException {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        Set<Storage.Database> seen = new HashSet<>();
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread caller = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Storage.Database db = Storage.getDatabase(context);
+                synchronized (seen) {
+                    seen.add(db);
+                }
+            });
+            caller.start();
+            callers.add(caller);
+        }
+
+        start.countDown();
+        for (Thread caller: callers) caller.join();
+        assertEquals(1, seen.size());
+    }
+
+    @Test
+    public void prewarmOpensOffTheCallingThread() throws Exception {
+        Storage.Database db = Storage.prewarm(context).get(10, TimeUnit.SECONDS);
+        assertTrue(db.isOpen());
+        assertSame(db, Storage.getDatabase(context));
+
+        AdvertiserConfig config = new AdvertiserConfig();
+        config.label = "beacon";
+        db.advertiserConfigDao().insert(config).get(10, TimeUnit.SECONDS);
+        assertEquals(1, db.advertiserConfigDao().getPage(0, 50).get(10, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void searchFollowsTheTable() throws Exception {
+        Storage.AdvertiserConfigDao dao = Storage.getDatabase(context).advertiserConfigDao();
+        AdvertiserConfig door = new AdvertiserConfig();
+        door.label = "North door";
+        door.frameType = PayloadEncoder.FRAME_IBEACON;
+        door.frameId = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+        door.major = 7;
+        door.minor = 42;
+        door.id = dao.insert(door).get(10, TimeUnit.SECONDS);
+        AdvertiserConfig other = new AdvertiserConfig();
+        other.label = "Hall";
+        other.mode = 2;
+        other.id = dao.insert(other).get(10, TimeUnit.SECONDS);
+
+        assertEquals(door.id, find(dao, "north-d").get(0).id);
+        assertEquals(door.id, find(dao, "E2C56DB5-DFFB").get(0).id);
+        assertEquals(door.id, find(dao, "e2c56db5dffb48").get(0).id);
+        assertEquals(1, find(dao, "door 42 type:ibeacon").size());
+        assertEquals(other.id, find(dao, "mode:latency").get(0).id);
+        assertEquals(0, find(dao, "hall enabled:yes").size());
+
+        door.label = "South gate";
+        dao.update(door).get(10, TimeUnit.SECONDS);
+        assertEquals(0, find(dao, "north").size());
+        assertEquals(1, find(dao, "gate").size());
+
+        dao.delete(door).get(10, TimeUnit.SECONDS);
+        assertEquals(0, find(dao, "gate").size());
+    }
+
+    // The whole chain of migrations, from the first schema there ever was;
+    // Room checks the result against the entities when it opens the
+    // database.
+    @Test
+    public void migratesFromTheFirstVersion() throws Exception {
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath("storage"), null);
+        old.execSQL("CREATE TABLE `AdvertiserConfig` (`id` INTEGER PRIMARY KEY AUTOINCREMENT, `label` TEXT,"
+            + " `power` INTEGER NOT NULL, `mode` INTEGER NOT NULL, `include_device_name` INTEGER NOT NULL,"
+            + " `include_tx_power_level` INTEGER NOT NULL)");
+        old.execSQL("INSERT INTO `AdvertiserConfig` VALUES (1, 'Lobby', 2, 1, 1, 0), (2, 'Hall', 0, 0, 0, 1)");
+        old.setVersion(1);
+        old.close();
+
+        Storage.AdvertiserConfigDao dao = Storage.prewarm(context).get(10, TimeUnit.SECONDS).advertiserConfigDao();
+        List<AdvertiserConfig> configs = dao.getAll().get(10, TimeUnit.SECONDS);
+        assertEquals(2, configs.size());
+        AdvertiserConfig lobby = configs.get(0);
+        assertEquals("Lobby", lobby.label);
+        assertEquals(2, lobby.power);
+        assertTrue(lobby.includeDeviceName);
+        assertEquals(PayloadEncoder.FRAME_NONE, lobby.frameType);
+        assertFalse(lobby.enabled);
+        assertEquals(1, lobby.revision);
+        assertTrue(lobby.updatedAt > 0);
+        assertEquals(2, (long) dao.getRevision().get(10, TimeUnit.SECONDS));
+        assertEquals(1, find(dao, "hall").size());
+
+        // The triggers are in place too.
+        lobby.label = "Front lobby";
+        dao.update(lobby).get(10, TimeUnit.SECONDS);
+        assertEquals(3, (long) dao.getRevision().get(10, TimeUnit.SECONDS));
+        assertEquals(1, find(dao, "front").size());
+    }
+
+    @Test
+    public void changesSince() throws Exception {
+        Storage.AdvertiserConfigDao dao = Storage.getDatabase(context).advertiserConfigDao();
+        assertEquals(0, (long) dao.getRevision().get(10, TimeUnit.SECONDS));
+        List<AdvertiserConfig> configs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            AdvertiserConfig config = new AdvertiserConfig();
+            config.label = "beacon " + i;
+            configs.add(config);
+        }
+        List<Long> ids = dao.insertAll(configs).get(10, TimeUnit.SECONDS);
+        long since = dao.getRevision().get(10, TimeUnit.SECONDS);
+        assertEquals(3, since);
+
+        AdvertiserConfig first = dao.get(ids.get(0)).get(10, TimeUnit.SECONDS);
+        first.label = "renamed";
+        dao.update(first).get(10, TimeUnit.SECONDS);
+        dao.setEnabled(ids.get(1), true).get(10, TimeUnit.SECONDS);
+        AdvertiserConfig last = dao.get(ids.get(2)).get(10, TimeUnit.SECONDS);
+        dao.delete(last).get(10, TimeUnit.SECONDS);
+        // Changed twice, turns up once.
+        dao.setEnabled(ids.get(0), true).get(10, TimeUnit.SECONDS);
+
+        List<Storage.ConfigChange> changes = dao.getChangesSince(since, 100).get(10, TimeUnit.SECONDS);
+        assertEquals(3, changes.size());
+        assertEquals((long) ids.get(1), changes.get(0).id);
+        assertEquals((long) ids.get(2), changes.get(1).id);
+        assertTrue(changes.get(1).deleted);
+        assertEquals((long) ids.get(0), changes.get(2).id);
+        assertFalse(changes.get(2).deleted);
+        assertEquals(7, changes.get(2).revision);
+        assertEquals(1, dao.getChangesSince(since, 1).get(10, TimeUnit.SECONDS).size());
+        assertEquals(0, dao.getChangesSince(7, 100).get(10, TimeUnit.SECONDS).size());
+
+        // Putting it back undoes the deletion, and revisions keep going up
+        // even though the latest one belonged to a deleted config.
+        dao.delete(first).get(10, TimeUnit.SECONDS);
+        assertEquals(8, (long) dao.getRevision().get(10, TimeUnit.SECONDS));
+        dao.insert(last).get(10, TimeUnit.SECONDS);
+        changes = dao.getChangesSince(7, 100).get(10, TimeUnit.SECONDS);
+        assertEquals(2, changes.size());
+        assertTrue(changes.get(0).deleted);
+        assertEquals((long) ids.get(2), changes.get(1).id);
+        assertFalse(changes.get(1).deleted);
+        assertEquals(9, changes.get(1).revision);
+
+        assertEquals(0, (int) dao.deleteTombstonesBefore(Long.MAX_VALUE).get(10, TimeUnit.SECONDS));
+    }
+
+    private static List<AdvertiserConfig> find(Storage.AdvertiserConfigDao dao, String text) throws Exception {
+        return dao.find(AdvertiserQuery.parse(text)).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void eventRetention() throws Exception {
+        Storage.EventDao dao = Storage.getDatabase(context).eventDao();
+        List<AdvertisingEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            events.add(AdvertisingEvent.advertiser(i * 1000L, i % 2, AdvertiserStatus.failed(i)));
+        }
+        dao.insertAll(events).get(10, TimeUnit.SECONDS);
+        assertEquals(5, dao.getFor(1, 0).get(10, TimeUnit.SECONDS).size());
+
+        dao.deleteBefore(3000).get(10, TimeUnit.SECONDS);
+        dao.deleteAllBut(4).get(10, TimeUnit.SECONDS);
+        List<AdvertisingEvent> left = dao.getPage(0, 100).get(10, TimeUnit.SECONDS);
+        assertEquals(4, left.size());
+        assertEquals(7000, left.get(0).time);
+        assertEquals(2, dao.getFor(1, 8000).get(10, TimeUnit.SECONDS).size());
+    }
+}
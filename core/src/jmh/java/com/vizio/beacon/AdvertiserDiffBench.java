@@ -0,0 +1,64 @@
+package com.vizio.beacon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// What the list's diff costs per page: comparing a page of rows against
+// fresh copies from the database, one of which has been toggled.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdvertiserDiffBench {
+    @Param({"50", "200"})
+    public int pageSize;
+
+    private AdvertiserConfig[] before;
+    private AdvertiserConfig[] after;
+
+    @Setup
+    public void setUp() {
+        before = new AdvertiserConfig[pageSize];
+        after = new AdvertiserConfig[pageSize];
+        for (int i = 0; i < pageSize; i++) {
+            before[i] = config(i);
+            after[i] = config(i);
+        }
+        after[pageSize / 2].enabled = true;
+    }
+
+    @Benchmark
+    public int diffPage() {
+        int changed = 0;
+        for (int i = 0; i < pageSize; i++) {
+            if (!AdvertiserDiff.sameItem(before[i], after[i])
+                || !AdvertiserDiff.sameContents(before[i], after[i]))
+                changed++;
+        }
+        return changed;
+    }
+
+    private static AdvertiserConfig config(long id) {
+        AdvertiserConfig config = new AdvertiserConfig();
+        config.id = id;
+        config.label = "Beacon " + id;
+        config.frameType = PayloadEncoder.FRAME_IBEACON;
+        config.frameId = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+        config.major = (int) id;
+        config.measuredPower = -59;
+        return config;
+    }
+}
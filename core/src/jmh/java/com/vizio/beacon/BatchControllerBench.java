@@ -0,0 +1,71 @@
+package com.vizio.beacon;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Batch throughput against an in-process backend: each op swaps one set of
+// advertisers for another and waits for the whole batch to settle.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchControllerBench {
+    @Param({"10", "100", "500"})
+    public int advertisers;
+
+    private VirtualEventLoop loop;
+    private BatchController controller;
+    private AdvertiserConfig[] configs;
+    private boolean second;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        loop = new VirtualEventLoop();
+        SlotScheduler scheduler = new SlotScheduler(loop, new FakeBackend(loop, advertisers), (id, errorCode) -> { });
+        controller = new BatchController(loop, scheduler, null, 1, 10_000);
+        scheduler.setStatusListener(controller);
+
+        configs = new AdvertiserConfig[2 * advertisers];
+        for (int i = 0; i < configs.length; i++) {
+            configs[i] = new AdvertiserConfig();
+            configs[i].id = (long) i;
+        }
+        swap();
+    }
+
+    @Benchmark
+    public long swap() {
+        BatchController.Batch batch = new BatchController.Batch();
+        int stop = second ? 0 : advertisers;
+        int start = second ? advertisers : 0;
+        for (int i = 0; i < advertisers; i++) {
+            batch.stop(configs[stop + i].id);
+            batch.start(configs[start + i]);
+        }
+        second = !second;
+
+        ListenableFuture<BatchController.Report> future = controller.submit(batch);
+        loop.runDue();
+        try {
+            return future.get().totalNanos;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
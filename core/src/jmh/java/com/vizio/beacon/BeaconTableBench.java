@@ -0,0 +1,58 @@
+package com.vizio.beacon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The scan worker's side of the pipeline: ring hand-off plus dedup into
+// the table, and the per-frame snapshot the UI gets. Only the snapshot is
+// expected to allocate.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeaconTableBench {
+    @Param({"100", "1000"})
+    public int beacons;
+
+    private final PayloadEncoder encoder = new PayloadEncoder();
+    private final byte[] id = new byte[16];
+    private ScanRing ring;
+    private BeaconTable table;
+    private ScanRing.Consumer consumer;
+    private long n;
+
+    @Setup
+    public void setUp() {
+        ring = new ScanRing(1024);
+        table = new BeaconTable(2 * beacons);
+        consumer = (address, rssi, timeNanos, record, offset, length) ->
+            table.record(address, rssi, timeNanos, record, offset, length);
+        for (int i = 0; i < beacons; i++) offerAndDrain();
+    }
+
+    @Benchmark
+    public int offerAndDrain() {
+        int beacon = (int) (n++ % beacons);
+        encoder.encodeIBeacon(id, beacon, 1, -59);
+        ring.offer(beacon, -40 - beacon % 50, n, encoder.buffer(), encoder.length());
+        return ring.drain(consumer);
+    }
+
+    @Benchmark
+    public ScanSnapshot snapshot() {
+        return table.snapshot(ring.dropped());
+    }
+}
@@ -0,0 +1,61 @@
+package com.vizio.beacon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Encode throughput per frame type. Re-encoding should not allocate, so
+// gc.alloc.rate.norm ought to stay at zero.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadEncoderBench {
+    @Param({"1", "2", "3", "4", "5"})
+    public int frameType;
+
+    private final PayloadEncoder encoder = new PayloadEncoder();
+    private AdvertiserConfig config;
+    private int minor;
+
+    @Setup
+    public void setUp() {
+        config = new AdvertiserConfig();
+        config.frameType = frameType;
+        switch (frameType) {
+            case PayloadEncoder.FRAME_IBEACON:
+                config.frameId = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+                config.measuredPower = -59;
+                break;
+            case PayloadEncoder.FRAME_EDDYSTONE_UID:
+                config.frameId = Hex.parse("8b0ca750e7a74e14bd99000000000001");
+                break;
+            case PayloadEncoder.FRAME_EDDYSTONE_URL:
+                config.url = "https://www.example.com/beacon";
+                break;
+            case PayloadEncoder.FRAME_MANUFACTURER:
+                config.companyId = 0x0059;
+                config.frameData = Hex.parse("0102030405060708");
+                break;
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        config.minor = minor++ & 0xFFFF;
+        encoder.encode(config, 8);
+        return encoder.buffer()[encoder.length() - 1];
+    }
+}
@@ -0,0 +1,54 @@
+package com.vizio.beacon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Filter throughput with every beacon already in its slot, one sample per
+// op. Updating should not allocate, so gc.alloc.rate.norm ought to stay at
+// zero.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProximityEngineBench {
+    @Param({"100", "1000"})
+    public int beacons;
+
+    private ProximityEngine engine;
+    private int n;
+    // A cheap xorshift for the noise, with a spike now and then.
+    private int noise = 0x9E3779B9;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new ProximityEngine(beacons, 10_000_000_000L);
+        for (int i = 0; i < beacons; i++) {
+            update();
+        }
+    }
+
+    @Benchmark
+    public int update() {
+        noise ^= noise << 13;
+        noise ^= noise >>> 17;
+        noise ^= noise << 5;
+        int beacon = (int) ((n * 7919L) % beacons);
+        int rssi = -50 - beacon % 40 + (noise & 7) - 4 + ((noise >>> 8 & 255) == 0 ? -30 : 0);
+        int slot = engine.update(beacon, rssi, -59, n++ * 1_000_000L);
+        return engine.zone(slot);
+    }
+}
@@ -0,0 +1,59 @@
+package com.vizio.beacon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The whole threaded pipeline: two scanner threads offering results while
+// the worker drains them at 60 frames per second. Dropped results count as
+// ops too, so compare with the dropped count the pipeline reports.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(2)
+public class ScanPipelineBench {
+    private static final int BEACONS = 1000;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final PayloadEncoder encoder = new PayloadEncoder();
+        final byte[] id = new byte[16];
+        long n;
+    }
+
+    private ScanPipeline pipeline;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pipeline = new ScanPipeline();
+        pipeline.start(60, snapshot -> { });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        pipeline.stop();
+    }
+
+    @Benchmark
+    public boolean offer(Producer producer) {
+        int beacon = (int) (producer.n++ * 7919 % BEACONS);
+        producer.encoder.encodeIBeacon(producer.id, beacon, 1, -59);
+        return pipeline.offer(beacon, -40 - beacon % 50, producer.n,
+            producer.encoder.buffer(), producer.encoder.length());
+    }
+}
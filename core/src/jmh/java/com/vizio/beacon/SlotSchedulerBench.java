@@ -0,0 +1,52 @@
+package com.vizio.beacon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of one rotation step with more advertisers than the controller has
+// slots: each op advances the virtual clock by one dwell, which stops and
+// starts a slot's worth of advertisers.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlotSchedulerBench {
+    @Param({"10", "100", "1000"})
+    public int advertisers;
+
+    private VirtualEventLoop loop;
+    private SlotScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        loop = new VirtualEventLoop();
+        FakeBackend backend = new FakeBackend(loop, 4);
+        scheduler = new SlotScheduler(loop, backend, (id, errorCode) -> { });
+        for (long id = 1; id <= advertisers; id++) {
+            AdvertiserConfig config = new AdvertiserConfig();
+            config.id = id;
+            scheduler.enable(config, 1 + (int) (id % 3));
+        }
+        loop.runDue();
+    }
+
+    @Benchmark
+    public int rotate() {
+        loop.advance(scheduler.getDwellMillis());
+        return scheduler.getRunningCount();
+    }
+}
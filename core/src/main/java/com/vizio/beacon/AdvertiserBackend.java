@@ -0,0 +1,33 @@
+package com.vizio.beacon;
+
+// Something that can put advertisements on air - normally the Bluetooth
+// controller. Backends report results through the Callback, always on the
+// engine's event loop and never from inside start() itself.
+public interface AdvertiserBackend {
+    // Same values as the android.bluetooth.le.AdvertiseCallback constants.
+    int ADVERTISE_FAILED_DATA_TOO_LARGE = 1;
+    int ADVERTISE_FAILED_TOO_MANY_ADVERTISERS = 2;
+    int ADVERTISE_FAILED_ALREADY_STARTED = 3;
+    int ADVERTISE_FAILED_INTERNAL_ERROR = 4;
+    int ADVERTISE_FAILED_FEATURE_UNSUPPORTED = 5;
+
+    interface Callback {
+        // txPower is the output power the controller settled on, in dBm.
+        void onStartSuccess(long id, int txPower);
+        void onStartFailure(long id, int errorCode);
+    }
+
+    void setCallback(Callback callback);
+
+    // Exactly one of the callbacks follows, unless stop() comes first.
+    void start(AdvertiserConfig config);
+
+    // Applies a changed config to an advertiser that is already on air,
+    // without taking it off air. Returns false if the backend can't do that
+    // (or the advertiser isn't on air), in which case the caller has to stop
+    // and start it again. A rejected update is reported as onStartFailure().
+    boolean update(AdvertiserConfig config);
+
+    // Stopping an advertiser that isn't running is a no-op.
+    void stop(long id);
+}
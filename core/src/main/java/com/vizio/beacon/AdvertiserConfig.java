@@ -0,0 +1,177 @@
+package com.vizio.beacon;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// The config of one advertiser, as stored in the database (see Storage) and
+// as handed to the engine. The columns the search box filters on are
+// indexed (see AdvertiserQuery), and so is the revision, for picking up
+// changes incrementally.
+@Entity(indices = {
+    @Index("mode"), @Index("power"), @Index("frame_type"), @Index("enabled"), @Index("revision")
+})
+public class AdvertiserConfig {
+    @PrimaryKey(autoGenerate = true)
+    public Long id;
+
+    @ColumnInfo(name = "label")
+    public String label;
+
+    @ColumnInfo(name = "power")
+    public int power;
+
+    @ColumnInfo(name = "mode")
+    public int mode;
+
+    @ColumnInfo(name = "include_device_name")
+    public boolean includeDeviceName;
+
+    @ColumnInfo(name = "include_tx_power_level")
+    public boolean includeTxPowerLevel;
+
+    // One of the PayloadEncoder.FRAME_* constants; the remaining columns
+    // are only meaningful for the frame types that use them.
+    @ColumnInfo(name = "frame_type", defaultValue = "0")
+    public int frameType;
+
+    // iBeacon proximity UUID, or Eddystone-UID namespace + instance.
+    @ColumnInfo(name = "frame_id")
+    public byte[] frameId;
+
+    @ColumnInfo(name = "major", defaultValue = "0")
+    public int major;
+
+    @ColumnInfo(name = "minor", defaultValue = "0")
+    public int minor;
+
+    // Calibrated RSSI at 1 m (iBeacon) or TX power at 0 m (Eddystone), in dBm.
+    @ColumnInfo(name = "measured_power", defaultValue = "0")
+    public int measuredPower;
+
+    @ColumnInfo(name = "url")
+    public String url;
+
+    @ColumnInfo(name = "company_id", defaultValue = "0")
+    public int companyId;
+
+    @ColumnInfo(name = "frame_data")
+    public byte[] frameData;
+
+    // Eddystone-EID: the 16-byte identity key, and the identifier rotates
+    // every 2^rotationExponent seconds (0 to 15).
+    @ColumnInfo(name = "eid_key")
+    public byte[] eidKey;
+
+    @ColumnInfo(name = "rotation_exponent", defaultValue = "0")
+    public int rotationExponent;
+
+    // The identifier currently on air, worked out from the key and the
+    // time by EidRotator on the copies it hands to the engine; never
+    // stored. A new period always gets a new array.
+    @Ignore
+    public byte[] ephemeralId;
+
+    // Duty cycle: on air for dutyOnMillis, then off for dutyOffMillis, over
+    // and over. Zero for either means on air all the time.
+    @ColumnInfo(name = "duty_on_millis", defaultValue = "0")
+    public long dutyOnMillis;
+
+    @ColumnInfo(name = "duty_off_millis", defaultValue = "0")
+    public long dutyOffMillis;
+
+    // Daily window, in minutes after local midnight, outside of which the
+    // advertiser stays off; it may wrap past midnight. Equal values mean all
+    // day.
+    @ColumnInfo(name = "window_start_minute", defaultValue = "0")
+    public int windowStartMinute;
+
+    @ColumnInfo(name = "window_end_minute", defaultValue = "0")
+    public int windowEndMinute;
+
+    // Whether the advertiser should be on air, so it can be brought back
+    // after a restart. Not part of equals(): it's the state of the
+    // advertiser, not its config.
+    @ColumnInfo(name = "enabled", defaultValue = "0")
+    public boolean enabled;
+
+    // Set by the database on every insert and update, whoever makes it:
+    // the next value of a database-wide counter (see
+    // AdvertiserConfigDao.getChangesSince()), and the wall clock time. Not
+    // part of equals() either, and only as fresh as the query the config
+    // came from; writing a stale value back does no harm. Whatever was
+    // prepared from an older revision of the config can tell it's stale by
+    // it (see PreparedCache), so configs changed in memory must be read
+    // back before they're handed to the engine.
+    @ColumnInfo(name = "revision", defaultValue = "0")
+    public long revision;
+
+    @ColumnInfo(name = "updated_at", defaultValue = "0")
+    public long updatedAt;
+
+    // Whether the two configs would be advertised with the same
+    // parameters (interval and TX power).
+    public boolean sameSettings(AdvertiserConfig that) {
+        return power == that.power
+            && mode == that.mode;
+    }
+
+    // Whether the two configs would put the same data on air.
+    public boolean sameData(AdvertiserConfig that) {
+        return includeDeviceName == that.includeDeviceName
+            && includeTxPowerLevel == that.includeTxPowerLevel
+            && frameType == that.frameType
+            && Arrays.equals(frameId, that.frameId)
+            && major == that.major
+            && minor == that.minor
+            && measuredPower == that.measuredPower
+            && Objects.equals(url, that.url)
+            && companyId == that.companyId
+            && Arrays.equals(frameData, that.frameData)
+            && Arrays.equals(eidKey, that.eidKey)
+            && rotationExponent == that.rotationExponent
+            && Arrays.equals(ephemeralId, that.ephemeralId);
+    }
+
+    public boolean sameSchedule(AdvertiserConfig that) {
+        return dutyOnMillis == that.dutyOnMillis
+            && dutyOffMillis == that.dutyOffMillis
+            && windowStartMinute == that.windowStartMinute
+            && windowEndMinute == that.windowEndMinute;
+    }
+
+    // Whether the advertiser is ever off while enabled.
+    public boolean hasSchedule() {
+        return (dutyOnMillis > 0 && dutyOffMillis > 0) || windowStartMinute != windowEndMinute;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AdvertiserConfig)) return false;
+        AdvertiserConfig that = (AdvertiserConfig) o;
+        return Objects.equals(id, that.id)
+            && Objects.equals(label, that.label)
+            && sameSettings(that)
+            && sameData(that)
+            && sameSchedule(that);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(
+            id, label, power, mode, includeDeviceName, includeTxPowerLevel,
+            frameType, major, minor, measuredPower, url, companyId, rotationExponent,
+            dutyOnMillis, dutyOffMillis, windowStartMinute, windowEndMinute);
+        result = 31 * result + Arrays.hashCode(frameId);
+        result = 31 * result + Arrays.hashCode(frameData);
+        result = 31 * result + Arrays.hashCode(eidKey);
+        result = 31 * result + Arrays.hashCode(ephemeralId);
+        return result;
+    }
+}
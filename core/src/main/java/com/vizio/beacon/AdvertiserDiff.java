@@ -0,0 +1,45 @@
+package com.vizio.beacon;
+
+import java.util.Objects;
+
+// How the advertiser list tells rows apart, kept out of the adapter so it
+// can be tested and benchmarked without Android.
+public final class AdvertiserDiff {
+    // What changed between two versions of a row, as a bit mask; the list
+    // hands it to the row as a change payload so only those views rebind.
+    public static final int CHANGED_ENABLED = 1;
+    public static final int CHANGED_LABEL = 1 << 1;
+    public static final int CHANGED_SETTINGS = 1 << 2;
+    public static final int CHANGED_INDICATORS = 1 << 3;
+    // Never from changes(): runtime status comes from the StatusBoard, not
+    // the database, but reaches the row the same way.
+    public static final int CHANGED_STATUS = 1 << 4;
+
+    private AdvertiserDiff() { }
+
+    public static boolean sameItem(AdvertiserConfig a, AdvertiserConfig b) {
+        return Objects.equals(a.id, b.id);
+    }
+
+    // The tumbler shows enabled, so a toggle has to rebind the row even
+    // though it doesn't change the config.
+    public static boolean sameContents(AdvertiserConfig a, AdvertiserConfig b) {
+        return a.equals(b) && a.enabled == b.enabled;
+    }
+
+    // Only asked for rows that are the same item with different contents.
+    // Zero means nothing the row shows has changed (e.g. only the frame
+    // data did).
+    public static int changes(AdvertiserConfig a, AdvertiserConfig b) {
+        int changes = 0;
+        if (a.enabled != b.enabled)
+            changes |= CHANGED_ENABLED;
+        if (!Objects.equals(a.label, b.label))
+            changes |= CHANGED_LABEL;
+        if (!a.sameSettings(b))
+            changes |= CHANGED_SETTINGS;
+        if (a.includeDeviceName != b.includeDeviceName || a.includeTxPowerLevel != b.includeTxPowerLevel)
+            changes |= CHANGED_INDICATORS;
+        return changes;
+    }
+}
@@ -0,0 +1,163 @@
+package com.vizio.beacon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+// What the search box asks for, as SQL over the advertiserconfig table.
+//
+// Words are looked up in the full-text index (the advertisersearch table:
+// labels, and frame ids, major/minor, URLs and company ids, see Storage),
+// each as a prefix, and all of them have to match. Words of the form
+// key:value filter on an indexed column instead:
+//
+//   mode:low|balanced|latency (or 0-2)
+//   power:ultralow|low|medium|high (or 0-3)
+//   type:none|ibeacon|uid|url|tlm|manufacturer|eid (or 0-6)
+//   enabled:yes|no
+//
+// Immutable.
+public final class AdvertiserQuery {
+    public static final AdvertiserQuery ALL = new AdvertiserQuery(null, null, null, null, null);
+
+    private static final String[] MODES = {"low", "balanced", "latency"};
+    private static final String[] POWERS = {"ultralow", "low", "medium", "high"};
+    private static final String[] TYPES = {"none", "ibeacon", "uid", "url", "tlm", "manufacturer", "eid"};
+
+    // An FTS MATCH expression, or null for no text to look for.
+    public final String match;
+    // Null for any.
+    public final Integer mode;
+    public final Integer power;
+    public final Integer frameType;
+    public final Boolean enabled;
+
+    public AdvertiserQuery(String match, Integer mode, Integer power, Integer frameType, Boolean enabled) {
+        this.match = match;
+        this.mode = mode;
+        this.power = power;
+        this.frameType = frameType;
+        this.enabled = enabled;
+    }
+
+    // Never fails: whatever doesn't make sense as a filter is searched for
+    // as text.
+    public static AdvertiserQuery parse(String text) {
+        StringBuilder match = new StringBuilder();
+        Integer mode = null;
+        Integer power = null;
+        Integer frameType = null;
+        Boolean enabled = null;
+
+        for (String word: text.trim().split("\\s+")) {
+            int colon = word.indexOf(':');
+            String key = colon < 0 ? "" : word.substring(0, colon).toLowerCase(Locale.ROOT);
+            String value = word.substring(colon + 1).toLowerCase(Locale.ROOT);
+            Integer number;
+            if (key.equals("mode") && (number = choice(value, MODES)) != null) {
+                mode = number;
+            } else if (key.equals("power") && (number = choice(value, POWERS)) != null) {
+                power = number;
+            } else if (key.equals("type") && (number = choice(value, TYPES)) != null) {
+                frameType = number;
+            } else if (key.equals("enabled") && (value.equals("yes") || value.equals("no"))) {
+                enabled = value.equals("yes");
+            } else {
+                phrase(word, match);
+            }
+        }
+
+        if (match.length() == 0 && mode == null && power == null && frameType == null && enabled == null)
+            return ALL;
+        return new AdvertiserQuery(match.length() == 0 ? null : match.toString(), mode, power, frameType, enabled);
+    }
+
+    public boolean isEmpty() {
+        return match == null && mode == null && power == null && frameType == null && enabled == null;
+    }
+
+    // In id order, like the unfiltered list.
+    public String sql() {
+        List<String> where = new ArrayList<>();
+        if (match != null)
+            where.add("id IN (SELECT rowid FROM advertisersearch WHERE advertisersearch MATCH ?)");
+        if (mode != null)
+            where.add("mode = ?");
+        if (power != null)
+            where.add("power = ?");
+        if (frameType != null)
+            where.add("frame_type = ?");
+        if (enabled != null)
+            where.add("enabled = ?");
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM advertiserconfig");
+        for (int i = 0; i < where.size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(where.get(i));
+        }
+        return sql.append(" ORDER BY id").toString();
+    }
+
+    // The values for sql()'s placeholders, in order.
+    public Object[] args() {
+        List<Object> args = new ArrayList<>();
+        if (match != null) args.add(match);
+        if (mode != null) args.add(mode);
+        if (power != null) args.add(power);
+        if (frameType != null) args.add(frameType);
+        if (enabled != null) args.add(enabled ? 1 : 0);
+        return args.toArray();
+    }
+
+    // The index splits text into runs of letters and digits, so a word
+    // becomes a phrase of those runs, the last one a prefix: "e2c56db5-df"
+    // finds the UUID, "north-d" finds "North door".
+    private static void phrase(String word, StringBuilder match) {
+        StringBuilder tokens = new StringBuilder();
+        boolean inToken = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inToken && tokens.length() > 0) tokens.append(' ');
+                tokens.append(c);
+                inToken = true;
+            } else {
+                inToken = false;
+            }
+        }
+        if (tokens.length() == 0)
+            return;
+
+        if (match.length() > 0) match.append(' ');
+        match.append('"').append(tokens).append("*\"");
+    }
+
+    private static Integer choice(String value, String[] names) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(value)) return i;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            return number >= 0 && number < names.length ? number : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AdvertiserQuery)) return false;
+        AdvertiserQuery that = (AdvertiserQuery) o;
+        return Objects.equals(match, that.match)
+            && Objects.equals(mode, that.mode)
+            && Objects.equals(power, that.power)
+            && Objects.equals(frameType, that.frameType)
+            && Objects.equals(enabled, that.enabled);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(match, mode, power, frameType, enabled);
+    }
+}
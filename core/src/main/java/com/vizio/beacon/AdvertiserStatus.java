@@ -0,0 +1,65 @@
+package com.vizio.beacon;
+
+// What an enabled advertiser is doing right now, as the scheduler sees it.
+public final class AdvertiserStatus {
+    public static final int OFF = 0;
+    // Enabled, but waiting for a slot: the controller is full and the
+    // advertiser is taking turns with the others.
+    public static final int WAITING = 1;
+    public static final int STARTING = 2;
+    public static final int ACTIVE = 3;
+    // Dropped from the rotation; errorCode says why.
+    public static final int FAILED = 4;
+    // Enabled, but off air for now because of its schedule.
+    public static final int SLEEPING = 5;
+
+    public static final AdvertiserStatus OFF_STATUS = new AdvertiserStatus(OFF, 0, 0);
+    public static final AdvertiserStatus WAITING_STATUS = new AdvertiserStatus(WAITING, 0, 0);
+    public static final AdvertiserStatus STARTING_STATUS = new AdvertiserStatus(STARTING, 0, 0);
+    public static final AdvertiserStatus SLEEPING_STATUS = new AdvertiserStatus(SLEEPING, 0, 0);
+
+    public final int state;
+    // The output power the controller settled on, in dBm; only for ACTIVE.
+    public final int txPower;
+    // One of the AdvertiserBackend.ADVERTISE_FAILED_* codes; only for FAILED.
+    public final int errorCode;
+
+    private AdvertiserStatus(int state, int txPower, int errorCode) {
+        this.state = state;
+        this.txPower = txPower;
+        this.errorCode = errorCode;
+    }
+
+    public static AdvertiserStatus active(int txPower) {
+        return new AdvertiserStatus(ACTIVE, txPower, 0);
+    }
+
+    public static AdvertiserStatus failed(int errorCode) {
+        return new AdvertiserStatus(FAILED, 0, errorCode);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AdvertiserStatus)) return false;
+        AdvertiserStatus that = (AdvertiserStatus) o;
+        return state == that.state && txPower == that.txPower && errorCode == that.errorCode;
+    }
+
+    @Override
+    public int hashCode() {
+        return (state * 31 + txPower) * 31 + errorCode;
+    }
+
+    @Override
+    public String toString() {
+        switch (state) {
+            case OFF: return "off";
+            case WAITING: return "waiting";
+            case STARTING: return "starting";
+            case ACTIVE: return "active " + txPower + " dBm";
+            case SLEEPING: return "sleeping";
+            default: return "failed " + errorCode;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.vizio.beacon;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+// One line of the event log (see EventLog): an advertiser changing state,
+// or a scan starting, stopping or failing. Never updated.
+@Entity(indices = {@Index({"config_id", "time"}), @Index("time")})
+public class AdvertisingEvent {
+    public static final int TYPE_ADVERTISER = 0;
+    public static final int TYPE_SCAN = 1;
+
+    // States of TYPE_SCAN events; TYPE_ADVERTISER events use the
+    // AdvertiserStatus ones.
+    public static final int SCAN_STARTED = 0;
+    public static final int SCAN_STOPPED = 1;
+    public static final int SCAN_FAILED = 2;
+
+    @PrimaryKey(autoGenerate = true)
+    public Long id;
+
+    // Wall clock, in milliseconds since the epoch.
+    @ColumnInfo(name = "time")
+    public long time;
+
+    // Null for events that aren't about one advertiser.
+    @ColumnInfo(name = "config_id")
+    public Long configId;
+
+    @ColumnInfo(name = "type")
+    public int type;
+
+    @ColumnInfo(name = "state")
+    public int state;
+
+    // TX power in dBm for active advertisers; the error code for failures.
+    @ColumnInfo(name = "code")
+    public int code;
+
+    public static AdvertisingEvent advertiser(long time, long configId, AdvertiserStatus status) {
+        AdvertisingEvent event = new AdvertisingEvent();
+        event.time = time;
+        event.configId = configId;
+        event.type = TYPE_ADVERTISER;
+        event.state = status.state;
+        event.code = status.state == AdvertiserStatus.FAILED ? status.errorCode : status.txPower;
+        return event;
+    }
+
+    public static AdvertisingEvent scan(long time, int state, int errorCode) {
+        AdvertisingEvent event = new AdvertisingEvent();
+        event.time = time;
+        event.type = TYPE_SCAN;
+        event.state = state;
+        event.code = errorCode;
+        return event;
+    }
+
+    // What happened, without the time and the config id.
+    public String describe() {
+        if (type == TYPE_SCAN) {
+            switch (state) {
+                case SCAN_STARTED: return "scan started";
+                case SCAN_STOPPED: return "scan stopped";
+                default: return "scan failed " + code;
+            }
+        }
+
+        switch (state) {
+            case AdvertiserStatus.OFF: return "off";
+            case AdvertiserStatus.WAITING: return "waiting";
+            case AdvertiserStatus.STARTING: return "starting";
+            case AdvertiserStatus.ACTIVE: return "active " + code + " dBm";
+            case AdvertiserStatus.SLEEPING: return "sleeping";
+            default: return "failed " + code;
+        }
+    }
+}
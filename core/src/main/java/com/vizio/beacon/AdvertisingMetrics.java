@@ -0,0 +1,85 @@
+package com.vizio.beacon;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Latencies of the advertising lifecycle, measured from the moment the user
+// (or anything else) asked for an advertiser to be switched on or off:
+//
+//   gate     until the permission and enable-Bluetooth prompts were passed
+//   queue    from being queued until the Bluetooth thread picked it up
+//   start    until the advertiser was first on air (waiting for a free slot
+//            included)
+//   stop     until the advertiser was taken off air
+//   failure  until the advertiser was given up on
+//
+// plus a counter per start failure error code. Everything records without
+// allocating and can be read from any thread.
+public class AdvertisingMetrics {
+    private static final int MAX_ERROR_CODE = 7;
+
+    private final LatencyHistogram gate = new LatencyHistogram();
+    private final LatencyHistogram queue = new LatencyHistogram();
+    private final LatencyHistogram start = new LatencyHistogram();
+    private final LatencyHistogram stop = new LatencyHistogram();
+    private final LatencyHistogram failure = new LatencyHistogram();
+    private final AtomicLongArray errors = new AtomicLongArray(MAX_ERROR_CODE + 1);
+
+    public LatencyHistogram getGate() { return gate; }
+    public LatencyHistogram getQueue() { return queue; }
+    public LatencyHistogram getStart() { return start; }
+    public LatencyHistogram getStop() { return stop; }
+    public LatencyHistogram getFailure() { return failure; }
+
+    // Codes above MAX_ERROR_CODE share the last counter.
+    public void recordError(int errorCode) {
+        errors.incrementAndGet(Math.max(0, Math.min(errorCode, MAX_ERROR_CODE)));
+    }
+
+    public long getErrorCount(int errorCode) {
+        return errors.get(Math.max(0, Math.min(errorCode, MAX_ERROR_CODE)));
+    }
+
+    public void reset() {
+        gate.reset();
+        queue.reset();
+        start.reset();
+        stop.reset();
+        failure.reset();
+        for (int i = 0; i <= MAX_ERROR_CODE; i++) {
+            errors.set(i, 0);
+        }
+    }
+
+    public void dump(PrintWriter writer, String prefix) {
+        dump(writer, prefix, "gate", gate);
+        dump(writer, prefix, "queue", queue);
+        dump(writer, prefix, "start", start);
+        dump(writer, prefix, "stop", stop);
+        dump(writer, prefix, "failure", failure);
+
+        writer.print(prefix);
+        writer.print("errors:");
+        for (int i = 1; i <= MAX_ERROR_CODE; i++) {
+            long n = errors.get(i);
+            if (n > 0) writer.print(" " + i + "=" + n);
+        }
+        writer.println();
+    }
+
+    private static void dump(PrintWriter writer, String prefix, String name, LatencyHistogram histogram) {
+        writer.println(String.format(Locale.ROOT,
+            "%s%-8s n=%d mean=%s p50=%s p90=%s p99=%s max=%s",
+            prefix, name, histogram.getCount(),
+            millis(histogram.getMean()),
+            millis(histogram.getPercentile(0.5)),
+            millis(histogram.getPercentile(0.9)),
+            millis(histogram.getPercentile(0.99)),
+            millis(histogram.getMax())));
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2fms", nanos / 1e6);
+    }
+}
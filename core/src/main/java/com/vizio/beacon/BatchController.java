@@ -0,0 +1,204 @@
+package com.vizio.beacon;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Runs batches of starts, stops and updates - for test rigs driving many
+// advertisers at once - each as a single task on the event loop, so the
+// scheduler sees the whole batch before the radio answers any of it. Stops
+// go first, so a batch that stops one set and starts another (a swap)
+// hands the freed slots straight to the new set.
+//
+// The future completes once every advertiser in the batch has settled: on
+// air, waiting for a slot, asleep, failed or off; or when the timeout runs
+// out, with whatever hadn't settled marked so. Timings are in nanoseconds
+// from submit().
+//
+// Anything queued in the CommandQueue before the batch is handed over
+// first, so a batch always has the last word.
+public class BatchController implements SlotScheduler.StatusListener {
+    public static final class Batch {
+        final List<Long> stops = new ArrayList<>();
+        final List<AdvertiserConfig> updates = new ArrayList<>();
+        final List<AdvertiserConfig> starts = new ArrayList<>();
+
+        public Batch stop(long id) { stops.add(id); return this; }
+        // Applied only if the advertiser is enabled, in place if possible.
+        public Batch update(AdvertiserConfig config) { updates.add(config); return this; }
+        public Batch start(AdvertiserConfig config) { starts.add(config); return this; }
+
+        public int size() { return stops.size() + updates.size() + starts.size(); }
+    }
+
+    public static final class Result {
+        public final long id;
+        // CommandQueue.START, STOP or UPDATE.
+        public final int command;
+        public AdvertiserStatus status = AdvertiserStatus.OFF_STATUS;
+        // False if the timeout ran out while the advertiser was starting.
+        public boolean settled;
+        // For updates: false if the advertiser wasn't enabled or the config
+        // hadn't changed.
+        public boolean changed = true;
+        public long nanos;
+
+        Result(long id, int command) {
+            this.id = id;
+            this.command = command;
+        }
+
+        @Override
+        public String toString() {
+            String name = command == CommandQueue.START ? "start" : command == CommandQueue.STOP ? "stop" : "update";
+            return name + " " + id + ": " + (changed ? "" : "unchanged, ") + status
+                + (settled ? "" : " (timed out)") + String.format(Locale.ROOT, " after %.2f ms", nanos / 1e6);
+        }
+    }
+
+    public static final class Report {
+        // In the order they were applied: stops, updates, starts.
+        public final List<Result> results;
+        // From submit() until the loop got to the batch; how long it took to
+        // hand it all to the scheduler; and until the last one settled.
+        public long queuedNanos;
+        public long applyNanos;
+        public long totalNanos;
+
+        Report(List<Result> results) {
+            this.results = results;
+        }
+    }
+
+    private class Running implements Runnable {
+        final long submittedAt;
+        final Report report;
+        final Map<Long, Result> starting = new HashMap<>();
+        final SettableFuture<Report> future = SettableFuture.create();
+
+        Running(long submittedAt, int size) {
+            this.submittedAt = submittedAt;
+            this.report = new Report(new ArrayList<>(size));
+        }
+
+        // The timeout.
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            for (Result result: starting.values()) {
+                result.nanos = now - submittedAt;
+            }
+            starting.clear();
+            finish(this);
+        }
+    }
+
+    private final EventLoop loop;
+    private final SlotScheduler scheduler;
+    private final CommandQueue commands;
+    private final int weight;
+    private final long timeoutMillis;
+    // What each enabled advertiser is doing; only touched on the loop.
+    private final Map<Long, AdvertiserStatus> current = new HashMap<>();
+    private final List<Running> running = new ArrayList<>();
+
+    // Has to be told every status change the scheduler makes; commands may
+    // be null.
+    public BatchController(EventLoop loop, SlotScheduler scheduler, CommandQueue commands, int weight, long timeoutMillis) {
+        this.loop = loop;
+        this.scheduler = scheduler;
+        this.commands = commands;
+        this.weight = weight;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // Safe to call from any thread; the batch isn't touched again.
+    public ListenableFuture<Report> submit(Batch batch) {
+        Running run = new Running(System.nanoTime(), batch.size());
+        loop.post(() -> apply(batch, run));
+        return run.future;
+    }
+
+    @Override
+    public void onStatusChanged(long id, AdvertiserStatus status) {
+        if (status.state == AdvertiserStatus.OFF)
+            current.remove(id);
+        else
+            current.put(id, status);
+
+        if (status.state == AdvertiserStatus.STARTING)
+            return;
+        for (int i = running.size() - 1; i >= 0; i--) {
+            Running run = running.get(i);
+            Result result = run.starting.remove(id);
+            if (result == null)
+                continue;
+
+            result.status = status;
+            result.settled = true;
+            result.nanos = System.nanoTime() - run.submittedAt;
+            if (run.starting.isEmpty()) {
+                loop.cancel(run);
+                finish(run);
+            }
+        }
+    }
+
+    private void apply(Batch batch, Running run) {
+        long start = System.nanoTime();
+        run.report.queuedNanos = start - run.submittedAt;
+        if (commands != null)
+            commands.drain();
+
+        List<Result> results = run.report.results;
+        for (long id: batch.stops) {
+            scheduler.disable(id);
+            results.add(new Result(id, CommandQueue.STOP));
+        }
+        for (AdvertiserConfig config: batch.updates) {
+            Result result = new Result(config.id, CommandQueue.UPDATE);
+            result.changed = scheduler.update(config);
+            results.add(result);
+        }
+        for (AdvertiserConfig config: batch.starts) {
+            scheduler.enable(config, weight);
+            results.add(new Result(config.id, CommandQueue.START));
+        }
+
+        // Whatever the scheduler didn't hand to the radio has settled
+        // already.
+        long now = System.nanoTime();
+        run.report.applyNanos = now - start;
+        for (Result result: results) {
+            result.status = status(result.id);
+            result.nanos = now - run.submittedAt;
+            if (result.status.state == AdvertiserStatus.STARTING)
+                run.starting.put(result.id, result);
+            else
+                result.settled = true;
+        }
+
+        if (run.starting.isEmpty()) {
+            finish(run);
+        } else {
+            running.add(run);
+            loop.postDelayed(run, timeoutMillis);
+        }
+    }
+
+    private void finish(Running run) {
+        running.remove(run);
+        run.report.totalNanos = System.nanoTime() - run.submittedAt;
+        run.future.set(run.report);
+    }
+
+    private AdvertiserStatus status(long id) {
+        AdvertiserStatus status = current.get(id);
+        return status == null ? AdvertiserStatus.OFF_STATUS : status;
+    }
+}
@@ -0,0 +1,122 @@
+package com.vizio.beacon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// The text form of a batch, for driving advertisers from a shell (see
+// ControlProvider). Commands are separated by semicolons or newlines:
+//
+//   start 1 2 3
+//   stop 4 5
+//   swap 1 2 > 3 4          stops 1 and 2, starts 3 and 4
+//   update 6 7 power=3 mode=2
+//
+// Updates take the column names of the import/export files (ConfigFields)
+// and apply to every id listed. Ids refer to stored configs; loading them,
+// and checking them (ConfigFields.check()) once all updates are in, is up
+// to the caller.
+public final class BatchScript {
+    public static final class Update {
+        public final List<Long> ids = new ArrayList<>();
+        final List<Integer> fields = new ArrayList<>();
+        final List<String> values = new ArrayList<>();
+
+        // Throws IllegalArgumentException if a value doesn't parse.
+        public void applyTo(AdvertiserConfig config) {
+            for (int i = 0; i < fields.size(); i++) {
+                ConfigFields.set(config, fields.get(i), values.get(i));
+            }
+        }
+    }
+
+    public final List<Long> stops = new ArrayList<>();
+    public final List<Long> starts = new ArrayList<>();
+    public final List<Update> updates = new ArrayList<>();
+
+    private BatchScript() { }
+
+    // Throws IllegalArgumentException, saying which command is wrong.
+    public static BatchScript parse(String text) {
+        BatchScript script = new BatchScript();
+        int number = 0;
+        for (String command: text.split("[;\n]")) {
+            String[] words = command.trim().split("\\s+");
+            if (words[0].isEmpty())
+                continue;
+
+            number++;
+            try {
+                script.add(words);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Command " + number + ": " + e.getMessage());
+            }
+        }
+        return script;
+    }
+
+    public boolean isEmpty() {
+        return stops.isEmpty() && starts.isEmpty() && updates.isEmpty();
+    }
+
+    private void add(String[] words) {
+        switch (words[0].toLowerCase(Locale.ROOT)) {
+            case "start":
+                ids(words, 1, words.length, starts);
+                break;
+            case "stop":
+                ids(words, 1, words.length, stops);
+                break;
+            case "swap": {
+                int arrow = -1;
+                for (int i = 1; i < words.length; i++) {
+                    if (words[i].equals(">")) arrow = i;
+                }
+                if (arrow < 0)
+                    throw new IllegalArgumentException("swap needs a >");
+                ids(words, 1, arrow, stops);
+                ids(words, arrow + 1, words.length, starts);
+                break;
+            }
+            case "update": {
+                Update update = new Update();
+                for (int i = 1; i < words.length; i++) {
+                    int equals = words[i].indexOf('=');
+                    if (equals < 0) {
+                        update.ids.add(id(words[i]));
+                        continue;
+                    }
+
+                    String name = words[i].substring(0, equals);
+                    int field = ConfigFields.indexOf(name);
+                    if (field < 0)
+                        throw new IllegalArgumentException("No field " + name);
+                    update.fields.add(field);
+                    update.values.add(words[i].substring(equals + 1));
+                }
+                if (update.ids.isEmpty() || update.fields.isEmpty())
+                    throw new IllegalArgumentException("update needs ids and fields");
+                updates.add(update);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command " + words[0]);
+        }
+    }
+
+    private static void ids(String[] words, int from, int to, List<Long> ids) {
+        if (from >= to)
+            throw new IllegalArgumentException(words[0] + " needs ids");
+        for (int i = from; i < to; i++) {
+            ids.add(id(words[i]));
+        }
+    }
+
+    private static long id(String word) {
+        try {
+            return Long.parseLong(word);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not an id: " + word);
+        }
+    }
+}
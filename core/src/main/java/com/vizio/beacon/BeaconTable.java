@@ -0,0 +1,165 @@
+package com.vizio.beacon;
+
+import java.util.Arrays;
+
+// Aggregates scan results per beacon, a beacon being one frame (as told by
+// FrameParser) from one address: the same device advertising an iBeacon and
+// an Eddystone frame shows up twice, and a frame seen again is merged into
+// its earlier sighting.
+//
+// Beacons are kept as parallel arrays indexed in order of discovery and
+// found through an open-addressing hash index, so recording a result
+// allocates nothing. Beacons are never removed; once the table is full, new
+// ones are counted as overflow and otherwise ignored.
+//
+// Every result also goes into a ProximityEngine, keyed by the beacon's
+// index, for its distance and zone.
+//
+// Not thread-safe.
+public final class BeaconTable {
+    private static final int EMPTY = -1;
+
+    // Beacons not heard from for this long lose their proximity estimate.
+    public static final long STALE_NANOS = 10_000_000_000L;
+
+    private final FrameParser parser = new FrameParser();
+    private final ProximityEngine proximity;
+    private final int capacity;
+    private final int[] index;
+    private final int indexMask;
+
+    private final long[] address;
+    private final int[] frameType;
+    private final long[] idHash;
+    private final long[] firstSeen;
+    private final long[] lastSeen;
+    private final int[] count;
+    private final int[] rssiLast;
+    private final int[] rssiMin;
+    private final int[] rssiMax;
+    private final long[] rssiSum;
+    private final long[] rssiSumSquares;
+    private final int[] measuredPower;
+    private final byte[] records;
+    private final int[] recordLength;
+
+    private int size;
+    private long results;
+    private long overflow;
+
+    public BeaconTable(int capacity) {
+        this.capacity = capacity;
+        // At most half full, so probe sequences stay short.
+        int indexSize = Integer.highestOneBit(Math.max(1, capacity)) << 2;
+        index = new int[indexSize];
+        indexMask = indexSize - 1;
+        Arrays.fill(index, EMPTY);
+
+        address = new long[capacity];
+        frameType = new int[capacity];
+        idHash = new long[capacity];
+        firstSeen = new long[capacity];
+        lastSeen = new long[capacity];
+        count = new int[capacity];
+        rssiLast = new int[capacity];
+        rssiMin = new int[capacity];
+        rssiMax = new int[capacity];
+        rssiSum = new long[capacity];
+        rssiSumSquares = new long[capacity];
+        measuredPower = new int[capacity];
+        records = new byte[capacity * ScanRing.RECORD_MAX];
+        recordLength = new int[capacity];
+        proximity = new ProximityEngine(capacity, STALE_NANOS);
+    }
+
+    public int size() { return size; }
+    public long results() { return results; }
+    public long overflow() { return overflow; }
+    public ProximityEngine proximity() { return proximity; }
+
+    // Returns the beacon's index, or -1 if the table was full.
+    public int record(long address, int rssi, long timeNanos, byte[] record, int offset, int length) {
+        results++;
+        int type = parser.parse(record, offset, length);
+        long hash = hash(record, parser.idOffset(), parser.idLength());
+
+        int mixed = (int) ((address ^ hash ^ type) * 0x9E3779B97F4A7C15L >>> 32);
+        int slot = mixed & indexMask;
+        int i;
+        while ((i = index[slot]) != EMPTY) {
+            if (this.address[i] == address && frameType[i] == type && idHash[i] == hash)
+                break;
+            slot = (slot + 1) & indexMask;
+        }
+
+        if (i == EMPTY) {
+            if (size == capacity) {
+                overflow++;
+                return -1;
+            }
+            i = size++;
+            index[slot] = i;
+            this.address[i] = address;
+            frameType[i] = type;
+            idHash[i] = hash;
+            firstSeen[i] = timeNanos;
+            rssiMin[i] = rssi;
+            rssiMax[i] = rssi;
+        }
+
+        count[i]++;
+        lastSeen[i] = timeNanos;
+        rssiLast[i] = rssi;
+        rssiMin[i] = Math.min(rssiMin[i], rssi);
+        rssiMax[i] = Math.max(rssiMax[i], rssi);
+        rssiSum[i] += rssi;
+        rssiSumSquares[i] += (long) rssi * rssi;
+        measuredPower[i] = parser.measuredPower();
+        // Keep the latest advertisement; TLM frames change every time.
+        System.arraycopy(record, offset, records, i * ScanRing.RECORD_MAX, length);
+        recordLength[i] = length;
+        proximity.update(i, rssi,
+            ProximityEngine.referencePower(type, parser.measuredPower(), parser.txPowerLevel()), timeNanos);
+        return i;
+    }
+
+    // A copy of everything recorded so far.
+    public ScanSnapshot snapshot(long dropped) {
+        ScanSnapshot s = new ScanSnapshot(size);
+        System.arraycopy(address, 0, s.address, 0, size);
+        System.arraycopy(frameType, 0, s.frameType, 0, size);
+        System.arraycopy(firstSeen, 0, s.firstSeen, 0, size);
+        System.arraycopy(lastSeen, 0, s.lastSeen, 0, size);
+        System.arraycopy(count, 0, s.count, 0, size);
+        System.arraycopy(rssiLast, 0, s.rssiLast, 0, size);
+        System.arraycopy(rssiMin, 0, s.rssiMin, 0, size);
+        System.arraycopy(rssiMax, 0, s.rssiMax, 0, size);
+        System.arraycopy(measuredPower, 0, s.measuredPower, 0, size);
+        System.arraycopy(recordLength, 0, s.recordLength, 0, size);
+        System.arraycopy(records, 0, s.records, 0, size * ScanRing.RECORD_MAX);
+        proximity.evictStale();
+        for (int i = 0; i < size; i++) {
+            double mean = (double) rssiSum[i] / count[i];
+            s.rssiMean[i] = (float) mean;
+            s.rssiDeviation[i] = (float) Math.sqrt(Math.max(0, (double) rssiSumSquares[i] / count[i] - mean * mean));
+
+            int slot = proximity.find(i);
+            s.zone[i] = slot < 0 ? ProximityEngine.UNKNOWN : proximity.zone(slot);
+            s.distance[i] = slot < 0 ? Float.NaN : (float) proximity.distance(slot);
+        }
+        s.results = results;
+        s.dropped = dropped;
+        s.overflow = overflow;
+        return s;
+    }
+
+    // FNV-1a.
+    private static long hash(byte[] bytes, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= bytes[i] & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,154 @@
+package com.vizio.beacon;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+// Serializes start/stop/update requests onto the engine's event loop.
+//
+// Requests can come from any thread. Until the loop gets round to them,
+// requests for the same advertiser are merged: only the last one counts
+// (except that an update only changes the config of a pending start), and
+// if that leaves the advertiser in the state it's already in (say a switch
+// flipped on, off and on again while it was on air) nothing is sent to the
+// radio at all.
+//
+// How long commands waited for the loop, and how long stops took from being
+// requested, go into the scheduler's AdvertisingMetrics.
+public class CommandQueue {
+    public static final int STOP = 0;
+    public static final int START = 1;
+    public static final int UPDATE = 2;
+
+    public interface Listener {
+        // Called on the event loop once a command has been handed to the
+        // scheduler, or dropped as redundant (executed == false). The latency
+        // counts from the first of the merged requests; merged is how many
+        // requests went into the command.
+        void onCommandCompleted(long id, int command, boolean executed, long latencyNanos, int merged);
+    }
+
+    private static class Command {
+        long id;
+        int command;
+        AdvertiserConfig config;
+        int weight;
+        long queuedAt;
+        long requestedAt;
+        int merged;
+    }
+
+    private final EventLoop loop;
+    private final SlotScheduler scheduler;
+    private final Listener listener;
+    private final Runnable drain = this::drain;
+
+    // Guarded by pending.
+    private final Map<Long, Command> pending = new HashMap<>();
+    private final ArrayDeque<Long> order = new ArrayDeque<>();
+    private final ArrayDeque<Command> batch = new ArrayDeque<>();
+
+    public CommandQueue(EventLoop loop, SlotScheduler scheduler, Listener listener) {
+        this.loop = loop;
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    public void start(AdvertiserConfig config, int weight) {
+        start(config, weight, System.nanoTime());
+    }
+
+    // requestedAt is the System.nanoTime() the user asked for the start, if
+    // that was before now (say, before a permission prompt).
+    public void start(AdvertiserConfig config, int weight, long requestedAt) {
+        submit(config.id, START, config, weight, requestedAt);
+    }
+
+    public void stop(long id) {
+        stop(id, System.nanoTime());
+    }
+
+    public void stop(long id, long requestedAt) {
+        submit(id, STOP, null, 0, requestedAt);
+    }
+
+    // Applies the config to the advertiser if it's enabled, in place if the
+    // backend can.
+    public void update(AdvertiserConfig config) {
+        submit(config.id, UPDATE, config, 0, System.nanoTime());
+    }
+
+    // Stops everything that's enabled, after the commands already queued.
+    public void stopAll() {
+        loop.post(() -> {
+            drain();
+            scheduler.disableAll();
+        });
+    }
+
+    private void submit(long id, int command, AdvertiserConfig config, int weight, long requestedAt) {
+        long now = System.nanoTime();
+        boolean first;
+        synchronized (pending) {
+            first = pending.isEmpty();
+            Command c = pending.get(id);
+            if (c == null) {
+                c = new Command();
+                c.id = id;
+                c.queuedAt = now;
+                c.command = -1;
+                pending.put(id, c);
+                order.addLast(id);
+            } else if (command == UPDATE && c.command != UPDATE) {
+                // A pending start picks up the new config; a pending stop wins.
+                if (c.command == START) c.config = config;
+                command = c.command;
+                config = c.config;
+                weight = c.weight;
+            }
+            // Timed from the first request for what the command ends up doing.
+            if (command != c.command) c.requestedAt = requestedAt;
+            c.command = command;
+            c.config = config;
+            c.weight = weight;
+            c.merged++;
+        }
+
+        if (first)
+            loop.post(drain);
+    }
+
+    // Hands everything pending to the scheduler now, so that whatever comes
+    // next on the loop sees it done. Runs on the event loop.
+    public void drain() {
+        synchronized (pending) {
+            while (!order.isEmpty()) {
+                batch.addLast(pending.remove(order.removeFirst()));
+            }
+        }
+
+        while (!batch.isEmpty()) {
+            execute(batch.removeFirst());
+        }
+    }
+
+    private void execute(Command c) {
+        AdvertisingMetrics metrics = scheduler.getMetrics();
+        metrics.getQueue().record(System.nanoTime() - c.queuedAt);
+
+        boolean executed;
+        if (c.command == START) {
+            executed = !c.config.equals(scheduler.getConfig(c.id));
+            if (executed) scheduler.enable(c.config, c.weight, c.requestedAt);
+        } else if (c.command == UPDATE) {
+            executed = scheduler.update(c.config);
+        } else {
+            executed = scheduler.getConfig(c.id) != null;
+            if (executed) {
+                scheduler.disable(c.id);
+                metrics.getStop().record(System.nanoTime() - c.requestedAt);
+            }
+        }
+        listener.onCommandCompleted(c.id, c.command, executed, System.nanoTime() - c.queuedAt, c.merged);
+    }
+}
@@ -0,0 +1,140 @@
+package com.vizio.beacon;
+
+// The columns of an advertiser config as they appear in import/export
+// files: named like the database columns, minus the id, enabled state and
+// revision, which belong to the device rather than to the config. Binary
+// fields are hex strings.
+final class ConfigFields {
+    static final int TEXT = 0;
+    static final int NUMBER = 1;
+    static final int FLAG = 2;
+
+    // What the editor offers (see the tx_power_levels and advertising_modes
+    // resources).
+    static final int POWER_LEVELS = 4;
+    static final int MODES = 3;
+    static final int MINUTES_PER_DAY = 24 * 60;
+
+    static final String[] NAMES = {
+        "label", "power", "mode", "include_device_name", "include_tx_power_level",
+        "frame_type", "frame_id", "major", "minor", "measured_power",
+        "url", "company_id", "frame_data",
+        "duty_on_millis", "duty_off_millis", "window_start_minute", "window_end_minute",
+        "eid_key", "rotation_exponent"
+    };
+
+    private static final int[] TYPES = {
+        TEXT, NUMBER, NUMBER, FLAG, FLAG,
+        NUMBER, TEXT, NUMBER, NUMBER, NUMBER,
+        TEXT, NUMBER, TEXT,
+        NUMBER, NUMBER, NUMBER, NUMBER,
+        TEXT, NUMBER
+    };
+
+    private ConfigFields() { }
+
+    static int type(int field) {
+        return TYPES[field];
+    }
+
+    // -1 for names that aren't ours.
+    static int indexOf(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // The value as text; null for missing text values.
+    static String get(AdvertiserConfig config, int field) {
+        switch (field) {
+            case 0: return config.label;
+            case 1: return String.valueOf(config.power);
+            case 2: return String.valueOf(config.mode);
+            case 3: return String.valueOf(config.includeDeviceName);
+            case 4: return String.valueOf(config.includeTxPowerLevel);
+            case 5: return String.valueOf(config.frameType);
+            case 6: return config.frameId == null ? null : Hex.format(config.frameId);
+            case 7: return String.valueOf(config.major);
+            case 8: return String.valueOf(config.minor);
+            case 9: return String.valueOf(config.measuredPower);
+            case 10: return config.url;
+            case 11: return String.valueOf(config.companyId);
+            case 12: return config.frameData == null ? null : Hex.format(config.frameData);
+            case 13: return String.valueOf(config.dutyOnMillis);
+            case 14: return String.valueOf(config.dutyOffMillis);
+            case 15: return String.valueOf(config.windowStartMinute);
+            case 16: return String.valueOf(config.windowEndMinute);
+            case 17: return config.eidKey == null ? null : Hex.format(config.eidKey);
+            case 18: return String.valueOf(config.rotationExponent);
+            default: throw new IndexOutOfBoundsException("No field " + field);
+        }
+    }
+
+    // Throws IllegalArgumentException when the value doesn't parse.
+    static void set(AdvertiserConfig config, int field, String value) {
+        switch (field) {
+            case 0: config.label = value; break;
+            case 1: config.power = Integer.parseInt(value); break;
+            case 2: config.mode = Integer.parseInt(value); break;
+            case 3: config.includeDeviceName = parseFlag(value); break;
+            case 4: config.includeTxPowerLevel = parseFlag(value); break;
+            case 5: config.frameType = Integer.parseInt(value); break;
+            case 6: config.frameId = Hex.parse(value); break;
+            case 7: config.major = Integer.parseInt(value); break;
+            case 8: config.minor = Integer.parseInt(value); break;
+            case 9: config.measuredPower = Integer.parseInt(value); break;
+            case 10: config.url = value; break;
+            case 11: config.companyId = Integer.parseInt(value); break;
+            case 12: config.frameData = Hex.parse(value); break;
+            case 13: config.dutyOnMillis = Long.parseLong(value); break;
+            case 14: config.dutyOffMillis = Long.parseLong(value); break;
+            case 15: config.windowStartMinute = Integer.parseInt(value); break;
+            case 16: config.windowEndMinute = Integer.parseInt(value); break;
+            case 17: config.eidKey = Hex.parse(value); break;
+            case 18: config.rotationExponent = Integer.parseInt(value); break;
+            default: throw new IndexOutOfBoundsException("No field " + field);
+        }
+    }
+
+    // Throws IllegalArgumentException, naming the field, if the config has
+    // a value the editor wouldn't allow or a frame that can't be encoded.
+    static void check(AdvertiserConfig config, PayloadEncoder encoder) {
+        checkRange("power", config.power, 0, POWER_LEVELS - 1);
+        checkRange("mode", config.mode, 0, MODES - 1);
+        checkRange("frame_type", config.frameType, PayloadEncoder.FRAME_NONE, PayloadEncoder.FRAME_EDDYSTONE_EID);
+        if (config.dutyOnMillis < 0)
+            throw new IllegalArgumentException("duty_on_millis: negative");
+        if (config.dutyOffMillis < 0)
+            throw new IllegalArgumentException("duty_off_millis: negative");
+        checkRange("window_start_minute", config.windowStartMinute, 0, MINUTES_PER_DAY - 1);
+        checkRange("window_end_minute", config.windowEndMinute, 0, MINUTES_PER_DAY - 1);
+        checkRange("rotation_exponent", config.rotationExponent, 0, EidRotator.MAX_EXPONENT);
+
+        if (config.frameType == PayloadEncoder.FRAME_EDDYSTONE_EID)
+            encoder.encode(EidRotator.check(config), 0);
+        else
+            encoder.encode(config, 0);
+    }
+
+    private static void checkRange(String name, int value, int min, int max) {
+        if (value < min || value > max)
+            throw new IllegalArgumentException(name + ": " + value + " is not in " + min + ".." + max);
+    }
+
+    // Copies every field the files have into a fresh config (with no id).
+    static AdvertiserConfig copy(AdvertiserConfig config) {
+        AdvertiserConfig copy = new AdvertiserConfig();
+        for (int i = 0; i < NAMES.length; i++) {
+            String value = get(config, i);
+            if (value != null) set(copy, i, value);
+        }
+        return copy;
+    }
+
+    private static boolean parseFlag(String value) {
+        if (value.equalsIgnoreCase("true") || value.equals("1")) return true;
+        if (value.equalsIgnoreCase("false") || value.equals("0")) return false;
+        throw new IllegalArgumentException("Not a boolean: " + value);
+    }
+}
@@ -0,0 +1,24 @@
+package com.vizio.beacon;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+// A file format for advertiser configs. Files are read and written one
+// config at a time, so a file of any size goes through a fixed amount of
+// memory.
+public interface ConfigFormat {
+    interface Source extends Closeable {
+        // The next config (with no id), or null at the end of the file.
+        // Throws IOException on malformed input.
+        AdvertiserConfig read() throws IOException;
+    }
+
+    interface Sink extends Closeable {
+        void write(AdvertiserConfig config) throws IOException;
+    }
+
+    Source source(Reader in) throws IOException;
+    Sink sink(Writer out) throws IOException;
+}
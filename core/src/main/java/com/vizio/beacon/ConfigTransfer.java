@@ -0,0 +1,143 @@
+package com.vizio.beacon;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Moves configs between a file and the database in fixed-size chunks, so
+// neither side ever holds more than one chunk in memory and every chunk is
+// written in a single transaction.
+public final class ConfigTransfer {
+    public static final int CHUNK_SIZE = 200;
+
+    public interface Chunks {
+        // Stores the configs; the list is reused once this returns.
+        void accept(List<AdvertiserConfig> chunk) throws Exception;
+    }
+
+    public interface Progress {
+        // Configs stored so far, after every chunk.
+        void onProgress(int count);
+    }
+
+    public interface Skipped {
+        // An Eddystone-EID config exported without its identity key (see
+        // exportAll()), numbered from 1 among the records read; it isn't
+        // imported.
+        void onSkipped(int record, AdvertiserConfig config);
+    }
+
+    public interface Pages {
+        // Up to limit configs with ids greater than afterId, in id order.
+        List<AdvertiserConfig> next(long afterId, int limit) throws Exception;
+    }
+
+    private ConfigTransfer() { }
+
+    // Tells JSON from CSV by the first character that isn't whitespace (or a
+    // byte order mark); leaves the reader where it was.
+    public static boolean looksLikeJson(BufferedReader in) throws IOException {
+        in.mark(4096);
+        try {
+            int c;
+            do {
+                c = in.read();
+            } while (c != -1 && (Character.isWhitespace(c) || c == '\uFEFF'));
+            return c == '[';
+        } finally {
+            in.reset();
+        }
+    }
+
+    // Returns the number of configs imported. Each one is checked the way
+    // the editor checks it; on a bad one, the chunks before it stay
+    // imported and an IOException says where it went wrong. Eddystone-EID
+    // configs without an identity key, as exportAll() writes them by
+    // default, are left out rather than failing the import.
+    public static int importAll(ConfigFormat.Source source, int chunkSize, Chunks chunks) throws Exception {
+        return importAll(source, chunkSize, chunks, count -> { });
+    }
+
+    // Same, reporting progress. Interrupting the thread cancels between
+    // chunks, with an InterruptedException; the chunks before stay imported.
+    public static int importAll(ConfigFormat.Source source, int chunkSize, Chunks chunks, Progress progress)
+        throws Exception {
+        return importAll(source, chunkSize, chunks, progress, (record, config) -> { });
+    }
+
+    // Same, also telling about the configs left out.
+    public static int importAll(ConfigFormat.Source source, int chunkSize, Chunks chunks, Progress progress,
+        Skipped skipped) throws Exception {
+        PayloadEncoder encoder = new PayloadEncoder();
+        List<AdvertiserConfig> chunk = new ArrayList<>(chunkSize);
+        int count = 0;
+        int record = 0;
+
+        AdvertiserConfig config;
+        while ((config = source.read()) != null) {
+            record++;
+            if (config.frameType == PayloadEncoder.FRAME_EDDYSTONE_EID && config.eidKey == null) {
+                skipped.onSkipped(record, config);
+                continue;
+            }
+            try {
+                ConfigFields.check(config, encoder);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Record " + record + ": " + e.getMessage());
+            }
+
+            chunk.add(config);
+            if (chunk.size() == chunkSize) {
+                count = store(chunk, count, chunks, progress);
+            }
+        }
+
+        if (!chunk.isEmpty())
+            count = store(chunk, count, chunks, progress);
+        return count;
+    }
+
+    private static int store(List<AdvertiserConfig> chunk, int count, Chunks chunks, Progress progress)
+        throws Exception {
+        if (Thread.interrupted())
+            throw new InterruptedException("Cancelled after " + count);
+
+        chunks.accept(chunk);
+        count += chunk.size();
+        chunk.clear();
+        progress.onProgress(count);
+        return count;
+    }
+
+    // Returns the number of configs exported. Eddystone-EID identity keys
+    // are left out, as anyone with one can follow the beacon; importAll()
+    // skips those configs.
+    public static int exportAll(Pages pages, int chunkSize, ConfigFormat.Sink sink) throws Exception {
+        return exportAll(pages, chunkSize, sink, false);
+    }
+
+    // Same, but with the identity keys if withKeys.
+    public static int exportAll(Pages pages, int chunkSize, ConfigFormat.Sink sink, boolean withKeys)
+        throws Exception {
+        int count = 0;
+        long last = Long.MIN_VALUE;
+        while (true) {
+            List<AdvertiserConfig> page = pages.next(last, chunkSize);
+            for (AdvertiserConfig config: page) {
+                sink.write(withKeys || config.eidKey == null ? config : withoutKey(config));
+            }
+            count += page.size();
+
+            if (page.size() < chunkSize)
+                return count;
+            last = page.get(page.size() - 1).id;
+        }
+    }
+
+    private static AdvertiserConfig withoutKey(AdvertiserConfig config) {
+        AdvertiserConfig copy = ConfigFields.copy(config);
+        copy.eidKey = null;
+        return copy;
+    }
+}
@@ -0,0 +1,169 @@
+package com.vizio.beacon;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+
+// RFC 4180 CSV with a header row naming the columns (see ConfigFields).
+// Columns may come in any order, unknown ones are ignored and missing or
+// empty ones keep their default values.
+public class CsvConfigFormat implements ConfigFormat {
+    @Override
+    public Source source(Reader in) throws IOException {
+        CsvSource source = new CsvSource(in);
+        source.readHeader();
+        return source;
+    }
+
+    @Override
+    public Sink sink(Writer out) throws IOException {
+        CsvSink sink = new CsvSink(out);
+        sink.writeHeader();
+        return sink;
+    }
+
+    private static class CsvSource implements Source {
+        private final Reader in;
+        private final ArrayList<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+        private int[] columns = new int[0];
+        private int record;
+
+        CsvSource(Reader in) {
+            this.in = in;
+        }
+
+        void readHeader() throws IOException {
+            if (!readRecord())
+                return;
+
+            columns = new int[fields.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = ConfigFields.indexOf(fields.get(i).trim());
+            }
+            // Records are numbered from the first config on.
+            record = 0;
+        }
+
+        @Override
+        public AdvertiserConfig read() throws IOException {
+            if (!readRecord())
+                return null;
+
+            AdvertiserConfig config = new AdvertiserConfig();
+            int n = Math.min(fields.size(), columns.length);
+            for (int i = 0; i < n; i++) {
+                String value = fields.get(i);
+                if (columns[i] < 0 || value.isEmpty())
+                    continue;
+
+                try {
+                    ConfigFields.set(config, columns[i], value);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(
+                        "Record " + record + ", " + ConfigFields.NAMES[columns[i]] + ": " + e.getMessage());
+                }
+            }
+            return config;
+        }
+
+        // Reads the next record into fields; false at the end of the input.
+        // Blank lines are skipped.
+        private boolean readRecord() throws IOException {
+            fields.clear();
+            field.setLength(0);
+
+            int c;
+            do {
+                c = in.read();
+            } while (c == '\r' || c == '\n');
+            if (c == -1)
+                return false;
+
+            record++;
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c == -1)
+                        throw new IOException("Record " + record + ": unterminated quote");
+                    if (c == '"') {
+                        c = in.read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    field.append((char) c);
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == -1 || c == '\n' || c == '\r') {
+                    fields.add(field.toString());
+                    return true;
+                } else {
+                    field.append((char) c);
+                }
+                c = in.read();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class CsvSink implements Sink {
+        private final Writer out;
+
+        CsvSink(Writer out) {
+            this.out = out;
+        }
+
+        void writeHeader() throws IOException {
+            for (int i = 0; i < ConfigFields.NAMES.length; i++) {
+                if (i > 0) out.write(',');
+                out.write(ConfigFields.NAMES[i]);
+            }
+            out.write('\n');
+        }
+
+        @Override
+        public void write(AdvertiserConfig config) throws IOException {
+            for (int i = 0; i < ConfigFields.NAMES.length; i++) {
+                if (i > 0) out.write(',');
+                String value = ConfigFields.get(config, i);
+                if (value != null) writeField(value);
+            }
+            out.write('\n');
+        }
+
+        private void writeField(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') out.write('"');
+                out.write(c);
+            }
+            out.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
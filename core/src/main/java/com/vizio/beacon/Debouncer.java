@@ -0,0 +1,46 @@
+package com.vizio.beacon;
+
+// Runs a task once things have been quiet for a while: every trigger()
+// pushes the run back to delayMillis after it, so a burst of triggers (e.g.
+// keystrokes) ends up as a single run.
+//
+// Not thread-safe; everything must run on the event loop.
+public class Debouncer {
+    private final EventLoop loop;
+    private final long delayMillis;
+    private final Runnable task;
+    private final Runnable run = this::run;
+    private boolean pending;
+
+    public Debouncer(EventLoop loop, long delayMillis, Runnable task) {
+        this.loop = loop;
+        this.delayMillis = delayMillis;
+        this.task = task;
+    }
+
+    public void trigger() {
+        loop.cancel(run);
+        loop.postDelayed(run, delayMillis);
+        pending = true;
+    }
+
+    // Runs the task now if a run is pending, e.g. when the user submits.
+    public void flush() {
+        if (pending) {
+            loop.cancel(run);
+            run();
+        }
+    }
+
+    public void cancel() {
+        loop.cancel(run);
+        pending = false;
+    }
+
+    public boolean isPending() { return pending; }
+
+    private void run() {
+        pending = false;
+        task.run();
+    }
+}
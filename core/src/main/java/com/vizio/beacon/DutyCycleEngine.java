@@ -0,0 +1,281 @@
+package com.vizio.beacon;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Puts advertisers to sleep and wakes them up according to their schedules
+// (AdvertiserConfig's duty cycle and daily window), by suspending and
+// resuming them in the SlotScheduler.
+//
+// Wakeups are batched: every transition is rounded up to the next multiple
+// of TICK_MILLIS on the loop's clock, and a single timer serves all
+// advertisers, so a thousand advertisers cycling every few seconds still
+// cost a handful of wakeups per second. Rounding never accumulates: where an
+// advertiser is in its cycle is always worked out from when it was enabled.
+//
+// Each duty cycle starts when the advertiser is enabled (or its schedule
+// changes), so advertisers enabled together don't all wake at once. Daily
+// windows go by local time, which is the loop's clock plus an offset that
+// has to be kept up to date when the wall clock or the time zone changes.
+//
+// Also keeps a rough estimate of each advertiser's airtime and the energy
+// spent on it; see EnergyModel.
+//
+// Not thread-safe; everything must run on the event loop.
+public class DutyCycleEngine implements SlotScheduler.DutyCycle {
+    public static final long TICK_MILLIS = 250;
+
+    private static final long MINUTE_MILLIS = 60_000;
+    private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+    private static class Track {
+        long id;
+        long onMillis;
+        long offMillis;
+        int windowStart;
+        int windowEnd;
+        long phaseStart;
+        boolean awake;
+        // When awake next needs another look, exact and unrounded.
+        long nextChange;
+
+        // Estimates, as of accountedAt.
+        double energyPerMilli;
+        long accountedAt;
+        long awakeMillis;
+        long trackedMillis;
+        double microjoules;
+    }
+
+    private final EventLoop loop;
+    private final SlotScheduler scheduler;
+    private final Map<Long, Track> tracks = new HashMap<>();
+    private final ArrayList<Track> changed = new ArrayList<>();
+    private final Runnable tick = this::tick;
+    private long localOffsetMillis;
+    private long tickAt = Long.MAX_VALUE;
+    private long ticks;
+
+    // Attaches itself to the scheduler.
+    public DutyCycleEngine(EventLoop loop, SlotScheduler scheduler, long localOffsetMillis) {
+        this.loop = loop;
+        this.scheduler = scheduler;
+        this.localOffsetMillis = localOffsetMillis;
+        scheduler.setDutyCycle(this);
+    }
+
+    // Local time (milliseconds since the epoch, shifted into the local time
+    // zone) minus loop.now().
+    public void setLocalOffsetMillis(long localOffsetMillis) {
+        if (localOffsetMillis == this.localOffsetMillis)
+            return;
+
+        this.localOffsetMillis = localOffsetMillis;
+        long now = loop.now();
+        for (Track track: tracks.values()) {
+            track.nextChange = now;
+        }
+        tick();
+    }
+
+    public int getTrackedCount() { return tracks.size(); }
+
+    // Timer wakeups so far, however many advertisers each one served.
+    public long getTicks() { return ticks; }
+
+    @Override
+    public boolean track(AdvertiserConfig config) {
+        long now = loop.now();
+        Track track = tracks.get(config.id);
+        if (!config.hasSchedule()) {
+            if (track != null) untrack(config.id);
+            return true;
+        }
+
+        if (track == null) {
+            track = new Track();
+            track.id = config.id;
+            track.accountedAt = now;
+            tracks.put(config.id, track);
+        } else {
+            account(track, now);
+        }
+
+        if (track.onMillis != config.dutyOnMillis || track.offMillis != config.dutyOffMillis)
+            track.phaseStart = now;
+        track.onMillis = config.dutyOnMillis;
+        track.offMillis = config.dutyOffMillis;
+        track.windowStart = config.windowStartMinute;
+        track.windowEnd = config.windowEndMinute;
+        track.energyPerMilli = EnergyModel.microjoulesPerMilli(config.mode, config.power);
+        track.awake = isAwake(track, now);
+        track.nextChange = nextChange(track, now);
+        arm();
+        return track.awake;
+    }
+
+    @Override
+    public void untrack(long id) {
+        tracks.remove(id);
+        arm();
+    }
+
+    @Override
+    public void untrackAll() {
+        tracks.clear();
+        arm();
+    }
+
+    // Estimated time on air since the advertiser was enabled, as far as its
+    // schedule goes; slot sharing may cut into it further. -1 if it isn't
+    // enabled with a schedule.
+    public long getAwakeMillis(long id) {
+        Track track = tracks.get(id);
+        if (track == null)
+            return -1;
+
+        account(track, loop.now());
+        return track.awakeMillis;
+    }
+
+    // Estimated energy spent advertising since the advertiser was enabled,
+    // in millijoules; -1 like getAwakeMillis().
+    public double getEnergyMillijoules(long id) {
+        Track track = tracks.get(id);
+        if (track == null)
+            return -1;
+
+        account(track, loop.now());
+        return track.microjoules / 1000;
+    }
+
+    public void dump(PrintWriter writer, String prefix) {
+        long now = loop.now();
+        writer.println(prefix + "Duty cycles: " + tracks.size() + " advertisers, " + ticks + " ticks");
+        for (Track track: tracks.values()) {
+            account(track, now);
+            double seconds = track.trackedMillis / 1000.0;
+            writer.println(prefix + String.format(Locale.ROOT,
+                "  %d: %s, %d/%d ms, window %d-%d, on air %.0f%% of %.0f s, %.1f mJ (%.2f mW)",
+                track.id, track.awake ? "awake" : "asleep", track.onMillis, track.offMillis,
+                track.windowStart, track.windowEnd,
+                seconds == 0 ? 0 : 100.0 * track.awakeMillis / track.trackedMillis, seconds,
+                track.microjoules / 1000, seconds == 0 ? 0 : track.microjoules / 1000 / seconds));
+        }
+    }
+
+    private void tick() {
+        tickAt = Long.MAX_VALUE;
+        ticks++;
+        long now = loop.now();
+        // The tick may be a little late, and transitions were rounded up to
+        // it; anything due before the next tick is handled now.
+        long horizon = now + TICK_MILLIS - 1;
+
+        for (Track track: tracks.values()) {
+            if (track.nextChange > horizon)
+                continue;
+
+            account(track, now);
+            boolean awake = isAwake(track, Math.max(now, track.nextChange));
+            track.nextChange = nextChange(track, Math.max(now, track.nextChange));
+            if (awake != track.awake) {
+                track.awake = awake;
+                changed.add(track);
+            }
+        }
+
+        // Suspending first frees slots for those resuming.
+        for (int i = 0; i < changed.size(); i++) {
+            Track track = changed.get(i);
+            if (!track.awake) scheduler.setSuspended(track.id, true);
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            Track track = changed.get(i);
+            if (track.awake) scheduler.setSuspended(track.id, false);
+        }
+        changed.clear();
+        arm();
+    }
+
+    // Points the one timer at the earliest transition, rounded up to a tick.
+    private void arm() {
+        long next = Long.MAX_VALUE;
+        for (Track track: tracks.values()) {
+            next = Math.min(next, track.nextChange);
+        }
+        if (next != Long.MAX_VALUE)
+            next = (next + TICK_MILLIS - 1) / TICK_MILLIS * TICK_MILLIS;
+
+        if (next != tickAt) {
+            loop.cancel(tick);
+            tickAt = next;
+            if (next != Long.MAX_VALUE)
+                loop.postDelayed(tick, Math.max(0, next - loop.now()));
+        }
+    }
+
+    private void account(Track track, long now) {
+        long elapsed = now - track.accountedAt;
+        if (elapsed <= 0)
+            return;
+
+        track.trackedMillis += elapsed;
+        if (track.awake) {
+            track.awakeMillis += elapsed;
+            track.microjoules += elapsed * track.energyPerMilli;
+        }
+        track.accountedAt = now;
+    }
+
+    private boolean isAwake(Track track, long now) {
+        return inDuty(track, now) && inWindow(track, now + localOffsetMillis);
+    }
+
+    private static boolean inDuty(Track track, long now) {
+        if (track.onMillis <= 0 || track.offMillis <= 0)
+            return true;
+        return floorMod(now - track.phaseStart, track.onMillis + track.offMillis) < track.onMillis;
+    }
+
+    private static boolean inWindow(Track track, long local) {
+        if (track.windowStart == track.windowEnd)
+            return true;
+
+        long minute = floorMod(local, DAY_MILLIS) / MINUTE_MILLIS;
+        if (track.windowStart < track.windowEnd)
+            return minute >= track.windowStart && minute < track.windowEnd;
+        return minute >= track.windowStart || minute < track.windowEnd;
+    }
+
+    // The next moment after now at which the advertiser might change state.
+    private long nextChange(Track track, long now) {
+        long next = Long.MAX_VALUE;
+        if (track.onMillis > 0 && track.offMillis > 0) {
+            long period = track.onMillis + track.offMillis;
+            long phase = floorMod(now - track.phaseStart, period);
+            next = now + (phase < track.onMillis ? track.onMillis - phase : period - phase);
+        }
+
+        if (track.windowStart != track.windowEnd) {
+            long local = floorMod(now + localOffsetMillis, DAY_MILLIS);
+            next = Math.min(next, now + untilMinute(local, track.windowStart));
+            next = Math.min(next, now + untilMinute(local, track.windowEnd));
+        }
+        return next;
+    }
+
+    private static long untilMinute(long timeOfDay, int minute) {
+        long until = floorMod(minute * MINUTE_MILLIS - timeOfDay, DAY_MILLIS);
+        return until == 0 ? DAY_MILLIS : until;
+    }
+
+    // Math.floorMod() needs API 24.
+    private static long floorMod(long x, long y) {
+        long mod = x % y;
+        return mod < 0 ? mod + y : mod;
+    }
+}
@@ -0,0 +1,300 @@
+package com.vizio.beacon;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+// Rotates the identifiers of Eddystone-EID advertisers: every 2^k seconds
+// each one advertises a new 8-byte identifier worked out from its identity
+// key and the time, which only those who know the key can tell apart from
+// noise.
+//
+// The engine never waits for the crypto. As soon as an identifier goes on
+// air, the one for the following period is worked out on the given executor
+// and handed back to the loop, so at the boundary all there is left to do is
+// swap it in through SlotScheduler.update(). A single timer serves every
+// advertiser, and all those whose periods end at the same time are rotated
+// together in one task. If the next identifier isn't ready in time (the
+// executor is behind, or the clock jumped), it's worked out right there on
+// the loop, and counted as late.
+//
+// Time is the wall clock in seconds since the Unix epoch, which is what the
+// resolving side has to be registered with as the beacon's clock; it's the
+// loop's clock plus an offset that has to be kept up to date when the wall
+// clock changes.
+//
+// Not thread-safe; everything but the precomputation must run on the event
+// loop.
+public class EidRotator implements SlotScheduler.Rotation {
+    public static final int KEY_LENGTH = 16;
+    public static final int MAX_EXPONENT = 15;
+
+    private static class Track {
+        long id;
+        AdvertiserConfig config;
+        // Start of the current period, in seconds.
+        long period;
+        byte[] current;
+        // The identifier for the following period, once it's been worked
+        // out, and the period it was worked out for.
+        long nextPeriod;
+        byte[] next;
+    }
+
+    private final EventLoop loop;
+    private final SlotScheduler scheduler;
+    private final Executor executor;
+    private final Map<Long, Track> tracks = new HashMap<>();
+    private final ArrayList<Track> due = new ArrayList<>();
+    private final Runnable rotate = this::rotate;
+    private long wallOffsetMillis;
+    private long rotateAt = Long.MAX_VALUE;
+
+    private long rotations;
+    private long batches;
+    private long precomputed;
+    private long late;
+
+    // Attaches itself to the scheduler.
+    public EidRotator(EventLoop loop, SlotScheduler scheduler, Executor executor, long wallOffsetMillis) {
+        this.loop = loop;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.wallOffsetMillis = wallOffsetMillis;
+        scheduler.setRotation(this);
+    }
+
+    // Milliseconds since the epoch minus loop.now().
+    public void setWallOffsetMillis(long wallOffsetMillis) {
+        if (wallOffsetMillis == this.wallOffsetMillis)
+            return;
+
+        this.wallOffsetMillis = wallOffsetMillis;
+        rotate();
+    }
+
+    public int getTrackedCount() { return tracks.size(); }
+    public long getRotations() { return rotations; }
+    // Timer wakeups that rotated anything, however many advertisers each.
+    public long getBatches() { return batches; }
+    // Rotations to an identifier worked out ahead of time, and those that
+    // had to work it out on the spot.
+    public long getPrecomputed() { return precomputed; }
+    public long getLate() { return late; }
+
+    @Override
+    public AdvertiserConfig track(AdvertiserConfig config) {
+        if (config.frameType != PayloadEncoder.FRAME_EDDYSTONE_EID || !isValid(config)) {
+            if (tracks.containsKey(config.id)) untrack(config.id);
+            return config;
+        }
+
+        Track track = tracks.get(config.id);
+        if (track == null || !sameSecret(track.config, config)) {
+            track = new Track();
+            track.id = config.id;
+            tracks.put(config.id, track);
+        }
+        track.config = config;
+
+        // The first identifier is worked out right away; there's no way
+        // around that.
+        long period = periodStart(seconds(), config.rotationExponent);
+        if (track.current == null) {
+            track.current = ephemeralId(config.eidKey, config.rotationExponent, period);
+            track.period = period;
+            precompute(Arrays.asList(track));
+        } else if (track.period != period) {
+            advance(track, period);
+            precompute(Arrays.asList(track));
+        }
+        arm();
+        return rotated(track, config);
+    }
+
+    @Override
+    public void untrack(long id) {
+        tracks.remove(id);
+        arm();
+    }
+
+    @Override
+    public void untrackAll() {
+        tracks.clear();
+        arm();
+    }
+
+    // The Eddystone-EID identifier for the given identity key, rotation
+    // exponent and time in seconds.
+    public static byte[] ephemeralId(byte[] identityKey, int exponent, long seconds) {
+        int time = (int) periodStart(seconds, exponent);
+
+        byte[] block = new byte[16];
+        block[11] = (byte) 0xFF;
+        block[14] = (byte) (time >>> 24);
+        block[15] = (byte) (time >>> 16);
+        byte[] temporaryKey = aes(identityKey, block);
+
+        block = new byte[16];
+        block[11] = (byte) exponent;
+        block[12] = (byte) (time >>> 24);
+        block[13] = (byte) (time >>> 16);
+        block[14] = (byte) (time >>> 8);
+        block[15] = (byte) time;
+        return Arrays.copyOf(aes(temporaryKey, block), PayloadEncoder.EID_LENGTH);
+    }
+
+    // Throws IllegalArgumentException if the config's key or exponent won't
+    // do; otherwise returns a copy carrying its current identifier, as if
+    // the engine had just enabled it.
+    public static AdvertiserConfig check(AdvertiserConfig config) {
+        if (config.eidKey == null || config.eidKey.length != KEY_LENGTH)
+            throw new IllegalArgumentException("Identity key must be " + KEY_LENGTH + " bytes");
+        if (config.rotationExponent < 0 || config.rotationExponent > MAX_EXPONENT)
+            throw new IllegalArgumentException("Rotation exponent must be 0 to " + MAX_EXPONENT);
+
+        AdvertiserConfig copy = ConfigFields.copy(config);
+        copy.ephemeralId = ephemeralId(config.eidKey, config.rotationExponent, System.currentTimeMillis() / 1000);
+        return copy;
+    }
+
+    private static byte[] aes(byte[] key, byte[] block) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+            return cipher.doFinal(block);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long periodStart(long seconds, int exponent) {
+        return seconds & -(1L << exponent);
+    }
+
+    private static boolean isValid(AdvertiserConfig config) {
+        return config.eidKey != null && config.eidKey.length == KEY_LENGTH
+            && config.rotationExponent >= 0 && config.rotationExponent <= MAX_EXPONENT;
+    }
+
+    private static boolean sameSecret(AdvertiserConfig a, AdvertiserConfig b) {
+        return Arrays.equals(a.eidKey, b.eidKey) && a.rotationExponent == b.rotationExponent;
+    }
+
+    private long seconds() {
+        long millis = loop.now() + wallOffsetMillis;
+        // Math.floorDiv() needs API 24.
+        return millis >= 0 ? millis / 1000 : (millis - 999) / 1000;
+    }
+
+    // Moves the track on to the given period, with the precomputed
+    // identifier if there is one for it.
+    private void advance(Track track, long period) {
+        if (track.next != null && track.nextPeriod == period) {
+            track.current = track.next;
+            precomputed++;
+        } else {
+            track.current = ephemeralId(track.config.eidKey, track.config.rotationExponent, period);
+            late++;
+        }
+        track.period = period;
+        track.next = null;
+        rotations++;
+    }
+
+    // A copy of config carrying the track's current identifier. Copies
+    // from the same period share the identifier's array, which is what
+    // PreparedCache goes by.
+    private static AdvertiserConfig rotated(Track track, AdvertiserConfig config) {
+        if (config.ephemeralId == track.current)
+            return config;
+
+        AdvertiserConfig rotated = ConfigFields.copy(config);
+        rotated.id = config.id;
+        rotated.enabled = config.enabled;
+        rotated.revision = config.revision;
+        rotated.ephemeralId = track.current;
+        return rotated;
+    }
+
+    // Works out the following period's identifiers on the executor; they're
+    // only taken if the track is still there (a new secret means a new
+    // track) and still in the period they were worked out after.
+    private void precompute(List<Track> batch) {
+        int size = batch.size();
+        Track[] targets = batch.toArray(new Track[size]);
+        byte[][] keys = new byte[size][];
+        int[] exponents = new int[size];
+        long[] periods = new long[size];
+        for (int i = 0; i < size; i++) {
+            Track track = targets[i];
+            keys[i] = track.config.eidKey;
+            exponents[i] = track.config.rotationExponent;
+            periods[i] = track.period + (1L << exponents[i]);
+        }
+
+        executor.execute(() -> {
+            byte[][] ids = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                ids[i] = ephemeralId(keys[i], exponents[i], periods[i]);
+            }
+            loop.post(() -> {
+                for (int i = 0; i < size; i++) {
+                    Track track = targets[i];
+                    if (tracks.get(track.id) == track && track.period + (1L << exponents[i]) == periods[i]) {
+                        track.nextPeriod = periods[i];
+                        track.next = ids[i];
+                    }
+                }
+            });
+        });
+    }
+
+    // Rotates everything whose period is over, in one go.
+    private void rotate() {
+        rotateAt = Long.MAX_VALUE;
+        long seconds = seconds();
+        for (Track track: tracks.values()) {
+            long period = periodStart(seconds, track.config.rotationExponent);
+            if (period != track.period) {
+                advance(track, period);
+                due.add(track);
+            }
+        }
+
+        if (!due.isEmpty()) {
+            batches++;
+            ArrayList<Track> batch = new ArrayList<>(due);
+            due.clear();
+            for (Track track: batch) {
+                scheduler.update(rotated(track, track.config));
+            }
+            precompute(batch);
+        }
+        arm();
+    }
+
+    // Points the one timer at the earliest boundary.
+    private void arm() {
+        long next = Long.MAX_VALUE;
+        for (Track track: tracks.values()) {
+            next = Math.min(next, track.period + (1L << track.config.rotationExponent));
+        }
+        if (next != Long.MAX_VALUE)
+            next = next * 1000 - wallOffsetMillis;
+
+        if (next != rotateAt) {
+            loop.cancel(rotate);
+            rotateAt = next;
+            if (next != Long.MAX_VALUE)
+                loop.postDelayed(rotate, Math.max(0, next - loop.now()));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.vizio.beacon;
+
+// A rough model of what advertising costs, for comparing schedules rather
+// than for predicting battery life: every advertising event sends the
+// packet on all three advertising channels, and costs about the same
+// whatever is in it, so the energy spent is the number of events times the
+// energy of one at the TX power used.
+//
+// Modes and powers are AdvertiseSettings' ADVERTISE_MODE_* and
+// ADVERTISE_TX_POWER_* constants.
+public class EnergyModel {
+    // Nominal advertising interval of each mode.
+    private static final long[] INTERVAL_MILLIS = {1000, 250, 100};
+
+    // One advertising event on a typical controller, by TX power (-21, -15,
+    // -7 and 1 dBm), in microjoules.
+    private static final double[] EVENT_MICROJOULES = {24, 28, 35, 49};
+
+    private EnergyModel() {}
+
+    public static long intervalMillis(int mode) {
+        return INTERVAL_MILLIS[clamp(mode, INTERVAL_MILLIS.length)];
+    }
+
+    public static double eventMicrojoules(int power) {
+        return EVENT_MICROJOULES[clamp(power, EVENT_MICROJOULES.length)];
+    }
+
+    // Average power while on air, in microjoules per millisecond (that is,
+    // milliwatts).
+    public static double microjoulesPerMilli(int mode, int power) {
+        return eventMicrojoules(power) / intervalMillis(mode);
+    }
+
+    private static int clamp(int value, int length) {
+        return Math.max(0, Math.min(length - 1, value));
+    }
+}
@@ -0,0 +1,164 @@
+package com.vizio.beacon;
+
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// A write-behind log of AdvertisingEvents. Recording one only puts it in a
+// bounded ring in memory; a flush on the event loop, flushDelayMillis after
+// the first event since the last flush, hands everything in the ring to the
+// Store as a single batch. If events come in faster than they're
+// flushed, the oldest ones are dropped (and counted) rather than holding up
+// whoever records them.
+//
+// Every so often a flush also asks the Store to drop events older than
+// maxAgeMillis, and all but the newest maxRows.
+//
+// Events may be recorded from any thread; the loop's post methods must be
+// thread-safe too.
+public class EventLog {
+    public interface Store {
+        // Stores the events, oldest first, without waiting for them to be
+        // written; the list isn't touched again.
+        void append(List<AdvertisingEvent> events);
+        // Deletes the events from before the given time, and all but the
+        // newest keep.
+        void prune(long before, int keep);
+    }
+
+    public interface Pages {
+        // Up to limit events with ids greater than afterId, in id order.
+        List<AdvertisingEvent> next(long afterId, int limit) throws Exception;
+    }
+
+    public static final int EXPORT_CHUNK_SIZE = 500;
+
+    private final EventLoop loop;
+    private final Store store;
+    private final long wallOffsetMillis;
+    private final AdvertisingEvent[] ring;
+    private final long flushDelayMillis;
+    private final Runnable flush = this::flush;
+    private int head;
+    private int size;
+    private boolean flushPosted;
+    private long dropped;
+    private long appended;
+
+    private int maxRows = 100_000;
+    private long maxAgeMillis = 30L * 24 * 60 * 60 * 1000;
+    private long pruneIntervalMillis = 60 * 60 * 1000;
+    // Loop time of the last prune.
+    private long prunedAt = Long.MIN_VALUE;
+
+    // wallOffsetMillis is what to add to loop.now() to get the wall clock.
+    public EventLog(EventLoop loop, Store store, int capacity, long flushDelayMillis, long wallOffsetMillis) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+
+        this.loop = loop;
+        this.store = store;
+        this.ring = new AdvertisingEvent[capacity];
+        this.flushDelayMillis = flushDelayMillis;
+        this.wallOffsetMillis = wallOffsetMillis;
+    }
+
+    public synchronized void setRetention(int maxRows, long maxAgeMillis, long pruneIntervalMillis) {
+        this.maxRows = maxRows;
+        this.maxAgeMillis = maxAgeMillis;
+        this.pruneIntervalMillis = pruneIntervalMillis;
+    }
+
+    public void advertiser(long configId, AdvertiserStatus status) {
+        record(AdvertisingEvent.advertiser(wallTime(), configId, status));
+    }
+
+    public void scan(int state, int errorCode) {
+        record(AdvertisingEvent.scan(wallTime(), state, errorCode));
+    }
+
+    public void record(AdvertisingEvent event) {
+        boolean post;
+        synchronized (this) {
+            if (size == ring.length) {
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                dropped++;
+            }
+            ring[(head + size) % ring.length] = event;
+            size++;
+
+            post = !flushPosted;
+            flushPosted = true;
+        }
+        if (post)
+            loop.postDelayed(flush, flushDelayMillis);
+    }
+
+    // Hands whatever is in the ring to the store now, e.g. before the
+    // process goes away. Runs on the loop.
+    public void flush() {
+        List<AdvertisingEvent> batch;
+        boolean prune;
+        int keep;
+        long before;
+        synchronized (this) {
+            flushPosted = false;
+            batch = new ArrayList<>(size);
+            for (; size > 0; size--) {
+                batch.add(ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+            }
+            appended += batch.size();
+
+            long now = loop.now();
+            prune = prunedAt == Long.MIN_VALUE || now - prunedAt >= pruneIntervalMillis;
+            if (prune)
+                prunedAt = now;
+            keep = maxRows;
+            before = now + wallOffsetMillis - maxAgeMillis;
+        }
+        if (!batch.isEmpty())
+            store.append(batch);
+        if (prune)
+            store.prune(before, keep);
+    }
+
+    public synchronized int getPending() { return size; }
+    public synchronized long getDropped() { return dropped; }
+    public synchronized long getAppended() { return appended; }
+
+    // Writes the events as CSV, a chunk at a time; returns how many.
+    public static int export(Pages pages, int chunkSize, Writer out) throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        out.write("id,time,config_id,event\r\n");
+
+        int count = 0;
+        long last = Long.MIN_VALUE;
+        while (true) {
+            List<AdvertisingEvent> page = pages.next(last, chunkSize);
+            for (AdvertisingEvent event: page) {
+                out.write(event.id + "," + format.format(new Date(event.time)) + ","
+                    + (event.configId == null ? "" : event.configId) + "," + event.describe() + "\r\n");
+            }
+            count += page.size();
+
+            if (page.size() < chunkSize) {
+                out.flush();
+                return count;
+            }
+            last = page.get(page.size() - 1).id;
+        }
+    }
+
+    private long wallTime() {
+        return loop.now() + wallOffsetMillis;
+    }
+}
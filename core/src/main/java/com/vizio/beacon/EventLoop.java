@@ -0,0 +1,15 @@
+package com.vizio.beacon;
+
+// The thread the advertising engine runs on, plus its clock. Mirrors the
+// bits of android.os.Handler the engine needs so that the engine itself can
+// be driven by a virtual clock on a plain JVM.
+public interface EventLoop {
+    // Milliseconds on a monotonic clock.
+    long now();
+
+    void post(Runnable task);
+    void postDelayed(Runnable task, long delayMillis);
+
+    // Removes every pending instance of task.
+    void cancel(Runnable task);
+}
@@ -0,0 +1,90 @@
+package com.vizio.beacon;
+
+import java.util.Arrays;
+
+// Makes a fleet of configs from a template, numbered one after another: for
+// an iBeacon the minor counts up (carrying into the major), for an
+// Eddystone-UID the 6-byte instance does. Everything else is the template's;
+// the labels get the number appended.
+//
+// Configs are made one at a time as they are read, so a fleet of any size
+// goes into the database through ConfigTransfer.importAll() a chunk at a
+// time.
+public class FleetGenerator implements ConfigFormat.Source {
+    private static final int INSTANCE_OFFSET = 10;
+    private static final int INSTANCE_LENGTH = 6;
+    private static final long MAX_INSTANCE = (1L << 8 * INSTANCE_LENGTH) - 1;
+
+    private final AdvertiserConfig template;
+    private final long first;
+    private final int count;
+    private int made;
+
+    // Starts from the template's major/minor or instance. Throws
+    // IllegalArgumentException if the template can't be numbered or the
+    // numbers would run out.
+    public FleetGenerator(AdvertiserConfig template, int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("A fleet needs at least one advertiser");
+
+        long last;
+        switch (template.frameType) {
+            case PayloadEncoder.FRAME_IBEACON:
+                first = (long) template.major << 16 | template.minor;
+                last = 0xFFFFFFFFL;
+                break;
+            case PayloadEncoder.FRAME_EDDYSTONE_UID:
+                if (template.frameId == null || template.frameId.length != PayloadEncoder.FRAME_ID_LENGTH)
+                    throw new IllegalArgumentException("Namespace and instance must be 16 bytes");
+                first = instance(template.frameId);
+                last = MAX_INSTANCE;
+                break;
+            default:
+                throw new IllegalArgumentException("Only iBeacon and Eddystone-UID fleets can be numbered");
+        }
+        if (count - 1 > last - first)
+            throw new IllegalArgumentException("Only room for " + (last - first + 1) + " advertisers");
+
+        this.template = template;
+        this.count = count;
+    }
+
+    public int getCount() { return count; }
+
+    @Override
+    public AdvertiserConfig read() {
+        if (made == count)
+            return null;
+
+        long number = first + made++;
+        AdvertiserConfig config = ConfigFields.copy(template);
+        if (template.frameType == PayloadEncoder.FRAME_IBEACON) {
+            config.major = (int) (number >>> 16);
+            config.minor = (int) (number & 0xFFFF);
+            config.label = label(config.major + "." + config.minor);
+        } else {
+            config.frameId = Arrays.copyOf(template.frameId, template.frameId.length);
+            for (int i = INSTANCE_LENGTH - 1; i >= 0; i--) {
+                config.frameId[INSTANCE_OFFSET + i] = (byte) (number >>> 8 * (INSTANCE_LENGTH - 1 - i));
+            }
+            config.label = label(Hex.format(Arrays.copyOfRange(config.frameId, INSTANCE_OFFSET, PayloadEncoder.FRAME_ID_LENGTH)));
+        }
+        return config;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private String label(String number) {
+        return template.label == null || template.label.isEmpty() ? number : template.label + " " + number;
+    }
+
+    private static long instance(byte[] frameId) {
+        long instance = 0;
+        for (int i = INSTANCE_OFFSET; i < PayloadEncoder.FRAME_ID_LENGTH; i++) {
+            instance = instance << 8 | (frameId[i] & 0xFF);
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,177 @@
+package com.vizio.beacon;
+
+// Finds the beacon frame in a raw advertisement (a sequence of AD
+// structures, as in ScanRecord.getBytes()): which kind of frame it is and
+// which bytes identify the beacon, e.g. the UUID, major and minor of an
+// iBeacon. The reverse of PayloadEncoder.
+//
+// A parser keeps the result of the last parse() in its fields and allocates
+// nothing, so one instance can go through any number of advertisements.
+// Not thread-safe.
+public final class FrameParser {
+    private static final int IBEACON_ID_LENGTH = 16 + 2 + 2;
+
+    // txPowerLevel() of advertisements without one.
+    public static final int NO_TX_POWER = Integer.MIN_VALUE;
+
+    private int frameType;
+    private int idOffset;
+    private int idLength;
+    private int measuredPower;
+    private int txPowerLevel;
+
+    // One of the PayloadEncoder.FRAME_* constants; FRAME_MANUFACTURER for
+    // manufacturer data that isn't an iBeacon.
+    public int frameType() { return frameType; }
+
+    // Where the identifying bytes are within the record. For URL frames
+    // that's the encoded URL (scheme byte included), for other manufacturer
+    // data the company id;
+    // TLM frames (and no frame) have none.
+    public int idOffset() { return idOffset; }
+    public int idLength() { return idLength; }
+
+    // Calibrated RSSI at 1 m, or TX power at 0 m for Eddystone; 0 if the
+    // frame has neither.
+    public int measuredPower() { return measuredPower; }
+
+    // The TX power level AD structure (what includeTxPowerLevel adds), in
+    // dBm; NO_TX_POWER if there is none. Found whatever the frame type.
+    public int txPowerLevel() { return txPowerLevel; }
+
+    // Returns frameType(). Malformed structures end the search.
+    public int parse(byte[] record, int offset, int length) {
+        frameType = PayloadEncoder.FRAME_NONE;
+        idOffset = offset;
+        idLength = 0;
+        measuredPower = 0;
+        txPowerLevel = NO_TX_POWER;
+
+        int end = offset + length;
+        int i = offset;
+        while (i + 1 < end) {
+            int size = record[i] & 0xFF;
+            if (size == 0 || i + 1 + size > end)
+                break;
+
+            int type = record[i + 1] & 0xFF;
+            int data = i + 2;
+            int dataLength = size - 1;
+            if (type == PayloadEncoder.AD_MANUFACTURER_DATA && dataLength >= 2) {
+                manufacturer(record, data, dataLength);
+            } else if (type == PayloadEncoder.AD_TX_POWER_LEVEL && dataLength >= 1) {
+                txPowerLevel = record[data];
+            } else if (type == PayloadEncoder.AD_SERVICE_DATA_16 && dataLength >= 3
+                && unsigned16(record, data) == PayloadEncoder.EDDYSTONE_SERVICE_UUID) {
+                eddystone(record, data + 2, dataLength - 2);
+            }
+            i += 1 + size;
+        }
+        return frameType;
+    }
+
+    // The identity of the frame found by the last parse() of the record,
+    // for people: the UUID, major and minor of an iBeacon, the namespace and
+    // instance of an Eddystone-UID and so on.
+    public String describe(byte[] record) {
+        StringBuilder text = new StringBuilder();
+        switch (frameType) {
+            case PayloadEncoder.FRAME_IBEACON:
+                appendHex(text, record, idOffset, 4).append('-');
+                appendHex(text, record, idOffset + 4, 2).append('-');
+                appendHex(text, record, idOffset + 6, 2).append('-');
+                appendHex(text, record, idOffset + 8, 2).append('-');
+                appendHex(text, record, idOffset + 10, 6);
+                text.append(' ').append(unsigned16BigEndian(record, idOffset + 16));
+                text.append(' ').append(unsigned16BigEndian(record, idOffset + 18));
+                break;
+            case PayloadEncoder.FRAME_EDDYSTONE_UID:
+                appendHex(text, record, idOffset, 10).append(' ');
+                appendHex(text, record, idOffset + 10, 6);
+                break;
+            case PayloadEncoder.FRAME_EDDYSTONE_EID:
+                appendHex(text, record, idOffset, PayloadEncoder.EID_LENGTH);
+                break;
+            case PayloadEncoder.FRAME_EDDYSTONE_URL:
+                appendUrl(text, record, idOffset, idLength);
+                break;
+            case PayloadEncoder.FRAME_MANUFACTURER:
+                text.append("0x");
+                appendHex(text, record, idOffset + 1, 1);
+                appendHex(text, record, idOffset, 1);
+                break;
+        }
+        return text.toString();
+    }
+
+    private static StringBuilder appendHex(StringBuilder text, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            text.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+            text.append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return text;
+    }
+
+    private static void appendUrl(StringBuilder text, byte[] record, int offset, int length) {
+        int scheme = record[offset] & 0xFF;
+        text.append(scheme < PayloadEncoder.URL_SCHEMES.length ? PayloadEncoder.URL_SCHEMES[scheme] : "?");
+        for (int i = offset + 1; i < offset + length; i++) {
+            int c = record[i] & 0xFF;
+            if (c < PayloadEncoder.URL_EXPANSIONS.length) text.append(PayloadEncoder.URL_EXPANSIONS[c]);
+            else text.append((char) c);
+        }
+    }
+
+    private static int unsigned16BigEndian(byte[] record, int i) {
+        return (record[i] & 0xFF) << 8 | (record[i + 1] & 0xFF);
+    }
+
+    private void manufacturer(byte[] record, int data, int dataLength) {
+        int companyId = unsigned16(record, data);
+        if (companyId == PayloadEncoder.APPLE_COMPANY_ID && dataLength >= 2 + 2 + IBEACON_ID_LENGTH + 1
+            && record[data + 2] == 0x02 && record[data + 3] == 0x15) {
+            set(PayloadEncoder.FRAME_IBEACON, data + 4, IBEACON_ID_LENGTH);
+            measuredPower = record[data + 4 + IBEACON_ID_LENGTH];
+        } else if (frameType == PayloadEncoder.FRAME_NONE) {
+            // Any beacon frame elsewhere in the record takes precedence.
+            set(PayloadEncoder.FRAME_MANUFACTURER, data, 2);
+        }
+    }
+
+    private void eddystone(byte[] record, int frame, int frameLength) {
+        switch (record[frame]) {
+            case 0x00:
+                if (frameLength >= 2 + PayloadEncoder.FRAME_ID_LENGTH) {
+                    set(PayloadEncoder.FRAME_EDDYSTONE_UID, frame + 2, PayloadEncoder.FRAME_ID_LENGTH);
+                    measuredPower = record[frame + 1];
+                }
+                break;
+            case 0x10:
+                if (frameLength >= 3) {
+                    set(PayloadEncoder.FRAME_EDDYSTONE_URL, frame + 2, frameLength - 2);
+                    measuredPower = record[frame + 1];
+                }
+                break;
+            case 0x20:
+                set(PayloadEncoder.FRAME_EDDYSTONE_TLM, frame, 0);
+                break;
+            case 0x30:
+                if (frameLength >= 2 + PayloadEncoder.EID_LENGTH) {
+                    set(PayloadEncoder.FRAME_EDDYSTONE_EID, frame + 2, PayloadEncoder.EID_LENGTH);
+                    measuredPower = record[frame + 1];
+                }
+                break;
+        }
+    }
+
+    private void set(int frameType, int idOffset, int idLength) {
+        this.frameType = frameType;
+        this.idOffset = idOffset;
+        this.idLength = idLength;
+    }
+
+    // Little-endian, as in AD structure headers.
+    private static int unsigned16(byte[] record, int i) {
+        return (record[i] & 0xFF) | (record[i + 1] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,98 @@
+package com.vizio.beacon;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+// Something that has to be granted before we can go on - a permission, the
+// Bluetooth adapter being on - and that may take a trip through the user to
+// get.
+//
+// open() returns a future of whether the gate is open. While a request is
+// out, everybody else who asks waits for the same one, and they're all
+// answered together by complete(); nobody causes a second dialog. Gates
+// that stay open once granted (permissions can't be revoked without killing
+// the process) remember that and skip the check from then on.
+//
+// Not thread-safe; meant for the main thread, where both the requests and
+// their results live.
+public final class Gate {
+    public interface Check {
+        boolean isOpen();
+    }
+
+    // Asks for the gate to be opened; the answer comes through complete(),
+    // possibly before this returns.
+    public interface Request {
+        void request();
+    }
+
+    private static final ListenableFuture<Boolean> OPEN = Futures.immediateFuture(true);
+    private static final ListenableFuture<Boolean> CLOSED = Futures.immediateFuture(false);
+
+    private final Check check;
+    private final Request request;
+    private final boolean sticky;
+    private boolean open;
+    private SettableFuture<Boolean> pending;
+
+    public Gate(Check check, Request request, boolean sticky) {
+        this.check = check;
+        this.request = request;
+        this.sticky = sticky;
+    }
+
+    public ListenableFuture<Boolean> open() {
+        if (open)
+            return OPEN;
+        if (pending != null)
+            return pending;
+
+        if (check.isOpen()) {
+            open = sticky;
+            return OPEN;
+        }
+
+        SettableFuture<Boolean> future = SettableFuture.create();
+        pending = future;
+        try {
+            request.request();
+        } catch (RuntimeException e) {
+            if (pending == future) pending = null;
+            future.setException(e);
+        }
+        return future;
+    }
+
+    // The answer to the request that's out, if any. A grant that comes in
+    // with nobody waiting (e.g. after the activity was recreated) is still
+    // remembered.
+    public void complete(boolean granted) {
+        if (granted)
+            open = sticky;
+
+        SettableFuture<Boolean> future = pending;
+        pending = null;
+        if (future != null)
+            future.set(granted);
+    }
+
+    public boolean isRequesting() { return pending != null; }
+
+    // Opens the gates one after the other, stopping at the first that stays
+    // closed; later gates aren't asked at all then.
+    public static ListenableFuture<Boolean> openAll(Gate... gates) {
+        return openFrom(gates, 0);
+    }
+
+    private static ListenableFuture<Boolean> openFrom(Gate[] gates, int i) {
+        if (i == gates.length)
+            return OPEN;
+
+        return Futures.transformAsync(
+            gates[i].open(),
+            open -> open ? openFrom(gates, i + 1) : CLOSED,
+            MoreExecutors.directExecutor());
+    }
+}
@@ -0,0 +1,53 @@
+package com.vizio.beacon;
+
+// Hex strings for the binary config fields (frame identifiers, raw data).
+public final class Hex {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() { }
+
+    // Accepts upper- and lowercase digits; dashes and whitespace are skipped
+    // so UUIDs can be pasted as-is. Throws IllegalArgumentException on
+    // anything else, or on an odd number of digits.
+    public static byte[] parse(String text) {
+        int digits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (!isSeparator(text.charAt(i))) digits++;
+        }
+        if (digits % 2 != 0)
+            throw new IllegalArgumentException("Odd number of hex digits: " + text);
+
+        byte[] bytes = new byte[digits / 2];
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isSeparator(c))
+                continue;
+
+            int value = Character.digit(c, 16);
+            if (value < 0)
+                throw new IllegalArgumentException("Not a hex digit: '" + c + "'");
+
+            if (n % 2 == 0) bytes[n / 2] = (byte) (value << 4);
+            else bytes[n / 2] |= (byte) value;
+            n++;
+        }
+        return bytes;
+    }
+
+    public static String format(byte[] bytes) {
+        if (bytes == null)
+            return "";
+
+        char[] text = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            text[2 * i] = DIGITS[(bytes[i] >> 4) & 0xF];
+            text[2 * i + 1] = DIGITS[bytes[i] & 0xF];
+        }
+        return new String(text);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '-' || c == ':' || Character.isWhitespace(c);
+    }
+}
@@ -0,0 +1,27 @@
+package com.vizio.beacon;
+
+// The bits of android.bluetooth.le.BluetoothLeAdvertiser that legacy
+// advertising needs, so that LeAdvertiserBackend can run against a
+// SimulatedAdvertiser on a plain JVM as well as against the real thing.
+public interface LeAdvertiser {
+    // Like android.bluetooth.le.AdvertiseCallback; may be called on any
+    // thread, and even after stopAdvertising() if the answer was already on
+    // its way.
+    interface AdvertiseCallback {
+        // txPower is the output power the controller settled on, in dBm.
+        void onStartSuccess(int txPower);
+        void onStartFailure(int errorCode);
+    }
+
+    // Whether the adapter is on; nothing else works while it isn't.
+    boolean isEnabled();
+
+    // Throws IllegalArgumentException if the config can't be advertised,
+    // e.g. because it doesn't fit in an advertisement.
+    void startAdvertising(AdvertiserConfig config, AdvertiseCallback callback);
+
+    // Also lets go of the callback while the adapter is off, when there's
+    // nothing left to stop; whoever started an advertisement must always
+    // stop it, or its callback is held forever.
+    void stopAdvertising(AdvertiseCallback callback);
+}
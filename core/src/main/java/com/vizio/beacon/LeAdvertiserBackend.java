@@ -0,0 +1,88 @@
+package com.vizio.beacon;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// The AdvertiserBackend for legacy advertisements, one per config, on top
+// of a LeAdvertiser. Keeps the callback of every advertisement that was
+// started and not yet stopped or failed, and drops answers that come in for
+// callbacks it no longer holds.
+public class LeAdvertiserBackend implements AdvertiserBackend {
+    private final EventLoop loop;
+    private final LeAdvertiser advertiser;
+    private final Map<Long, LeAdvertiser.AdvertiseCallback> advertiseCallbacks = new TreeMap<>();
+    private Callback callback;
+
+    public LeAdvertiserBackend(EventLoop loop, LeAdvertiser advertiser) {
+        this.loop = loop;
+        this.advertiser = advertiser;
+    }
+
+    // Callbacks held, i.e. advertisements started and not yet stopped or
+    // failed; for leak checks.
+    public int getCallbackCount() { return advertiseCallbacks.size(); }
+
+    @Override
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void start(AdvertiserConfig config) {
+        long id = config.id;
+        if (!advertiser.isEnabled()) {
+            fail(id, ADVERTISE_FAILED_FEATURE_UNSUPPORTED);
+            return;
+        }
+
+        LeAdvertiser.AdvertiseCallback advertiseCallback = new LeAdvertiser.AdvertiseCallback() {
+            @Override
+            public void onStartSuccess(int txPower) {
+                loop.post(() -> {
+                    if (advertiseCallbacks.get(id) == this)
+                        callback.onStartSuccess(id, txPower);
+                });
+            }
+
+            @Override
+            public void onStartFailure(int errorCode) {
+                loop.post(() -> {
+                    if (advertiseCallbacks.get(id) == this) {
+                        advertiseCallbacks.remove(id);
+                        callback.onStartFailure(id, errorCode);
+                    }
+                });
+            }
+        };
+
+        // A second start without a stop would otherwise leave the first
+        // advertisement on air with nobody holding its callback.
+        LeAdvertiser.AdvertiseCallback previous = advertiseCallbacks.put(id, advertiseCallback);
+        if (previous != null)
+            advertiser.stopAdvertising(previous);
+
+        try {
+            advertiser.startAdvertising(config, advertiseCallback);
+        } catch (IllegalArgumentException e) {
+            advertiseCallbacks.remove(id);
+            fail(id, ADVERTISE_FAILED_DATA_TOO_LARGE);
+        }
+    }
+
+    @Override
+    public void stop(long id) {
+        LeAdvertiser.AdvertiseCallback advertiseCallback = advertiseCallbacks.remove(id);
+        if (advertiseCallback != null)
+            advertiser.stopAdvertising(advertiseCallback);
+    }
+
+    // Legacy advertisements can't be changed while on air.
+    @Override
+    public boolean update(AdvertiserConfig config) {
+        return false;
+    }
+
+    private void fail(long id, int errorCode) {
+        loop.post(() -> callback.onStartFailure(id, errorCode));
+    }
+}
@@ -0,0 +1,311 @@
+package com.vizio.beacon;
+
+// Encodes beacon frames (iBeacon, Eddystone and plain manufacturer data)
+// into the raw AD structures that end up in a legacy advertisement.
+//
+// An encoder owns one fixed-size buffer which every encode() call
+// overwrites, so encoding the same or another config again allocates
+// nothing. The buffer holds the complete AD structures as they go on air;
+// the body (from bodyOffset() on) is what Android's AdvertiseData.Builder wants
+// to be handed: the manufacturer or service data without its headers.
+//
+// Encoders are not thread-safe; use one per thread.
+public final class PayloadEncoder {
+    public static final int FRAME_NONE = 0;
+    public static final int FRAME_IBEACON = 1;
+    public static final int FRAME_EDDYSTONE_UID = 2;
+    public static final int FRAME_EDDYSTONE_URL = 3;
+    public static final int FRAME_EDDYSTONE_TLM = 4;
+    public static final int FRAME_MANUFACTURER = 5;
+    public static final int FRAME_EDDYSTONE_EID = 6;
+
+    // The payload of a legacy (BLE 4.x) advertisement.
+    public static final int LEGACY_LIMIT = 31;
+
+    public static final int AD_SERVICE_UUIDS_16 = 0x03;
+    public static final int AD_TX_POWER_LEVEL = 0x0A;
+    public static final int AD_SERVICE_DATA_16 = 0x16;
+    public static final int AD_MANUFACTURER_DATA = 0xFF;
+
+    public static final int APPLE_COMPANY_ID = 0x004C;
+    public static final int EDDYSTONE_SERVICE_UUID = 0xFEAA;
+
+    // Length of the frame identifier: the iBeacon proximity UUID, or the
+    // Eddystone-UID namespace (10 bytes) followed by the instance (6 bytes).
+    public static final int FRAME_ID_LENGTH = 16;
+
+    // An Eddystone-EID ephemeral identifier; see EidRotator.
+    public static final int EID_LENGTH = 8;
+
+    // AD structures that Android adds next to ours when asked to.
+    private static final int TX_POWER_LEVEL_BYTES = 3;
+    private static final int DEVICE_NAME_HEADER_BYTES = 2;
+
+    private static final int EDDYSTONE_UID = 0x00;
+    private static final int EDDYSTONE_URL = 0x10;
+    private static final int EDDYSTONE_TLM = 0x20;
+    private static final int EDDYSTONE_EID = 0x30;
+    private static final int EDDYSTONE_URL_MAX = 17;
+
+    // Also used by FrameParser to decode URLs.
+    static final String[] URL_SCHEMES = {
+        "http://www.", "https://www.", "http://", "https://"
+    };
+    static final String[] URL_EXPANSIONS = {
+        ".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+        ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"
+    };
+
+    private final byte[] buffer = new byte[LEGACY_LIMIT];
+    private int length;
+    private int bodyOffset;
+    private int adType;
+    private int id16;
+
+    private int batteryMillivolts;
+    private int temperature = 0x8000;
+    private long advertisingCount;
+    private long uptimeTenths;
+
+    // The raw AD structures produced by the last encode() call.
+    public byte[] buffer() { return buffer; }
+    public int length() { return length; }
+
+    // Where the manufacturer/service data starts and which AD type and
+    // 16-bit company id or service UUID it belongs to. adType() is 0 when
+    // the last config had no frame.
+    public int bodyOffset() { return bodyOffset; }
+    public int bodyLength() { return length - bodyOffset; }
+    public int adType() { return adType; }
+    public int id16() { return id16; }
+
+    // A copy of the body, for APIs that insist on owning an exact-size array.
+    public byte[] copyBody() {
+        byte[] body = new byte[bodyLength()];
+        System.arraycopy(buffer, bodyOffset, body, 0, body.length);
+        return body;
+    }
+
+    // Values for the next Eddystone-TLM frame. A zero battery voltage and a
+    // NaN temperature are encoded as "not supported".
+    public void setTelemetry(int batteryMillivolts, float celsius, long advertisingCount, long uptimeMillis) {
+        this.batteryMillivolts = batteryMillivolts;
+        this.temperature = Float.isNaN(celsius) ? 0x8000 : Math.round(celsius * 256) & 0xFFFF;
+        this.advertisingCount = advertisingCount;
+        this.uptimeTenths = uptimeMillis / 100;
+    }
+
+    // Encodes the frame described by config. deviceNameLength is the size
+    // of the adapter name in bytes and only matters when the config asks
+    // for the name to be included. Returns length().
+    //
+    // Throws IllegalArgumentException when a frame field is malformed or
+    // the whole advertisement wouldn't fit into LEGACY_LIMIT bytes.
+    public int encode(AdvertiserConfig config, int deviceNameLength) {
+        switch (config.frameType) {
+            case FRAME_NONE:
+                length = bodyOffset = adType = id16 = 0;
+                break;
+            case FRAME_IBEACON:
+                encodeIBeacon(config.frameId, config.major, config.minor, config.measuredPower);
+                break;
+            case FRAME_EDDYSTONE_UID:
+                encodeEddystoneUid(config.frameId, config.measuredPower);
+                break;
+            case FRAME_EDDYSTONE_URL:
+                encodeEddystoneUrl(config.url, config.measuredPower);
+                break;
+            case FRAME_EDDYSTONE_TLM:
+                encodeEddystoneTlm();
+                break;
+            case FRAME_MANUFACTURER:
+                encodeManufacturer(config.companyId, config.frameData);
+                break;
+            case FRAME_EDDYSTONE_EID:
+                encodeEddystoneEid(config.ephemeralId, config.measuredPower);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown frame type " + config.frameType);
+        }
+
+        int total = length;
+        if (config.includeTxPowerLevel)
+            total += TX_POWER_LEVEL_BYTES;
+        if (config.includeDeviceName)
+            total += DEVICE_NAME_HEADER_BYTES + deviceNameLength;
+        if (total > LEGACY_LIMIT)
+            throw new IllegalArgumentException(
+                "Advertisement needs " + total + " bytes, only " + LEGACY_LIMIT + " fit");
+
+        return length;
+    }
+
+    public int encodeIBeacon(byte[] uuid, int major, int minor, int measuredPower) {
+        checkFrameId(uuid);
+        checkUnsigned16(major);
+        checkUnsigned16(minor);
+        int i = beginManufacturer(APPLE_COMPANY_ID);
+        buffer[i++] = 0x02;
+        buffer[i++] = 0x15;
+        System.arraycopy(uuid, 0, buffer, i, FRAME_ID_LENGTH);
+        i += FRAME_ID_LENGTH;
+        i = putUnsigned16(i, major);
+        i = putUnsigned16(i, minor);
+        buffer[i++] = (byte) measuredPower;
+        return finish(i);
+    }
+
+    public int encodeEddystoneUid(byte[] namespaceAndInstance, int txPower) {
+        checkFrameId(namespaceAndInstance);
+        int i = beginEddystone(EDDYSTONE_UID);
+        buffer[i++] = (byte) txPower;
+        System.arraycopy(namespaceAndInstance, 0, buffer, i, FRAME_ID_LENGTH);
+        i += FRAME_ID_LENGTH;
+        buffer[i++] = 0;
+        buffer[i++] = 0;
+        return finish(i);
+    }
+
+    public int encodeEddystoneUrl(String url, int txPower) {
+        if (url == null)
+            throw new IllegalArgumentException("No URL");
+
+        int scheme = -1;
+        for (int s = 0; s < URL_SCHEMES.length; s++) {
+            if (url.startsWith(URL_SCHEMES[s])) {
+                scheme = s;
+                break;
+            }
+        }
+        if (scheme < 0)
+            throw new IllegalArgumentException("Unsupported URL scheme: " + url);
+
+        int i = beginEddystone(EDDYSTONE_URL);
+        buffer[i++] = (byte) txPower;
+        buffer[i++] = (byte) scheme;
+        int end = i + EDDYSTONE_URL_MAX;
+
+        int c = URL_SCHEMES[scheme].length();
+        while (c < url.length()) {
+            if (i == end)
+                throw new IllegalArgumentException("URL too long: " + url);
+
+            int expansion = expansionAt(url, c);
+            if (expansion >= 0) {
+                buffer[i++] = (byte) expansion;
+                c += URL_EXPANSIONS[expansion].length();
+            } else {
+                char ch = url.charAt(c++);
+                if (ch <= 0x20 || ch >= 0x7F)
+                    throw new IllegalArgumentException("Invalid URL character: " + url);
+                buffer[i++] = (byte) ch;
+            }
+        }
+        return finish(i);
+    }
+
+    public int encodeEddystoneTlm() {
+        int i = beginEddystone(EDDYSTONE_TLM);
+        buffer[i++] = 0x00; // unencrypted TLM
+        i = putUnsigned16(i, batteryMillivolts & 0xFFFF);
+        i = putUnsigned16(i, temperature);
+        i = putUnsigned32(i, advertisingCount);
+        i = putUnsigned32(i, uptimeTenths);
+        return finish(i);
+    }
+
+    public int encodeEddystoneEid(byte[] ephemeralId, int txPower) {
+        if (ephemeralId == null || ephemeralId.length != EID_LENGTH)
+            throw new IllegalArgumentException("No ephemeral id");
+
+        int i = beginEddystone(EDDYSTONE_EID);
+        buffer[i++] = (byte) txPower;
+        System.arraycopy(ephemeralId, 0, buffer, i, EID_LENGTH);
+        return finish(i + EID_LENGTH);
+    }
+
+    public int encodeManufacturer(int companyId, byte[] data) {
+        checkUnsigned16(companyId);
+        int dataLength = data == null ? 0 : data.length;
+        if (dataLength > LEGACY_LIMIT - 4)
+            throw new IllegalArgumentException("Manufacturer data too long: " + dataLength + " bytes");
+
+        int i = beginManufacturer(companyId);
+        if (dataLength > 0) {
+            System.arraycopy(data, 0, buffer, i, dataLength);
+            i += dataLength;
+        }
+        return finish(i);
+    }
+
+    // [len] [0xFF] [company id, LE] ...
+    private int beginManufacturer(int companyId) {
+        adType = AD_MANUFACTURER_DATA;
+        id16 = companyId;
+        buffer[1] = (byte) AD_MANUFACTURER_DATA;
+        buffer[2] = (byte) companyId;
+        buffer[3] = (byte) (companyId >> 8);
+        bodyOffset = 4;
+        return bodyOffset;
+    }
+
+    // [3] [0x03] [0xFEAA, LE] [len] [0x16] [0xFEAA, LE] [frame type] ...
+    private int beginEddystone(int frameType) {
+        adType = AD_SERVICE_DATA_16;
+        id16 = EDDYSTONE_SERVICE_UUID;
+        buffer[0] = 3;
+        buffer[1] = AD_SERVICE_UUIDS_16;
+        buffer[2] = (byte) EDDYSTONE_SERVICE_UUID;
+        buffer[3] = (byte) (EDDYSTONE_SERVICE_UUID >> 8);
+        buffer[5] = AD_SERVICE_DATA_16;
+        buffer[6] = (byte) EDDYSTONE_SERVICE_UUID;
+        buffer[7] = (byte) (EDDYSTONE_SERVICE_UUID >> 8);
+        bodyOffset = 8;
+        buffer[8] = (byte) frameType;
+        return 9;
+    }
+
+    // Patches the length byte of the last AD structure.
+    private int finish(int end) {
+        int header = bodyOffset - 4;
+        buffer[header] = (byte) (end - header - 1);
+        length = end;
+        return length;
+    }
+
+    private int putUnsigned16(int i, int value) {
+        buffer[i] = (byte) (value >> 8);
+        buffer[i + 1] = (byte) value;
+        return i + 2;
+    }
+
+    private int putUnsigned32(int i, long value) {
+        buffer[i] = (byte) (value >> 24);
+        buffer[i + 1] = (byte) (value >> 16);
+        buffer[i + 2] = (byte) (value >> 8);
+        buffer[i + 3] = (byte) value;
+        return i + 4;
+    }
+
+    private static int expansionAt(String url, int offset) {
+        if (url.charAt(offset) != '.')
+            return -1;
+
+        for (int e = 0; e < URL_EXPANSIONS.length; e++) {
+            String expansion = URL_EXPANSIONS[e];
+            if (url.regionMatches(offset, expansion, 0, expansion.length()))
+                return e;
+        }
+        return -1;
+    }
+
+    private static void checkFrameId(byte[] id) {
+        if (id == null || id.length != FRAME_ID_LENGTH)
+            throw new IllegalArgumentException("Frame identifier must be " + FRAME_ID_LENGTH + " bytes");
+    }
+
+    private static void checkUnsigned16(int value) {
+        if (value < 0 || value > 0xFFFF)
+            throw new IllegalArgumentException("Not an unsigned 16-bit value: " + value);
+    }
+}
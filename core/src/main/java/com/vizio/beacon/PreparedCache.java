@@ -0,0 +1,74 @@
+package com.vizio.beacon;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps whatever a backend builds from a config (settings, encoded
+// payloads) for the most recently used advertisers, so restarting one -
+// e.g. every time the rotation brings it back on air - is a lookup rather
+// than a rebuild. An entry is only used for the same config revision it was
+// built from; AdvertiserConfig.revision goes up with every write. Rotating
+// identifiers change without a new revision, so they're compared too.
+//
+// Not thread-safe; meant for the event loop.
+public final class PreparedCache<T> {
+    public interface Builder<T> {
+        // May throw; nothing is cached then.
+        T build(AdvertiserConfig config);
+    }
+
+    private static class Slot<T> {
+        final long revision;
+        final byte[] ephemeralId;
+        final T value;
+
+        Slot(long revision, byte[] ephemeralId, T value) {
+            this.revision = revision;
+            this.ephemeralId = ephemeralId;
+            this.value = value;
+        }
+    }
+
+    private final Builder<T> builder;
+    private final LinkedHashMap<Long, Slot<T>> entries;
+    private long hits;
+    private long misses;
+
+    public PreparedCache(int capacity, Builder<T> builder) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+
+        this.builder = builder;
+        this.entries = new LinkedHashMap<Long, Slot<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Slot<T>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public T get(AdvertiserConfig config) {
+        Slot<T> entry = entries.get(config.id);
+        if (entry != null && entry.revision == config.revision && entry.ephemeralId == config.ephemeralId) {
+            hits++;
+            return entry.value;
+        }
+
+        misses++;
+        T value = builder.build(config);
+        entries.put(config.id, new Slot<>(config.revision, config.ephemeralId, value));
+        return value;
+    }
+
+    public void invalidate(long id) {
+        entries.remove(id);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() { return entries.size(); }
+    public long hits() { return hits; }
+    public long misses() { return misses; }
+}
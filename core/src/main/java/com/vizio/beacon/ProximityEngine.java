@@ -0,0 +1,279 @@
+package com.vizio.beacon;
+
+import java.util.Arrays;
+
+// Smoothed distance and zone estimates for many beacons at once.
+//
+// Each beacon's RSSI goes through a one-dimensional Kalman filter (a random
+// walk: the variance of the estimate grows by processNoise per second
+// between samples). A sample more than outlierSigmas standard deviations
+// away from the prediction is ignored, unless maxOutliers of them come in
+// a row, in which case the beacon has probably moved and the filter starts
+// over from the sample. Distances follow the log-distance path loss model
+// from each beacon's reference power, the RSSI expected at 1 m.
+//
+// Zones are immediate, near and far, split at IMMEDIATE_METERS and
+// NEAR_METERS. To change zone, the distance has to be past the boundary by
+// a factor of HYSTERESIS, so a beacon sitting on a boundary doesn't flap.
+//
+// Beacons are identified by any long key (BeaconTable uses its own index)
+// and kept in slots: parallel arrays found through an open-addressing hash
+// index, like BeaconTable, so a sample allocates nothing. Beacons not seen
+// for staleNanos, on the samples' clock, are evicted by evictStale(), and
+// whenever a new beacon finds every slot taken.
+//
+// Not thread-safe.
+public final class ProximityEngine {
+    public static final int UNKNOWN = -1;
+    public static final int IMMEDIATE = 0;
+    public static final int NEAR = 1;
+    public static final int FAR = 2;
+
+    // The usual boundaries, as in iOS's CLProximity.
+    public static final double IMMEDIATE_METERS = 0.5;
+    public static final double NEAR_METERS = 3.0;
+    public static final double HYSTERESIS = 1.25;
+
+    // Eddystone frames carry the TX power at 0 m, as does the TX power
+    // level AD structure; free space takes 41 dB off that by 1 m.
+    public static final int LOSS_AT_1M = 41;
+    // A typical iBeacon calibration, for beacons that don't say.
+    public static final int DEFAULT_REFERENCE_POWER = -59;
+
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+    private final long staleNanos;
+    private final int[] index;
+    private final int indexMask;
+
+    private final long[] key;
+    private final boolean[] used;
+    private final double[] rssi;
+    private final double[] variance;
+    private final long[] lastSeen;
+    private final int[] referencePower;
+    private final int[] zone;
+    private final int[] outlierRun;
+    // Free slots, as a stack.
+    private final int[] free;
+    private int freeCount;
+
+    private double processNoise = 4;
+    private double measurementNoise = 16;
+    private double pathLossExponent = 2;
+    private double outlierSigmas = 3;
+    private int maxOutliers = 3;
+
+    private int size;
+    private long latest = Long.MIN_VALUE;
+    private long samples;
+    private long outliers;
+    private long evicted;
+    private long overflow;
+
+    public ProximityEngine(int capacity, long staleNanos) {
+        this.capacity = capacity;
+        this.staleNanos = staleNanos;
+        // At most half full, so probe sequences stay short.
+        int indexSize = Integer.highestOneBit(Math.max(1, capacity)) << 2;
+        index = new int[indexSize];
+        indexMask = indexSize - 1;
+        Arrays.fill(index, EMPTY);
+
+        key = new long[capacity];
+        used = new boolean[capacity];
+        rssi = new double[capacity];
+        variance = new double[capacity];
+        lastSeen = new long[capacity];
+        referencePower = new int[capacity];
+        zone = new int[capacity];
+        outlierRun = new int[capacity];
+        free = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = capacity - 1 - i;
+        }
+        freeCount = capacity;
+    }
+
+    // processNoise in dB^2 per second, measurementNoise in dB^2.
+    public void setFilter(double processNoise, double measurementNoise, double outlierSigmas, int maxOutliers) {
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+        this.outlierSigmas = outlierSigmas;
+        this.maxOutliers = maxOutliers;
+    }
+
+    // 2 in free space, more indoors.
+    public void setPathLossExponent(double pathLossExponent) {
+        this.pathLossExponent = pathLossExponent;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+    public long samples() { return samples; }
+    public long outliers() { return outliers; }
+    public long evicted() { return evicted; }
+    // Samples of new beacons ignored because every slot was taken.
+    public long overflow() { return overflow; }
+
+    // The RSSI at 1 m for a frame, from what FrameParser found in it.
+    public static int referencePower(int frameType, int measuredPower, int txPowerLevel) {
+        switch (frameType) {
+            case PayloadEncoder.FRAME_IBEACON:
+                if (measuredPower != 0) return measuredPower;
+                break;
+            case PayloadEncoder.FRAME_EDDYSTONE_UID:
+            case PayloadEncoder.FRAME_EDDYSTONE_URL:
+            case PayloadEncoder.FRAME_EDDYSTONE_EID:
+                return measuredPower - LOSS_AT_1M;
+        }
+        if (txPowerLevel != FrameParser.NO_TX_POWER)
+            return txPowerLevel - LOSS_AT_1M;
+        return DEFAULT_REFERENCE_POWER;
+    }
+
+    // Returns the beacon's slot, or -1 if it's new and there was no room.
+    public int update(long key, int rssi, int referencePower, long timeNanos) {
+        samples++;
+        if (timeNanos > latest)
+            latest = timeNanos;
+
+        int slot = find(key);
+        if (slot == EMPTY) {
+            if (freeCount == 0 && evictStale() == 0) {
+                overflow++;
+                return EMPTY;
+            }
+            slot = add(key);
+            this.rssi[slot] = rssi;
+            variance[slot] = measurementNoise;
+            lastSeen[slot] = timeNanos;
+            this.referencePower[slot] = referencePower;
+            outlierRun[slot] = 0;
+            zone[slot] = zoneOf(distance(slot));
+            return slot;
+        }
+
+        double elapsed = Math.max(0, timeNanos - lastSeen[slot]) / 1e9;
+        double predicted = variance[slot] + processNoise * elapsed;
+        double innovation = rssi - this.rssi[slot];
+        double total = predicted + measurementNoise;
+        lastSeen[slot] = timeNanos;
+        this.referencePower[slot] = referencePower;
+
+        if (innovation * innovation > outlierSigmas * outlierSigmas * total) {
+            outliers++;
+            if (++outlierRun[slot] < maxOutliers) {
+                variance[slot] = predicted;
+                return slot;
+            }
+            this.rssi[slot] = rssi;
+            variance[slot] = measurementNoise;
+        } else {
+            double gain = predicted / total;
+            this.rssi[slot] += gain * innovation;
+            variance[slot] = (1 - gain) * predicted;
+        }
+        outlierRun[slot] = 0;
+
+        double distance = distance(slot);
+        int current = zone[slot];
+        int closer = zoneOf(distance * HYSTERESIS);
+        int further = zoneOf(distance / HYSTERESIS);
+        if (closer < current)
+            zone[slot] = closer;
+        else if (further > current)
+            zone[slot] = further;
+        return slot;
+    }
+
+    // The beacon's slot, or -1.
+    public int find(long key) {
+        int i = home(key);
+        int slot;
+        while ((slot = index[i]) != EMPTY) {
+            if (this.key[slot] == key)
+                return slot;
+            i = (i + 1) & indexMask;
+        }
+        return EMPTY;
+    }
+
+    public long key(int slot) { return key[slot]; }
+    public int zone(int slot) { return zone[slot]; }
+    public double rssi(int slot) { return rssi[slot]; }
+    public long lastSeen(int slot) { return lastSeen[slot]; }
+
+    public double distance(int slot) {
+        return Math.pow(10, (referencePower[slot] - rssi[slot]) / (10 * pathLossExponent));
+    }
+
+    // Drops the beacons not seen for staleNanos before the latest sample;
+    // returns how many.
+    public int evictStale() {
+        int count = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (used[slot] && latest - lastSeen[slot] > staleNanos) {
+                remove(slot);
+                count++;
+            }
+        }
+        evicted += count;
+        return count;
+    }
+
+    private static int zoneOf(double distance) {
+        if (distance < IMMEDIATE_METERS) return IMMEDIATE;
+        if (distance < NEAR_METERS) return NEAR;
+        return FAR;
+    }
+
+    private int home(long key) {
+        return (int) (key * 0x9E3779B97F4A7C15L >>> 32) & indexMask;
+    }
+
+    private int add(long key) {
+        int slot = free[--freeCount];
+        used[slot] = true;
+        this.key[slot] = key;
+        int i = home(key);
+        while (index[i] != EMPTY) {
+            i = (i + 1) & indexMask;
+        }
+        index[i] = slot;
+        size++;
+        return slot;
+    }
+
+    // Linear probing can't just empty the slot's place in the index:
+    // entries further along the probe sequence are shifted back instead.
+    private void remove(int slot) {
+        int hole = home(key[slot]);
+        while (index[hole] != slot) {
+            hole = (hole + 1) & indexMask;
+        }
+
+        int i = hole;
+        while (true) {
+            i = (i + 1) & indexMask;
+            int other = index[i];
+            if (other == EMPTY)
+                break;
+
+            // Entries whose home lies cyclically in (hole, i] stay put.
+            int home = home(key[other]);
+            boolean stays = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+            if (!stays) {
+                index[hole] = other;
+                hole = i;
+            }
+        }
+        index[hole] = EMPTY;
+
+        used[slot] = false;
+        zone[slot] = UNKNOWN;
+        free[freeCount++] = slot;
+        size--;
+    }
+}
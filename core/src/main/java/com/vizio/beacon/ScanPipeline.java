@@ -0,0 +1,129 @@
+package com.vizio.beacon;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// The receive side: scan results go into a ScanRing from whatever thread
+// the scanner calls back on, a worker thread moves them into a BeaconTable,
+// and the listener gets a ScanSnapshot at a fixed frame rate, however many
+// results came in between. The worker sleeps between frames, and is only
+// woken up early when the ring gets half full.
+//
+// drain() and snapshot() can also be called directly, without start(), to
+// run the pipeline synchronously.
+public class ScanPipeline {
+    public static final int DEFAULT_RING_CAPACITY = 4096;
+    public static final int DEFAULT_MAX_BEACONS = 4096;
+
+    public interface Listener {
+        // Called on the worker thread.
+        void onSnapshot(ScanSnapshot snapshot);
+    }
+
+    private final ScanRing ring;
+    private final BeaconTable table;
+    private final ScanRing.Consumer record;
+    private volatile Thread worker;
+
+    public ScanPipeline() {
+        this(DEFAULT_RING_CAPACITY, DEFAULT_MAX_BEACONS);
+    }
+
+    public ScanPipeline(int ringCapacity, int maxBeacons) {
+        ring = new ScanRing(ringCapacity);
+        table = new BeaconTable(maxBeacons);
+        record = table::record;
+    }
+
+    public ScanRing getRing() { return ring; }
+
+    // From any thread. Returns false if the result was dropped.
+    public boolean offer(long address, int rssi, long timeNanos, byte[] record, int length) {
+        boolean offered = ring.offer(address, rssi, timeNanos, record, length);
+        Thread worker = this.worker;
+        if (worker != null && ring.size() == ring.capacity() / 2)
+            LockSupport.unpark(worker);
+        return offered;
+    }
+
+    // Only from the worker thread, or from one thread if there is none.
+    public int drain() {
+        return ring.drain(record);
+    }
+
+    public ScanSnapshot snapshot() {
+        return table.snapshot(ring.dropped());
+    }
+
+    public void start(int framesPerSecond, Listener listener) {
+        if (worker != null)
+            throw new IllegalStateException("Already started");
+
+        long frameNanos = TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+        Thread thread = new Thread(() -> run(frameNanos, listener), "Beacon.Scan");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    // Returns once the worker is gone; results offered after that are
+    // queued until the next start() or drain().
+    public void stop() throws InterruptedException {
+        Thread thread = worker;
+        if (thread == null)
+            return;
+
+        worker = null;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    private void run(long frameNanos, Listener listener) {
+        long nextFrame = System.nanoTime() + frameNanos;
+        while (worker == Thread.currentThread()) {
+            drain();
+
+            long now = System.nanoTime();
+            if (now - nextFrame >= 0) {
+                listener.onSnapshot(snapshot());
+                // Skip frames we've missed rather than catching up.
+                nextFrame = Math.max(nextFrame + frameNanos, now);
+                continue;
+            }
+            LockSupport.parkNanos(this, nextFrame - now);
+        }
+        drain();
+    }
+
+    // "AA:BB:CC:DD:EE:FF" as a number, without allocating; -1 for anything
+    // that isn't a MAC address.
+    public static long parseAddress(String address) {
+        if (address == null || address.length() != 17)
+            return -1;
+
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') return -1;
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0)
+                return -1;
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    public static String formatAddress(long address) {
+        StringBuilder text = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int b = (int) (address >> shift) & 0xFF;
+            if (text.length() > 0) text.append(':');
+            text.append(Character.toUpperCase(Character.forDigit(b >> 4, 16)));
+            text.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.vizio.beacon;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// A bounded queue of scan results between the Bluetooth callbacks and the
+// scan worker. Every slot, including room for the raw advertisement, is
+// allocated up front, so passing a result through copies bytes but never
+// allocates. When the worker falls behind and the ring is full, new results
+// are dropped and counted.
+//
+// Any number of threads may offer(); only one may drain().
+public final class ScanRing {
+    // A legacy advertisement plus its scan response; longer (extended)
+    // advertisements are cut off.
+    public static final int RECORD_MAX = 62;
+
+    public interface Consumer {
+        // The record is only valid until this returns.
+        void accept(long address, int rssi, long timeNanos, byte[] record, int offset, int length);
+    }
+
+    private final int mask;
+    private final long[] address;
+    private final int[] rssi;
+    private final long[] time;
+    private final int[] length;
+    private final byte[] records;
+
+    // head is only written under the lock; tail only by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // capacity is rounded up to a power of two.
+    public ScanRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        address = new long[size];
+        rssi = new int[size];
+        time = new long[size];
+        length = new int[size];
+        records = new byte[size * RECORD_MAX];
+    }
+
+    public int capacity() { return mask + 1; }
+    public int size() { return (int) (head.get() - tail.get()); }
+    public long dropped() { return dropped.get(); }
+
+    // Returns false (and counts the result as dropped) if the ring is full.
+    public boolean offer(long address, int rssi, long timeNanos, byte[] record, int recordLength) {
+        synchronized (head) {
+            long h = head.get();
+            if (h - tail.get() > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+
+            int slot = (int) h & mask;
+            int n = Math.min(recordLength, RECORD_MAX);
+            this.address[slot] = address;
+            this.rssi[slot] = rssi;
+            this.time[slot] = timeNanos;
+            this.length[slot] = n;
+            if (n > 0) System.arraycopy(record, 0, records, slot * RECORD_MAX, n);
+            head.lazySet(h + 1);
+        }
+        return true;
+    }
+
+    // Hands every queued result to the consumer, oldest first; returns how
+    // many there were.
+    public int drain(Consumer consumer) {
+        long t = tail.get();
+        long h = head.get();
+        for (long i = t; i < h; i++) {
+            int slot = (int) i & mask;
+            consumer.accept(address[slot], rssi[slot], time[slot], records, slot * RECORD_MAX, length[slot]);
+        }
+        tail.lazySet(h);
+        return (int) (h - t);
+    }
+}
@@ -0,0 +1,54 @@
+package com.vizio.beacon;
+
+// The state of a BeaconTable at one point in time, in the same parallel
+// array layout: beacon i is address[i], frameType[i] and so on, and a
+// beacon keeps its index in every later snapshot, new ones being appended.
+// Times are in the clock of the scan results (elapsed realtime on Android).
+public final class ScanSnapshot {
+    public final int size;
+    public final long[] address;
+    public final int[] frameType;
+    public final long[] firstSeen;
+    public final long[] lastSeen;
+    public final int[] count;
+    public final int[] rssiLast;
+    public final int[] rssiMin;
+    public final int[] rssiMax;
+    public final float[] rssiMean;
+    public final float[] rssiDeviation;
+    public final int[] measuredPower;
+    // Smoothed distance in metres and ProximityEngine zone; NaN and UNKNOWN
+    // for beacons that have gone stale.
+    public final float[] distance;
+    public final int[] zone;
+
+    // The latest advertisement of beacon i is recordLength[i] bytes from
+    // i * ScanRing.RECORD_MAX on.
+    public final byte[] records;
+    public final int[] recordLength;
+
+    // Results recorded, dropped because the worker fell behind, and ignored
+    // because the table was full.
+    public long results;
+    public long dropped;
+    public long overflow;
+
+    ScanSnapshot(int size) {
+        this.size = size;
+        address = new long[size];
+        frameType = new int[size];
+        firstSeen = new long[size];
+        lastSeen = new long[size];
+        count = new int[size];
+        rssiLast = new int[size];
+        rssiMin = new int[size];
+        rssiMax = new int[size];
+        rssiMean = new float[size];
+        rssiDeviation = new float[size];
+        measuredPower = new int[size];
+        distance = new float[size];
+        zone = new int[size];
+        records = new byte[size * ScanRing.RECORD_MAX];
+        recordLength = new int[size];
+    }
+}
@@ -0,0 +1,213 @@
+package com.vizio.beacon;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// A Bluetooth controller on the event loop's clock, for load and soak tests
+// without hardware: a fixed number of advertising slots, start and stop
+// latencies drawn from a distribution, random failures by error code, and
+// an adapter that can be switched off and on.
+//
+// Latencies are a fixed part plus an exponentially distributed jitter with
+// the given mean. A stopped advertisement keeps its slot until its stop
+// latency has passed, and an answer already on its way when the
+// advertisement was stopped still arrives, just like with real
+// controllers. Switching the adapter off fails every pending start with an
+// internal error and silently takes everything else off air.
+//
+// Like the framework, it also holds on to every callback it was given until
+// it's stopped or its start fails, whether the adapter is on or not; see
+// getHeldCount().
+//
+// Everything is drawn from one seeded Random, so a run can be repeated
+// exactly. Not thread-safe; everything must run on the event loop.
+public class SimulatedAdvertiser implements LeAdvertiser {
+    private static final int STARTING = 0;
+    private static final int ON_AIR = 1;
+
+    private static class Advertisement {
+        int state = STARTING;
+        int txPower;
+    }
+
+    private final EventLoop loop;
+    private final Random random;
+    private final Map<AdvertiseCallback, Advertisement> advertisements = new IdentityHashMap<>();
+    private final Set<AdvertiseCallback> held = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Indexed by error code.
+    private final double[] failureRates = new double[AdvertiserBackend.ADVERTISE_FAILED_FEATURE_UNSUPPORTED + 1];
+    private int slots;
+    private int stopping;
+    private boolean enabled = true;
+    // Bumped whenever the adapter goes off, so whatever was under way
+    // before is forgotten.
+    private int generation;
+    private long startMillis;
+    private long startJitterMillis;
+    private long stopMillis;
+    private long stopJitterMillis;
+
+    private long starts;
+    private long stops;
+    private long failures;
+    private long lost;
+    private int onAir;
+    private int maxOnAir;
+
+    public SimulatedAdvertiser(EventLoop loop, int slots, long seed) {
+        this.loop = loop;
+        this.slots = slots;
+        this.random = new Random(seed);
+    }
+
+    public void setSlots(int slots) { this.slots = slots; }
+
+    public void setStartLatency(long fixedMillis, long meanJitterMillis) {
+        startMillis = fixedMillis;
+        startJitterMillis = meanJitterMillis;
+    }
+
+    public void setStopLatency(long fixedMillis, long meanJitterMillis) {
+        stopMillis = fixedMillis;
+        stopJitterMillis = meanJitterMillis;
+    }
+
+    // The chance of a start failing with the given AdvertiserBackend error
+    // code, on top of failing for lack of slots.
+    public void setFailureRate(int errorCode, double rate) {
+        failureRates[errorCode] = rate;
+    }
+
+    public void setEnabled(boolean enabled) {
+        if (enabled == this.enabled)
+            return;
+
+        this.enabled = enabled;
+        if (enabled)
+            return;
+
+        for (Map.Entry<AdvertiseCallback, Advertisement> entry: advertisements.entrySet()) {
+            if (entry.getValue().state == STARTING) {
+                AdvertiseCallback callback = entry.getKey();
+                held.remove(callback);
+                failures++;
+                loop.post(() -> callback.onStartFailure(AdvertiserBackend.ADVERTISE_FAILED_INTERNAL_ERROR));
+            } else {
+                lost++;
+            }
+        }
+        advertisements.clear();
+        onAir = 0;
+        stopping = 0;
+        generation++;
+    }
+
+    @Override
+    public boolean isEnabled() { return enabled; }
+
+    // Advertisements started and neither stopped nor failed yet; for leak
+    // checks.
+    public int getRegisteredCount() { return advertisements.size(); }
+    // Callbacks given to startAdvertising() and neither stopped nor failed,
+    // including those whose advertisements the adapter took down; for leak
+    // checks across the adapter going off and on.
+    public int getHeldCount() { return held.size(); }
+    public int getOnAirCount() { return onAir; }
+    public int getMaxOnAir() { return maxOnAir; }
+    public long getStarts() { return starts; }
+    public long getStops() { return stops; }
+    public long getFailures() { return failures; }
+    // Taken off air by the adapter going off.
+    public long getLost() { return lost; }
+
+    @Override
+    public void startAdvertising(AdvertiserConfig config, AdvertiseCallback callback) {
+        if (!enabled)
+            throw new IllegalStateException("Adapter is off");
+
+        starts++;
+        held.add(callback);
+        if (advertisements.containsKey(callback)) {
+            answerFailure(callback, AdvertiserBackend.ADVERTISE_FAILED_ALREADY_STARTED);
+            return;
+        }
+        if (advertisements.size() + stopping >= slots) {
+            answerFailure(callback, AdvertiserBackend.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS);
+            return;
+        }
+
+        // The failure is decided now, but the slot is held until the
+        // controller answers.
+        int errorCode = drawFailure();
+        int started = generation;
+        Advertisement advertisement = new Advertisement();
+        advertisement.txPower = config.power;
+        advertisements.put(callback, advertisement);
+        loop.postDelayed(() -> {
+            if (generation != started)
+                return;
+            if (advertisements.get(callback) == advertisement) {
+                if (errorCode == 0) {
+                    advertisement.state = ON_AIR;
+                    onAir++;
+                    maxOnAir = Math.max(maxOnAir, onAir);
+                } else {
+                    advertisements.remove(callback);
+                    held.remove(callback);
+                }
+            }
+            if (errorCode == 0) {
+                callback.onStartSuccess(advertisement.txPower);
+            } else {
+                failures++;
+                callback.onStartFailure(errorCode);
+            }
+        }, latency(startMillis, startJitterMillis));
+    }
+
+    @Override
+    public void stopAdvertising(AdvertiseCallback callback) {
+        held.remove(callback);
+        Advertisement advertisement = advertisements.remove(callback);
+        if (advertisement == null)
+            return;
+
+        stops++;
+        if (advertisement.state == ON_AIR)
+            onAir--;
+        stopping++;
+        int stopped = generation;
+        loop.postDelayed(() -> {
+            if (generation == stopped) stopping--;
+        }, latency(stopMillis, stopJitterMillis));
+    }
+
+    private void answerFailure(AdvertiseCallback callback, int errorCode) {
+        held.remove(callback);
+        failures++;
+        int started = generation;
+        loop.postDelayed(() -> {
+            if (generation == started) callback.onStartFailure(errorCode);
+        }, latency(startMillis, startJitterMillis));
+    }
+
+    // 0 for success.
+    private int drawFailure() {
+        double draw = random.nextDouble();
+        for (int errorCode = 1; errorCode < failureRates.length; errorCode++) {
+            draw -= failureRates[errorCode];
+            if (draw < 0)
+                return errorCode;
+        }
+        return 0;
+    }
+
+    private long latency(long fixedMillis, long meanJitterMillis) {
+        if (meanJitterMillis <= 0)
+            return fixedMillis;
+        return fixedMillis + (long) (-Math.log(1 - random.nextDouble()) * meanJitterMillis);
+    }
+}
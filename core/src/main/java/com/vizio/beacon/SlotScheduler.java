@@ -0,0 +1,444 @@
+package com.vizio.beacon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// Shares the controller's advertising slots between any number of enabled
+// advertisers.
+//
+// As long as everything fits, every advertiser simply stays on air. The
+// number of slots isn't something Android will tell us, so the scheduler
+// starts out optimistic and learns the real capacity the first time the
+// controller answers with ADVERTISE_FAILED_TOO_MANY_ADVERTISERS. Other apps
+// may be holding slots too, so while advertisers are waiting it keeps
+// probing for one more slot every PROBE_MILLIS; with nobody waiting, it
+// doesn't wake up for that.
+//
+// When more advertisers are enabled than there are slots, they take turns:
+// each one stays on air for its dwell time (the base dwell times its
+// weight, so airtime is shared in proportion to the weights), then goes to
+// the back of the queue and the advertiser at the front takes over its slot.
+//
+// The time from enable() until an advertiser first gets on air (or is given
+// up on) goes into the scheduler's AdvertisingMetrics, and every change of
+// an advertiser's state goes to the StatusListener, if there is one.
+//
+// With a DutyCycle attached, advertisers can also be suspended: still
+// enabled, but neither on air nor waiting for a slot, until the duty cycle
+// wakes them up again.
+//
+// With a Rotation attached, advertisers with rotating identifiers are
+// enabled with the identifier for the current period already in place, and
+// rotated through update().
+//
+// Not thread-safe; everything, including the backend callbacks, must run on
+// the event loop.
+public class SlotScheduler implements AdvertiserBackend.Callback {
+    public static final long DEFAULT_DWELL_MILLIS = 1000;
+    public static final long PROBE_MILLIS = 60_000;
+
+    public interface Listener {
+        // The advertiser failed for a reason other than lack of slots and
+        // has been dropped from the rotation.
+        void onAdvertiserFailed(long id, int errorCode);
+    }
+
+    public interface StatusListener {
+        void onStatusChanged(long id, AdvertiserStatus status);
+    }
+
+    // Told about every advertiser that is enabled (again, possibly with a
+    // changed config) or dropped; it suspends and resumes them through
+    // setSuspended(), though never from inside these calls.
+    public interface DutyCycle {
+        // Returns whether the advertiser should be awake right now.
+        boolean track(AdvertiserConfig config);
+        void untrack(long id);
+        void untrackAll();
+    }
+
+    // Told about every advertiser that is enabled or dropped, like a
+    // DutyCycle; track() returns the config to advertise, which is either
+    // config itself or a copy carrying the identifier for the current
+    // period, and the same one again until the period is over.
+    public interface Rotation {
+        AdvertiserConfig track(AdvertiserConfig config);
+        void untrack(long id);
+        void untrackAll();
+    }
+
+    private static final int WAITING = 0;
+    private static final int STARTING = 1;
+    private static final int ACTIVE = 2;
+    private static final int SUSPENDED = 3;
+
+    // Entry.requestedAt of advertisers whose start is no longer timed.
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static class Entry {
+        AdvertiserConfig config;
+        int weight;
+        int state = WAITING;
+        long expiresAt;
+        long requestedAt = NOT_TIMED;
+    }
+
+    private final EventLoop loop;
+    private final AdvertiserBackend backend;
+    private final Listener listener;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final ArrayDeque<Entry> waiting = new ArrayDeque<>();
+    private final ArrayList<Entry> running = new ArrayList<>();
+    private final Runnable rotate = this::rotate;
+    private final Runnable probe = this::probe;
+
+    private int capacity = Integer.MAX_VALUE;
+    private long dwellMillis = DEFAULT_DWELL_MILLIS;
+    private long rotationAt = Long.MAX_VALUE;
+    // Whether the capacity was detected rather than set, so it's worth
+    // probing for more; and whether the probe is armed.
+    private boolean probing;
+    private boolean probeArmed;
+    private AdvertisingMetrics metrics = new AdvertisingMetrics();
+    private StatusListener statusListener;
+    private DutyCycle dutyCycle;
+    private Rotation rotation;
+
+    public SlotScheduler(EventLoop loop, AdvertiserBackend backend, Listener listener) {
+        this.loop = loop;
+        this.backend = backend;
+        this.listener = listener;
+        backend.setCallback(this);
+    }
+
+    // Slots currently believed to be available; Integer.MAX_VALUE until the
+    // controller has run out of them once.
+    public int getCapacity() { return capacity; }
+
+    // Overrides the detected capacity, e.g. for a controller known in
+    // advance. This also stops probing for more slots.
+    public void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        probing = false;
+        reschedule();
+    }
+
+    public long getDwellMillis() { return dwellMillis; }
+
+    public void setDwellMillis(long dwellMillis) {
+        if (dwellMillis <= 0)
+            throw new IllegalArgumentException("Dwell time must be positive");
+        this.dwellMillis = dwellMillis;
+    }
+
+    public AdvertisingMetrics getMetrics() { return metrics; }
+
+    public void setMetrics(AdvertisingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setStatusListener(StatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    public void setDutyCycle(DutyCycle dutyCycle) {
+        this.dutyCycle = dutyCycle;
+    }
+
+    public void setRotation(Rotation rotation) {
+        this.rotation = rotation;
+    }
+
+    public int getEnabledCount() { return entries.size(); }
+    public int getRunningCount() { return running.size(); }
+
+    // The config the advertiser was enabled with, or null if it isn't.
+    public AdvertiserConfig getConfig(long id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.config;
+    }
+
+    public boolean isOnAir(long id) {
+        Entry entry = entries.get(id);
+        return entry != null && entry.state == ACTIVE;
+    }
+
+    // Whether the backend has been asked to start the advertiser and hasn't
+    // answered yet.
+    public boolean isStarting(long id) {
+        Entry entry = entries.get(id);
+        return entry != null && entry.state == STARTING;
+    }
+
+    // Adds the advertiser to the rotation, or updates its config and weight
+    // if it's already there. An advertiser on air is updated in place when
+    // the backend can do that, and restarted otherwise.
+    public void enable(AdvertiserConfig config, int weight) {
+        enable(config, weight, System.nanoTime());
+    }
+
+    // requestedAt is the System.nanoTime() the start was asked for, for the
+    // start latency metrics.
+    public void enable(AdvertiserConfig config, int weight, long requestedAt) {
+        if (weight < 1)
+            throw new IllegalArgumentException("Weight must be at least 1");
+
+        if (rotation != null)
+            config = rotation.track(config);
+        boolean awake = dutyCycle == null || dutyCycle.track(config);
+        Entry entry = entries.get(config.id);
+        if (entry == null) {
+            entry = new Entry();
+            entry.config = config;
+            entries.put(config.id, entry);
+            if (awake) {
+                entry.requestedAt = requestedAt;
+                waiting.addLast(entry);
+                status(config.id, AdvertiserStatus.WAITING_STATUS);
+            } else {
+                entry.state = SUSPENDED;
+                status(config.id, AdvertiserStatus.SLEEPING_STATUS);
+            }
+        } else if (!awake) {
+            suspend(entry);
+        } else if (entry.state == SUSPENDED) {
+            entry.state = WAITING;
+            entry.requestedAt = requestedAt;
+            waiting.addLast(entry);
+            status(config.id, AdvertiserStatus.WAITING_STATUS);
+        } else if (entry.state == ACTIVE && backend.update(config)) {
+            // Stays on air with the new config.
+        } else if (entry.state != WAITING) {
+            backend.stop(config.id);
+            running.remove(entry);
+            entry.state = WAITING;
+            entry.requestedAt = requestedAt;
+            waiting.addFirst(entry);
+            status(config.id, AdvertiserStatus.WAITING_STATUS);
+        }
+
+        entry.config = config;
+        entry.weight = weight;
+        reschedule();
+    }
+
+    // Like enable() with the current weight, for advertisers that are
+    // enabled; returns false (and does nothing) for those that aren't, or if
+    // the config hasn't changed. A new revision or identifier counts as a
+    // change even if equals() doesn't see one, as that's what the backends'
+    // PreparedCache goes by.
+    public boolean update(AdvertiserConfig config) {
+        Entry entry = entries.get(config.id);
+        if (entry == null)
+            return false;
+        if (rotation != null)
+            config = rotation.track(config);
+        if (config.revision == entry.config.revision && config.ephemeralId == entry.config.ephemeralId
+            && config.equals(entry.config))
+            return false;
+
+        enable(config, entry.weight);
+        return true;
+    }
+
+    public void disable(long id) {
+        Entry entry = entries.remove(id);
+        if (entry == null)
+            return;
+
+        if (dutyCycle != null)
+            dutyCycle.untrack(id);
+        if (rotation != null)
+            rotation.untrack(id);
+        if (entry.state == WAITING) {
+            waiting.remove(entry);
+        } else if (entry.state != SUSPENDED) {
+            backend.stop(id);
+            running.remove(entry);
+        }
+        status(id, AdvertiserStatus.OFF_STATUS);
+        reschedule();
+    }
+
+    public void disableAll() {
+        for (Entry entry: running) {
+            backend.stop(entry.config.id);
+        }
+        for (Long id: entries.keySet()) {
+            status(id, AdvertiserStatus.OFF_STATUS);
+        }
+        if (dutyCycle != null)
+            dutyCycle.untrackAll();
+        if (rotation != null)
+            rotation.untrackAll();
+        running.clear();
+        waiting.clear();
+        entries.clear();
+        reschedule();
+    }
+
+    // Takes an enabled advertiser off air (or out of the queue) until it's
+    // resumed, or puts it back in line for a slot. Does nothing for
+    // advertisers that aren't enabled or are already in that state.
+    public void setSuspended(long id, boolean suspended) {
+        Entry entry = entries.get(id);
+        if (entry == null || suspended == (entry.state == SUSPENDED))
+            return;
+
+        if (suspended) {
+            suspend(entry);
+        } else {
+            entry.state = WAITING;
+            waiting.addLast(entry);
+            status(id, AdvertiserStatus.WAITING_STATUS);
+        }
+        reschedule();
+    }
+
+    public boolean isSuspended(long id) {
+        Entry entry = entries.get(id);
+        return entry != null && entry.state == SUSPENDED;
+    }
+
+    private void suspend(Entry entry) {
+        if (entry.state == SUSPENDED)
+            return;
+
+        if (entry.state == WAITING) {
+            waiting.remove(entry);
+        } else {
+            backend.stop(entry.config.id);
+            running.remove(entry);
+        }
+        entry.state = SUSPENDED;
+        // Time spent asleep isn't start latency.
+        entry.requestedAt = NOT_TIMED;
+        status(entry.config.id, AdvertiserStatus.SLEEPING_STATUS);
+    }
+
+    @Override
+    public void onStartSuccess(long id, int txPower) {
+        Entry entry = entries.get(id);
+        if (entry == null || entry.state != STARTING)
+            return;
+
+        entry.state = ACTIVE;
+        entry.expiresAt = loop.now() + dwellMillis * entry.weight;
+        status(id, AdvertiserStatus.active(txPower));
+        if (entry.requestedAt != NOT_TIMED) {
+            metrics.getStart().record(System.nanoTime() - entry.requestedAt);
+            entry.requestedAt = NOT_TIMED;
+        }
+        reschedule();
+    }
+
+    // Also covers advertisers already on air whose in-place update failed.
+    @Override
+    public void onStartFailure(long id, int errorCode) {
+        Entry entry = entries.get(id);
+        if (entry == null || entry.state == WAITING || entry.state == SUSPENDED)
+            return;
+
+        metrics.recordError(errorCode);
+        running.remove(entry);
+        if (errorCode == AdvertiserBackend.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS) {
+            // Whatever is on air right now is all the controller can take.
+            // If that's nothing at all, somebody else holds every slot; try
+            // again after a dwell period rather than right away.
+            capacity = running.size();
+            entry.state = WAITING;
+            waiting.addFirst(entry);
+            status(id, AdvertiserStatus.WAITING_STATUS);
+            probing = true;
+            loop.cancel(probe);
+            loop.postDelayed(probe, capacity == 0 ? dwellMillis : PROBE_MILLIS);
+            probeArmed = true;
+        } else {
+            if (entry.requestedAt != NOT_TIMED)
+                metrics.getFailure().record(System.nanoTime() - entry.requestedAt);
+            entries.remove(id);
+            if (dutyCycle != null)
+                dutyCycle.untrack(id);
+            if (rotation != null)
+                rotation.untrack(id);
+            status(id, AdvertiserStatus.failed(errorCode));
+            listener.onAdvertiserFailed(id, errorCode);
+        }
+        reschedule();
+    }
+
+    // Hands expired slots over to waiting advertisers, one per advertiser
+    // that was waiting; those stopped go to the back of the queue. Expired
+    // advertisers nobody was waiting for get another dwell period, so the
+    // slots change hands one at a time rather than all at once.
+    private void rotate() {
+        rotationAt = Long.MAX_VALUE;
+        long now = loop.now();
+        int toRotate = waiting.size();
+        for (int i = 0; i < running.size(); ) {
+            Entry entry = running.get(i);
+            if (entry.state != ACTIVE || entry.expiresAt > now) {
+                i++;
+            } else if (toRotate > 0) {
+                toRotate--;
+                backend.stop(entry.config.id);
+                running.remove(i);
+                entry.state = WAITING;
+                waiting.addLast(entry);
+                status(entry.config.id, AdvertiserStatus.WAITING_STATUS);
+            } else {
+                entry.expiresAt = now + dwellMillis * entry.weight;
+                i++;
+            }
+        }
+        reschedule();
+    }
+
+    private void probe() {
+        probeArmed = false;
+        if (!waiting.isEmpty())
+            capacity++;
+        reschedule();
+    }
+
+    // Fills free slots and arms the rotation timer for the earliest expiry
+    // and the probe, if anybody is waiting for a slot.
+    private void reschedule() {
+        while (running.size() < capacity && !waiting.isEmpty()) {
+            Entry entry = waiting.removeFirst();
+            entry.state = STARTING;
+            running.add(entry);
+            status(entry.config.id, AdvertiserStatus.STARTING_STATUS);
+            backend.start(entry.config);
+        }
+
+        long next = Long.MAX_VALUE;
+        if (!waiting.isEmpty()) {
+            for (Entry entry: running) {
+                if (entry.state == ACTIVE) next = Math.min(next, entry.expiresAt);
+            }
+        }
+
+        if (next != rotationAt) {
+            loop.cancel(rotate);
+            rotationAt = next;
+            if (next != Long.MAX_VALUE)
+                loop.postDelayed(rotate, Math.max(0, next - loop.now()));
+        }
+
+        boolean armProbe = probing && !waiting.isEmpty();
+        if (armProbe != probeArmed) {
+            loop.cancel(probe);
+            probeArmed = armProbe;
+            if (armProbe)
+                loop.postDelayed(probe, PROBE_MILLIS);
+        }
+    }
+
+    private void status(long id, AdvertiserStatus status) {
+        if (statusListener != null)
+            statusListener.onStatusChanged(id, status);
+    }
+}
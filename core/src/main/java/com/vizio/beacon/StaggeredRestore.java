@@ -0,0 +1,109 @@
+package com.vizio.beacon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Brings a batch of advertisers back up (say, everything that was enabled
+// before a reboot) without flooding the Bluetooth stack: at most
+// `concurrency` of them are waiting for the controller to answer at any
+// time, and the next ones are only handed to the scheduler on the following
+// step, `intervalMillis` later.
+//
+// Advertisers that the user starts or stops in the meantime must be
+// cancel()led, so the restore doesn't override them.
+//
+// Not thread-safe; everything must run on the event loop.
+public class StaggeredRestore {
+    public static final int DEFAULT_CONCURRENCY = 2;
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final EventLoop loop;
+    private final SlotScheduler scheduler;
+    private final ArrayDeque<AdvertiserConfig> queue = new ArrayDeque<>();
+    private final ArrayList<Long> starting = new ArrayList<>();
+    private final Runnable step = this::step;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private int weight;
+    private long requestedAt;
+    private boolean scheduled;
+
+    public StaggeredRestore(EventLoop loop, SlotScheduler scheduler) {
+        this.loop = loop;
+        this.scheduler = scheduler;
+    }
+
+    public int getConcurrency() { return concurrency; }
+
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        this.concurrency = concurrency;
+    }
+
+    public long getIntervalMillis() { return intervalMillis; }
+
+    public void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("Interval must be positive");
+        this.intervalMillis = intervalMillis;
+    }
+
+    // Whether there's nothing left to restore.
+    public boolean isIdle() {
+        return queue.isEmpty();
+    }
+
+    // Queues the configs behind any restore still in progress. Advertisers
+    // that are already enabled by the time their turn comes are skipped.
+    public void restore(List<AdvertiserConfig> configs, int weight) {
+        if (weight < 1)
+            throw new IllegalArgumentException("Weight must be at least 1");
+
+        this.weight = weight;
+        this.requestedAt = System.nanoTime();
+        queue.addAll(configs);
+        if (!scheduled) {
+            scheduled = true;
+            loop.post(step);
+        }
+    }
+
+    public void cancel(long id) {
+        for (AdvertiserConfig config: queue) {
+            if (config.id == id) {
+                queue.remove(config);
+                break;
+            }
+        }
+    }
+
+    public void cancelAll() {
+        queue.clear();
+    }
+
+    private void step() {
+        scheduled = false;
+        for (int i = 0; i < starting.size(); ) {
+            if (scheduler.isStarting(starting.get(i))) i++;
+            else starting.remove(i);
+        }
+
+        while (starting.size() < concurrency && !queue.isEmpty()) {
+            AdvertiserConfig config = queue.removeFirst();
+            if (scheduler.getConfig(config.id) != null)
+                continue;
+
+            scheduler.enable(config, weight, requestedAt);
+            if (scheduler.isStarting(config.id))
+                starting.add(config.id);
+        }
+
+        if (!queue.isEmpty()) {
+            scheduled = true;
+            loop.postDelayed(step, intervalMillis);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.vizio.beacon;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Carries advertiser status changes from the event loop to the UI.
+//
+// The producer side (the scheduler, on the event loop) only records the
+// latest status per advertiser; however many changes pile up, the consumer
+// is woken once, and drain() hands over one status per advertiser that
+// changed since the last drain. The UI drains once per frame, so a burst of
+// hundreds of changes costs it one pass rather than hundreds of posts.
+public final class StatusBoard implements SlotScheduler.StatusListener {
+    public interface Listener {
+        void onStatusChanged(long id, AdvertiserStatus status);
+    }
+
+    private final Object lock = new Object();
+    private Map<Long, AdvertiserStatus> pending = new HashMap<>();
+    private Map<Long, AdvertiserStatus> draining = new HashMap<>();
+    private Runnable wake;
+    private boolean woken;
+
+    // Consumer side only. FAILED advertisers stay here until they're
+    // enabled again; OFF ones are dropped.
+    private final Map<Long, AdvertiserStatus> current = new HashMap<>();
+
+    // wake runs on the producer's thread when there is something to drain,
+    // at most once per drain(); it should get drain() called on the
+    // consumer's thread. Null stops the wake-ups, and changes keep piling
+    // up (one per advertiser) until there is a consumer again.
+    public void setWake(Runnable wake) {
+        boolean run;
+        synchronized (lock) {
+            this.wake = wake;
+            woken = false;
+            run = wake != null && !pending.isEmpty();
+            if (run) woken = true;
+        }
+        if (run) wake.run();
+    }
+
+    @Override
+    public void onStatusChanged(long id, AdvertiserStatus status) {
+        Runnable run = null;
+        synchronized (lock) {
+            pending.put(id, status);
+            if (!woken && wake != null) {
+                woken = true;
+                run = wake;
+            }
+        }
+        if (run != null) run.run();
+    }
+
+    // Returns the number of advertisers whose status changed.
+    public int drain(Listener listener) {
+        Map<Long, AdvertiserStatus> changes;
+        synchronized (lock) {
+            changes = pending;
+            pending = draining;
+            draining = changes;
+            woken = false;
+        }
+
+        int count = 0;
+        for (Map.Entry<Long, AdvertiserStatus> change: changes.entrySet()) {
+            long id = change.getKey();
+            AdvertiserStatus status = change.getValue();
+            AdvertiserStatus previous = status.state == AdvertiserStatus.OFF
+                ? current.remove(id)
+                : current.put(id, status);
+            if (status.equals(previous == null ? AdvertiserStatus.OFF_STATUS : previous))
+                continue;
+
+            listener.onStatusChanged(id, status);
+            count++;
+        }
+        changes.clear();
+        return count;
+    }
+
+    // As of the last drain(); consumer side only.
+    public AdvertiserStatus get(long id) {
+        AdvertiserStatus status = current.get(id);
+        return status == null ? AdvertiserStatus.OFF_STATUS : status;
+    }
+}
@@ -0,0 +1,62 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdvertiserDiffTest {
+    @Test
+    public void matchesById() {
+        AdvertiserConfig a = config(1L, "a");
+        AdvertiserConfig b = config(1L, "b");
+        assertTrue(AdvertiserDiff.sameItem(a, b));
+        assertFalse(AdvertiserDiff.sameContents(a, b));
+
+        assertFalse(AdvertiserDiff.sameItem(a, config(2L, "a")));
+        assertTrue(AdvertiserDiff.sameItem(config(null, "a"), config(null, "b")));
+    }
+
+    @Test
+    public void enabledChangesContents() {
+        AdvertiserConfig a = config(1L, "a");
+        AdvertiserConfig b = config(1L, "a");
+        assertTrue(AdvertiserDiff.sameContents(a, b));
+
+        b.enabled = true;
+        assertEquals(a, b);
+        assertFalse(AdvertiserDiff.sameContents(a, b));
+    }
+
+    @Test
+    public void reportsWhatChanged() {
+        AdvertiserConfig a = config(1L, "a");
+        AdvertiserConfig b = config(1L, "a");
+        assertEquals(0, AdvertiserDiff.changes(a, b));
+
+        b.enabled = true;
+        assertEquals(AdvertiserDiff.CHANGED_ENABLED, AdvertiserDiff.changes(a, b));
+
+        b.label = "b";
+        b.mode = 2;
+        b.includeTxPowerLevel = true;
+        assertEquals(
+            AdvertiserDiff.CHANGED_ENABLED | AdvertiserDiff.CHANGED_LABEL
+                | AdvertiserDiff.CHANGED_SETTINGS | AdvertiserDiff.CHANGED_INDICATORS,
+            AdvertiserDiff.changes(a, b));
+
+        // Nothing the row shows.
+        AdvertiserConfig c = config(1L, "a");
+        c.major = 7;
+        assertFalse(AdvertiserDiff.sameContents(a, c));
+        assertEquals(0, AdvertiserDiff.changes(a, c));
+    }
+
+    private static AdvertiserConfig config(Long id, String label) {
+        AdvertiserConfig config = new AdvertiserConfig();
+        config.id = id;
+        config.label = label;
+        config.frameType = PayloadEncoder.FRAME_IBEACON;
+        config.frameId = new byte[16];
+        return config;
+    }
+}
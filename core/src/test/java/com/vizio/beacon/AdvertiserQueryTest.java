@@ -0,0 +1,46 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdvertiserQueryTest {
+    @Test
+    public void emptyIsEverything() {
+        assertSame(AdvertiserQuery.ALL, AdvertiserQuery.parse(""));
+        assertSame(AdvertiserQuery.ALL, AdvertiserQuery.parse("  - "));
+        assertEquals("SELECT * FROM advertiserconfig ORDER BY id", AdvertiserQuery.ALL.sql());
+        assertEquals(0, AdvertiserQuery.ALL.args().length);
+    }
+
+    @Test
+    public void wordsBecomePrefixPhrases() {
+        AdvertiserQuery query = AdvertiserQuery.parse(" north-d  E2C56DB5 \"x\" ");
+        assertEquals("\"north d*\" \"E2C56DB5*\" \"x*\"", query.match);
+        assertEquals(
+            "SELECT * FROM advertiserconfig"
+                + " WHERE id IN (SELECT rowid FROM advertisersearch WHERE advertisersearch MATCH ?)"
+                + " ORDER BY id",
+            query.sql());
+        assertArrayEquals(new Object[]{query.match}, query.args());
+    }
+
+    @Test
+    public void filters() {
+        AdvertiserQuery query = AdvertiserQuery.parse("type:ibeacon door power:3 enabled:no mode:Latency");
+        assertEquals("\"door*\"", query.match);
+        assertEquals(Integer.valueOf(2), query.mode);
+        assertEquals(Integer.valueOf(3), query.power);
+        assertEquals(Integer.valueOf(PayloadEncoder.FRAME_IBEACON), query.frameType);
+        assertEquals(Boolean.FALSE, query.enabled);
+        assertTrue(query.sql().endsWith(" AND mode = ? AND power = ? AND frame_type = ? AND enabled = ? ORDER BY id"));
+        assertArrayEquals(new Object[]{"\"door*\"", 2, 3, 1, 0}, query.args());
+
+        assertEquals(Integer.valueOf(PayloadEncoder.FRAME_EDDYSTONE_EID), AdvertiserQuery.parse("type:EID").frameType);
+        assertEquals(Integer.valueOf(PayloadEncoder.FRAME_EDDYSTONE_EID), AdvertiserQuery.parse("type:6").frameType);
+        assertNull(AdvertiserQuery.parse("type:6").match);
+
+        // Not a filter after all.
+        assertEquals("\"mode 7*\" \"color red*\"", AdvertiserQuery.parse("mode:7 color:red").match);
+    }
+}
@@ -0,0 +1,102 @@
+package com.vizio.beacon;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BatchControllerTest {
+    private final VirtualEventLoop loop = new VirtualEventLoop();
+    private final FakeBackend backend = new FakeBackend(loop, 4);
+    private final SlotScheduler scheduler = new SlotScheduler(loop, backend, (id, errorCode) -> { });
+    private final BatchController controller = new BatchController(loop, scheduler, null, 1, 5000);
+
+    public BatchControllerTest() {
+        scheduler.setStatusListener(controller);
+    }
+
+    @Test
+    public void startsSettleOnAirOrWaiting() throws Exception {
+        BatchController.Batch batch = new BatchController.Batch();
+        for (long id = 1; id <= 10; id++) batch.start(SlotSchedulerTest.config(id));
+        ListenableFuture<BatchController.Report> future = controller.submit(batch);
+        loop.runDue();
+
+        BatchController.Report report = future.get();
+        assertEquals(10, report.results.size());
+        int active = 0;
+        for (BatchController.Result result: report.results) {
+            assertTrue(result.settled);
+            assertEquals(CommandQueue.START, result.command);
+            if (result.status.state == AdvertiserStatus.ACTIVE) active++;
+            else assertEquals(AdvertiserStatus.WAITING_STATUS, result.status);
+        }
+        assertEquals(4, active);
+        assertTrue(report.totalNanos >= report.applyNanos);
+    }
+
+    @Test
+    public void swapHandsOverSlots() throws Exception {
+        BatchController.Batch first = new BatchController.Batch();
+        for (long id = 1; id <= 4; id++) first.start(SlotSchedulerTest.config(id));
+        controller.submit(first);
+        loop.runDue();
+        assertEquals(4, backend.onAirCount());
+
+        BatchController.Batch swap = new BatchController.Batch();
+        for (long id = 1; id <= 4; id++) {
+            swap.stop(id);
+            swap.start(SlotSchedulerTest.config(id + 4));
+        }
+        ListenableFuture<BatchController.Report> future = controller.submit(swap);
+        loop.runDue();
+
+        BatchController.Report report = future.get();
+        for (BatchController.Result result: report.results) {
+            if (result.command == CommandQueue.STOP) {
+                assertEquals(AdvertiserStatus.OFF_STATUS, result.status);
+            } else {
+                assertEquals(AdvertiserStatus.ACTIVE, result.status.state);
+                assertTrue(backend.isOnAir(result.id));
+            }
+        }
+        assertEquals(4, backend.maxOnAir);
+    }
+
+    @Test
+    public void updatesReportWhetherApplied() throws Exception {
+        backend.inPlaceUpdates = true;
+        controller.submit(new BatchController.Batch().start(SlotSchedulerTest.config(1)));
+        loop.runDue();
+
+        AdvertiserConfig changed = SlotSchedulerTest.config(1);
+        changed.label = "renamed";
+        ListenableFuture<BatchController.Report> future = controller.submit(new BatchController.Batch()
+            .update(changed)
+            .update(SlotSchedulerTest.config(2)));
+        loop.runDue();
+
+        BatchController.Report report = future.get();
+        assertTrue(report.results.get(0).changed);
+        assertEquals(AdvertiserStatus.ACTIVE, report.results.get(0).status.state);
+        assertEquals(1, backend.updates);
+        assertFalse(report.results.get(1).changed);
+        assertEquals(AdvertiserStatus.OFF_STATUS, report.results.get(1).status);
+    }
+
+    @Test
+    public void timesOut() throws Exception {
+        backend.answerMillis = 10_000;
+        ListenableFuture<BatchController.Report> future =
+            controller.submit(new BatchController.Batch().start(SlotSchedulerTest.config(1)));
+        loop.runDue();
+        assertFalse(future.isDone());
+
+        loop.advance(5000);
+        BatchController.Result result = future.get().results.get(0);
+        assertFalse(result.settled);
+        assertEquals(AdvertiserStatus.STARTING_STATUS, result.status);
+        assertEquals("start 1: starting (timed out)", result.toString().replaceAll(" after .*", ""));
+    }
+}
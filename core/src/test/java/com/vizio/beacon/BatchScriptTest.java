@@ -0,0 +1,61 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BatchScriptTest {
+    @Test
+    public void parses() {
+        BatchScript script = BatchScript.parse("start 1 2; stop 3\n swap 4 5 > 6 ;; update 7 8 power=3 label=x\n");
+        assertEquals(Arrays.asList(3L, 4L, 5L), script.stops);
+        assertEquals(Arrays.asList(1L, 2L, 6L), script.starts);
+        assertEquals(1, script.updates.size());
+        assertEquals(Arrays.asList(7L, 8L), script.updates.get(0).ids);
+
+        AdvertiserConfig config = new AdvertiserConfig();
+        script.updates.get(0).applyTo(config);
+        assertEquals(3, config.power);
+        assertEquals("x", config.label);
+        assertTrue(BatchScript.parse(" ; \n").isEmpty());
+    }
+
+    @Test
+    public void saysWhatsWrong() {
+        assertError("start 1; stop", "Command 2: stop needs ids");
+        assertError("swap 1 2", "Command 1: swap needs a >");
+        assertError("update 1 colour=red", "Command 1: No field colour");
+        assertError("start one", "Command 1: Not an id: one");
+        assertError("launch 1", "Command 1: Unknown command launch");
+    }
+
+    @Test
+    public void refusesOutOfRangeUpdates() {
+        assertUpdateError("update 1 power=9", "power: 9 is not in 0..3");
+        assertUpdateError("update 1 mode=7", "mode: 7 is not in 0..2");
+        assertUpdateError("update 1 frame_type=42", "frame_type: 42 is not in 0..6");
+        assertUpdateError("update 1 rotation_exponent=16", "rotation_exponent: 16 is not in 0..15");
+    }
+
+    private static void assertUpdateError(String text, String message) {
+        try {
+            AdvertiserConfig config = new AdvertiserConfig();
+            BatchScript.parse(text).updates.get(0).applyTo(config);
+            ConfigFields.check(config, new PayloadEncoder());
+            fail(text);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static void assertError(String text, String message) {
+        try {
+            BatchScript.parse(text);
+            fail(text);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
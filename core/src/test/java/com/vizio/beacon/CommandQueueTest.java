@@ -0,0 +1,158 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandQueueTest {
+    private final VirtualEventLoop loop = new VirtualEventLoop();
+    private final FakeBackend backend = new FakeBackend(loop, 4);
+    private final SlotScheduler scheduler = new SlotScheduler(loop, backend, (id, errorCode) -> { });
+    private final List<String> completed = new ArrayList<>();
+    private final CommandQueue commands = new CommandQueue(loop, scheduler,
+        (id, command, executed, latencyNanos, merged) -> {
+            assertTrue(latencyNanos >= 0);
+            completed.add(id + "-+*".substring(command, command + 1) + (executed ? "" : "!") + merged);
+        });
+
+    @Test
+    public void executesInOrder() {
+        commands.start(config(1), 1);
+        commands.start(config(2), 1);
+        loop.runDue();
+        commands.stop(1);
+        loop.runDue();
+
+        assertEquals(Arrays.asList("1+1", "2+1", "1-1"), completed);
+        assertFalse(backend.isOnAir(1));
+        assertTrue(backend.isOnAir(2));
+
+        AdvertisingMetrics metrics = scheduler.getMetrics();
+        assertEquals(3, metrics.getQueue().getCount());
+        assertEquals(2, metrics.getStart().getCount());
+        assertEquals(1, metrics.getStop().getCount());
+    }
+
+    @Test
+    public void latencyCountsFromRequest() {
+        long requestedAt = System.nanoTime() - 5_000_000_000L;
+        commands.start(config(1), 1, requestedAt);
+        loop.runDue();
+        commands.stop(1, requestedAt);
+        loop.runDue();
+
+        AdvertisingMetrics metrics = scheduler.getMetrics();
+        assertTrue(metrics.getStart().getMax() >= 5_000_000_000L);
+        assertTrue(metrics.getStop().getMax() >= 5_000_000_000L);
+        assertTrue(metrics.getQueue().getMax() < 5_000_000_000L);
+    }
+
+    @Test
+    public void collapsesToggleBursts() {
+        AdvertiserConfig config = config(1);
+        commands.start(config, 1);
+        commands.stop(1);
+        commands.start(config, 1);
+        commands.stop(1);
+        commands.start(config, 1);
+        loop.runDue();
+
+        assertEquals(Arrays.asList("1+5"), completed);
+        assertEquals(1, backend.starts);
+
+        // Off and on again while on air: nothing reaches the radio.
+        commands.stop(1);
+        commands.start(config, 1);
+        loop.runDue();
+        assertEquals(Arrays.asList("1+5", "1+!2"), completed);
+        assertEquals(1, backend.starts);
+        assertEquals(0, backend.stops);
+    }
+
+    @Test
+    public void dropsStopOfStoppedAdvertiser() {
+        commands.start(config(1), 1);
+        commands.stop(1);
+        loop.runDue();
+
+        assertEquals(Arrays.asList("1-!2"), completed);
+        assertEquals(0, backend.starts);
+    }
+
+    @Test
+    public void restartsOnConfigChange() {
+        commands.start(config(1), 1);
+        loop.runDue();
+
+        AdvertiserConfig changed = config(1);
+        changed.label = "changed";
+        commands.start(changed, 1);
+        loop.runDue();
+
+        assertEquals(Arrays.asList("1+1", "1+1"), completed);
+        assertEquals(2, backend.starts);
+        assertTrue(backend.isOnAir(1));
+    }
+
+    @Test
+    public void updatesMergeIntoPendingCommands() {
+        AdvertiserConfig changed = config(1);
+        changed.label = "changed";
+
+        commands.start(config(1), 1);
+        commands.update(changed);
+        loop.runDue();
+        assertSame(changed, scheduler.getConfig(1));
+
+        commands.stop(1);
+        commands.update(config(1));
+        loop.runDue();
+        assertNull(scheduler.getConfig(1));
+
+        // Updating a disabled advertiser doesn't enable it.
+        commands.update(changed);
+        loop.runDue();
+        assertNull(scheduler.getConfig(1));
+        assertEquals(Arrays.asList("1+2", "1-2", "1*!1"), completed);
+    }
+
+    @Test
+    public void stopAllAfterQueuedCommands() {
+        commands.start(config(1), 1);
+        commands.start(config(2), 1);
+        commands.stopAll();
+        loop.advance(1000);
+
+        assertEquals(0, scheduler.getEnabledCount());
+        assertEquals(0, backend.onAirCount());
+    }
+
+    @Test
+    public void acceptsCommandsFromOtherThreads() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long base = t * 100;
+            threads[t] = new Thread(() -> {
+                for (long id = base; id < base + 50; id++) {
+                    commands.start(config(id), 1);
+                    commands.stop(id);
+                    commands.start(config(id), 1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads) thread.join();
+        loop.runDue();
+
+        assertEquals(200, completed.size());
+        assertEquals(200, scheduler.getEnabledCount());
+    }
+
+    private static AdvertiserConfig config(long id) {
+        return SlotSchedulerTest.config(id);
+    }
+}
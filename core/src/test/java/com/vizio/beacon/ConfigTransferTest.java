@@ -0,0 +1,215 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConfigTransferTest {
+    private final CsvConfigFormat csv = new CsvConfigFormat();
+
+    @Test
+    public void csvRoundTrip() throws Exception {
+        List<AdvertiserConfig> configs = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) configs.add(iBeacon(id));
+        configs.get(2).label = "quotes \"and\", commas\nand newlines";
+
+        StringWriter out = new StringWriter();
+        ConfigFormat.Sink sink = csv.sink(out);
+        assertEquals(5, ConfigTransfer.exportAll(pages(configs), 2, sink));
+
+        List<AdvertiserConfig> imported = importCsv(out.toString(), 2);
+        assertEquals(configs.size(), imported.size());
+        for (int i = 0; i < configs.size(); i++) {
+            AdvertiserConfig expected = configs.get(i);
+            expected.id = null;
+            assertEquals(expected, imported.get(i));
+        }
+    }
+
+    @Test
+    public void importsInChunks() throws Exception {
+        StringBuilder text = new StringBuilder("label\n");
+        for (int i = 0; i < 45; i++) text.append("beacon ").append(i).append('\n');
+
+        List<Integer> sizes = new ArrayList<>();
+        int count = ConfigTransfer.importAll(
+            csv.source(new StringReader(text.toString())), 20, chunk -> sizes.add(chunk.size()));
+
+        assertEquals(45, count);
+        assertEquals(3, sizes.size());
+        assertEquals(20, (int) sizes.get(0));
+        assertEquals(20, (int) sizes.get(1));
+        assertEquals(5, (int) sizes.get(2));
+    }
+
+    @Test
+    public void csvColumnsInAnyOrder() throws Exception {
+        String text = "\r\nmajor,color,label,frame_type,frame_id,include_device_name\r\n"
+            + "7,blue,\"a, b\",1,e2c56db5-dffb-48d2-b060-d0f5a71096e0,true\r\n"
+            + "\r\n"
+            + ",red,c\r\n";
+        List<AdvertiserConfig> imported = importCsv(text, 10);
+
+        assertEquals(2, imported.size());
+        assertEquals("a, b", imported.get(0).label);
+        assertEquals(7, imported.get(0).major);
+        assertEquals(PayloadEncoder.FRAME_IBEACON, imported.get(0).frameType);
+        assertTrue(imported.get(0).includeDeviceName);
+        assertEquals("c", imported.get(1).label);
+        assertEquals(0, imported.get(1).major);
+    }
+
+    @Test
+    public void reportsBadRecords() throws Exception {
+        String text = "label,major\nok,1\nbad,x\n";
+        try {
+            importCsv(text, 10);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Record 2, major"));
+        }
+
+        // Fields that parse but can't be advertised are caught too.
+        text = "label,frame_type\nnothing to encode,1\n";
+        try {
+            importCsv(text, 10);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Record 1"));
+        }
+    }
+
+    // Values that parse but are out of range would crash the list and the
+    // radio code later on.
+    @Test
+    public void rejectsOutOfRangeValues() throws Exception {
+        String[][] bad = {
+            {"power", "7"}, {"power", "-1"}, {"mode", "3"}, {"frame_type", "9"},
+            {"duty_on_millis", "-5"}, {"window_start_minute", "1440"}, {"window_end_minute", "-1"},
+            {"rotation_exponent", "16"}
+        };
+        for (String[] field: bad) {
+            String text = "label," + field[0] + "\nok,0\nbad," + field[1] + "\n";
+            try {
+                importCsv(text, 10);
+                fail(field[0] + "=" + field[1]);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Record 2: " + field[0]));
+            }
+        }
+
+        // Eddystone-EID needs a whole identity key.
+        try {
+            importCsv("label,frame_type,eid_key\neid,6,0011\n", 10);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Record 1"));
+        }
+        assertEquals(1, importCsv("label,frame_type,eid_key,rotation_exponent\neid,6,"
+            + "e2c56db5dffb48d2b060d0f5a71096e0,15\n", 10).size());
+    }
+
+    @Test
+    public void exportsEidKeysOnlyWhenAsked() throws Exception {
+        AdvertiserConfig eid = new AdvertiserConfig();
+        eid.id = 1L;
+        eid.label = "eid";
+        eid.frameType = PayloadEncoder.FRAME_EDDYSTONE_EID;
+        eid.eidKey = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+        eid.rotationExponent = 10;
+        List<AdvertiserConfig> configs = new ArrayList<>();
+        configs.add(eid);
+
+        StringWriter out = new StringWriter();
+        assertEquals(1, ConfigTransfer.exportAll(pages(configs), 10, csv.sink(out)));
+        assertFalse(out.toString(), out.toString().contains("e2c56db5"));
+        assertNotNull(eid.eidKey);
+        assertTrue(importCsv(out.toString(), 10).isEmpty());
+
+        out = new StringWriter();
+        assertEquals(1, ConfigTransfer.exportAll(pages(configs), 10, csv.sink(out), true));
+        AdvertiserConfig imported = importCsv(out.toString(), 10).get(0);
+        assertArrayEquals(eid.eidKey, imported.eidKey);
+        assertEquals(10, imported.rotationExponent);
+    }
+
+    // What a default export writes has to import again; the configs that
+    // went out without their keys are left out, and said so.
+    @Test
+    public void mixedExportRoundTrips() throws Exception {
+        List<AdvertiserConfig> configs = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) configs.add(iBeacon(id));
+        for (long id: new long[]{2, 4}) {
+            AdvertiserConfig eid = configs.get((int) id - 1);
+            eid.frameType = PayloadEncoder.FRAME_EDDYSTONE_EID;
+            eid.eidKey = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+        }
+
+        StringWriter out = new StringWriter();
+        assertEquals(5, ConfigTransfer.exportAll(pages(configs), 2, csv.sink(out)));
+
+        List<AdvertiserConfig> imported = new ArrayList<>();
+        List<Integer> skipped = new ArrayList<>();
+        int count = ConfigTransfer.importAll(csv.source(new StringReader(out.toString())), 2, imported::addAll,
+            done -> { }, (record, config) -> {
+                skipped.add(record);
+                assertEquals(PayloadEncoder.FRAME_EDDYSTONE_EID, config.frameType);
+            });
+        assertEquals(3, count);
+        assertEquals(3, imported.size());
+        assertEquals(1, imported.get(0).major);
+        assertEquals(3, imported.get(1).major);
+        assertEquals(5, imported.get(2).major);
+        assertEquals(2, skipped.size());
+        assertEquals(2, (int) skipped.get(0));
+        assertEquals(4, (int) skipped.get(1));
+    }
+
+    @Test
+    public void detectsFormat() throws IOException {
+        BufferedReader json = new BufferedReader(new StringReader("\uFEFF  \n[{\"label\": \"a\"}]"));
+        assertTrue(ConfigTransfer.looksLikeJson(json));
+        assertEquals('\uFEFF', json.read());
+
+        BufferedReader csv = new BufferedReader(new StringReader("label\na\n"));
+        assertFalse(ConfigTransfer.looksLikeJson(csv));
+        assertEquals('l', csv.read());
+    }
+
+    private List<AdvertiserConfig> importCsv(String text, int chunkSize) throws Exception {
+        List<AdvertiserConfig> imported = new ArrayList<>();
+        ConfigTransfer.importAll(csv.source(new StringReader(text)), chunkSize, imported::addAll);
+        return imported;
+    }
+
+    // Serves the configs a page at a time, the way the database does.
+    private static ConfigTransfer.Pages pages(List<AdvertiserConfig> configs) {
+        return (afterId, limit) -> {
+            List<AdvertiserConfig> page = new ArrayList<>();
+            for (AdvertiserConfig config: configs) {
+                if (config.id > afterId && page.size() < limit) page.add(config);
+            }
+            return page;
+        };
+    }
+
+    private static AdvertiserConfig iBeacon(long id) {
+        AdvertiserConfig config = SlotSchedulerTest.config(id);
+        config.power = 2;
+        config.mode = 1;
+        config.includeTxPowerLevel = true;
+        config.frameType = PayloadEncoder.FRAME_IBEACON;
+        config.frameId = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+        config.major = (int) id;
+        config.minor = 65535;
+        config.measuredPower = -59;
+        return config;
+    }
+}
@@ -0,0 +1,41 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DebouncerTest {
+    private final VirtualEventLoop loop = new VirtualEventLoop();
+    private int runs;
+    private final Debouncer debouncer = new Debouncer(loop, 300, () -> runs++);
+
+    @Test
+    public void burstRunsOnce() {
+        for (int i = 0; i < 10; i++) {
+            debouncer.trigger();
+            loop.advance(100);
+        }
+        assertEquals(0, runs);
+        loop.advance(200);
+        assertEquals(1, runs);
+        assertFalse(debouncer.isPending());
+        assertEquals(0, loop.pendingCount());
+    }
+
+    @Test
+    public void flushAndCancel() {
+        debouncer.flush();
+        assertEquals(0, runs);
+
+        debouncer.trigger();
+        debouncer.flush();
+        assertEquals(1, runs);
+        loop.advance(1000);
+        assertEquals(1, runs);
+
+        debouncer.trigger();
+        debouncer.cancel();
+        loop.advance(1000);
+        assertEquals(1, runs);
+    }
+}
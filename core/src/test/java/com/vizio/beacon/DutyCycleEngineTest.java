@@ -0,0 +1,134 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class DutyCycleEngineTest {
+    private static final long MINUTE = 60_000;
+
+    private final VirtualEventLoop loop = new VirtualEventLoop();
+    private final FakeBackend backend = new FakeBackend(loop, 1000);
+    private final SlotScheduler scheduler = new SlotScheduler(loop, backend, (id, errorCode) -> {});
+
+    @Test
+    public void dutyCycle() {
+        DutyCycleEngine engine = new DutyCycleEngine(loop, scheduler, 0);
+        scheduler.enable(config(1, 2000, 8000), 1);
+        loop.runDue();
+        assertTrue(backend.isOnAir(1));
+
+        loop.advance(1999);
+        assertTrue(backend.isOnAir(1));
+        loop.advance(1);
+        assertFalse(backend.isOnAir(1));
+        assertTrue(scheduler.isSuspended(1));
+        loop.advance(8000);
+        assertTrue(backend.isOnAir(1));
+
+        loop.advance(89_000);
+        assertEquals(20_000, engine.getAwakeMillis(1));
+        assertEquals(10, backend.starts);
+    }
+
+    @Test
+    public void windowWrapsPastMidnight() {
+        // 21:59 local.
+        new DutyCycleEngine(loop, scheduler, (21 * 60 + 59) * MINUTE);
+        AdvertiserConfig config = config(1, 0, 0);
+        config.windowStartMinute = 22 * 60;
+        config.windowEndMinute = 6 * 60;
+        scheduler.enable(config, 1);
+        loop.runDue();
+        assertTrue(scheduler.isSuspended(1));
+
+        loop.advance(MINUTE);
+        assertTrue(backend.isOnAir(1));
+        // Past midnight.
+        loop.advance(3 * 60 * MINUTE);
+        assertTrue(backend.isOnAir(1));
+        // 06:00.
+        loop.advance(5 * 60 * MINUTE - 1);
+        assertTrue(backend.isOnAir(1));
+        loop.advance(1);
+        assertTrue(scheduler.isSuspended(1));
+    }
+
+    @Test
+    public void localTimeChange() {
+        DutyCycleEngine engine = new DutyCycleEngine(loop, scheduler, 12 * 60 * MINUTE);
+        AdvertiserConfig config = config(1, 0, 0);
+        config.windowStartMinute = 8 * 60;
+        config.windowEndMinute = 17 * 60;
+        scheduler.enable(config, 1);
+        loop.runDue();
+        assertTrue(backend.isOnAir(1));
+
+        engine.setLocalOffsetMillis(20 * 60 * MINUTE);
+        loop.runDue();
+        assertTrue(scheduler.isSuspended(1));
+    }
+
+    @Test
+    public void batchesWakeups() {
+        DutyCycleEngine engine = new DutyCycleEngine(loop, scheduler, 0);
+        for (long id = 1; id <= 200; id++) {
+            scheduler.enable(config(id, 1000, 1000), 1);
+            loop.advance(7);
+        }
+        long start = engine.getTicks();
+        loop.advance(20_000);
+
+        // One timer for all of them, firing at most once per tick.
+        assertTrue(engine.getTicks() - start <= 20_000 / DutyCycleEngine.TICK_MILLIS);
+        assertTrue(backend.maxOnAir < 200);
+        assertEquals(200, engine.getTrackedCount());
+        // Rounding up to ticks doesn't add up over the cycles.
+        for (long id = 1; id <= 200; id++) {
+            long awake = engine.getAwakeMillis(id);
+            assertEquals("advertiser " + id, loop.now() / 2.0, awake, 2 * DutyCycleEngine.TICK_MILLIS + 1400);
+        }
+    }
+
+    @Test
+    public void untracksOnDisable() {
+        DutyCycleEngine engine = new DutyCycleEngine(loop, scheduler, 0);
+        scheduler.enable(config(1, 1000, 1000), 1);
+        scheduler.enable(config(2, 0, 0), 1);
+        assertEquals(1, engine.getTrackedCount());
+
+        scheduler.disable(1);
+        assertEquals(0, engine.getTrackedCount());
+        assertEquals(-1, engine.getAwakeMillis(1));
+        loop.advance(10_000);
+        assertEquals(0, loop.pendingCount());
+    }
+
+    @Test
+    public void estimatesEnergy() {
+        DutyCycleEngine engine = new DutyCycleEngine(loop, scheduler, 0);
+        AdvertiserConfig config = config(1, 1000, 1000);
+        config.mode = 0;
+        config.power = 3;
+        scheduler.enable(config, 1);
+        loop.advance(10_000);
+
+        // 5 s on air at one 49 uJ event a second.
+        assertEquals(5000, engine.getAwakeMillis(1));
+        assertEquals(0.245, engine.getEnergyMillijoules(1), 1e-9);
+
+        StringWriter out = new StringWriter();
+        engine.dump(new PrintWriter(out), "");
+        assertTrue(out.toString().contains("0.2 mJ"));
+    }
+
+    private static AdvertiserConfig config(long id, long onMillis, long offMillis) {
+        AdvertiserConfig config = SlotSchedulerTest.config(id);
+        config.dutyOnMillis = onMillis;
+        config.dutyOffMillis = offMillis;
+        return config;
+    }
+}
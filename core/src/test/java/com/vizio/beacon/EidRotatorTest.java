@@ -0,0 +1,184 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EidRotatorTest {
+    // 1_600_000_000 is a multiple of 2^9, so periods of up to 512 s start
+    // there; the loop starts 3 s later.
+    private static final long EPOCH_SECONDS = 1_600_000_000L;
+    private static final long OFFSET_MILLIS = EPOCH_SECONDS * 1000 + 3000;
+    private static final byte[] KEY = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+
+    private final VirtualEventLoop loop = new VirtualEventLoop();
+    private final FakeBackend backend = new FakeBackend(loop, 1000);
+    private final SlotScheduler scheduler = new SlotScheduler(loop, backend, (id, errorCode) -> {});
+    // Precomputations run as loop tasks of their own, well before the
+    // boundaries.
+    private final List<Runnable> pending = new ArrayList<>();
+
+    @Test
+    public void ephemeralIds() {
+        byte[] id = EidRotator.ephemeralId(KEY, 4, EPOCH_SECONDS);
+        assertEquals(PayloadEncoder.EID_LENGTH, id.length);
+        assertArrayEquals(id, EidRotator.ephemeralId(KEY, 4, EPOCH_SECONDS + 15));
+        assertFalse(Arrays.equals(id, EidRotator.ephemeralId(KEY, 4, EPOCH_SECONDS + 16)));
+        assertFalse(Arrays.equals(id, EidRotator.ephemeralId(KEY, 5, EPOCH_SECONDS)));
+
+        byte[] otherKey = KEY.clone();
+        otherKey[0] ^= 1;
+        assertFalse(Arrays.equals(id, EidRotator.ephemeralId(otherKey, 4, EPOCH_SECONDS)));
+
+        // Known answers, worked out independently (OpenSSL) the way the
+        // spec does: the temporary key from the top 16 bits of the time,
+        // then the identifier from the time with the low bits cleared. The
+        // last one is past 2038, where the time no longer fits an int.
+        assertEquals("5fc145abb9b102a7", Hex.format(EidRotator.ephemeralId(
+            Hex.parse("00112233445566778899aabbccddeeff"), 10, 0x12345678L)));
+        assertEquals("bba0cb2ece6120f8", Hex.format(EidRotator.ephemeralId(
+            Hex.parse("ffeeddccbbaa99887766554433221100"), 0, 0x7FFFFFFFL)));
+        assertEquals("805b0ea418236416", Hex.format(EidRotator.ephemeralId(
+            Hex.parse("ffeeddccbbaa99887766554433221100"), 15, 0xA0001234L)));
+    }
+
+    @Test
+    public void rotatesAtBoundariesInBatches() {
+        EidRotator rotator = new EidRotator(loop, scheduler, loop::post, OFFSET_MILLIS);
+        backend.inPlaceUpdates = true;
+        for (long id = 1; id <= 3; id++) {
+            scheduler.enable(config(id, 4), 1);
+        }
+        scheduler.enable(config(4, 5), 1);
+        loop.runDue();
+        assertEquals(4, rotator.getTrackedCount());
+        assertIdentifier(1, 4, EPOCH_SECONDS);
+        assertIdentifier(4, 5, EPOCH_SECONDS);
+
+        // The 16 s periods end 13 s in, the 32 s one 29 s in.
+        loop.advance(12_999);
+        assertEquals(0, rotator.getRotations());
+        assertIdentifier(1, 4, EPOCH_SECONDS);
+        loop.advance(1);
+        assertEquals(3, rotator.getRotations());
+        assertEquals(1, rotator.getBatches());
+        for (long id = 1; id <= 3; id++) {
+            assertIdentifier(id, 4, EPOCH_SECONDS + 16);
+        }
+        assertIdentifier(4, 5, EPOCH_SECONDS);
+        assertEquals(3, backend.updates);
+
+        loop.advance(16_000);
+        assertEquals(7, rotator.getRotations());
+        assertEquals(2, rotator.getBatches());
+        assertIdentifier(1, 4, EPOCH_SECONDS + 32);
+        assertIdentifier(4, 5, EPOCH_SECONDS + 32);
+
+        // Nothing was worked out on the spot, and nobody went off air.
+        assertEquals(7, rotator.getPrecomputed());
+        assertEquals(0, rotator.getLate());
+        assertEquals(4, backend.starts);
+        assertEquals(4, backend.onAirCount());
+    }
+
+    @Test
+    public void lateWhenPrecomputationIsBehind() {
+        EidRotator rotator = new EidRotator(loop, scheduler, pending::add, OFFSET_MILLIS);
+        scheduler.enable(config(1, 0), 1);
+        loop.runDue();
+
+        loop.advance(1000);
+        assertEquals(1, rotator.getRotations());
+        assertEquals(1, rotator.getLate());
+        assertIdentifier(1, 0, EPOCH_SECONDS + 4);
+
+        // The executor catches up: what was worked out for the period
+        // that has already begun is thrown away, the next one is used.
+        for (Runnable task: pending) task.run();
+        loop.runDue();
+        loop.advance(1000);
+        assertEquals(1, rotator.getLate());
+        assertEquals(1, rotator.getPrecomputed());
+        assertIdentifier(1, 0, EPOCH_SECONDS + 5);
+    }
+
+    @Test
+    public void wallClockChange() {
+        EidRotator rotator = new EidRotator(loop, scheduler, loop::post, OFFSET_MILLIS);
+        scheduler.enable(config(1, 10), 1);
+        loop.runDue();
+
+        rotator.setWallOffsetMillis(OFFSET_MILLIS + 3600_000);
+        assertIdentifier(1, 10, EPOCH_SECONDS + 3600);
+        assertEquals(1, rotator.getRotations());
+    }
+
+    @Test
+    public void onlyEnabledEidAdvertisersAreTracked() {
+        EidRotator rotator = new EidRotator(loop, scheduler, loop::post, OFFSET_MILLIS);
+        AdvertiserConfig other = config(1, 4);
+        other.frameType = PayloadEncoder.FRAME_EDDYSTONE_UID;
+        scheduler.enable(other, 1);
+        scheduler.enable(config(2, 4), 1);
+        assertSame(other, scheduler.getConfig(1));
+        assertEquals(1, rotator.getTrackedCount());
+
+        // Enabling it again within the period changes nothing.
+        AdvertiserConfig config = scheduler.getConfig(2);
+        assertFalse(scheduler.update(config(2, 4)));
+        assertSame(config, scheduler.getConfig(2));
+
+        scheduler.disable(2);
+        assertEquals(0, rotator.getTrackedCount());
+        loop.advance(60_000);
+        assertEquals(0, rotator.getRotations());
+    }
+
+    @Test
+    public void encodesTheCurrentIdentifier() {
+        new EidRotator(loop, scheduler, loop::post, OFFSET_MILLIS);
+        scheduler.enable(config(1, 4), 1);
+
+        PayloadEncoder encoder = new PayloadEncoder();
+        encoder.encode(scheduler.getConfig(1), 0);
+        assertEquals("30ec" + Hex.format(EidRotator.ephemeralId(KEY, 4, EPOCH_SECONDS)),
+            Hex.format(encoder.copyBody()));
+    }
+
+    @Test
+    public void checksSecrets() {
+        AdvertiserConfig config = config(1, 15);
+        assertEquals(PayloadEncoder.EID_LENGTH, EidRotator.check(config).ephemeralId.length);
+        assertNull(config.ephemeralId);
+
+        config.rotationExponent = 16;
+        try {
+            EidRotator.check(config);
+            fail();
+        } catch (IllegalArgumentException expected) { }
+        config.rotationExponent = 0;
+        config.eidKey = new byte[8];
+        try {
+            EidRotator.check(config);
+            fail();
+        } catch (IllegalArgumentException expected) { }
+    }
+
+    private void assertIdentifier(long id, int exponent, long seconds) {
+        assertArrayEquals(EidRotator.ephemeralId(KEY, exponent, seconds), scheduler.getConfig(id).ephemeralId);
+    }
+
+    private static AdvertiserConfig config(long id, int exponent) {
+        AdvertiserConfig config = new AdvertiserConfig();
+        config.id = id;
+        config.frameType = PayloadEncoder.FRAME_EDDYSTONE_EID;
+        config.measuredPower = -20;
+        config.eidKey = KEY;
+        config.rotationExponent = exponent;
+        return config;
+    }
+}
@@ -0,0 +1,115 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventLogTest {
+    private static final long WALL_OFFSET = 1_600_000_000_000L;
+
+    private final VirtualEventLoop loop = new VirtualEventLoop();
+    private final List<List<AdvertisingEvent>> batches = new ArrayList<>();
+    private final List<long[]> prunes = new ArrayList<>();
+    private final EventLog.Store store = new EventLog.Store() {
+        @Override
+        public void append(List<AdvertisingEvent> events) {
+            batches.add(events);
+        }
+
+        @Override
+        public void prune(long before, int keep) {
+            prunes.add(new long[]{before, keep});
+        }
+    };
+
+    @Test
+    public void batchesWrites() {
+        EventLog log = new EventLog(loop, store, 100, 1000, WALL_OFFSET);
+        log.advertiser(1, AdvertiserStatus.WAITING_STATUS);
+        loop.advance(500);
+        log.advertiser(1, AdvertiserStatus.active(-7));
+        log.scan(AdvertisingEvent.SCAN_FAILED, 2);
+        assertTrue(batches.isEmpty());
+        assertEquals(1, loop.pendingCount());
+
+        loop.advance(500);
+        assertEquals(1, batches.size());
+        List<AdvertisingEvent> batch = batches.get(0);
+        assertEquals(3, batch.size());
+        assertEquals(WALL_OFFSET, batch.get(0).time);
+        assertEquals(Long.valueOf(1), batch.get(1).configId);
+        assertEquals("active -7 dBm", batch.get(1).describe());
+        assertNull(batch.get(2).configId);
+        assertEquals("scan failed 2", batch.get(2).describe());
+        assertEquals(3, log.getAppended());
+        assertEquals(0, loop.pendingCount());
+    }
+
+    @Test
+    public void dropsOldestWhenFull() {
+        EventLog log = new EventLog(loop, store, 4, 1000, WALL_OFFSET);
+        for (int i = 0; i < 10; i++) {
+            log.advertiser(i, AdvertiserStatus.failed(i));
+        }
+        assertEquals(4, log.getPending());
+        assertEquals(6, log.getDropped());
+
+        log.flush();
+        List<AdvertisingEvent> batch = batches.get(0);
+        assertEquals(4, batch.size());
+        assertEquals(Long.valueOf(6), batch.get(0).configId);
+        assertEquals(Long.valueOf(9), batch.get(3).configId);
+        assertEquals(0, log.getPending());
+    }
+
+    @Test
+    public void prunesByAgeAndCount() {
+        EventLog log = new EventLog(loop, store, 100, 1000, WALL_OFFSET);
+        log.setRetention(500, 60_000, 10_000);
+        log.advertiser(1, AdvertiserStatus.OFF_STATUS);
+        loop.advance(1000);
+        assertEquals(1, prunes.size());
+        assertEquals(WALL_OFFSET + 1000 - 60_000, prunes.get(0)[0]);
+        assertEquals(500, prunes.get(0)[1]);
+
+        // Not again until the interval is up.
+        log.advertiser(1, AdvertiserStatus.OFF_STATUS);
+        loop.advance(1000);
+        assertEquals(1, prunes.size());
+        loop.advance(10_000);
+        log.advertiser(1, AdvertiserStatus.OFF_STATUS);
+        loop.advance(1000);
+        assertEquals(2, prunes.size());
+    }
+
+    @Test
+    public void exportsInChunks() throws Exception {
+        List<AdvertisingEvent> events = new ArrayList<>();
+        for (long id = 1; id <= 5; id++) {
+            AdvertisingEvent event = AdvertisingEvent.advertiser(id * 1000, 7, AdvertiserStatus.failed(3));
+            event.id = id;
+            events.add(event);
+        }
+        events.add(AdvertisingEvent.scan(0, AdvertisingEvent.SCAN_STARTED, 0));
+        events.get(5).id = 6L;
+
+        StringWriter out = new StringWriter();
+        int count = EventLog.export((afterId, limit) -> {
+            List<AdvertisingEvent> page = new ArrayList<>();
+            for (AdvertisingEvent event: events) {
+                if (event.id > afterId && page.size() < limit) page.add(event);
+            }
+            return page;
+        }, 2, out);
+
+        assertEquals(6, count);
+        String[] lines = out.toString().split("\r\n");
+        assertEquals("id,time,config_id,event", lines[0]);
+        assertEquals("1,1970-01-01T00:00:01.000Z,7,failed 3", lines[1]);
+        assertEquals("6,1970-01-01T00:00:00.000Z,,scan started", lines[6]);
+    }
+}
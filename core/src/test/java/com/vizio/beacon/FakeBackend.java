@@ -0,0 +1,81 @@
+package com.vizio.beacon;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// A controller with a fixed number of advertising slots that answers every
+// start() on the next turn of the event loop, or after answerMillis.
+public class FakeBackend implements AdvertiserBackend {
+    private final EventLoop loop;
+    private int slots;
+    private final Set<Long> onAir = new HashSet<>();
+    private final Set<Long> failing = new HashSet<>();
+    private Callback callback;
+
+    public int starts;
+    public int stops;
+    public int updates;
+    public boolean inPlaceUpdates;
+    public int maxOnAir;
+    public long answerMillis;
+    public int unanswered;
+    public int maxUnanswered;
+
+    public FakeBackend(EventLoop loop, int slots) {
+        this.loop = loop;
+        this.slots = slots;
+    }
+
+    public void setSlots(int slots) { this.slots = slots; }
+
+    // Makes every start of the given advertiser fail with an internal error.
+    public void failAlways(long id) { failing.add(id); }
+
+    public boolean isOnAir(long id) { return onAir.contains(id); }
+    public int onAirCount() { return onAir.size(); }
+
+    @Override
+    public void setCallback(Callback callback) { this.callback = callback; }
+
+    @Override
+    public void start(AdvertiserConfig config) {
+        long id = config.id;
+        starts++;
+        if (failing.contains(id)) {
+            answer(() -> callback.onStartFailure(id, ADVERTISE_FAILED_INTERNAL_ERROR));
+        } else if (onAir.contains(id)) {
+            answer(() -> callback.onStartFailure(id, ADVERTISE_FAILED_ALREADY_STARTED));
+        } else if (onAir.size() >= slots) {
+            answer(() -> callback.onStartFailure(id, ADVERTISE_FAILED_TOO_MANY_ADVERTISERS));
+        } else {
+            onAir.add(id);
+            maxOnAir = Math.max(maxOnAir, onAir.size());
+            answer(() -> {
+                if (onAir.contains(id)) callback.onStartSuccess(id, config.power);
+            });
+        }
+    }
+
+    private void answer(Runnable answer) {
+        unanswered++;
+        maxUnanswered = Math.max(maxUnanswered, unanswered);
+        loop.postDelayed(() -> {
+            unanswered--;
+            answer.run();
+        }, answerMillis);
+    }
+
+    @Override
+    public boolean update(AdvertiserConfig config) {
+        if (!inPlaceUpdates || !onAir.contains(config.id))
+            return false;
+
+        updates++;
+        return true;
+    }
+
+    @Override
+    public void stop(long id) {
+        if (onAir.remove(id)) stops++;
+    }
+}
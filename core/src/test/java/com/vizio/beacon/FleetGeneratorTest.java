@@ -0,0 +1,106 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FleetGeneratorTest {
+    @Test
+    public void iBeaconMinorCarriesIntoMajor() throws Exception {
+        AdvertiserConfig template = iBeacon();
+        template.major = 7;
+        template.minor = 65534;
+        FleetGenerator fleet = new FleetGenerator(template, 3);
+
+        AdvertiserConfig config = fleet.read();
+        assertNull(config.id);
+        assertEquals("door 7.65534", config.label);
+        assertEquals(65534, config.minor);
+        config = fleet.read();
+        assertEquals(7, config.major);
+        assertEquals(65535, config.minor);
+        config = fleet.read();
+        assertEquals(8, config.major);
+        assertEquals(0, config.minor);
+        assertEquals("door 8.0", config.label);
+        assertArrayEquals(template.frameId, config.frameId);
+        assertEquals(template.measuredPower, config.measuredPower);
+        assertNull(fleet.read());
+    }
+
+    @Test
+    public void eddystoneInstanceCounts() throws Exception {
+        AdvertiserConfig template = iBeacon();
+        template.frameType = PayloadEncoder.FRAME_EDDYSTONE_UID;
+        template.frameId = Hex.parse("00112233445566778899 0000000000ff".replace(" ", ""));
+        FleetGenerator fleet = new FleetGenerator(template, 2);
+
+        fleet.read();
+        AdvertiserConfig config = fleet.read();
+        assertEquals("00112233445566778899000000000100", Hex.format(config.frameId).replace("-", ""));
+        // The template is left alone.
+        assertEquals((byte) 0xff, template.frameId[15]);
+    }
+
+    @Test
+    public void rejectsWhatCantBeNumbered() {
+        AdvertiserConfig template = iBeacon();
+        template.major = 65535;
+        template.minor = 65535;
+        try {
+            new FleetGenerator(template, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Only room for 1 advertisers", e.getMessage());
+        }
+
+        template.frameType = PayloadEncoder.FRAME_EDDYSTONE_URL;
+        try {
+            new FleetGenerator(template, 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void streamsInChunks() throws Exception {
+        List<Integer> progress = new ArrayList<>();
+        int[] largest = new int[1];
+        int count = ConfigTransfer.importAll(
+            new FleetGenerator(iBeacon(), 10_000), ConfigTransfer.CHUNK_SIZE,
+            chunk -> largest[0] = Math.max(largest[0], chunk.size()), progress::add);
+
+        assertEquals(10_000, count);
+        assertEquals(ConfigTransfer.CHUNK_SIZE, largest[0]);
+        assertEquals(10_000 / ConfigTransfer.CHUNK_SIZE, progress.size());
+        assertEquals(10_000, (int) progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void cancelsBetweenChunks() throws Exception {
+        List<Integer> stored = new ArrayList<>();
+        try {
+            ConfigTransfer.importAll(new FleetGenerator(iBeacon(), 1000), 100, chunk -> stored.add(chunk.size()),
+                count -> {
+                    if (count == 300) Thread.currentThread().interrupt();
+                });
+            fail();
+        } catch (InterruptedException e) {
+            assertEquals("Cancelled after 300", e.getMessage());
+        }
+        assertEquals(3, stored.size());
+        assertFalse(Thread.interrupted());
+    }
+
+    private static AdvertiserConfig iBeacon() {
+        AdvertiserConfig config = new AdvertiserConfig();
+        config.label = "door";
+        config.frameType = PayloadEncoder.FRAME_IBEACON;
+        config.frameId = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+        config.measuredPower = -59;
+        return config;
+    }
+}
@@ -0,0 +1,122 @@
+package com.vizio.beacon;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class GateTest {
+    private boolean granted;
+    private int checks;
+    private int requests;
+
+    @Test
+    public void waitersShareOneRequest() throws Exception {
+        Gate gate = gate(true);
+        List<ListenableFuture<Boolean>> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) waiters.add(gate.open());
+
+        assertEquals(1, requests);
+        assertEquals(1, checks);
+        for (ListenableFuture<Boolean> waiter: waiters) assertFalse(waiter.isDone());
+
+        gate.complete(true);
+        for (ListenableFuture<Boolean> waiter: waiters) assertTrue(waiter.get());
+
+        // Remembered from now on.
+        assertTrue(gate.open().get());
+        assertEquals(1, checks);
+        assertEquals(1, requests);
+    }
+
+    @Test
+    public void denialWakesEveryoneAndAsksAgainNextTime() throws Exception {
+        Gate gate = gate(true);
+        ListenableFuture<Boolean> a = gate.open();
+        ListenableFuture<Boolean> b = gate.open();
+        gate.complete(false);
+        assertFalse(a.get());
+        assertFalse(b.get());
+        assertFalse(gate.isRequesting());
+
+        ListenableFuture<Boolean> c = gate.open();
+        assertEquals(2, requests);
+        assertFalse(c.isDone());
+    }
+
+    @Test
+    public void checksEveryTimeUnlessSticky() throws Exception {
+        Gate gate = gate(false);
+        granted = true;
+        assertTrue(gate.open().get());
+        assertTrue(gate.open().get());
+        assertEquals(2, checks);
+
+        granted = false;
+        gate.open();
+        assertEquals(1, requests);
+    }
+
+    @Test
+    public void remembersGrantWithNobodyWaiting() throws Exception {
+        Gate gate = gate(true);
+        gate.complete(true);
+        assertTrue(gate.open().get());
+        assertEquals(0, checks);
+        assertEquals(0, requests);
+    }
+
+    @Test
+    public void answersFromInsideRequest() throws Exception {
+        Gate[] self = new Gate[1];
+        self[0] = new Gate(() -> false, () -> self[0].complete(false), false);
+        assertFalse(self[0].open().get());
+        assertFalse(self[0].isRequesting());
+    }
+
+    @Test
+    public void failedRequestFailsWaiters() throws Exception {
+        Gate gate = new Gate(() -> false, () -> { throw new IllegalStateException("no activity"); }, true);
+        try {
+            gate.open().get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertFalse(gate.isRequesting());
+    }
+
+    @Test
+    public void opensInOrderAndStopsAtFirstClosed() throws Exception {
+        List<String> asked = new ArrayList<>();
+        Gate first = new Gate(() -> { asked.add("first"); return true; }, () -> { }, false);
+        Gate second = new Gate(() -> { asked.add("second"); return false; }, () -> asked.add("request"), false);
+        Gate third = new Gate(() -> { asked.add("third"); return true; }, () -> { }, false);
+
+        ListenableFuture<Boolean> all = Gate.openAll(first, second, third);
+        assertFalse(all.isDone());
+        assertEquals(3, asked.size());
+        assertEquals("request", asked.get(2));
+
+        second.complete(false);
+        assertFalse(all.get());
+        assertEquals(3, asked.size());
+
+        ListenableFuture<Boolean> again = Gate.openAll(first, second, third);
+        second.complete(true);
+        assertTrue(again.get());
+        assertEquals("third", asked.get(asked.size() - 1));
+    }
+
+    private Gate gate(boolean sticky) {
+        return new Gate(() -> {
+            checks++;
+            return granted;
+        }, () -> requests++, sticky);
+    }
+}
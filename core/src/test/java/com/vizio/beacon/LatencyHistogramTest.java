@@ -0,0 +1,85 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = { 0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE };
+        for (long value: values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value + " <= bound", value <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0)
+                assertTrue(value + " > previous bound", value > LatencyHistogram.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void boundsWithinAnEighth() {
+        for (int bucket = 9; bucket < 488; bucket++) {
+            long lower = LatencyHistogram.upperBound(bucket - 1) + 1;
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue("bucket " + bucket, upper - lower <= lower / 8);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long ms = 1; ms <= 100; ms++) {
+            histogram.record(ms * 1_000_000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(50_500_000, histogram.getMean());
+        assertEquals(50e6, histogram.getPercentile(0.5), 50e6 / 8);
+        assertEquals(99e6, histogram.getPercentile(0.99), 99e6 / 8);
+        assertEquals(100_000_000, histogram.getPercentile(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        AdvertisingMetrics metrics = new AdvertisingMetrics();
+        Random random = new Random(1);
+        long[] values = new long[1024];
+        for (int i = 0; i < values.length; i++) values[i] = random.nextInt(Integer.MAX_VALUE);
+
+        // Warm up so the JIT is done before we count.
+        record(metrics, values, 200_000);
+
+        long allocated = allocatedBytes();
+        record(metrics, values, 100_000);
+        if (allocated >= 0) {
+            allocated = allocatedBytes() - allocated;
+            assertTrue("record() allocated " + allocated + " bytes", allocated < 1024);
+        }
+        assertEquals(300_000, metrics.getStart().getCount());
+    }
+
+    private static void record(AdvertisingMetrics metrics, long[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            metrics.getStart().record(values[i & 1023]);
+            metrics.recordError(i & 7);
+        }
+    }
+
+    // Bytes allocated by this thread so far, or -1 when the JVM can't tell.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
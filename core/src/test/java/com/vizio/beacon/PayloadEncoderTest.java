@@ -0,0 +1,133 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PayloadEncoderTest {
+    private static final byte[] UUID = Hex.parse("e2c56db5-dffb-48d2-b060-d0f5a71096e0");
+    private static final byte[] UID = Hex.parse("8b0ca750e7a74e14bd99 000000000001");
+
+    private final PayloadEncoder encoder = new PayloadEncoder();
+
+    @Test
+    public void iBeacon() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_IBEACON);
+        config.frameId = UUID;
+        config.major = 1;
+        config.minor = 0xBEEF;
+        config.measuredPower = -59;
+
+        assertEquals(27, encoder.encode(config, 0));
+        assertRaw("1aff4c000215e2c56db5dffb48d2b060d0f5a71096e00001beefc5");
+        assertEquals(PayloadEncoder.AD_MANUFACTURER_DATA, encoder.adType());
+        assertEquals(PayloadEncoder.APPLE_COMPANY_ID, encoder.id16());
+        assertEquals("0215e2c56db5dffb48d2b060d0f5a71096e00001beefc5", Hex.format(encoder.copyBody()));
+    }
+
+    @Test
+    public void eddystoneUid() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_EDDYSTONE_UID);
+        config.frameId = UID;
+        config.measuredPower = -20;
+
+        assertEquals(28, encoder.encode(config, 0));
+        assertRaw("0303aafe1716aafe00ec8b0ca750e7a74e14bd990000000000010000");
+        assertEquals(PayloadEncoder.AD_SERVICE_DATA_16, encoder.adType());
+        assertEquals(PayloadEncoder.EDDYSTONE_SERVICE_UUID, encoder.id16());
+    }
+
+    @Test
+    public void eddystoneUrl() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_EDDYSTONE_URL);
+        config.url = "https://www.google.com/";
+        config.measuredPower = -21;
+
+        assertEquals(18, encoder.encode(config, 0));
+        assertRaw("0303aafe0d16aafe10eb01676f6f676c6500");
+
+        config.url = "http://example.org/a.html";
+        encoder.encode(config, 0);
+        assertEquals("10eb026578616d706c6501612e68746d6c", Hex.format(encoder.copyBody()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void eddystoneUrlTooLong() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_EDDYSTONE_URL);
+        config.url = "https://www.a-very-long-host-name.com/";
+        encoder.encode(config, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void eddystoneUrlUnknownScheme() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_EDDYSTONE_URL);
+        config.url = "ftp://example.com";
+        encoder.encode(config, 0);
+    }
+
+    @Test
+    public void eddystoneTlm() {
+        encoder.setTelemetry(3000, 21.5f, 0x01020304L, 123400);
+        encoder.encode(config(PayloadEncoder.FRAME_EDDYSTONE_TLM), 0);
+        assertRaw("0303aafe1116aafe20000bb8158001020304000004d2");
+    }
+
+    @Test
+    public void manufacturerData() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_MANUFACTURER);
+        config.companyId = 0x0059;
+        config.frameData = Hex.parse("cafe");
+
+        assertEquals(6, encoder.encode(config, 0));
+        assertRaw("05ff5900cafe");
+        assertEquals(0x0059, encoder.id16());
+    }
+
+    @Test
+    public void noFrame() {
+        assertEquals(0, encoder.encode(config(PayloadEncoder.FRAME_NONE), 0));
+        assertEquals(0, encoder.adType());
+    }
+
+    @Test
+    public void legacyLimit() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_IBEACON);
+        config.frameId = UUID;
+        config.includeTxPowerLevel = true;
+        encoder.encode(config, 0); // 27 + 3 bytes
+
+        config.includeDeviceName = true;
+        try {
+            encoder.encode(config, 0); // + 2 bytes
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongFrameIdLength() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_IBEACON);
+        config.frameId = Hex.parse("0102");
+        encoder.encode(config, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void majorOutOfRange() {
+        AdvertiserConfig config = config(PayloadEncoder.FRAME_IBEACON);
+        config.frameId = UUID;
+        config.major = 0x10000;
+        encoder.encode(config, 0);
+    }
+
+    private static AdvertiserConfig config(int frameType) {
+        AdvertiserConfig config = new AdvertiserConfig();
+        config.frameType = frameType;
+        return config;
+    }
+
+    private void assertRaw(String expected) {
+        byte[] raw = new byte[encoder.length()];
+        System.arraycopy(encoder.buffer(), 0, raw, 0, raw.length);
+        assertEquals(expected, Hex.format(raw));
+    }
+}
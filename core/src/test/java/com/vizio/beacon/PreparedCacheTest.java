@@ -0,0 +1,62 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PreparedCacheTest {
+    private int builds;
+    private final PreparedCache<String> cache = new PreparedCache<>(3, config -> {
+        builds++;
+        if (config.label == null) throw new IllegalArgumentException("no label");
+        return config.label + "@" + config.revision;
+    });
+
+    @Test
+    public void buildsOncePerRevision() {
+        AdvertiserConfig config = SlotSchedulerTest.config(1);
+        assertEquals("beacon 1@0", cache.get(config));
+        assertEquals("beacon 1@0", cache.get(config));
+        assertEquals(1, builds);
+
+        config.label = "renamed";
+        config.revision++;
+        assertEquals("renamed@1", cache.get(config));
+        assertEquals(2, builds);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        for (long id = 1; id <= 3; id++) cache.get(SlotSchedulerTest.config(id));
+        cache.get(SlotSchedulerTest.config(1));
+        cache.get(SlotSchedulerTest.config(4));
+        assertEquals(3, cache.size());
+        assertEquals(4, builds);
+
+        // 2 was the eldest; 1 was touched after it.
+        cache.get(SlotSchedulerTest.config(1));
+        assertEquals(4, builds);
+        cache.get(SlotSchedulerTest.config(2));
+        assertEquals(5, builds);
+    }
+
+    @Test
+    public void cachesNothingWhenBuildFails() {
+        AdvertiserConfig config = SlotSchedulerTest.config(1);
+        config.label = null;
+        try {
+            cache.get(config);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, cache.size());
+
+        cache.get(SlotSchedulerTest.config(2));
+        cache.invalidate(2);
+        cache.get(SlotSchedulerTest.config(2));
+        assertEquals(3, builds);
+    }
+}
@@ -0,0 +1,125 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ProximityEngineTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void smoothsNoise() {
+        ProximityEngine engine = new ProximityEngine(4, 10 * SECOND);
+        Random random = new Random(1);
+        int slot = -1;
+        for (int i = 0; i < 200; i++) {
+            slot = engine.update(7, (int) Math.round(-65 + random.nextGaussian() * 4), -59, i * SECOND / 10);
+        }
+        assertEquals(-65, engine.rssi(slot), 1.5);
+        // -6 dB from the reference is twice as far with an exponent of 2.
+        assertEquals(2, engine.distance(slot), 0.4);
+        assertEquals(ProximityEngine.NEAR, engine.zone(slot));
+    }
+
+    @Test
+    public void rejectsOutliersUntilTheyPersist() {
+        ProximityEngine engine = new ProximityEngine(4, 10 * SECOND);
+        int slot = 0;
+        for (int i = 0; i < 20; i++) slot = engine.update(1, -60, -59, i * SECOND / 10);
+
+        engine.update(1, -95, -59, 2 * SECOND);
+        engine.update(1, -95, -59, 2 * SECOND + 1);
+        assertEquals(-60, engine.rssi(slot), 0.5);
+        assertEquals(2, engine.outliers());
+
+        engine.update(1, -95, -59, 2 * SECOND + 2);
+        assertEquals(-95, engine.rssi(slot), 0.5);
+        assertEquals(ProximityEngine.FAR, engine.zone(slot));
+    }
+
+    @Test
+    public void zonesHaveHysteresis() {
+        ProximityEngine engine = new ProximityEngine(4, 10 * SECOND);
+        engine.setFilter(1e6, 1e-6, 100, 1);
+        // Reference -59 dBm: 3 m is about -68.5 dBm.
+        int slot = engine.update(1, -70, -59, 0);
+        assertEquals(ProximityEngine.FAR, engine.zone(slot));
+
+        engine.update(1, -68, -59, 1);
+        assertEquals(ProximityEngine.FAR, engine.zone(slot));
+        engine.update(1, -66, -59, 2);
+        assertEquals(ProximityEngine.NEAR, engine.zone(slot));
+        engine.update(1, -69, -59, 3);
+        assertEquals(ProximityEngine.NEAR, engine.zone(slot));
+        engine.update(1, -71, -59, 4);
+        assertEquals(ProximityEngine.FAR, engine.zone(slot));
+        engine.update(1, -40, -59, 5);
+        assertEquals(ProximityEngine.IMMEDIATE, engine.zone(slot));
+    }
+
+    @Test
+    public void evictsStaleBeacons() {
+        ProximityEngine engine = new ProximityEngine(64, 10 * SECOND);
+        for (int i = 0; i < 64; i++) engine.update(i * 1024L, -60, -59, 0);
+        assertEquals(-1, engine.update(-1, -60, -59, SECOND));
+        assertEquals(1, engine.overflow());
+
+        // Half of them keep talking; the rest go stale and make room.
+        for (int i = 0; i < 64; i += 2) engine.update(i * 1024L, -60, -59, 5 * SECOND);
+        for (int i = 0; i < 32; i++) assertTrue(engine.update(-1 - i, -60, -59, 11 * SECOND) >= 0);
+        assertEquals(32, engine.evicted());
+        assertEquals(64, engine.size());
+        for (int i = 0; i < 64; i++) {
+            int slot = engine.find(i * 1024L);
+            if (i % 2 == 0) assertEquals(i * 1024L, engine.key(slot));
+            else assertEquals(-1, slot);
+        }
+        for (int i = 0; i < 32; i++) assertEquals(-1 - i, engine.key(engine.find(-1 - i)));
+    }
+
+    // A thousand beacons interleaved keep their own slots and filters.
+    @Test
+    public void keepsBeaconsApart() {
+        ProximityEngine engine = new ProximityEngine(1000, 10 * SECOND);
+        Random random = new Random(2);
+        int[] slots = new int[1000];
+        for (int n = 0; n < 200_000; n++) {
+            int beacon = (int) ((n * 7919L) % 1000);
+            int slot = engine.update(beacon, (int) Math.round(-50 - beacon % 40 + random.nextGaussian() * 3),
+                -59, n * 100_000L);
+            if (n < 1000) slots[beacon] = slot;
+            else assertEquals(slots[beacon], slot);
+        }
+
+        assertEquals(1000, engine.size());
+        assertEquals(0, engine.overflow());
+        assertEquals(0, engine.evicted());
+        // Each estimate is still noisy; the 25 beacons at each level
+        // together aren't.
+        double[] sums = new double[40];
+        for (int beacon = 0; beacon < 1000; beacon++) {
+            assertEquals(slots[beacon], engine.find(beacon));
+            sums[beacon % 40] += engine.rssi(slots[beacon]);
+        }
+        for (int level = 0; level < 40; level++) {
+            assertEquals(-50 - level, sums[level] / 25, 1);
+        }
+    }
+
+    @Test
+    public void referencePower() {
+        assertEquals(-59, ProximityEngine.referencePower(PayloadEncoder.FRAME_IBEACON, -59, FrameParser.NO_TX_POWER));
+        assertEquals(-61, ProximityEngine.referencePower(PayloadEncoder.FRAME_EDDYSTONE_UID, -20, FrameParser.NO_TX_POWER));
+        assertEquals(-49, ProximityEngine.referencePower(PayloadEncoder.FRAME_MANUFACTURER, 0, -8));
+        assertEquals(ProximityEngine.DEFAULT_REFERENCE_POWER,
+            ProximityEngine.referencePower(PayloadEncoder.FRAME_EDDYSTONE_TLM, 0, FrameParser.NO_TX_POWER));
+
+        // The TX power level AD structure, as Android adds it.
+        byte[] record = { 2, 0x0A, -8, 3, (byte) 0xFF, 0x59, 0x00 };
+        FrameParser parser = new FrameParser();
+        assertEquals(PayloadEncoder.FRAME_MANUFACTURER, parser.parse(record, 0, record.length));
+        assertEquals(-8, parser.txPowerLevel());
+    }
+}
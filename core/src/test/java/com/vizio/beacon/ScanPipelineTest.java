@@ -0,0 +1,187 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ScanPipelineTest {
+    private static final long ADDRESS = 0xAABBCCDDEEFFL;
+
+    private final PayloadEncoder encoder = new PayloadEncoder();
+    private final FrameParser parser = new FrameParser();
+
+    @Test
+    public void parsesEncodedFrames() {
+        byte[] id = Hex.parse("e2c56db5dffb48d2b060d0f5a71096e0");
+
+        encoder.encodeIBeacon(id, 1, 2, -59);
+        assertEquals(PayloadEncoder.FRAME_IBEACON, parse());
+        assertEquals(-59, parser.measuredPower());
+        assertEquals("e2c56db5-dffb-48d2-b060-d0f5a71096e0 1 2", parser.describe(encoder.buffer()));
+
+        encoder.encodeEddystoneUid(id, -20);
+        assertEquals(PayloadEncoder.FRAME_EDDYSTONE_UID, parse());
+        assertEquals(-20, parser.measuredPower());
+        assertEquals("e2c56db5dffb48d2b060 d0f5a71096e0", parser.describe(encoder.buffer()));
+
+        encoder.encodeEddystoneUrl("https://www.example.com/beacon", -20);
+        assertEquals(PayloadEncoder.FRAME_EDDYSTONE_URL, parse());
+        assertEquals("https://www.example.com/beacon", parser.describe(encoder.buffer()));
+
+        encoder.encodeEddystoneEid(Hex.parse("0123456789abcdef"), -20);
+        assertEquals(PayloadEncoder.FRAME_EDDYSTONE_EID, parse());
+        assertEquals(-20, parser.measuredPower());
+        assertEquals("0123456789abcdef", parser.describe(encoder.buffer()));
+
+        encoder.encodeEddystoneTlm();
+        assertEquals(PayloadEncoder.FRAME_EDDYSTONE_TLM, parse());
+        assertEquals(0, parser.idLength());
+
+        encoder.encodeManufacturer(0x0059, new byte[]{ 1, 2, 3 });
+        assertEquals(PayloadEncoder.FRAME_MANUFACTURER, parse());
+        assertEquals("0x0059", parser.describe(encoder.buffer()));
+    }
+
+    @Test
+    public void ignoresMalformedRecords() {
+        // A flags structure, then one claiming more bytes than there are.
+        byte[] record = { 2, 0x01, 0x06, 30, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15 };
+        assertEquals(PayloadEncoder.FRAME_NONE, parser.parse(record, 0, record.length));
+
+        // Zero padding after the last structure, as in ScanRecord.getBytes().
+        encoder.encodeIBeacon(new byte[16], 1, 2, -59);
+        byte[] padded = Arrays.copyOf(encoder.buffer(), ScanRing.RECORD_MAX);
+        assertEquals(PayloadEncoder.FRAME_IBEACON, parser.parse(padded, 0, padded.length));
+    }
+
+    @Test
+    public void aggregatesPerAddressAndFrame() {
+        ScanPipeline pipeline = new ScanPipeline(64, 16);
+        byte[] id = new byte[16];
+
+        encoder.encodeIBeacon(id, 1, 1, -59);
+        offer(pipeline, ADDRESS, -60, 1000);
+        offer(pipeline, ADDRESS, -70, 2000);
+        offer(pipeline, ADDRESS + 1, -50, 2500);
+        encoder.encodeIBeacon(id, 1, 2, -59);
+        offer(pipeline, ADDRESS, -80, 3000);
+        encoder.encodeEddystoneTlm();
+        offer(pipeline, ADDRESS, -65, 4000);
+        encoder.setTelemetry(3000, 20, 1, 1000);
+        encoder.encodeEddystoneTlm();
+        offer(pipeline, ADDRESS, -75, 5000);
+
+        assertEquals(6, pipeline.drain());
+        ScanSnapshot s = pipeline.snapshot();
+        assertEquals(4, s.size);
+        assertEquals(6, s.results);
+
+        // Same address and frame: merged.
+        assertEquals(ADDRESS, s.address[0]);
+        assertEquals(2, s.count[0]);
+        assertEquals(1000, s.firstSeen[0]);
+        assertEquals(2000, s.lastSeen[0]);
+        assertEquals(-70, s.rssiLast[0]);
+        assertEquals(-70, s.rssiMin[0]);
+        assertEquals(-60, s.rssiMax[0]);
+        assertEquals(-65, s.rssiMean[0], 1e-6);
+        assertEquals(5, s.rssiDeviation[0], 1e-6);
+
+        // Another device, another minor: separate beacons.
+        assertEquals(ADDRESS + 1, s.address[1]);
+        assertEquals(1, s.count[2]);
+
+        // TLM frames have no identity beyond the address.
+        assertEquals(PayloadEncoder.FRAME_EDDYSTONE_TLM, s.frameType[3]);
+        assertEquals(2, s.count[3]);
+    }
+
+    @Test
+    public void dropsWhenRingIsFull() {
+        ScanPipeline pipeline = new ScanPipeline(8, 16);
+        encoder.encodeIBeacon(new byte[16], 1, 1, -59);
+        for (int i = 0; i < 10; i++) offer(pipeline, ADDRESS, -60, i);
+
+        assertEquals(8, pipeline.drain());
+        ScanSnapshot s = pipeline.snapshot();
+        assertEquals(8, s.count[0]);
+        assertEquals(2, s.dropped);
+
+        // Draining makes room again.
+        assertTrue(offer(pipeline, ADDRESS, -60, 10));
+    }
+
+    @Test
+    public void countsBeaconsBeyondCapacity() {
+        ScanPipeline pipeline = new ScanPipeline(64, 4);
+        encoder.encodeIBeacon(new byte[16], 1, 1, -59);
+        for (int i = 0; i < 6; i++) offer(pipeline, ADDRESS + i, -60, i);
+        offer(pipeline, ADDRESS, -60, 6);
+        pipeline.drain();
+
+        ScanSnapshot s = pipeline.snapshot();
+        assertEquals(4, s.size);
+        assertEquals(2, s.overflow);
+        assertEquals(2, s.count[0]);
+    }
+
+    @Test
+    public void estimatesProximity() {
+        ScanPipeline pipeline = new ScanPipeline(64, 16);
+        encoder.encodeIBeacon(new byte[16], 1, 1, -59);
+        offer(pipeline, ADDRESS, -59, 0);
+        offer(pipeline, ADDRESS + 1, -75, 0);
+        offer(pipeline, ADDRESS + 1, -75, BeaconTable.STALE_NANOS + 1);
+        pipeline.drain();
+
+        ScanSnapshot s = pipeline.snapshot();
+        // Not heard from for too long.
+        assertEquals(ProximityEngine.UNKNOWN, s.zone[0]);
+        assertTrue(Float.isNaN(s.distance[0]));
+        // 16 dB below the calibration: about 6 m.
+        assertEquals(ProximityEngine.FAR, s.zone[1]);
+        assertEquals(6.3, s.distance[1], 0.1);
+    }
+
+    @Test
+    public void publishesSnapshotsFromWorker() throws InterruptedException {
+        ScanPipeline pipeline = new ScanPipeline(64, 16);
+        ScanSnapshot[] last = new ScanSnapshot[1];
+        int[] frames = new int[1];
+        pipeline.start(100, snapshot -> {
+            synchronized (last) {
+                last[0] = snapshot;
+                frames[0]++;
+            }
+        });
+
+        encoder.encodeIBeacon(new byte[16], 1, 1, -59);
+        for (int i = 0; i < 10; i++) offer(pipeline, ADDRESS + i, -60, i);
+        Thread.sleep(200);
+        pipeline.stop();
+
+        synchronized (last) {
+            assertTrue(frames[0] >= 5);
+            assertEquals(10, last[0].size);
+        }
+    }
+
+    @Test
+    public void addresses() {
+        assertEquals(ADDRESS, ScanPipeline.parseAddress("AA:BB:CC:DD:EE:FF"));
+        assertEquals(ADDRESS, ScanPipeline.parseAddress("aa:bb:cc:dd:ee:ff"));
+        assertEquals(-1, ScanPipeline.parseAddress("AA-BB-CC-DD-EE-FF"));
+        assertEquals(-1, ScanPipeline.parseAddress(null));
+        assertEquals("01:02:03:0A:0B:0C", ScanPipeline.formatAddress(0x0102030A0B0CL));
+    }
+
+    private int parse() {
+        return parser.parse(encoder.buffer(), 0, encoder.length());
+    }
+
+    private boolean offer(ScanPipeline pipeline, long address, int rssi, long time) {
+        return pipeline.offer(address, rssi, time, encoder.buffer(), encoder.length());
+    }
+}
@@ -0,0 +1,193 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SimulatedAdvertiserTest {
+    private static class Answers implements LeAdvertiser.AdvertiseCallback {
+        final List<Integer> answers = new ArrayList<>();
+
+        @Override
+        public void onStartSuccess(int txPower) { answers.add(0); }
+
+        @Override
+        public void onStartFailure(int errorCode) { answers.add(errorCode); }
+    }
+
+    private static AdvertiserConfig config(long id) {
+        AdvertiserConfig config = new AdvertiserConfig();
+        config.id = id;
+        return config;
+    }
+
+    @Test
+    public void slotsAreHeldUntilStopped() {
+        VirtualEventLoop loop = new VirtualEventLoop();
+        SimulatedAdvertiser advertiser = new SimulatedAdvertiser(loop, 2, 1);
+        advertiser.setStartLatency(10, 0);
+        advertiser.setStopLatency(5, 0);
+        Answers a = new Answers(), b = new Answers(), c = new Answers();
+
+        advertiser.startAdvertising(config(1), a);
+        advertiser.startAdvertising(config(2), b);
+        advertiser.startAdvertising(config(3), c);
+        loop.advance(9);
+        assertTrue(a.answers.isEmpty());
+        loop.advance(1);
+        assertEquals(0, (int) a.answers.get(0));
+        assertEquals(AdvertiserBackend.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS, (int) c.answers.get(0));
+        assertEquals(2, advertiser.getOnAirCount());
+
+        // The slot is still busy right after the stop.
+        advertiser.stopAdvertising(a);
+        Answers d = new Answers();
+        advertiser.startAdvertising(config(4), d);
+        loop.advance(5);
+        Answers e = new Answers();
+        advertiser.startAdvertising(config(5), e);
+        loop.advance(10);
+        assertEquals(AdvertiserBackend.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS, (int) d.answers.get(0));
+        assertEquals(0, (int) e.answers.get(0));
+        assertEquals(2, advertiser.getRegisteredCount());
+    }
+
+    @Test
+    public void adapterOffDropsEverything() {
+        VirtualEventLoop loop = new VirtualEventLoop();
+        SimulatedAdvertiser advertiser = new SimulatedAdvertiser(loop, 4, 1);
+        advertiser.setStartLatency(10, 0);
+        Answers a = new Answers(), b = new Answers();
+
+        advertiser.startAdvertising(config(1), a);
+        loop.advance(10);
+        advertiser.startAdvertising(config(2), b);
+        advertiser.setEnabled(false);
+        loop.advance(20);
+
+        assertEquals(1, a.answers.size());
+        assertEquals(1, b.answers.size());
+        assertEquals(AdvertiserBackend.ADVERTISE_FAILED_INTERNAL_ERROR, (int) b.answers.get(0));
+        assertEquals(0, advertiser.getRegisteredCount());
+        assertEquals(1, advertiser.getLost());
+    }
+
+    // Stopping what the adapter already took down still lets go of the
+    // callback, or it's held until the process dies.
+    @Test
+    public void stopsWhileOffReleaseCallbacks() {
+        VirtualEventLoop loop = new VirtualEventLoop();
+        SimulatedAdvertiser advertiser = new SimulatedAdvertiser(loop, 4, 1);
+        LeAdvertiserBackend backend = new LeAdvertiserBackend(loop, advertiser);
+        backend.setCallback(new AdvertiserBackend.Callback() {
+            @Override
+            public void onStartSuccess(long id, int txPower) { }
+
+            @Override
+            public void onStartFailure(long id, int errorCode) { }
+        });
+
+        for (int cycle = 0; cycle < 3; cycle++) {
+            backend.start(config(1));
+            backend.start(config(2));
+            loop.runDue();
+            assertEquals(2, advertiser.getHeldCount());
+
+            advertiser.setEnabled(false);
+            assertEquals(0, advertiser.getRegisteredCount());
+            assertEquals(2, advertiser.getHeldCount());
+            backend.stop(1);
+            backend.stop(2);
+            assertEquals(0, advertiser.getHeldCount());
+            advertiser.setEnabled(true);
+        }
+        assertEquals(0, backend.getCallbackCount());
+    }
+
+    @Test
+    public void failuresFollowTheRates() {
+        VirtualEventLoop loop = new VirtualEventLoop();
+        SimulatedAdvertiser advertiser = new SimulatedAdvertiser(loop, 1000, 7);
+        advertiser.setFailureRate(AdvertiserBackend.ADVERTISE_FAILED_INTERNAL_ERROR, 0.25);
+        Answers answers = new Answers();
+        for (int i = 0; i < 1000; i++) {
+            advertiser.startAdvertising(config(i), new LeAdvertiser.AdvertiseCallback() {
+                @Override
+                public void onStartSuccess(int txPower) { answers.onStartSuccess(txPower); }
+
+                @Override
+                public void onStartFailure(int errorCode) { answers.onStartFailure(errorCode); }
+            });
+        }
+        loop.runDue();
+
+        int failed = 0;
+        for (int answer: answers.answers) {
+            if (answer != 0) failed++;
+        }
+        assertEquals(1000, answers.answers.size());
+        assertTrue(String.valueOf(failed), failed > 200 && failed < 300);
+    }
+
+    // Toggles advertisers at random, a few thousand times a second of
+    // virtual time, through the scheduler and the real backend logic, with
+    // the adapter going off now and then; nothing may be left behind.
+    @Test
+    public void soak() {
+        VirtualEventLoop loop = new VirtualEventLoop();
+        SimulatedAdvertiser advertiser = new SimulatedAdvertiser(loop, 8, 42);
+        advertiser.setStartLatency(2, 3);
+        advertiser.setStopLatency(1, 2);
+        advertiser.setFailureRate(AdvertiserBackend.ADVERTISE_FAILED_INTERNAL_ERROR, 0.001);
+        LeAdvertiserBackend backend = new LeAdvertiserBackend(loop, advertiser);
+        Set<Long> enabled = new HashSet<>();
+        SlotScheduler scheduler = new SlotScheduler(loop, backend, (id, errorCode) -> enabled.remove(id));
+        scheduler.setDwellMillis(50);
+
+        Random random = new Random(42);
+        int toggles = 0;
+        for (int millis = 0; millis < 60_000; millis++) {
+            for (int i = 0; i < 3; i++) {
+                long id = random.nextInt(300);
+                if (enabled.remove(id)) {
+                    scheduler.disable(id);
+                } else {
+                    enabled.add(id);
+                    scheduler.enable(config(id), 1 + random.nextInt(3));
+                }
+                toggles++;
+            }
+            if (millis % 10_000 == 5_000)
+                advertiser.setEnabled(false);
+            if (millis % 10_000 == 5_500)
+                advertiser.setEnabled(true);
+            loop.advance(1);
+
+            assertEquals(scheduler.getRunningCount(), backend.getCallbackCount());
+            // Whatever the backend let go of, the adapter did too, on or off;
+            // it's only ahead by failures still on their way back.
+            assertTrue(advertiser.getHeldCount() <= backend.getCallbackCount());
+            // Only what the adapter took off air behind our backs may be
+            // missing from the controller.
+            assertTrue(advertiser.getRegisteredCount() <= backend.getCallbackCount());
+            assertTrue(advertiser.getOnAirCount() <= 8);
+            assertEquals(enabled.size(), scheduler.getEnabledCount());
+        }
+
+        scheduler.disableAll();
+        loop.advance(1000);
+        assertEquals(180_000, toggles);
+        assertTrue(advertiser.getStarts() > 1000);
+        assertTrue(advertiser.getLost() > 0);
+        assertEquals(0, backend.getCallbackCount());
+        assertEquals(0, advertiser.getHeldCount());
+        assertEquals(0, advertiser.getRegisteredCount());
+        assertEquals(0, advertiser.getOnAirCount());
+    }
+}
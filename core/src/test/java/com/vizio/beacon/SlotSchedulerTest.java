@@ -0,0 +1,340 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SlotSchedulerTest {
+    private final VirtualEventLoop loop = new VirtualEventLoop();
+    private final List<Long> failed = new ArrayList<>();
+
+    @Test
+    public void everythingFits() {
+        FakeBackend backend = new FakeBackend(loop, 4);
+        SlotScheduler scheduler = scheduler(backend);
+        for (long id = 1; id <= 3; id++) scheduler.enable(config(id), 1);
+        loop.advance(10_000);
+
+        assertEquals(3, backend.onAirCount());
+        assertEquals(3, backend.starts);
+        assertEquals(0, backend.stops);
+        assertEquals(Integer.MAX_VALUE, scheduler.getCapacity());
+    }
+
+    @Test
+    public void detectsCapacityAndRotates() {
+        FakeBackend backend = new FakeBackend(loop, 4);
+        SlotScheduler scheduler = scheduler(backend);
+        for (long id = 1; id <= 10; id++) scheduler.enable(config(id), 1);
+        loop.runDue();
+
+        assertEquals(4, scheduler.getCapacity());
+        assertEquals(4, backend.onAirCount());
+
+        long[] airtime = measureAirtime(backend, 10, 50_000);
+        assertEquals(4, backend.maxOnAir);
+        for (int id = 1; id <= 10; id++) {
+            // 4 slots shared by 10 advertisers: about 40% each.
+            assertEquals("advertiser " + id, 0.4, airtime[id] / 50_000.0, 0.05);
+        }
+        assertTrue(failed.isEmpty());
+    }
+
+    // One advertiser more than there are slots: each dwell period, one slot
+    // changes hands.
+    @Test
+    public void rotatesOneSlotPerWaiter() {
+        FakeBackend backend = new FakeBackend(loop, 4);
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.setCapacity(4);
+        for (long id = 1; id <= 5; id++) scheduler.enable(config(id), 1);
+        loop.runDue();
+        assertEquals(4, backend.starts);
+
+        for (int rotation = 1; rotation <= 10; rotation++) {
+            loop.advance(SlotScheduler.DEFAULT_DWELL_MILLIS);
+            assertEquals("rotation " + rotation, 4 + rotation, backend.starts);
+            assertEquals("rotation " + rotation, rotation, backend.stops);
+            assertEquals(4, backend.onAirCount());
+        }
+
+        long[] airtime = measureAirtime(backend, 5, 50_000);
+        for (int id = 1; id <= 5; id++) {
+            assertEquals("advertiser " + id, 0.8, airtime[id] / 50_000.0, 0.05);
+        }
+    }
+
+    @Test
+    public void weightsShareAirtime() {
+        FakeBackend backend = new FakeBackend(loop, 1);
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.setDwellMillis(500);
+        scheduler.enable(config(1), 3);
+        scheduler.enable(config(2), 1);
+        loop.runDue();
+
+        long[] airtime = measureAirtime(backend, 2, 40_000);
+        assertEquals(3.0, (double) airtime[1] / airtime[2], 0.2);
+    }
+
+    @Test
+    public void disablingFreesSlot() {
+        FakeBackend backend = new FakeBackend(loop, 2);
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.setDwellMillis(60_000);
+        for (long id = 1; id <= 3; id++) scheduler.enable(config(id), 1);
+        loop.runDue();
+        assertFalse(backend.isOnAir(3));
+
+        scheduler.disable(1);
+        loop.runDue();
+        assertFalse(backend.isOnAir(1));
+        assertTrue(backend.isOnAir(3));
+        assertEquals(2, scheduler.getEnabledCount());
+    }
+
+    @Test
+    public void updatesInPlace() {
+        FakeBackend backend = new FakeBackend(loop, 2);
+        backend.inPlaceUpdates = true;
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.enable(config(1), 1);
+        loop.runDue();
+
+        AdvertiserConfig changed = config(1);
+        changed.minor = 7;
+        assertTrue(scheduler.update(changed));
+        assertFalse(scheduler.update(changed));
+        loop.runDue();
+
+        assertEquals(1, backend.updates);
+        assertEquals(1, backend.starts);
+        assertEquals(0, backend.stops);
+        assertSame(changed, scheduler.getConfig(1));
+        assertTrue(scheduler.isOnAir(1));
+
+        // Stored again with nothing else changed: still a new revision.
+        AdvertiserConfig rewritten = config(1);
+        rewritten.minor = 7;
+        rewritten.revision = changed.revision + 1;
+        assertTrue(scheduler.update(rewritten));
+        assertFalse(scheduler.update(rewritten));
+        assertSame(rewritten, scheduler.getConfig(1));
+        assertEquals(2, backend.updates);
+    }
+
+    @Test
+    public void restartsWhenBackendCantUpdate() {
+        FakeBackend backend = new FakeBackend(loop, 2);
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.enable(config(1), 1);
+        loop.runDue();
+
+        AdvertiserConfig changed = config(1);
+        changed.minor = 7;
+        assertTrue(scheduler.update(changed));
+        loop.runDue();
+
+        assertEquals(2, backend.starts);
+        assertEquals(1, backend.stops);
+        assertTrue(scheduler.isOnAir(1));
+        assertFalse(scheduler.update(config(2)));
+    }
+
+    @Test
+    public void otherFailuresDropAdvertiser() {
+        FakeBackend backend = new FakeBackend(loop, 2);
+        backend.failAlways(2);
+        SlotScheduler scheduler = scheduler(backend);
+        for (long id = 1; id <= 3; id++) scheduler.enable(config(id), 1);
+        loop.advance(5_000);
+
+        assertEquals(1, failed.size());
+        assertEquals(2L, (long) failed.get(0));
+        assertTrue(backend.isOnAir(1));
+        assertTrue(backend.isOnAir(3));
+        assertEquals(Integer.MAX_VALUE, scheduler.getCapacity());
+
+        AdvertisingMetrics metrics = scheduler.getMetrics();
+        assertEquals(2, metrics.getStart().getCount());
+        assertEquals(1, metrics.getFailure().getCount());
+        assertEquals(1, metrics.getErrorCount(AdvertiserBackend.ADVERTISE_FAILED_INTERNAL_ERROR));
+    }
+
+    @Test
+    public void timesFirstStartOnly() {
+        FakeBackend backend = new FakeBackend(loop, 1);
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.enable(config(1), 1);
+        scheduler.enable(config(2), 1);
+        loop.advance(10_000);
+
+        // Taking turns restarts both many times over, but only the two starts
+        // that were asked for are timed. Running out of slots is an error all
+        // the same.
+        AdvertisingMetrics metrics = scheduler.getMetrics();
+        assertTrue(backend.starts > 10);
+        assertEquals(2, metrics.getStart().getCount());
+        assertEquals(0, metrics.getFailure().getCount());
+        assertEquals(1, metrics.getErrorCount(AdvertiserBackend.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS));
+    }
+
+    @Test
+    public void probesForFreedSlots() {
+        FakeBackend backend = new FakeBackend(loop, 2);
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.setDwellMillis(1_000_000);
+        for (long id = 1; id <= 3; id++) scheduler.enable(config(id), 1);
+        loop.runDue();
+        assertEquals(2, scheduler.getCapacity());
+
+        // A failed probe settles back on what's there...
+        loop.advance(SlotScheduler.PROBE_MILLIS);
+        assertEquals(2, scheduler.getCapacity());
+        assertEquals(2, backend.onAirCount());
+
+        // ...and a slot freed by somebody else is picked up by the next one.
+        backend.setSlots(3);
+        loop.advance(SlotScheduler.PROBE_MILLIS);
+        assertEquals(3, scheduler.getCapacity());
+        assertEquals(3, backend.onAirCount());
+    }
+
+    @Test
+    public void stopsProbingWhenNobodyWaits() {
+        FakeBackend backend = new FakeBackend(loop, 2);
+        SlotScheduler scheduler = scheduler(backend);
+        for (long id = 1; id <= 3; id++) scheduler.enable(config(id), 1);
+        loop.runDue();
+        assertEquals(2, scheduler.getCapacity());
+        assertTrue(loop.pendingCount() > 0);
+
+        // Nothing left waiting: no timers at all.
+        scheduler.disable(3);
+        loop.runDue();
+        assertEquals(0, loop.pendingCount());
+        loop.advance(10 * SlotScheduler.PROBE_MILLIS);
+        assertEquals(2, scheduler.getCapacity());
+
+        // Somebody waits again, and the probe picks up a freed slot.
+        scheduler.enable(config(4), 1);
+        backend.setSlots(3);
+        loop.advance(SlotScheduler.PROBE_MILLIS);
+        assertEquals(3, scheduler.getCapacity());
+        assertTrue(backend.isOnAir(4));
+        assertEquals(0, loop.pendingCount());
+    }
+
+    @Test
+    public void retriesWhenNoSlotIsFree() {
+        FakeBackend backend = new FakeBackend(loop, 0);
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.enable(config(1), 1);
+        loop.runDue();
+        assertEquals(0, scheduler.getCapacity());
+
+        backend.setSlots(1);
+        loop.advance(scheduler.getDwellMillis());
+        assertTrue(backend.isOnAir(1));
+    }
+
+    @Test
+    public void reportsStatus() {
+        FakeBackend backend = new FakeBackend(loop, 1);
+        SlotScheduler scheduler = scheduler(backend);
+        Map<Long, List<AdvertiserStatus>> statuses = new HashMap<>();
+        scheduler.setStatusListener((id, status) -> {
+            if (!statuses.containsKey(id)) statuses.put(id, new ArrayList<>());
+            statuses.get(id).add(status);
+        });
+        backend.failAlways(3);
+
+        AdvertiserConfig first = config(1);
+        first.power = -7;
+        scheduler.enable(first, 1);
+        scheduler.enable(config(2), 1);
+        loop.runDue();
+        assertEquals(Arrays.asList(
+            AdvertiserStatus.WAITING_STATUS,
+            AdvertiserStatus.STARTING_STATUS,
+            AdvertiserStatus.active(-7)), statuses.get(1L));
+        // Tried optimistically, then throttled.
+        assertEquals(Arrays.asList(
+            AdvertiserStatus.WAITING_STATUS,
+            AdvertiserStatus.STARTING_STATUS,
+            AdvertiserStatus.WAITING_STATUS), statuses.get(2L));
+
+        statuses.clear();
+        loop.advance(scheduler.getDwellMillis());
+        assertEquals(AdvertiserStatus.WAITING_STATUS, last(statuses.get(1L)));
+        assertEquals(AdvertiserStatus.active(0), last(statuses.get(2L)));
+
+        scheduler.disable(2);
+        assertEquals(AdvertiserStatus.OFF_STATUS, last(statuses.get(2L)));
+
+        scheduler.enable(config(3), 1);
+        loop.advance(10_000);
+        assertEquals(
+            AdvertiserStatus.failed(AdvertiserBackend.ADVERTISE_FAILED_INTERNAL_ERROR),
+            last(statuses.get(3L)));
+    }
+
+    @Test
+    public void suspendFreesSlot() {
+        FakeBackend backend = new FakeBackend(loop, 1);
+        SlotScheduler scheduler = scheduler(backend);
+        scheduler.enable(config(1), 1);
+        scheduler.enable(config(2), 1);
+        loop.runDue();
+        assertTrue(backend.isOnAir(1));
+
+        scheduler.setSuspended(1, true);
+        loop.runDue();
+        assertTrue(scheduler.isSuspended(1));
+        assertFalse(backend.isOnAir(1));
+        assertTrue(backend.isOnAir(2));
+
+        // Still enabled, but no longer takes turns.
+        loop.advance(10 * scheduler.getDwellMillis());
+        assertTrue(backend.isOnAir(2));
+        assertEquals(2, scheduler.getEnabledCount());
+
+        // Back in line, and 2 has had its turn.
+        scheduler.setSuspended(1, false);
+        loop.advance(scheduler.getDwellMillis() / 2);
+        assertTrue(backend.isOnAir(1));
+        assertTrue(failed.isEmpty());
+    }
+
+    private static <T> T last(List<T> list) {
+        return list.get(list.size() - 1);
+    }
+
+    private SlotScheduler scheduler(FakeBackend backend) {
+        return new SlotScheduler(loop, backend, (id, errorCode) -> failed.add(id));
+    }
+
+    private long[] measureAirtime(FakeBackend backend, int count, long millis) {
+        long[] airtime = new long[count + 1];
+        for (long t = 0; t < millis; t += 10) {
+            loop.advance(10);
+            for (int id = 1; id <= count; id++) {
+                if (backend.isOnAir(id)) airtime[id] += 10;
+            }
+        }
+        return airtime;
+    }
+
+    static AdvertiserConfig config(long id) {
+        AdvertiserConfig config = new AdvertiserConfig();
+        config.id = id;
+        config.label = "beacon " + id;
+        return config;
+    }
+}
@@ -0,0 +1,99 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StaggeredRestoreTest {
+    private final VirtualEventLoop loop = new VirtualEventLoop();
+    private final FakeBackend backend = new FakeBackend(loop, 100);
+    private final SlotScheduler scheduler = new SlotScheduler(loop, backend, (id, errorCode) -> { });
+    private final StaggeredRestore restore = new StaggeredRestore(loop, scheduler);
+
+    @Test
+    public void limitsStartsInFlight() {
+        backend.answerMillis = 250;
+        restore.setConcurrency(3);
+        restore.restore(configs(1, 20), 1);
+        loop.runDue();
+
+        assertEquals(3, backend.starts);
+        assertFalse(restore.isIdle());
+
+        loop.advance(10_000);
+        assertTrue(restore.isIdle());
+        assertEquals(20, backend.onAirCount());
+        assertEquals(3, backend.maxUnanswered);
+    }
+
+    @Test
+    public void spacesOutSteps() {
+        restore.setConcurrency(1);
+        restore.setIntervalMillis(500);
+        restore.restore(configs(1, 4), 1);
+
+        // Answers are immediate, so only the interval holds things back.
+        loop.advance(1_000);
+        assertEquals(3, backend.onAirCount());
+        loop.advance(500);
+        assertEquals(4, backend.onAirCount());
+    }
+
+    @Test
+    public void cancelledAdvertisersStayOff() {
+        restore.setConcurrency(1);
+        restore.restore(configs(1, 3), 1);
+        loop.runDue();
+        restore.cancel(2);
+        loop.advance(10_000);
+
+        assertTrue(backend.isOnAir(1));
+        assertFalse(backend.isOnAir(2));
+        assertTrue(backend.isOnAir(3));
+    }
+
+    @Test
+    public void skipsAdvertisersAlreadyEnabled() {
+        AdvertiserConfig edited = SlotSchedulerTest.config(2);
+        edited.label = "edited";
+        scheduler.enable(edited, 1);
+        restore.restore(configs(1, 3), 1);
+        loop.advance(10_000);
+
+        assertEquals(3, backend.starts);
+        assertEquals("edited", scheduler.getConfig(2).label);
+    }
+
+    @Test
+    public void failuresDontHoldUpTheRest() {
+        backend.failAlways(1);
+        restore.setConcurrency(1);
+        restore.restore(configs(1, 3), 1);
+        loop.advance(10_000);
+
+        assertFalse(backend.isOnAir(1));
+        assertTrue(backend.isOnAir(2));
+        assertTrue(backend.isOnAir(3));
+        assertEquals(Arrays.asList(2L, 3L), enabledIds(3));
+    }
+
+    private List<Long> enabledIds(long last) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= last; id++) {
+            if (scheduler.getConfig(id) != null) ids.add(id);
+        }
+        return ids;
+    }
+
+    private static List<AdvertiserConfig> configs(long first, long last) {
+        List<AdvertiserConfig> configs = new ArrayList<>();
+        for (long id = first; id <= last; id++) {
+            configs.add(SlotSchedulerTest.config(id));
+        }
+        return configs;
+    }
+}
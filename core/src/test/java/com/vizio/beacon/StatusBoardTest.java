@@ -0,0 +1,73 @@
+package com.vizio.beacon;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StatusBoardTest {
+    private final StatusBoard board = new StatusBoard();
+    private final List<String> delivered = new ArrayList<>();
+    private final StatusBoard.Listener listener = (id, status) -> delivered.add(id + " " + status);
+    private int wakes;
+
+    @Test
+    public void coalescesUntilDrained() {
+        board.setWake(() -> wakes++);
+        for (long id = 1; id <= 300; id++) {
+            board.onStatusChanged(id, AdvertiserStatus.WAITING_STATUS);
+            board.onStatusChanged(id, AdvertiserStatus.STARTING_STATUS);
+            board.onStatusChanged(id, AdvertiserStatus.active(-7));
+        }
+        assertEquals(1, wakes);
+
+        assertEquals(300, board.drain(listener));
+        assertEquals(300, delivered.size());
+        assertEquals(AdvertiserStatus.active(-7), board.get(42));
+
+        board.onStatusChanged(42, AdvertiserStatus.WAITING_STATUS);
+        assertEquals(2, wakes);
+        assertEquals(AdvertiserStatus.active(-7), board.get(42));
+    }
+
+    @Test
+    public void skipsChangesThatCancelOut() {
+        board.onStatusChanged(1, AdvertiserStatus.active(0));
+        board.drain(listener);
+        delivered.clear();
+
+        board.onStatusChanged(1, AdvertiserStatus.WAITING_STATUS);
+        board.onStatusChanged(1, AdvertiserStatus.active(0));
+        board.onStatusChanged(2, AdvertiserStatus.STARTING_STATUS);
+        board.onStatusChanged(2, AdvertiserStatus.OFF_STATUS);
+        assertEquals(0, board.drain(listener));
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void keepsFailuresAndForgetsDisabled() {
+        board.onStatusChanged(1, AdvertiserStatus.failed(4));
+        board.onStatusChanged(2, AdvertiserStatus.active(0));
+        board.drain(listener);
+        board.onStatusChanged(2, AdvertiserStatus.OFF_STATUS);
+        board.drain(listener);
+
+        assertEquals(AdvertiserStatus.failed(4), board.get(1));
+        assertSame(AdvertiserStatus.OFF_STATUS, board.get(2));
+        assertEquals("2 off", delivered.get(delivered.size() - 1));
+    }
+
+    @Test
+    public void wakesLateConsumer() {
+        board.onStatusChanged(1, AdvertiserStatus.STARTING_STATUS);
+        assertEquals(0, wakes);
+
+        board.setWake(() -> wakes++);
+        assertEquals(1, wakes);
+        board.onStatusChanged(2, AdvertiserStatus.STARTING_STATUS);
+        assertEquals(1, wakes);
+        assertEquals(2, board.drain(listener));
+    }
+}
@@ -0,0 +1,68 @@
+package com.vizio.beacon;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+// An EventLoop on a virtual clock: time only moves when the test says so,
+// and due tasks run in deadline order on the calling thread.
+public class VirtualEventLoop implements EventLoop {
+    private static class Task implements Comparable<Task> {
+        final long at;
+        final long seq;
+        final Runnable runnable;
+
+        Task(long at, long seq, Runnable runnable) {
+            this.at = at;
+            this.seq = seq;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (at != other.at) return Long.compare(at, other.at);
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now;
+    private long seq;
+
+    @Override
+    public long now() { return now; }
+
+    @Override
+    public void post(Runnable task) { postDelayed(task, 0); }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        tasks.add(new Task(now + Math.max(0, delayMillis), seq++, task));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        for (Iterator<Task> i = tasks.iterator(); i.hasNext(); ) {
+            if (i.next().runnable == task) i.remove();
+        }
+    }
+
+    // Runs everything that is due now, including tasks posted meanwhile.
+    public void runDue() {
+        advanceTo(now);
+    }
+
+    public void advance(long millis) {
+        advanceTo(now + millis);
+    }
+
+    public void advanceTo(long time) {
+        while (!tasks.isEmpty() && tasks.peek().at <= time) {
+            Task task = tasks.poll();
+            now = Math.max(now, task.at);
+            task.runnable.run();
+        }
+        now = Math.max(now, time);
+    }
+
+    public int pendingCount() { return tasks.size(); }
+}